@@ -0,0 +1,357 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Repository;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+
+/**
+ * Index of the capabilities of a set of resources, used to find the
+ * capabilities satisfying a requirement without checking every capability
+ * of every resource.
+ * <p>
+ * Capabilities are grouped by name. For requirements whose filter
+ * requires an attribute to equal a value, e.g. <tt>(package=org.foo)</tt>,
+ * the capabilities of that name are further indexed on the value of the
+ * attribute. These attribute indices are built lazily, the first time a
+ * requirement refers to the attribute. Candidates found through the index
+ * are still checked with {@link Requirement#isSatisfied(Capability)}, so
+ * the result is the same as checking all capabilities.
+ */
+public class CapabilityIndex
+{
+    private final List<ResourceCapability> m_capabilities = new ArrayList<ResourceCapability>();
+    private final Map<String, List<ResourceCapability>> m_nameMap = new HashMap<String, List<ResourceCapability>>();
+    private final Map<String, Map<String, AttributeIndex>> m_attributeMap = new HashMap<String, Map<String, AttributeIndex>>();
+
+    public CapabilityIndex(Resource[] resources)
+    {
+        for (int resIdx = 0; (resources != null) && (resIdx < resources.length); resIdx++)
+        {
+            if (resources[resIdx] == null)
+            {
+                continue;
+            }
+            Capability[] caps = resources[resIdx].getCapabilities();
+            for (int capIdx = 0; (caps != null) && (capIdx < caps.length); capIdx++)
+            {
+                ResourceCapability cap = new ResourceCapabilityImpl(resources[resIdx], caps[capIdx]);
+                m_capabilities.add(cap);
+                List<ResourceCapability> named = m_nameMap.get(caps[capIdx].getName());
+                if (named == null)
+                {
+                    named = new ArrayList<ResourceCapability>();
+                    m_nameMap.put(caps[capIdx].getName(), named);
+                }
+                named.add(cap);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the resources of the given repository. The index
+     * of a parsed repository is kept with the repository, other repositories
+     * are indexed on each call as their resources may change at any time.
+     */
+    public static CapabilityIndex getCapabilityIndex(Repository repository)
+    {
+        if (repository instanceof RepositoryImpl)
+        {
+            return ((RepositoryImpl) repository).getCapabilityIndex();
+        }
+        return new CapabilityIndex(repository.getResources());
+    }
+
+    /**
+     * Returns the capabilities satisfying the given requirement, in the
+     * order of the resources and their capabilities.
+     */
+    public List<ResourceCapability> getCapabilities(Requirement req)
+    {
+        List<ResourceCapability> matches = new ArrayList<ResourceCapability>();
+        for (ResourceCapability cap : getCandidates(req))
+        {
+            if (req.isSatisfied(cap.getCapability()))
+            {
+                matches.add(cap);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the resources having a capability that satisfies the given
+     * requirement, in the order of the resources.
+     */
+    public List<Resource> getResources(Requirement req)
+    {
+        Map<Resource, Boolean> resources = new LinkedHashMap<Resource, Boolean>();
+        for (ResourceCapability cap : getCandidates(req))
+        {
+            if (!resources.containsKey(cap.getResource()) && req.isSatisfied(cap.getCapability()))
+            {
+                resources.put(cap.getResource(), Boolean.TRUE);
+            }
+        }
+        return new ArrayList<Resource>(resources.keySet());
+    }
+
+    private List<ResourceCapability> getCandidates(Requirement req)
+    {
+        // Only our own requirements are known to check the capability name
+        // and to match their filter against the capability properties.
+        if (!(req instanceof RequirementImpl))
+        {
+            return m_capabilities;
+        }
+        List<ResourceCapability> named = m_nameMap.get(req.getName());
+        if (named == null)
+        {
+            return Collections.emptyList();
+        }
+
+        List<ResourceCapability> best = named;
+        for (Iterator<String[]> it = getEqualityTerms(req.getFilter()).iterator();
+            it.hasNext() && (best.size() > 1); )
+        {
+            String[] term = it.next();
+            List<ResourceCapability> candidates =
+                getAttributeIndex(req.getName(), term[0], named).get(term[1]);
+            if (candidates.size() < best.size())
+            {
+                best = candidates;
+            }
+        }
+        return best;
+    }
+
+    private synchronized AttributeIndex getAttributeIndex(
+        String name, String attr, List<ResourceCapability> named)
+    {
+        Map<String, AttributeIndex> indices = m_attributeMap.get(name);
+        if (indices == null)
+        {
+            indices = new HashMap<String, AttributeIndex>();
+            m_attributeMap.put(name, indices);
+        }
+        AttributeIndex index = indices.get(attr);
+        if (index == null)
+        {
+            index = new AttributeIndex(attr, named);
+            indices.put(attr, index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the attribute and value of the equality terms a capability
+     * must match for the given filter to match, i.e. those that are only
+     * nested in <tt>&amp;</tt> operations. The filter is expected in the
+     * normalized form returned by the filter implementation.
+     */
+    static List<String[]> getEqualityTerms(String filter)
+    {
+        List<String[]> terms = new ArrayList<String[]>();
+        if (filter == null)
+        {
+            return terms;
+        }
+        // Number of enclosing operations other than '&'.
+        int depth = 0;
+        List<Boolean> stack = new ArrayList<Boolean>();
+        int pos = 0;
+        while (pos < filter.length())
+        {
+            char c = filter.charAt(pos);
+            if (c == ')')
+            {
+                if (!stack.isEmpty() && stack.remove(stack.size() - 1).booleanValue())
+                {
+                    depth--;
+                }
+                pos++;
+            }
+            else if (c != '(')
+            {
+                pos++;
+            }
+            else if ((pos + 1 < filter.length()) && ("&|!".indexOf(filter.charAt(pos + 1)) >= 0))
+            {
+                boolean other = filter.charAt(pos + 1) != '&';
+                stack.add(Boolean.valueOf(other));
+                if (other)
+                {
+                    depth++;
+                }
+                pos += 2;
+            }
+            else
+            {
+                // A simple item: attribute, operator and value.
+                int attrEnd = pos + 1;
+                while ((attrEnd < filter.length()) && ("=<>~)".indexOf(filter.charAt(attrEnd)) < 0))
+                {
+                    attrEnd++;
+                }
+                String attr = filter.substring(pos + 1, attrEnd);
+                boolean equality = (attrEnd < filter.length())
+                    && (filter.charAt(attrEnd) == '=') && (attr.indexOf('*') < 0);
+                StringBuffer value = new StringBuffer();
+                pos = attrEnd + 1;
+                while ((pos < filter.length()) && (filter.charAt(pos) != ')'))
+                {
+                    c = filter.charAt(pos++);
+                    if ((c == '\\') && (pos < filter.length()))
+                    {
+                        c = filter.charAt(pos++);
+                    }
+                    else if (c == '*')
+                    {
+                        // Substring or presence.
+                        equality = false;
+                    }
+                    value.append(c);
+                }
+                pos++;
+                if (equality && (depth == 0) && (value.length() > 0))
+                {
+                    terms.add(new String[] { attr.trim().toLowerCase(), value.toString() });
+                }
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * The capabilities of one name by the string values of one attribute.
+     * Capabilities whose value is not a string may still be equal to the
+     * value of a filter after conversion, so they are always candidates.
+     * Capabilities are kept by position to return them in their order.
+     */
+    private static class AttributeIndex
+    {
+        private final List<ResourceCapability> m_caps;
+        private final Map<String, List<Integer>> m_valueMap = new HashMap<String, List<Integer>>();
+        private final List<Integer> m_unindexed = new ArrayList<Integer>();
+
+        AttributeIndex(String attr, List<ResourceCapability> caps)
+        {
+            m_caps = caps;
+            for (int capIdx = 0; capIdx < caps.size(); capIdx++)
+            {
+                Object value = null;
+                int found = 0;
+                for (Map.Entry<String, Object> entry
+                    : caps.get(capIdx).getCapability().getPropertiesAsMap().entrySet())
+                {
+                    if (attr.equalsIgnoreCase(entry.getKey()))
+                    {
+                        value = entry.getValue();
+                        found++;
+                    }
+                }
+                if (found == 0)
+                {
+                    // Cannot match an equality on the attribute.
+                    continue;
+                }
+                if ((found == 1) && (value instanceof String))
+                {
+                    add((String) value, capIdx);
+                }
+                else if ((found == 1) && (value instanceof Collection) && isStrings((Collection) value))
+                {
+                    for (Object v : (Collection) value)
+                    {
+                        add((String) v, capIdx);
+                    }
+                }
+                else
+                {
+                    m_unindexed.add(Integer.valueOf(capIdx));
+                }
+            }
+        }
+
+        private static boolean isStrings(Collection values)
+        {
+            for (Object v : values)
+            {
+                if (!(v instanceof String))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void add(String value, int capIdx)
+        {
+            List<Integer> positions = m_valueMap.get(value);
+            if (positions == null)
+            {
+                positions = new ArrayList<Integer>(1);
+                m_valueMap.put(value, positions);
+            }
+            // A collection may hold the same value more than once.
+            if (positions.isEmpty() || (positions.get(positions.size() - 1).intValue() != capIdx))
+            {
+                positions.add(Integer.valueOf(capIdx));
+            }
+        }
+
+        List<ResourceCapability> get(String value)
+        {
+            List<Integer> positions = m_valueMap.get(value);
+            if (positions == null)
+            {
+                positions = Collections.emptyList();
+            }
+            // Merge both sorted position lists.
+            List<ResourceCapability> result =
+                new ArrayList<ResourceCapability>(positions.size() + m_unindexed.size());
+            int i = 0;
+            int j = 0;
+            while ((i < positions.size()) || (j < m_unindexed.size()))
+            {
+                if ((j >= m_unindexed.size()) || ((i < positions.size())
+                    && (positions.get(i).intValue() < m_unindexed.get(j).intValue())))
+                {
+                    result.add(m_caps.get(positions.get(i++).intValue()));
+                }
+                else
+                {
+                    result.add(m_caps.get(m_unindexed.get(j++).intValue()));
+                }
+            }
+            return result;
+        }
+    }
+}
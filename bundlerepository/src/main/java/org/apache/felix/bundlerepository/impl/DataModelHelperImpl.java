@@ -89,6 +89,24 @@ public class DataModelHelperImpl implements DataModelHelper
     }
 
     public Repository repository(final URL url) throws Exception
+    {
+        return repository(url, url.openConnection());
+    }
+
+    /**
+     * Parses the repository at the given URL, reading it from the given
+     * connection to the URL, which must not be connected yet.
+     */
+    RepositoryImpl repository(URL url, URLConnection conn) throws Exception
+    {
+        return repository(url, FileUtil.openURL(conn));
+    }
+
+    /**
+     * Parses the repository at the given URL, reading it from the given
+     * stream of its content. The stream is closed.
+     */
+    RepositoryImpl repository(URL url, InputStream in) throws Exception
     {
         InputStream is = null;
 
@@ -96,7 +114,7 @@ public class DataModelHelperImpl implements DataModelHelper
         {
             if (url.getPath().endsWith(".zip"))
             {
-                ZipInputStream zin = new ZipInputStream(FileUtil.openURL(url));
+                ZipInputStream zin = new ZipInputStream(in);
                 ZipEntry entry = zin.getNextEntry();
                 while (entry != null)
                 {
@@ -122,11 +140,11 @@ public class DataModelHelperImpl implements DataModelHelper
             }
             else if (url.getPath().endsWith(".gz"))
             {
-                is = new GZIPInputStream(FileUtil.openURL(url));
+                is = new GZIPInputStream(in);
             }
             else
             {
-                is = FileUtil.openURL(url);
+                is = in;
             }
 
             if (is != null)
@@ -159,6 +177,10 @@ public class DataModelHelperImpl implements DataModelHelper
                 {
                     is.close();
                 }
+                else
+                {
+                    in.close();
+                }
             }
             catch (IOException ex)
             {
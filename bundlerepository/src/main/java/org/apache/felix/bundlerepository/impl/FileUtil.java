@@ -204,6 +204,15 @@ public class FileUtil
         // Do it the manual way to have a chance to
         // set request properties as proxy auth (EW).
         setProxyAuth(conn);
+        return getInputStream(conn);
+    }
+
+    /**
+     * Returns the input stream of a connection whose request properties
+     * have already been set, which may already be connected.
+     */
+    public static InputStream getInputStream(final URLConnection conn) throws IOException
+    {
         try
         {
             return conn.getInputStream();
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.IOException;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Requirement;
+
+/**
+ * A resource read from a {@link RepositoryCache} snapshot. Its properties
+ * are read up front, but its capabilities and requirements are only
+ * decoded from the snapshot once they are needed, as parsing the
+ * requirement filters is the expensive part of loading a repository.
+ * Both are decoded separately, so indexing the capabilities of a
+ * repository does not parse any filter.
+ */
+public class LazyResourceImpl extends ResourceImpl
+{
+    private final String[] m_strings;
+    private volatile byte[] m_capData;
+    private volatile byte[] m_reqData;
+
+    LazyResourceImpl(String[] strings, byte[] capData, byte[] reqData)
+    {
+        m_strings = strings;
+        m_capData = capData;
+        m_reqData = reqData;
+    }
+
+    private void materializeCapabilities()
+    {
+        if (m_capData != null)
+        {
+            synchronized (this)
+            {
+                if (m_capData != null)
+                {
+                    try
+                    {
+                        RepositoryCache.readCapabilities(this, m_strings, m_capData);
+                    }
+                    catch (IOException ex)
+                    {
+                        // The snapshot was checked when it was read.
+                        throw new IllegalStateException(ex);
+                    }
+                    m_capData = null;
+                }
+            }
+        }
+    }
+
+    private void materializeRequirements()
+    {
+        if (m_reqData != null)
+        {
+            synchronized (this)
+            {
+                if (m_reqData != null)
+                {
+                    try
+                    {
+                        RepositoryCache.readRequirements(this, m_strings, m_reqData);
+                    }
+                    catch (IOException ex)
+                    {
+                        // The snapshot was checked when it was read.
+                        throw new IllegalStateException(ex);
+                    }
+                    m_reqData = null;
+                }
+            }
+        }
+    }
+
+    void addCachedCapability(Capability cap)
+    {
+        super.addCapability(cap);
+    }
+
+    void addCachedRequire(Requirement req)
+    {
+        super.addRequire(req);
+    }
+
+    public Capability[] getCapabilities()
+    {
+        materializeCapabilities();
+        return super.getCapabilities();
+    }
+
+    public void addCapability(Capability cap)
+    {
+        materializeCapabilities();
+        super.addCapability(cap);
+    }
+
+    public Requirement[] getRequirements()
+    {
+        materializeRequirements();
+        return super.getRequirements();
+    }
+
+    public void addRequire(Requirement req)
+    {
+        materializeRequirements();
+        super.addRequire(req);
+    }
+}
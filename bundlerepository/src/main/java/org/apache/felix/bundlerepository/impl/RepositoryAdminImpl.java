@@ -18,6 +18,7 @@
  */
 package org.apache.felix.bundlerepository.impl;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.AccessController;
@@ -50,6 +51,7 @@ public class RepositoryAdminImpl implements RepositoryAdmin
     private final Logger m_logger;
     private final SystemRepositoryImpl m_system;
     private final LocalRepositoryImpl m_local;
+    private final RepositoryCache m_cache;
     private final DataModelHelper m_helper = new DataModelHelperImpl();
     private Map m_repoMap = new LinkedHashMap();
     private boolean m_initialized = false;
@@ -59,6 +61,7 @@ public class RepositoryAdminImpl implements RepositoryAdmin
 
     public static final String REPOSITORY_URL_PROP = "obr.repository.url";
     public static final String EXTERN_REPOSITORY_TAG = "extern-repositories";
+    public static final String REPOSITORY_CACHE_PROP = "obr.repository.cache";
 
     public RepositoryAdminImpl(BundleContext context, Logger logger)
     {
@@ -66,6 +69,12 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         m_logger = logger;
         m_system = new SystemRepositoryImpl(context, logger);
         m_local = new LocalRepositoryImpl(context, logger);
+
+        // Keep snapshots of parsed repositories in the bundle data area,
+        // unless disabled or the framework has no file system support.
+        File cacheDir = "false".equalsIgnoreCase(context.getProperty(REPOSITORY_CACHE_PROP))
+            ? null : context.getDataFile("repository-cache");
+        m_cache = (cacheDir != null) ? new RepositoryCache(cacheDir, logger) : null;
     }
 
     public DataModelHelper getHelper()
@@ -111,7 +120,7 @@ public class RepositoryAdminImpl implements RepositoryAdmin
             {
                 public Object run() throws Exception
                 {
-                    return m_helper.repository(url);
+                    return (m_cache != null) ? m_cache.repository(url) : m_helper.repository(url);
                 }
             });
             m_repoMap.put(url.toExternalForm(), repository);
@@ -222,10 +231,17 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         for (int repoIdx = 0; (repos != null) && (repoIdx < repos.length); repoIdx++)
         {
             resources = repos[repoIdx].getResources();
+            if ((requirements != null) && (requirements.length > 0))
+            {
+                // Only look at the resources satisfying the first requirement.
+                List candidates = CapabilityIndex.getCapabilityIndex(repos[repoIdx])
+                    .getResources(requirements[0]);
+                resources = (Resource[]) candidates.toArray(new Resource[candidates.size()]);
+            }
             for (int resIdx = 0; (resources != null) && (resIdx < resources.length); resIdx++)
             {
                 boolean match = true;
-                for (int reqIdx = 0; (requirements != null) && (reqIdx < requirements.length); reqIdx++)
+                for (int reqIdx = 1; (requirements != null) && (reqIdx < requirements.length); reqIdx++)
                 {
                     boolean reqMatch = false;
                     Capability[] caps = resources[resIdx].getCapabilities();
@@ -0,0 +1,735 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Property;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+import org.apache.felix.utils.log.Logger;
+import org.osgi.framework.Version;
+
+/**
+ * Keeps a compact binary snapshot of each parsed repository in a local
+ * directory, so that loading a repository again does not need to download
+ * and parse its XML when it has not changed.
+ * <p>
+ * A snapshot is keyed by the repository URL and records the ETag and last
+ * modification time reported for it. HTTP repositories are then requested
+ * conditionally and the snapshot is used if the server answers that the
+ * repository was not modified. For other URLs the snapshot is used if the
+ * last modification time of the URL is still the same. Repositories without
+ * either validator are never cached.
+ * <p>
+ * All strings of a snapshot are stored once in a string table. The
+ * capabilities and requirements of the resources are only decoded when
+ * first used, see {@link LazyResourceImpl}.
+ */
+public class RepositoryCache
+{
+    private static final int MAGIC = 0x4f425243;
+    private static final int FORMAT = 1;
+
+    private static final byte STRING = 0;
+    private static final byte VERSION = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte LIST = 4;
+
+    private final File m_dir;
+    private final Logger m_logger;
+    private final DataModelHelperImpl m_helper = new DataModelHelperImpl();
+
+    public RepositoryCache(File dir, Logger logger)
+    {
+        m_dir = dir;
+        m_logger = logger;
+    }
+
+    /**
+     * Returns the repository at the given URL, from its snapshot if the
+     * repository is unchanged, otherwise by parsing it and storing a new
+     * snapshot of it.
+     */
+    public RepositoryImpl repository(URL url) throws Exception
+    {
+        File file = getFile(url);
+        URLConnection conn = url.openConnection();
+        // Whether the request properties of the connection have been set,
+        // after which it may already be connected.
+        boolean requested = false;
+        Object[] validators = file.exists() ? readValidators(file, url) : null;
+        if (validators != null)
+        {
+            String etag = (String) validators[0];
+            long lastModified = ((Long) validators[1]).longValue();
+            boolean unchanged;
+            if (conn instanceof HttpURLConnection)
+            {
+                if (etag != null)
+                {
+                    conn.setRequestProperty("If-None-Match", etag);
+                }
+                if (lastModified != 0)
+                {
+                    conn.setIfModifiedSince(lastModified);
+                }
+                FileUtil.setProxyAuth(conn);
+                requested = true;
+                unchanged = ((HttpURLConnection) conn).getResponseCode()
+                    == HttpURLConnection.HTTP_NOT_MODIFIED;
+                if (unchanged)
+                {
+                    ((HttpURLConnection) conn).disconnect();
+                }
+            }
+            else
+            {
+                unchanged = (lastModified != 0) && (conn.getLastModified() == lastModified);
+            }
+
+            if (unchanged)
+            {
+                try
+                {
+                    return readRepository(file, url);
+                }
+                catch (IOException ex)
+                {
+                    m_logger.log(Logger.LOG_DEBUG,
+                        "Unable to read cached repository " + url + ", parsing it.", ex);
+                    file.delete();
+                    conn = url.openConnection();
+                    requested = false;
+                }
+            }
+        }
+
+        // A changed repository is read from the response to the conditional
+        // request, whose request properties can no longer be set.
+        RepositoryImpl repository = requested
+            ? m_helper.repository(url, FileUtil.getInputStream(conn))
+            : m_helper.repository(url, conn);
+        String etag = conn.getHeaderField("ETag");
+        long lastModified = conn.getLastModified();
+        if ((etag != null) || (lastModified != 0))
+        {
+            try
+            {
+                writeRepository(file, url, etag, lastModified, repository);
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(Logger.LOG_DEBUG, "Unable to cache repository " + url + ".", ex);
+                file.delete();
+            }
+        }
+        return repository;
+    }
+
+    private File getFile(URL url)
+    {
+        // Snapshots record their URL, so colliding hashes only cause misses.
+        return new File(m_dir, "repository-" + Integer.toHexString(url.toExternalForm().hashCode()) + ".bin");
+    }
+
+    private static Object[] readValidators(File file, URL url)
+    {
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT)
+                || !url.toExternalForm().equals(readString(in)))
+            {
+                return null;
+            }
+            String etag = readString(in);
+            return new Object[] { etag, Long.valueOf(in.readLong()) };
+        }
+        catch (IOException ex)
+        {
+            return null;
+        }
+        finally
+        {
+            close(in);
+        }
+    }
+
+    void writeRepository(File file, URL url, String etag, long lastModified, RepositoryImpl repository)
+        throws IOException
+    {
+        // Encode the resources first to collect the strings they use.
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        Resource[] resources = repository.getResources();
+        byte[][] headers = new byte[resources.length][];
+        byte[][] caps = new byte[resources.length][];
+        byte[][] reqs = new byte[resources.length][];
+        for (int i = 0; i < resources.length; i++)
+        {
+            if (!(resources[i] instanceof ResourceImpl))
+            {
+                throw new IOException("Unsupported resource " + resources[i]);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeProperties(out, strings, resources[i]);
+            out.flush();
+            headers[i] = bytes.toByteArray();
+
+            bytes = new ByteArrayOutputStream();
+            out = new DataOutputStream(bytes);
+            writeCapabilities(out, strings, resources[i]);
+            out.flush();
+            caps[i] = bytes.toByteArray();
+
+            bytes = new ByteArrayOutputStream();
+            out = new DataOutputStream(bytes);
+            writeRequirements(out, strings, resources[i]);
+            out.flush();
+            reqs[i] = bytes.toByteArray();
+        }
+
+        m_dir.mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmp)), crc));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            writeString(out, url.toExternalForm());
+            writeString(out, etag);
+            out.writeLong(lastModified);
+
+            writeString(out, repository.getName());
+            out.writeLong(repository.getLastModified());
+            Referral[] referrals = repository.getReferrals();
+            out.writeInt((referrals != null) ? referrals.length : 0);
+            for (int i = 0; (referrals != null) && (i < referrals.length); i++)
+            {
+                writeString(out, referrals[i].getUrl());
+                out.writeInt(referrals[i].getDepth());
+            }
+
+            out.writeInt(strings.size());
+            for (String s : strings.keySet())
+            {
+                writeString(out, s);
+            }
+
+            out.writeInt(resources.length);
+            for (int i = 0; i < resources.length; i++)
+            {
+                out.write(headers[i]);
+                out.writeInt(caps[i].length);
+                out.write(caps[i]);
+                out.writeInt(reqs[i].length);
+                out.write(reqs[i]);
+            }
+            out.flush();
+            out.writeLong(crc.getValue());
+        }
+        finally
+        {
+            close(out);
+        }
+        file.delete();
+        if (!tmp.renameTo(file))
+        {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    RepositoryImpl readRepository(File file, URL url) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        DataInputStream in = new DataInputStream(new CheckedInputStream(
+            new BufferedInputStream(new FileInputStream(file)), crc));
+        try
+        {
+            if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT)
+                || !url.toExternalForm().equals(readString(in)))
+            {
+                throw new IOException("Not a snapshot of " + url);
+            }
+            readString(in);
+            in.readLong();
+
+            RepositoryImpl repository = new RepositoryImpl();
+            repository.setName(readString(in));
+            repository.setLastModified(in.readLong());
+            for (int i = in.readInt(); i > 0; i--)
+            {
+                Referral referral = new Referral();
+                referral.setUrl(readString(in));
+                referral.setDepth(Integer.toString(in.readInt()));
+                repository.addReferral(referral);
+            }
+
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++)
+            {
+                strings[i] = readString(in);
+            }
+
+            List<LazyResourceImpl> resources = new ArrayList<LazyResourceImpl>();
+            for (int i = in.readInt(); i > 0; i--)
+            {
+                List<String[]> properties = readProperties(in, strings);
+                byte[] caps = new byte[in.readInt()];
+                in.readFully(caps);
+                byte[] reqs = new byte[in.readInt()];
+                in.readFully(reqs);
+                LazyResourceImpl resource = new LazyResourceImpl(strings, caps, reqs);
+                for (String[] property : properties)
+                {
+                    if (property[2] == null)
+                    {
+                        resource.addCategory(property[1]);
+                    }
+                    else
+                    {
+                        resource.put(property[0], property[1],
+                            (property[2].length() > 0) ? property[2] : null);
+                    }
+                }
+                resources.add(resource);
+            }
+
+            long checksum = crc.getValue();
+            if (in.readLong() != checksum)
+            {
+                throw new IOException("Corrupted snapshot of " + url);
+            }
+
+            repository.setURI(url.toExternalForm());
+            for (LazyResourceImpl resource : resources)
+            {
+                repository.addResource(resource);
+            }
+            return repository;
+        }
+        catch (IOException ex)
+        {
+            throw ex;
+        }
+        catch (Exception ex)
+        {
+            IOException ioe = new IOException("Invalid snapshot of " + url);
+            ioe.initCause(ex);
+            throw ioe;
+        }
+        finally
+        {
+            close(in);
+        }
+    }
+
+    /**
+     * Writes the properties of the resource as the (key, value, type)
+     * arguments of {@link ResourceImpl#put(String, String, String)} that
+     * recreate them; categories are written with a <tt>null</tt> type.
+     */
+    private static void writeProperties(DataOutputStream out, Map<String, Integer> strings, Resource resource)
+        throws IOException
+    {
+        List<String[]> properties = new ArrayList<String[]>();
+        for (Iterator it = resource.getProperties().entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) it.next();
+            String key = (String) entry.getKey();
+            Object value = entry.getValue();
+            if (Resource.CATEGORY.equals(key) && (value instanceof List))
+            {
+                for (Iterator cats = ((List) value).iterator(); cats.hasNext();)
+                {
+                    properties.add(new String[] { key, (String) cats.next(), null });
+                }
+            }
+            else if (value instanceof String)
+            {
+                properties.add(new String[] { key, (String) value, "" });
+            }
+            else if (value instanceof Version)
+            {
+                properties.add(new String[] { key, value.toString(), Property.VERSION });
+            }
+            else if (value instanceof Long)
+            {
+                properties.add(new String[] { key, value.toString(), Property.LONG });
+            }
+            else if ((value instanceof Collection) && !((Collection) value).isEmpty())
+            {
+                StringBuffer sb = new StringBuffer();
+                for (Iterator values = ((Collection) value).iterator(); values.hasNext();)
+                {
+                    if (sb.length() > 0)
+                    {
+                        sb.append(',');
+                    }
+                    sb.append((String) values.next());
+                }
+                properties.add(new String[] { key, sb.toString(), Property.SET });
+            }
+            else
+            {
+                throw new IOException("Unsupported property " + key + " of " + resource);
+            }
+        }
+        out.writeInt(properties.size());
+        for (String[] property : properties)
+        {
+            writeIndex(out, strings, property[0]);
+            writeIndex(out, strings, property[1]);
+            writeIndex(out, strings, property[2]);
+        }
+    }
+
+    private static List<String[]> readProperties(DataInputStream in, String[] strings)
+        throws IOException
+    {
+        int count = in.readInt();
+        List<String[]> properties = new ArrayList<String[]>(count);
+        for (int i = 0; i < count; i++)
+        {
+            properties.add(new String[] {
+                readIndex(in, strings), readIndex(in, strings), readIndex(in, strings) });
+        }
+        return properties;
+    }
+
+    private static void writeCapabilities(
+        DataOutputStream out, Map<String, Integer> strings, Resource resource) throws IOException
+    {
+        Capability[] caps = resource.getCapabilities();
+        out.writeInt(caps.length);
+        for (Capability cap : caps)
+        {
+            if (!(cap instanceof CapabilityImpl))
+            {
+                throw new IOException("Unsupported capability " + cap);
+            }
+            writeIndex(out, strings, cap.getName());
+            Property[] props = cap.getProperties();
+            out.writeInt(props.length);
+            for (Property prop : props)
+            {
+                // Properties of spec repositories keep their typed value.
+                if (prop instanceof FelixPropertyAdapter)
+                {
+                    out.writeBoolean(true);
+                    writeIndex(out, strings, prop.getName());
+                    writeValue(out, strings, prop.getConvertedValue());
+                }
+                else if (prop instanceof PropertyImpl)
+                {
+                    out.writeBoolean(false);
+                    writeIndex(out, strings, prop.getName());
+                    writeIndex(out, strings, prop.getType());
+                    writeIndex(out, strings, prop.getValue());
+                }
+                else
+                {
+                    throw new IOException("Unsupported property " + prop);
+                }
+            }
+            writeStringMap(out, strings, cap.getDirectives());
+        }
+    }
+
+    private static void writeRequirements(
+        DataOutputStream out, Map<String, Integer> strings, Resource resource) throws IOException
+    {
+        Requirement[] reqs = resource.getRequirements();
+        out.writeInt(reqs.length);
+        for (Requirement req : reqs)
+        {
+            if (!(req instanceof RequirementImpl))
+            {
+                throw new IOException("Unsupported requirement " + req);
+            }
+            writeIndex(out, strings, req.getName());
+            writeIndex(out, strings, req.getFilter());
+            out.writeBoolean(req.isExtend());
+            out.writeBoolean(req.isMultiple());
+            out.writeBoolean(req.isOptional());
+            writeIndex(out, strings, req.getComment());
+            Map<String, Object> attrs = req.getAttributes();
+            out.writeInt(attrs.size());
+            for (Map.Entry<String, Object> entry : attrs.entrySet())
+            {
+                writeIndex(out, strings, entry.getKey());
+                writeValue(out, strings, entry.getValue());
+            }
+            writeStringMap(out, strings, req.getDirectives());
+        }
+    }
+
+    static void readCapabilities(LazyResourceImpl resource, String[] strings, byte[] data)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        for (int i = in.readInt(); i > 0; i--)
+        {
+            CapabilityImpl cap = new CapabilityImpl(readIndex(in, strings));
+            for (int j = in.readInt(); j > 0; j--)
+            {
+                if (in.readBoolean())
+                {
+                    cap.addProperty(new FelixPropertyAdapter(readIndex(in, strings), readValue(in, strings)));
+                }
+                else
+                {
+                    cap.addProperty(readIndex(in, strings), readIndex(in, strings), readIndex(in, strings));
+                }
+            }
+            for (Map.Entry<String, String> entry : readStringMap(in, strings).entrySet())
+            {
+                cap.addDirective(entry.getKey(), entry.getValue());
+            }
+            resource.addCachedCapability(cap);
+        }
+    }
+
+    static void readRequirements(LazyResourceImpl resource, String[] strings, byte[] data)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        for (int i = in.readInt(); i > 0; i--)
+        {
+            RequirementImpl req = new RequirementImpl(readIndex(in, strings));
+            req.setFilter(readIndex(in, strings));
+            req.setExtend(in.readBoolean());
+            req.setMultiple(in.readBoolean());
+            req.setOptional(in.readBoolean());
+            String comment = readIndex(in, strings);
+            if (comment != null)
+            {
+                req.addText(comment);
+            }
+            int count = in.readInt();
+            if (count > 0)
+            {
+                Map<String, Object> attrs = new HashMap<String, Object>();
+                for (int j = 0; j < count; j++)
+                {
+                    attrs.put(readIndex(in, strings), readValue(in, strings));
+                }
+                req.setAttributes(attrs);
+            }
+            Map<String, String> dirs = readStringMap(in, strings);
+            if (!dirs.isEmpty())
+            {
+                req.setDirectives(dirs);
+            }
+            resource.addCachedRequire(req);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Map<String, Integer> strings, Object value)
+        throws IOException
+    {
+        if (value instanceof String)
+        {
+            out.writeByte(STRING);
+            writeIndex(out, strings, (String) value);
+        }
+        else if (value instanceof Version)
+        {
+            out.writeByte(VERSION);
+            writeIndex(out, strings, value.toString());
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte(LONG);
+            out.writeLong(((Long) value).longValue());
+        }
+        else if (value instanceof Double)
+        {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Double) value).doubleValue());
+        }
+        else if (value instanceof List)
+        {
+            out.writeByte(LIST);
+            out.writeInt(((List) value).size());
+            for (Object v : (List) value)
+            {
+                writeValue(out, strings, v);
+            }
+        }
+        else
+        {
+            throw new IOException("Unsupported attribute value " + value);
+        }
+    }
+
+    private static Object readValue(DataInputStream in, String[] strings) throws IOException
+    {
+        byte type = in.readByte();
+        switch (type)
+        {
+            case STRING:
+                return readIndex(in, strings);
+            case VERSION:
+                return Version.parseVersion(readIndex(in, strings));
+            case LONG:
+                return Long.valueOf(in.readLong());
+            case DOUBLE:
+                return Double.valueOf(in.readDouble());
+            case LIST:
+                int size = in.readInt();
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++)
+                {
+                    list.add(readValue(in, strings));
+                }
+                return list;
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeStringMap(DataOutputStream out, Map<String, Integer> strings, Map<String, String> map)
+        throws IOException
+    {
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet())
+        {
+            writeIndex(out, strings, entry.getKey());
+            writeIndex(out, strings, entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readStringMap(DataInputStream in, String[] strings)
+        throws IOException
+    {
+        int count = in.readInt();
+        Map<String, String> map = new HashMap<String, String>();
+        for (int i = 0; i < count; i++)
+        {
+            map.put(readIndex(in, strings), readIndex(in, strings));
+        }
+        return map;
+    }
+
+    private static void writeIndex(DataOutputStream out, Map<String, Integer> strings, String s)
+        throws IOException
+    {
+        if (s == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+        Integer idx = strings.get(s);
+        if (idx == null)
+        {
+            idx = Integer.valueOf(strings.size());
+            strings.put(s, idx);
+        }
+        out.writeInt(idx.intValue());
+    }
+
+    private static String readIndex(DataInputStream in, String[] strings) throws IOException
+    {
+        int idx = in.readInt();
+        if (idx == -1)
+        {
+            return null;
+        }
+        if ((idx < 0) || (idx >= strings.length))
+        {
+            throw new IOException("Invalid string index " + idx);
+        }
+        return strings[idx];
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        // Not writeUTF(), which is limited to 64k.
+        if (s == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length == -1)
+        {
+            return null;
+        }
+        if (length < 0)
+        {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void close(Closeable c)
+    {
+        try
+        {
+            if (c != null)
+            {
+                c.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            // Not much we can do.
+        }
+    }
+}
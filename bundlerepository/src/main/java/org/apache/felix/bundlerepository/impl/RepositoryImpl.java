@@ -35,6 +35,7 @@ public class RepositoryImpl implements Repository
     private Resource[] m_resources = null;
     private Referral[] m_referrals = null;
     private Set m_resourceSet = new HashSet();
+    private CapabilityIndex m_capabilityIndex = null;
 
     public RepositoryImpl()
     {
@@ -66,6 +67,19 @@ public class RepositoryImpl implements Repository
         return m_resources;
     }
 
+    /**
+     * Returns the index of the capabilities of this repository's resources,
+     * which is created on first use and kept until a resource is added.
+     **/
+    public CapabilityIndex getCapabilityIndex()
+    {
+        if (m_capabilityIndex == null)
+        {
+            m_capabilityIndex = new CapabilityIndex(getResources());
+        }
+        return m_capabilityIndex;
+    }
+
     public void addResource(Resource resource)
     {
         // Set resource's repository.
@@ -78,6 +92,7 @@ public class RepositoryImpl implements Repository
         m_resourceSet.remove(resource);
         m_resourceSet.add(resource);
         m_resources = null;
+        m_capabilityIndex = null;
     }
 
     public Referral[] getReferrals()
@@ -46,6 +46,7 @@ public class ResolverImpl implements Resolver
     private boolean m_resolved = false;
     private long m_resolveTimeStamp;
     private int m_resolutionFlags;
+    private List<CapabilityIndex> m_indexes;
 
     public ResolverImpl(BundleContext context, Repository[] repositories, Logger logger)
     {
@@ -152,6 +153,16 @@ public class ResolverImpl implements Resolver
     private Resource[] getResources()
     {
         List<Resource> resources = new ArrayList<Resource>();
+        for (Repository repository : getRepositories())
+        {
+            Collections.addAll(resources, repository.getResources());
+        }
+        return resources.toArray(new Resource[resources.size()]);
+    }
+
+    private List<Repository> getRepositories()
+    {
+        List<Repository> repositories = new ArrayList<Repository>();
         for (int repoIdx = 0; (m_repositories != null) && (repoIdx < m_repositories.length); repoIdx++)
         {
             boolean isLocal = m_repositories[repoIdx].getURI().equals(Repository.LOCAL);
@@ -162,9 +173,9 @@ public class ResolverImpl implements Resolver
             if (isSystem && (m_resolutionFlags & NO_SYSTEM_BUNDLE) != 0) {
                 continue;
             }
-            Collections.addAll(resources, m_repositories[repoIdx].getResources());
+            repositories.add(m_repositories[repoIdx]);
         }
-        return resources.toArray(new Resource[resources.size()]);
+        return repositories;
     }
 
     public synchronized boolean resolve()
@@ -177,6 +188,11 @@ public class ResolverImpl implements Resolver
         // Find resources
         Resource[] locals = getLocalResources();
         Resource[] remotes = getRemoteResources();
+        m_indexes = new ArrayList<CapabilityIndex>();
+        for (Repository repository : getRepositories())
+        {
+            m_indexes.add(CapabilityIndex.getCapabilityIndex(repository));
+        }
 
         // time of the resolution process start
         m_resolveTimeStamp = 0;
@@ -279,8 +295,8 @@ public class ResolverImpl implements Resolver
                     candidate = searchResources(req, m_resolveSet);
                 }
                 if (candidate == null) {
-                    List<ResourceCapability> candidateCapabilities = searchResources(req, locals);
-                    candidateCapabilities.addAll(searchResources(req, remotes));
+                    List<ResourceCapability> candidateCapabilities = searchResources(req, true);
+                    candidateCapabilities.addAll(searchResources(req, false));
 
                     // Determine the best candidate available that
                     // can resolve.
@@ -364,25 +380,20 @@ public class ResolverImpl implements Resolver
     /**
      * Searches for resources that do meet the given requirement
      * @param req the the requirement that must be satisfied by resources
-     * @param resources list of resources to look at
+     * @param local whether to look at the local or the remote resources
      * @return all resources meeting the given requirement
      */
-    private List<ResourceCapability> searchResources(Requirement req, Resource[] resources)
+    private List<ResourceCapability> searchResources(Requirement req, boolean local)
     {
         List<ResourceCapability> matchingCapabilities = new ArrayList<ResourceCapability>();
 
-        if (resources != null) {
-            for (Resource resource : resources) {
-                checkInterrupt();
+        for (CapabilityIndex index : m_indexes) {
+            checkInterrupt();
+            for (ResourceCapability cap : index.getCapabilities(req)) {
                 // We don't need to look at resources we've already looked at.
-                if (!m_failedSet.contains(resource)) {
-                    Capability[] caps = resource.getCapabilities();
-                    if (caps != null) {
-                        for (Capability cap : caps) {
-                            if (req.isSatisfied(cap))
-                                matchingCapabilities.add(new ResourceCapabilityImpl(resource, cap));
-                        }
-                    }
+                Resource resource = cap.getResource();
+                if ((resource.isLocal() == local) && !m_failedSet.contains(resource)) {
+                    matchingCapabilities.add(cap);
                 }
             }
         }
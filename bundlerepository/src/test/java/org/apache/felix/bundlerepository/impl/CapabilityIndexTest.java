@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+
+public class CapabilityIndexTest extends TestCase
+{
+    public void testEqualityTerms()
+    {
+        assertTerms("(package=org.foo)", "package", "org.foo");
+        assertTerms("(&(package=org.foo)(version>=1.0.0)(!(version>=2.0.0)))", "package", "org.foo");
+        assertTerms("(&(a=x*)(b=y)(c=*)(d~=z))", "b", "y");
+        assertTerms("(&(a=x\\(1\\)\\*))", "a", "x(1)*");
+        assertTerms("(&(|(a=x)(a=y))(!(b=z))(&(c=w)))", "c", "w");
+        assertTerms("(|(a=x)(b=y))");
+        assertTerms("(!(a=x))");
+    }
+
+    public void testSameMatchesAsAllCapabilities() throws Exception
+    {
+        URL url = getClass().getResource("/repo_for_resolvertest.xml");
+        RepositoryImpl repo = (RepositoryImpl) new DataModelHelperImpl().repository(url);
+        Resource[] resources = repo.getResources();
+        CapabilityIndex index = repo.getCapabilityIndex();
+        assertSame(index, CapabilityIndex.getCapabilityIndex(repo));
+
+        int matched = 0;
+        for (Resource resource : resources)
+        {
+            for (Requirement req : resource.getRequirements())
+            {
+                List<Capability> expected = new ArrayList<Capability>();
+                for (Resource r : resources)
+                {
+                    for (Capability cap : r.getCapabilities())
+                    {
+                        if (req.isSatisfied(cap))
+                        {
+                            expected.add(cap);
+                        }
+                    }
+                }
+                assertEquals(req.toString(), expected, getCapabilities(index.getCapabilities(req)));
+                matched += expected.size();
+            }
+        }
+        assertTrue(matched > 0);
+    }
+
+    public void testNonStringValues()
+    {
+        ResourceImpl r1 = new ResourceImpl();
+        CapabilityImpl c1 = new CapabilityImpl("foo");
+        c1.addProperty("foo", "a");
+        c1.addProperty("version", "version", "1.0.0");
+        r1.addCapability(c1);
+        ResourceImpl r2 = new ResourceImpl();
+        CapabilityImpl c2 = new CapabilityImpl("foo");
+        c2.addProperty("foo", "set", "b,c");
+        c2.addProperty("version", "version", "2.0.0");
+        r2.addCapability(c2);
+        ResourceImpl r3 = new ResourceImpl();
+        CapabilityImpl c3 = new CapabilityImpl("foo");
+        c3.addProperty("foo", "long", "1");
+        r3.addCapability(c3);
+        CapabilityIndex index = new CapabilityIndex(new Resource[] { r1, r2, r3 });
+
+        assertEquals(Arrays.asList(r1), index.getResources(requirement("foo", "(foo=a)")));
+        assertEquals(Arrays.asList(r2), index.getResources(requirement("foo", "(&(foo=c)(version>=1.0.0))")));
+        assertEquals(Arrays.asList(r3), index.getResources(requirement("foo", "(FOO=1)")));
+        assertEquals(Arrays.asList(r2), index.getResources(requirement("foo", "(version=2.0.0)")));
+        assertEquals(Arrays.asList(r1, r2), index.getResources(requirement("foo", "(|(foo=a)(foo=b))")));
+        assertTrue(index.getResources(requirement("bar", "(foo=a)")).isEmpty());
+        assertTrue(index.getResources(requirement("foo", "(foo=d)")).isEmpty());
+    }
+
+    private static RequirementImpl requirement(String name, String filter)
+    {
+        RequirementImpl req = new RequirementImpl(name);
+        req.setFilter(filter);
+        return req;
+    }
+
+    private static List<Capability> getCapabilities(List<ResourceCapability> caps)
+    {
+        List<Capability> result = new ArrayList<Capability>();
+        for (ResourceCapability cap : caps)
+        {
+            result.add(cap.getCapability());
+        }
+        return result;
+    }
+
+    private static void assertTerms(String filter, String... expected)
+    {
+        List<String> terms = new ArrayList<String>();
+        for (String[] term : CapabilityIndex.getEqualityTerms(filter))
+        {
+            terms.add(term[0]);
+            terms.add(term[1]);
+        }
+        assertEquals(filter, Arrays.asList(expected), terms);
+    }
+}
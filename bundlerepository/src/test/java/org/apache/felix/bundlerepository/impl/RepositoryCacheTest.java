@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+import org.apache.felix.utils.log.Logger;
+import org.mockito.Mockito;
+import org.osgi.framework.BundleContext;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class RepositoryCacheTest extends TestCase
+{
+    private File m_dir;
+    private RepositoryCache m_cache;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_dir = File.createTempFile("obr-cache", ".dir");
+        m_dir.delete();
+        m_dir.mkdirs();
+        m_cache = new RepositoryCache(new File(m_dir, "cache"),
+            new Logger(Mockito.mock(BundleContext.class)));
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        deleteDir(m_dir);
+    }
+
+    public void testSnapshotMatchesParsedRepository() throws Exception
+    {
+        String[] names = { "/repo_for_resolvertest.xml", "/another_repository.xml",
+            "/referral1_repository.xml", "/spec_repository.xml" };
+        for (String name : names)
+        {
+            URL url = copy(name);
+            RepositoryImpl parsed = m_cache.repository(url);
+            RepositoryImpl cached = m_cache.repository(url);
+            assertNotSame(parsed, cached);
+            assertSameRepository(parsed, cached);
+            assertTrue(cached.getResources()[0] instanceof LazyResourceImpl);
+            assertFalse(parsed.getResources()[0] instanceof LazyResourceImpl);
+        }
+    }
+
+    public void testModifiedRepositoryIsParsed() throws Exception
+    {
+        URL url = copy("/repo_for_resolvertest.xml");
+        m_cache.repository(url);
+        assertTrue(m_cache.repository(url).getResources()[0] instanceof LazyResourceImpl);
+
+        File file = new File(url.toURI());
+        file.setLastModified(file.lastModified() - 10000);
+        assertFalse(m_cache.repository(url).getResources()[0] instanceof LazyResourceImpl);
+        assertTrue(m_cache.repository(url).getResources()[0] instanceof LazyResourceImpl);
+    }
+
+    public void testCorruptSnapshotIsIgnored() throws Exception
+    {
+        URL url = copy("/repo_for_resolvertest.xml");
+        RepositoryImpl parsed = m_cache.repository(url);
+
+        File[] snapshots = new File(m_dir, "cache").listFiles();
+        assertEquals(1, snapshots.length);
+        RandomAccessFile raf = new RandomAccessFile(snapshots[0], "rw");
+        raf.seek(raf.length() / 2);
+        int b = raf.read();
+        raf.seek(raf.length() / 2);
+        raf.write(b ^ 0xff);
+        raf.close();
+
+        RepositoryImpl reparsed = m_cache.repository(url);
+        assertFalse(reparsed.getResources()[0] instanceof LazyResourceImpl);
+        assertSameRepository(parsed, reparsed);
+        assertTrue(m_cache.repository(url).getResources()[0] instanceof LazyResourceImpl);
+    }
+
+    public void testChangedHttpRepositoryIsParsedBehindProxy() throws Exception
+    {
+        final byte[][] content = { read("/repo_for_resolvertest.xml") };
+        final String[] etag = { "\"1\"" };
+        final List<String> auths = new ArrayList<String>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                synchronized (auths)
+                {
+                    auths.add(exchange.getRequestHeaders().getFirst("Proxy-Authorization"));
+                }
+                exchange.getResponseHeaders().set("ETag", etag[0]);
+                if (etag[0].equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+                {
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                }
+                else
+                {
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, content[0].length);
+                    exchange.getResponseBody().write(content[0]);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        String oldAuth = System.getProperty("http.proxyAuth");
+        System.setProperty("http.proxyAuth", "user:secret");
+        try
+        {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/repository.xml");
+            RepositoryImpl parsed = m_cache.repository(url);
+            assertFalse(parsed.getResources()[0] instanceof LazyResourceImpl);
+            assertTrue(m_cache.repository(url).getResources()[0] instanceof LazyResourceImpl);
+
+            // The conditional request is answered with the changed repository.
+            content[0] = read("/another_repository.xml");
+            etag[0] = "\"2\"";
+            RepositoryImpl changed = m_cache.repository(url);
+            assertFalse(changed.getResources()[0] instanceof LazyResourceImpl);
+            assertFalse(parsed.getName().equals(changed.getName()));
+            assertSameRepository(changed, m_cache.repository(url));
+
+            assertEquals(4, auths.size());
+            for (String auth : auths)
+            {
+                assertNotNull(auth);
+            }
+        }
+        finally
+        {
+            if (oldAuth == null)
+            {
+                System.clearProperty("http.proxyAuth");
+            }
+            else
+            {
+                System.setProperty("http.proxyAuth", oldAuth);
+            }
+            server.stop(0);
+        }
+    }
+
+    private static void assertSameRepository(RepositoryImpl expected, RepositoryImpl actual)
+    {
+        assertEquals(expected.getURI(), actual.getURI());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getLastModified(), actual.getLastModified());
+        assertEquals(length(expected.getReferrals()), length(actual.getReferrals()));
+        for (int i = 0; i < length(expected.getReferrals()); i++)
+        {
+            assertEquals(expected.getReferrals()[i].getUrl(), actual.getReferrals()[i].getUrl());
+            assertEquals(expected.getReferrals()[i].getDepth(), actual.getReferrals()[i].getDepth());
+        }
+
+        Resource[] expectedResources = expected.getResources();
+        Resource[] actualResources = actual.getResources();
+        assertEquals(expectedResources.length, actualResources.length);
+        for (int i = 0; i < expectedResources.length; i++)
+        {
+            Resource e = expectedResources[i];
+            Resource a = actualResources[i];
+            assertEquals(e, a);
+            assertEquals(e.getProperties(), a.getProperties());
+            assertEquals(e.getURI(), a.getURI());
+            assertEquals(toStrings(e.getCapabilities()), toStrings(a.getCapabilities()));
+            Requirement[] expectedReqs = e.getRequirements();
+            Requirement[] actualReqs = a.getRequirements();
+            assertEquals(expectedReqs.length, actualReqs.length);
+            for (int j = 0; j < expectedReqs.length; j++)
+            {
+                assertEquals(expectedReqs[j], actualReqs[j]);
+                assertEquals(expectedReqs[j].getAttributes(), actualReqs[j].getAttributes());
+                assertEquals(expectedReqs[j].getDirectives(), actualReqs[j].getDirectives());
+                assertEquals(expectedReqs[j].isExtend(), actualReqs[j].isExtend());
+            }
+        }
+    }
+
+    private static List<String> toStrings(Capability[] caps)
+    {
+        List<String> result = new ArrayList<String>();
+        for (Capability cap : caps)
+        {
+            result.add(cap.toString() + cap.getDirectives());
+        }
+        return result;
+    }
+
+    private static int length(Object[] array)
+    {
+        return (array != null) ? array.length : 0;
+    }
+
+    private URL copy(String name) throws Exception
+    {
+        File file = new File(m_dir, name.substring(1));
+        OutputStream out = new FileOutputStream(file);
+        out.write(read(name));
+        out.close();
+        return file.toURI().toURL();
+    }
+
+    private byte[] read(String name) throws IOException
+    {
+        InputStream in = getClass().getResourceAsStream(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        for (int n = in.read(buf); n >= 0; n = in.read(buf))
+        {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static void deleteDir(File root)
+    {
+        File[] files = root.listFiles();
+        for (int i = 0; (files != null) && (i < files.length); i++)
+        {
+            deleteDir(files[i]);
+        }
+        root.delete();
+    }
+}
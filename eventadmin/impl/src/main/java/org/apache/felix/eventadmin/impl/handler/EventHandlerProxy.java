@@ -351,11 +351,15 @@ public class EventHandlerProxy {
             return false;
         }
 
-        // permission check
-        final Object p = PermissionsUtil.createSubscribePermission(event.getTopic());
-        if (p != null && !bundle.hasPermission(p) )
+        // permission check - without a security manager every bundle
+        // has all permissions, so avoid creating a permission per event
+        if ( System.getSecurityManager() != null )
         {
-            return false;
+            final Object p = PermissionsUtil.createSubscribePermission(event.getTopic());
+            if (p != null && !bundle.hasPermission(p) )
+            {
+                return false;
+            }
         }
 
         return true;
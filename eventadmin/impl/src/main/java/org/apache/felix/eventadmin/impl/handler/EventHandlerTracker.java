@@ -18,8 +18,11 @@
  */
 package org.apache.felix.eventadmin.impl.handler;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,19 +43,16 @@ import org.osgi.util.tracker.ServiceTracker;
  */
 public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandlerProxy> {
 
-    /** The proxies in this list match all events. */
-	private final List<EventHandlerProxy> matchingAllEvents;
+    /** The maximum number of topics for which the handlers are cached. */
+    private static final int MAX_CACHED_TOPICS = 1024;
 
-    /** This is a map for exact topic matches. The key is the topic,
-     * the value is a list of proxies.
-     */
-    private final Map<String, List<EventHandlerProxy>> matchingTopic;
-
-	/** This is a map for wildcard topics. The key is the prefix of the topic,
-	 * the value is a list of proxies
-	 */
-	private final Map<String, List<EventHandlerProxy>> matchingPrefixTopic;
+    /** The root of the topic trie. Each node is one level of a topic. */
+    private final TopicNode root;
 
+    /** The handlers per topic, resolved from the trie. This map is replaced
+     * whenever the handlers change.
+     */
+    private volatile ConcurrentHashMap<String, Handlers> cache;
 
 	/** The context for the proxies. */
 	private HandlerContext handlerContext;
@@ -61,9 +61,8 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 		super(context, EventHandler.class.getName(), null);
 
 		// we start with empty collections
-		this.matchingAllEvents = new CopyOnWriteArrayList<>();
-		this.matchingTopic = new ConcurrentHashMap<>();
-		this.matchingPrefixTopic = new ConcurrentHashMap<>();
+		this.root = new TopicNode();
+		this.cache = new ConcurrentHashMap<>();
 	}
 
     /**
@@ -107,88 +106,95 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
         proxy.dispose();
 	}
 
-	private void updateMap(final Map<String, List<EventHandlerProxy>> proxyListMap, final String key, final EventHandlerProxy proxy, final boolean add) {
-        List<EventHandlerProxy> proxies = proxyListMap.get(key);
-        if (proxies == null)
-        {
-            if ( !add )
-            {
-                return;
-            }
-            proxies = new CopyOnWriteArrayList<>();
-            proxyListMap.put(key, proxies);
-        }
+	/**
+	 * Add the proxy to or remove it from the trie node of the topic.
+	 * Empty nodes are removed from the trie again.
+	 */
+	private void updateTrie(final String topic, final EventHandlerProxy proxy, final boolean add) {
+	    final boolean isPrefix = topic.endsWith("/*");
+	    // prefix topic: we remove the /*
+	    final String path = isPrefix ? topic.substring(0, topic.length() - 2) : topic;
+
+	    final List<TopicNode> nodes = new ArrayList<>();
+	    TopicNode node = this.root;
+	    int start = 0;
+	    while ( node != null && start <= path.length() )
+	    {
+	        int end = path.indexOf('/', start);
+	        if ( end == -1 )
+	        {
+	            end = path.length();
+	        }
+	        final String level = path.substring(start, end);
+	        TopicNode child = node.children.get(level);
+	        if ( child == null && add )
+	        {
+	            child = new TopicNode();
+	            node.children.put(level, child);
+	        }
+	        nodes.add(node);
+	        node = child;
+	        start = end + 1;
+	    }
+	    if ( node == null )
+	    {
+	        return;
+	    }
 
-        if ( add )
-        {
-            proxies.add(proxy);
-        }
-        else
-        {
-            proxies.remove(proxy);
-            if ( proxies.size() == 0 )
-            {
-                proxyListMap.remove(key);
-            }
-        }
+	    final List<EventHandlerProxy> proxies = isPrefix ? node.matchingPrefix : node.matchingTopic;
+	    if ( add )
+	    {
+	        proxies.add(proxy);
+	    }
+	    else
+	    {
+	        proxies.remove(proxy);
+	        // remove empty nodes bottom up
+	        start = path.length();
+	        for(int i = nodes.size() - 1; i >= 0 && node.isEmpty(); i--)
+	        {
+	            final int pos = path.lastIndexOf('/', start - 1);
+	            nodes.get(i).children.remove(path.substring(pos + 1, start));
+	            node = nodes.get(i);
+	            start = pos;
+	        }
+	    }
 	}
 
 	/**
 	 * Check the topics of the event handler and put it into the
-	 * corresponding collections.
+	 * corresponding trie nodes.
 	 */
 	private synchronized void put(final EventHandlerProxy proxy) {
 		final String[] topics = proxy.getTopics();
 		if ( topics == null )
 		{
-		    this.matchingAllEvents.add(proxy);
+		    this.root.matchingAll.add(proxy);
 		}
 		else
 		{
     		for(int i = 0; i < topics.length; i++) {
-    			final String topic = topics[i];
-
-    			if ( topic.endsWith("/*") )
-    			{
-                    // prefix topic: we remove the /*
-    				final String prefix = topic.substring(0, topic.length() - 2);
-                    this.updateMap(this.matchingPrefixTopic, prefix, proxy, true);
-    			}
-    			else
-    			{
-    			    // exact match
-                    this.updateMap(this.matchingTopic, topic, proxy, true);
-    			}
+    		    this.updateTrie(topics[i], proxy, true);
     		}
 		}
+		this.cache = new ConcurrentHashMap<>();
 	}
 
     /**
      * Check the topics of the event handler and remove it from the
-     * corresponding collections.
+     * corresponding trie nodes.
      */
 	private synchronized void remove(final EventHandlerProxy proxy) {
         final String[] topics = proxy.getTopics();
         if ( topics == null )
         {
-            this.matchingAllEvents.remove(proxy);
+            this.root.matchingAll.remove(proxy);
         } else {
             for(int i = 0; i < topics.length; i++) {
-                final String topic = topics[i];
-
-                if ( topic.endsWith("/*") )
-                {
-                    // prefix topic: we remove the /*
-                    final String prefix = topic.substring(0, topic.length() - 2);
-                    this.updateMap(this.matchingPrefixTopic, prefix, proxy, false);
-                }
-                else
-                {
-                    // exact match
-                    this.updateMap(this.matchingTopic, topic, proxy, false);
-                }
+                this.updateTrie(topics[i], proxy, false);
             }
         }
+        this.cache = new ConcurrentHashMap<>();
 	}
 
 	/**
@@ -200,47 +206,114 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 	public Collection<EventHandlerProxy> getHandlers(final Event event) {
 	    final String topic = event.getTopic();
 
-		final Set<EventHandlerProxy> handlers = new HashSet<>();
+	    final ConcurrentHashMap<String, Handlers> localCache = this.cache;
+	    Handlers handlers = localCache.get(topic);
+	    if ( handlers == null )
+	    {
+	        handlers = this.findHandlers(topic);
+	        // a modification in the meantime replaced the cache, so a stale
+	        // result only ends up in the discarded map
+	        if ( localCache.size() >= MAX_CACHED_TOPICS )
+	        {
+	            localCache.clear();
+	        }
+	        localCache.put(topic, handlers);
+	    }
+
+	    // Only allocate if some handler can't get the event
+	    final EventHandlerProxy[] proxies = handlers.proxies;
+	    for(int i = 0; i < proxies.length; i++)
+	    {
+	        if ( !proxies[i].canDeliver(event) )
+	        {
+	            final List<EventHandlerProxy> result = new ArrayList<>(proxies.length - 1);
+	            for(int j = 0; j < i; j++)
+	            {
+	                result.add(proxies[j]);
+	            }
+	            for(int j = i + 1; j < proxies.length; j++)
+	            {
+	                if ( proxies[j].canDeliver(event) )
+	                {
+	                    result.add(proxies[j]);
+	                }
+	            }
+	            return result;
+	        }
+	    }
+	    return handlers.all;
+	}
+
+	/**
+	 * Collect all handlers registered for the topic from the trie.
+	 */
+	private Handlers findHandlers(final String topic) {
+	    final Set<EventHandlerProxy> handlers = new LinkedHashSet<>();
+
+	    // Add all handlers matching everything
+	    handlers.addAll(this.root.matchingAll);
 
-		// Add all handlers matching everything
-        this.checkHandlerAndAdd(handlers, this.matchingAllEvents, event);
+	    // Walk down the trie, adding prefix matches of the parent levels
+	    TopicNode node = this.root;
+	    int start = 0;
+	    while ( node != null )
+	    {
+	        final int end = topic.indexOf('/', start);
+	        node = node.children.get(end == -1 ? topic.substring(start) : topic.substring(start, end));
+	        if ( node != null )
+	        {
+	            if ( end == -1 )
+	            {
+	                // Add the handlers for matching topic names
+	                handlers.addAll(node.matchingTopic);
+	                break;
+	            }
+	            handlers.addAll(node.matchingPrefix);
+	        }
+	        start = end + 1;
+	    }
 
-		// Now check for prefix matches
-		if ( !this.matchingPrefixTopic.isEmpty() )
-		{
-		    int pos = topic.lastIndexOf('/');
-			while (pos != -1)
-			{
-			    final String prefix = topic.substring(0, pos);
-		        this.checkHandlerAndAdd(handlers, this.matchingPrefixTopic.get(prefix), event);
-
-				pos = prefix.lastIndexOf('/');
-			}
-		}
+	    return new Handlers(handlers.toArray(new EventHandlerProxy[handlers.size()]));
+	}
+
+	/**
+	 * A level of the topic trie.
+	 */
+	private static final class TopicNode
+	{
+	    /** The child levels keyed by the topic token. */
+	    final Map<String, TopicNode> children = new ConcurrentHashMap<>();
+
+	    /** The proxies in this list match all events (root only). */
+	    final List<EventHandlerProxy> matchingAll = new CopyOnWriteArrayList<>();
 
-		// Add the handlers for matching topic names
-		this.checkHandlerAndAdd(handlers, this.matchingTopic.get(topic), event);
+	    /** The proxies registered for exactly this topic. */
+	    final List<EventHandlerProxy> matchingTopic = new CopyOnWriteArrayList<>();
 
-		return handlers;
+	    /** The proxies registered for all topics below this one. */
+	    final List<EventHandlerProxy> matchingPrefix = new CopyOnWriteArrayList<>();
+
+	    boolean isEmpty()
+	    {
+	        return this.children.isEmpty() && this.matchingAll.isEmpty()
+	            && this.matchingTopic.isEmpty() && this.matchingPrefix.isEmpty();
+	    }
 	}
 
 	/**
-	 * Checks each handler from the proxy list if it can deliver the event
-	 * If the event can be delivered, the proxy is added to the handlers.
+	 * The handlers registered for a topic.
 	 */
-	private void checkHandlerAndAdd( final Set<EventHandlerProxy> handlers,
-	        final List<EventHandlerProxy> proxies,
-	        final Event event)
+	private static final class Handlers
 	{
-	    if ( proxies != null )
+	    final EventHandlerProxy[] proxies;
+
+	    /** Read only view of all proxies, returned if all can get the event. */
+	    final Collection<EventHandlerProxy> all;
+
+	    Handlers(final EventHandlerProxy[] proxies)
 	    {
-            for(final EventHandlerProxy p : proxies)
-            {
-                if ( p.canDeliver(event) )
-                {
-                    handlers.add(p);
-                }
-            }
+	        this.proxies = proxies;
+	        this.all = Collections.unmodifiableList(Arrays.asList(proxies));
 	    }
 	}
 
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+public class EventHandlerTrackerTest {
+
+    private final Bundle bundle = proxy(Bundle.class, Collections.<String, Object>emptyMap());
+
+    private EventHandlerTracker tracker;
+
+    @Before public void setUp()
+    {
+        final BundleContext context = proxy(BundleContext.class, Collections.<String, Object>emptyMap());
+        this.tracker = new EventHandlerTracker(context);
+        this.tracker.update(null, false);
+    }
+
+    @Test public void testTopicMatching()
+    {
+        final EventHandlerProxy all = this.add("*", null);
+        final EventHandlerProxy exact = this.add("org/apache/felix", null);
+        final EventHandlerProxy prefix = this.add("org/apache/*", null);
+        final EventHandlerProxy both = this.add(new String[] {"org/*", "org/apache/felix"}, null);
+
+        assertHandlers("org/apache/felix", all, exact, prefix, both);
+        assertHandlers("org/apache/felix/sub", all, prefix, both);
+        assertHandlers("org/apache", all, both);
+        assertHandlers("org", all);
+        assertHandlers("com/acme", all);
+    }
+
+    @Test public void testCacheInvalidation()
+    {
+        final EventHandlerProxy prefix = this.add("org/*", null);
+        final Collection<EventHandlerProxy> first = this.tracker.getHandlers(event("org/test"));
+        assertSame(first, this.tracker.getHandlers(event("org/test")));
+
+        final EventHandlerProxy exact = this.add("org/test", null);
+        assertHandlers("org/test", prefix, exact);
+
+        this.tracker.removedService(null, prefix);
+        assertHandlers("org/test", exact);
+        this.tracker.removedService(null, exact);
+        assertHandlers("org/test");
+
+        // the trie is pruned and can be filled again
+        final EventHandlerProxy again = this.add("org/test", null);
+        assertHandlers("org/test", again);
+    }
+
+    @Test public void testFilter()
+    {
+        final EventHandlerProxy unfiltered = this.add("org/test", null);
+        final EventHandlerProxy filtered = this.add("org/test", "(key=value)");
+
+        final Map<String, Object> props = new HashMap<>();
+        props.put("key", "value");
+        assertEquals(set(unfiltered, filtered), set(this.tracker.getHandlers(new Event("org/test", props))));
+        props.put("key", "other");
+        assertEquals(set(unfiltered), set(this.tracker.getHandlers(new Event("org/test", props))));
+    }
+
+    private void assertHandlers(final String topic, final EventHandlerProxy... expected)
+    {
+        final Collection<EventHandlerProxy> handlers = this.tracker.getHandlers(event(topic));
+        assertEquals(expected.length, handlers.size());
+        assertEquals(set(expected), set(handlers));
+    }
+
+    private EventHandlerProxy add(final Object topics, final String filter)
+    {
+        final Map<String, Object> props = new HashMap<>();
+        props.put(EventConstants.EVENT_TOPIC, topics);
+        if ( filter != null )
+        {
+            props.put(EventConstants.EVENT_FILTER, filter);
+        }
+        props.put("bundle", this.bundle);
+        @SuppressWarnings("unchecked")
+        final ServiceReference<EventHandler> ref = proxy(ServiceReference.class, props);
+        final EventHandlerProxy p = this.tracker.addingService(ref);
+        assertTrue(p != null);
+        return p;
+    }
+
+    private static Event event(final String topic)
+    {
+        return new Event(topic, (Map<String, ?>) null);
+    }
+
+    private static Set<EventHandlerProxy> set(final EventHandlerProxy... proxies)
+    {
+        return new HashSet<>(Arrays.asList(proxies));
+    }
+
+    private static Set<EventHandlerProxy> set(final Collection<EventHandlerProxy> proxies)
+    {
+        return new HashSet<>(proxies);
+    }
+
+    /**
+     * Create a proxy answering getProperty, getBundle and createFilter
+     * from the properties.
+     */
+    private static <T> T proxy(final Class<T> type, final Map<String, Object> props)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable
+            {
+                final String name = method.getName();
+                if ( name.equals("getProperty") )
+                {
+                    return props.get(args[0]);
+                }
+                else if ( name.equals("getBundle") )
+                {
+                    return props.get("bundle");
+                }
+                else if ( name.equals("createFilter") )
+                {
+                    return FrameworkUtil.createFilter((String) args[0]);
+                }
+                else if ( name.equals("hashCode") )
+                {
+                    return System.identityHashCode(proxy);
+                }
+                else if ( name.equals("equals") )
+                {
+                    return proxy == args[0];
+                }
+                else if ( name.equals("toString") )
+                {
+                    return type.getSimpleName() + props;
+                }
+                else if ( method.getReturnType() == boolean.class )
+                {
+                    return Boolean.FALSE;
+                }
+                else if ( method.getReturnType() == long.class || method.getReturnType() == int.class )
+                {
+                    return 0;
+                }
+                return null;
+            }
+        }));
+    }
+}
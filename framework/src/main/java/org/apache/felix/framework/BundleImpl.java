@@ -19,6 +19,8 @@
 package org.apache.felix.framework;
 
 import org.apache.felix.framework.cache.BundleArchive;
+import org.apache.felix.framework.cache.BundleCache;
+import org.apache.felix.framework.cache.Content;
 import org.apache.felix.framework.util.SecurityManagerEx;
 import org.apache.felix.framework.util.ShrinkableCollection;
 import org.apache.felix.framework.util.StringMap;
@@ -83,6 +85,13 @@ class BundleImpl implements Bundle, BundleRevisions
     private int m_lockCount = 0;
     private Thread m_lockThread = null;
 
+    // Durations of the last resolve and activator calls in nanoseconds,
+    // or -1 if they have not been measured yet.
+    private volatile long m_resolveNanos = -1;
+    private volatile long m_activatorLoadNanos = -1;
+    private volatile long m_activatorStartNanos = -1;
+    private volatile long m_activatorStopNanos = -1;
+
     /**
      * This constructor is used by the system bundle (i.e., the framework),
      * since it needs a constructor that does not throw an exception.
@@ -100,6 +109,13 @@ class BundleImpl implements Bundle, BundleRevisions
     }
 
     BundleImpl(Felix felix, Bundle installingBundle, BundleArchive archive) throws Exception
+    {
+        this(felix, installingBundle, archive, true);
+    }
+
+    private BundleImpl(
+        Felix felix, Bundle installingBundle, BundleArchive archive, boolean addRevision)
+        throws Exception
     {
         __m_felix = felix;
         m_archive = archive;
@@ -110,7 +126,40 @@ class BundleImpl implements Bundle, BundleRevisions
         m_context = null;
         m_installingBundle = installingBundle;
 
-        BundleRevisionImpl revision = createRevision(false);
+        if (addRevision)
+        {
+            BundleRevisionImpl revision = createRevision(false);
+            addRevision(revision);
+        }
+    }
+
+    /**
+     * Creates the bundle and the current revision of a cached archive, but
+     * does not add the revision to the framework yet. This only reads and
+     * parses the archive, so the revisions of cached bundles can be created
+     * concurrently when the framework is initialized. The revision must then
+     * be added with {@link #addCachedRevision(BundleRevisionImpl)}.
+     * @param felix the framework.
+     * @param archive the cached archive.
+     * @return the revision, whose bundle is the created bundle.
+     * @throws Exception if the revision cannot be created.
+    **/
+    static BundleRevisionImpl createCachedRevision(Felix felix, BundleArchive archive)
+        throws Exception
+    {
+        return new BundleImpl(felix, null, archive, false).newRevision();
+    }
+
+    /**
+     * Adds a revision created by {@link #createCachedRevision(Felix, BundleArchive)}
+     * after checking that its symbolic name and version are unique among
+     * the installed bundles.
+     * @param revision the revision of this bundle.
+     * @throws Exception if the revision cannot be added.
+    **/
+    void addCachedRevision(BundleRevisionImpl revision) throws Exception
+    {
+        checkUniqueness(revision, false);
         addRevision(revision);
     }
 
@@ -233,6 +282,46 @@ class BundleImpl implements Bundle, BundleRevisions
         m_activator = activator;
     }
 
+    long getResolveNanos()
+    {
+        return m_resolveNanos;
+    }
+
+    void setResolveNanos(long nanos)
+    {
+        m_resolveNanos = nanos;
+    }
+
+    long getActivatorLoadNanos()
+    {
+        return m_activatorLoadNanos;
+    }
+
+    void setActivatorLoadNanos(long nanos)
+    {
+        m_activatorLoadNanos = nanos;
+    }
+
+    long getActivatorStartNanos()
+    {
+        return m_activatorStartNanos;
+    }
+
+    void setActivatorStartNanos(long nanos)
+    {
+        m_activatorStartNanos = nanos;
+    }
+
+    long getActivatorStopNanos()
+    {
+        return m_activatorStopNanos;
+    }
+
+    void setActivatorStopNanos(long nanos)
+    {
+        m_activatorStopNanos = nanos;
+    }
+
     @Override
     public BundleContext getBundleContext()
     {
@@ -1261,19 +1350,84 @@ class BundleImpl implements Bundle, BundleRevisions
 
     private BundleRevisionImpl createRevision(boolean isUpdate) throws Exception
     {
-        // Get and parse the manifest from the most recent revision and
-        // create an associated revision object for it.
-        Map headerMap = Util.getMultiReleaseAwareManifestHeaders(
-            getFramework()._getProperty("java.specification.version"), m_archive.getCurrentRevision());
+        BundleRevisionImpl revision = newRevision();
+        checkUniqueness(revision, isUpdate);
+        return revision;
+    }
+
+    private BundleRevisionImpl newRevision() throws Exception
+    {
+        String id = Long.toString(getBundleId())
+            + "." + m_archive.getCurrentRevisionNumber().toString();
+        Content content = m_archive.getCurrentRevision().getContent();
+
+        // Reuse the parsed manifest of an earlier session if enabled.
+        File snapshotFile = null;
+        String snapshotKey = null;
+        RevisionSnapshot snapshot = null;
+        if (Boolean.parseBoolean(getFramework()._getProperty(BundleCache.CACHE_SNAPSHOT_PROP)))
+        {
+            snapshotKey = RevisionSnapshot.createKey(getFramework(), id, content);
+            if (snapshotKey != null)
+            {
+                snapshotFile = new File(
+                    m_archive.getCurrentRevision().getRevisionRootDir(),
+                    RevisionSnapshot.SNAPSHOT_FILE);
+                try
+                {
+                    snapshot = RevisionSnapshot.load(snapshotFile, snapshotKey);
+                }
+                catch (Exception ex)
+                {
+                    getFramework().getLogger().log(
+                        this, Logger.LOG_DEBUG, "Unable to read revision snapshot.", ex);
+                }
+            }
+        }
+
+        BundleRevisionImpl revision;
+        if (snapshot != null)
+        {
+            revision = new BundleRevisionImpl(this, id, snapshot, content);
+        }
+        else
+        {
+            // Get and parse the manifest from the most recent revision and
+            // create an associated revision object for it.
+            Map headerMap = Util.getMultiReleaseAwareManifestHeaders(
+                getFramework()._getProperty("java.specification.version"), m_archive.getCurrentRevision());
 
-        // Create the bundle revision instance.
-        BundleRevisionImpl revision = new BundleRevisionImpl(
-            this,
-            Long.toString(getBundleId())
-                + "." + m_archive.getCurrentRevisionNumber().toString(),
-            headerMap,
-            m_archive.getCurrentRevision().getContent());
+            // Create the bundle revision instance.
+            revision = new BundleRevisionImpl(this, id, headerMap, content);
 
+            if (snapshotFile != null)
+            {
+                try
+                {
+                    RevisionSnapshot.store(snapshotFile, snapshotKey, revision);
+                }
+                catch (Exception ex)
+                {
+                    getFramework().getLogger().log(
+                        this, Logger.LOG_DEBUG, "Unable to write revision snapshot.", ex);
+                }
+            }
+        }
+
+        // Persist the content path index next to the revision if enabled.
+        if (Boolean.parseBoolean(getFramework()._getProperty(BundleCache.CACHE_CLASSPATH_INDEX_PROP)))
+        {
+            revision.setContentPathIndexFile(new File(
+                m_archive.getCurrentRevision().getRevisionRootDir(),
+                ContentPathIndex.INDEX_FILE));
+        }
+
+        return revision;
+    }
+
+    private void checkUniqueness(BundleRevisionImpl revision, boolean isUpdate)
+        throws Exception
+    {
         // For R4 bundles, verify that the bundle symbolic name + version
         // is unique unless this check has been disabled.
         String allowMultiple =
@@ -1339,8 +1493,6 @@ class BundleImpl implements Bundle, BundleRevisions
                     + symName + ':' + bundleVersion, BundleException.DUPLICATE_BUNDLE_ERROR);
             }
         }
-
-        return revision;
     }
 
     synchronized ProtectionDomain getProtectionDomain()
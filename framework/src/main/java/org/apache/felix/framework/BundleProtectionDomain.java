@@ -49,6 +49,7 @@ import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import org.apache.felix.framework.cache.Content;
 import org.apache.felix.framework.cache.JarContent;
+import org.apache.felix.framework.cache.MappedJarContent;
 import org.apache.felix.framework.util.FelixConstants;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.PackagePermission;
@@ -260,6 +261,10 @@ public class BundleProtectionDomain extends ProtectionDomain
                 {
                     target = ((JarContent) content).getFile();
                 }
+                else if (content instanceof MappedJarContent)
+                {
+                    target = ((MappedJarContent) content).getFile();
+                }
                 else
                 {
                     target = Felix.m_secureAction.createTempFile("jar", null, null);
@@ -36,6 +36,7 @@ import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
 import org.osgi.resource.Resource;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -72,6 +73,8 @@ public class BundleRevisionImpl implements BundleRevision, Resource
 
     private volatile Content m_content;
     private volatile List<Content> m_contentPath;
+    private volatile File m_contentPathIndexFile;
+    private volatile ContentPathIndex m_contentPathIndex;
     private volatile ProtectionDomain m_protectionDomain = null;
     private final static SecureAction m_secureAction = new SecureAction();
 
@@ -140,6 +143,31 @@ public class BundleRevisionImpl implements BundleRevision, Resource
         m_isFragment = m_headerMap.containsKey(Constants.FRAGMENT_HOST);
     }
 
+    /**
+     * Creates a revision from the persisted snapshot of its parsed manifest
+     * instead of parsing the manifest again.
+    **/
+    BundleRevisionImpl(
+        BundleImpl bundle, String id, RevisionSnapshot snapshot, Content content)
+    {
+        m_bundle = bundle;
+        m_id = id;
+        m_headerMap = snapshot.getHeaders();
+        m_content = content;
+
+        m_isExtension = snapshot.isExtension();
+        m_manifestVersion = snapshot.getManifestVersion();
+        m_version = snapshot.getVersion();
+        m_declaredCaps = snapshot.getCapabilities(this);
+        m_declaredReqs = snapshot.getRequirements(this);
+        m_declaredNativeLibs = null;
+        m_declaredActivationPolicy = snapshot.getActivationPolicy();
+        m_activationExcludes = snapshot.getActivationExcludes();
+        m_activationIncludes = snapshot.getActivationIncludes();
+        m_symbolicName = snapshot.getSymbolicName();
+        m_isFragment = m_headerMap.containsKey(Constants.FRAGMENT_HOST);
+    }
+
     static SecureAction getSecureAction()
     {
         return m_secureAction;
@@ -150,6 +178,16 @@ public class BundleRevisionImpl implements BundleRevision, Resource
         return m_declaredActivationPolicy;
     }
 
+    List<String> getActivationIncludes()
+    {
+        return m_activationIncludes;
+    }
+
+    List<String> getActivationExcludes()
+    {
+        return m_activationExcludes;
+    }
+
     boolean isActivationTrigger(String pkgName)
     {
         if ((m_activationIncludes == null) && (m_activationExcludes == null))
@@ -314,6 +352,7 @@ public class BundleRevisionImpl implements BundleRevision, Resource
                     }
                 }
                 m_contentPath = null;
+                m_contentPathIndex = null;
             }
 
             m_wiring = wiring;
@@ -392,6 +431,94 @@ public class BundleRevisionImpl implements BundleRevision, Resource
         return contentList;
     }
 
+    void setContentPathIndexFile(File file)
+    {
+        m_contentPathIndexFile = file;
+    }
+
+    /**
+     * Returns a mask with a bit set for each entry of the content path that
+     * cannot contain the named entry and can be skipped; no bits are set if
+     * the content path is not indexed.
+    **/
+    long getContentPathSkipMask(String name)
+    {
+        ContentPathIndex index = m_contentPathIndex;
+        if ((index == null) && (m_contentPathIndexFile != null))
+        {
+            index = initializeContentPathIndex();
+        }
+        return (index == null) ? 0L : ~index.getMask(name);
+    }
+
+    private synchronized ContentPathIndex initializeContentPathIndex()
+    {
+        File file = m_contentPathIndexFile;
+        List<Content> contentPath = getContentPath();
+        if ((m_contentPathIndex != null) || (file == null) || (contentPath == null))
+        {
+            return m_contentPathIndex;
+        }
+
+        // The content path depends on the attached fragments, so they
+        // are part of the key along with the bundle content itself.
+        StringBuilder key = new StringBuilder(m_id)
+            .append(';').append(m_bundle.getLastModified())
+            .append(';').append(getBundle().getFramework()._getProperty("java.specification.version"))
+            .append(';').append(contentPath.size());
+        boolean indexable = ContentPathIndex.appendKey(key, m_content);
+        if (m_wiring != null)
+        {
+            List<BundleRevision> fragments = m_wiring.getFragments();
+            List<Content> fragmentContents = m_wiring.getFragmentContents();
+            for (int i = 0; indexable && (fragments != null) && (i < fragments.size()); i++)
+            {
+                key.append(';').append(((BundleRevisionImpl) fragments.get(i)).getId());
+                indexable = ContentPathIndex.appendKey(key, fragmentContents.get(i));
+            }
+        }
+        if (!indexable)
+        {
+            m_contentPathIndexFile = null;
+            return null;
+        }
+
+        ContentPathIndex index = null;
+        try
+        {
+            index = ContentPathIndex.load(file, key.toString());
+        }
+        catch (Exception ex)
+        {
+            m_bundle.getFramework().getLogger().log(
+                m_bundle, Logger.LOG_DEBUG, "Unable to read class path index.", ex);
+        }
+        if (index == null)
+        {
+            index = ContentPathIndex.build(key.toString(), contentPath);
+            if (index == null)
+            {
+                m_contentPathIndexFile = null;
+                return null;
+            }
+            try
+            {
+                index.store(file);
+            }
+            catch (Exception ex)
+            {
+                m_bundle.getFramework().getLogger().log(
+                    m_bundle, Logger.LOG_DEBUG, "Unable to write class path index.", ex);
+            }
+        }
+        // Only publish the index if the content path it describes is current.
+        if (contentPath == m_contentPath)
+        {
+            m_contentPathIndex = index;
+        }
+        return index;
+    }
+
     private List calculateContentPath(
         BundleRevision revision, Content content, List<Content> contentList,
         boolean searchFragments)
@@ -500,11 +627,12 @@ public class BundleRevisionImpl implements BundleRevision, Resource
 
         // Check the module class path.
         List<Content> contentPath = getContentPath();
+        long skip = getContentPathSkipMask(name);
         for (int i = 0;
             (url == null) &&
             (i < contentPath.size()); i++)
         {
-            if (contentPath.get(i).hasEntry(name))
+            if (((skip & (1L << i)) == 0) && contentPath.get(i).hasEntry(name))
             {
                 url = createURL(i + 1, name);
             }
@@ -540,9 +668,10 @@ public class BundleRevisionImpl implements BundleRevision, Resource
             }
 
             // Check the module class path.
+            long skip = getContentPathSkipMask(name);
             for (int i = 0; i < contentPath.size(); i++)
             {
-                if (contentPath.get(i).hasEntry(name))
+                if (((skip & (1L << i)) == 0) && contentPath.get(i).hasEntry(name))
                 {
                     // Use the class path index + 1 for creating the path so
                     // that we can differentiate between module content URLs
@@ -676,6 +805,7 @@ public class BundleRevisionImpl implements BundleRevision, Resource
             m_contentPath.get(i).close();
         }
         m_contentPath = null;
+        m_contentPathIndex = null;
     }
 
     @Override
@@ -2042,13 +2042,17 @@ public class BundleWiringImpl implements BundleWiring
 
                 // Check the bundle class path.
                 List<Content> contentPath = m_wiring.m_revision.getContentPath();
+                long skip = m_wiring.m_revision.getContentPathSkipMask(actual);
                 Content content = null;
                 for (int i = 0;
                         (bytes == null) &&
                         (i < contentPath.size()); i++)
                 {
-                    bytes = contentPath.get(i).getEntryAsBytes(actual);
-                    content = contentPath.get(i);
+                    if ((skip & (1L << i)) == 0)
+                    {
+                        bytes = contentPath.get(i).getEntryAsBytes(actual);
+                        content = contentPath.get(i);
+                    }
                 }
 
                 if (bytes != null)
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.cache.JarContent;
+import org.apache.felix.framework.cache.MappedJarContent;
+
+/**
+ * <p>
+ * This class records, for every directory of a revision's content path,
+ * which class path entries contain entries in that directory. Class and
+ * resource lookups use it to probe only the contents that can possibly
+ * hold the requested entry, which also makes misses (e.g., when searching
+ * the providers of a split required package) cheap.
+ * </p>
+ * <p>
+ * Building the index requires enumerating every content, so it is persisted
+ * in the revision directory of the bundle cache and reused on later starts
+ * for as long as its key matches. The key captures everything the content
+ * path depends on: the revision, the bundle's last modification, the
+ * attached fragments, the Java version, and the JAR files themselves.
+ * Directory based contents can change behind the framework's back, so
+ * revisions using them are never indexed.
+ * </p>
+**/
+final class ContentPathIndex
+{
+    static final String INDEX_FILE = "classpath.index";
+
+    /** Mask of a lookup that has to probe every content. */
+    static final long ALL = -1L;
+
+    private static final int VERSION = 1;
+
+    private final String m_key;
+    private final Map<String, Long> m_dirs;
+
+    private ContentPathIndex(String key, Map<String, Long> dirs)
+    {
+        m_key = key;
+        m_dirs = dirs;
+    }
+
+    /**
+     * Appends the part of an index key that describes the specified content.
+     * @return <tt>false</tt> if the content cannot be indexed.
+    **/
+    static boolean appendKey(StringBuilder key, Content content)
+    {
+        File file;
+        if (content instanceof JarContent)
+        {
+            file = ((JarContent) content).getFile();
+        }
+        else if (content instanceof MappedJarContent)
+        {
+            file = ((MappedJarContent) content).getFile();
+        }
+        else
+        {
+            return false;
+        }
+        key.append(';').append(file.getPath())
+            .append(':').append(file.length())
+            .append(':').append(file.lastModified());
+        return true;
+    }
+
+    static ContentPathIndex build(String key, List<Content> contentPath)
+    {
+        // One bit per class path entry.
+        if (contentPath.size() > 64)
+        {
+            return null;
+        }
+        Map<String, Long> dirs = new HashMap<String, Long>();
+        for (int i = 0; i < contentPath.size(); i++)
+        {
+            Enumeration<String> entries = contentPath.get(i).getEntries();
+            while ((entries != null) && entries.hasMoreElements())
+            {
+                String dir = getDirectory(entries.nextElement());
+                if (dir != null)
+                {
+                    Long mask = dirs.get(dir);
+                    dirs.put(dir, ((mask == null) ? 0L : mask.longValue()) | (1L << i));
+                }
+            }
+        }
+        return new ContentPathIndex(key, dirs);
+    }
+
+    /**
+     * Loads a persisted index.
+     * @return the index or <tt>null</tt> if there is none or it has a
+     *         different key.
+    **/
+    static ContentPathIndex load(File file, String key) throws IOException
+    {
+        if (!BundleRevisionImpl.getSecureAction().fileExists(file))
+        {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            BundleRevisionImpl.getSecureAction().getFileInputStream(file)));
+        try
+        {
+            if ((in.readInt() != VERSION) || !in.readUTF().equals(key))
+            {
+                return null;
+            }
+            int size = in.readInt();
+            Map<String, Long> dirs = new HashMap<String, Long>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++)
+            {
+                String dir = in.readUTF();
+                dirs.put(dir, in.readLong());
+            }
+            return new ContentPathIndex(key, dirs);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    void store(File file) throws IOException
+    {
+        // Write to a temporary file first so a crash never leaves a
+        // truncated index behind.
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            BundleRevisionImpl.getSecureAction().getFileOutputStream(tmp)));
+        try
+        {
+            out.writeInt(VERSION);
+            out.writeUTF(m_key);
+            out.writeInt(m_dirs.size());
+            for (Map.Entry<String, Long> entry : m_dirs.entrySet())
+            {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        BundleRevisionImpl.getSecureAction().deleteFile(file);
+        if (!BundleRevisionImpl.getSecureAction().renameFile(tmp, file))
+        {
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Returns a mask with a bit set for each content that may contain the
+     * named entry.
+    **/
+    long getMask(String name)
+    {
+        // Leave paths that contents may resolve differently to them.
+        if ((name.length() == 0) || (name.indexOf("..") >= 0)
+            || (name.indexOf("//") >= 0) || (name.indexOf("./") >= 0))
+        {
+            return ALL;
+        }
+        String dir = getDirectory(name);
+        if (dir == null)
+        {
+            return ALL;
+        }
+        Long mask = m_dirs.get(dir);
+        return (mask == null) ? 0L : mask.longValue();
+    }
+
+    private static String getDirectory(String name)
+    {
+        int start = 0;
+        while ((start < name.length()) && (name.charAt(start) == '/'))
+        {
+            start++;
+        }
+        // Directory entries and lookups without the trailing slash
+        // both belong to the parent directory.
+        int end = name.length();
+        if ((end > start) && (name.charAt(end - 1) == '/'))
+        {
+            end--;
+        }
+        if (end <= start)
+        {
+            return null;
+        }
+        int idx = name.lastIndexOf('/', end - 1);
+        return (idx < start) ? "" : name.substring(start, idx + 1);
+    }
+}
@@ -18,6 +18,10 @@
  */
 package org.apache.felix.framework;
 
+import org.apache.felix.framework.dto.BundleTimingDTO;
+import org.apache.felix.framework.dto.FrameworkTimingDTO;
+import org.apache.felix.framework.dto.ServiceListenerStatisticsDTO;
+import org.apache.felix.framework.dto.StartLevelTimingDTO;
 import org.osgi.dto.DTO;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -117,6 +121,18 @@ public class DTOFactory
         {
             return type.cast(createFrameworkWiringDTO((Felix) bundle));
         }
+        else if (type == BundleTimingDTO.class && bundle instanceof BundleImpl)
+        {
+            return type.cast(createBundleTimingDTO((BundleImpl) bundle));
+        }
+        else if (type == FrameworkTimingDTO.class && bundle instanceof Felix)
+        {
+            return type.cast(createFrameworkTimingDTO((Felix) bundle));
+        }
+        else if (type == ServiceListenerStatisticsDTO.class && bundle instanceof Felix)
+        {
+            return type.cast(((Felix) bundle).getEventDispatcher().getServiceListenerStatistics());
+        }
         return null;
     }
 
@@ -131,6 +147,17 @@ public class DTOFactory
         return dto;
     }
 
+    private static BundleTimingDTO createBundleTimingDTO(BundleImpl bundle)
+    {
+        BundleTimingDTO dto = new BundleTimingDTO();
+        dto.bundle = bundle.getBundleId();
+        dto.resolveNanos = bundle.getResolveNanos();
+        dto.activatorLoadNanos = bundle.getActivatorLoadNanos();
+        dto.activatorStartNanos = bundle.getActivatorStartNanos();
+        dto.activatorStopNanos = bundle.getActivatorStopNanos();
+        return dto;
+    }
+
     private static BundleRevisionDTO createBundleRevisionDTO(Bundle bundle)
     {
         BundleRevision br = bundle.adapt(BundleRevision.class);
@@ -366,6 +393,31 @@ public class DTOFactory
         return dto;
     }
 
+    private static FrameworkTimingDTO createFrameworkTimingDTO(Felix framework)
+    {
+        FrameworkTimingDTO dto = new FrameworkTimingDTO();
+
+        dto.bundles = new ArrayList<BundleTimingDTO>();
+        for (Bundle b : framework._getBundleContext().getBundles())
+        {
+            BundleTimingDTO btdto = DTOFactory.createDTO(b, BundleTimingDTO.class);
+            if (btdto != null)
+            {
+                dto.bundles.add(btdto);
+            }
+        }
+
+        dto.startLevels = new ArrayList<StartLevelTimingDTO>();
+        for (Map.Entry<Integer, Long> entry : framework.getStartLevelNanos().entrySet())
+        {
+            StartLevelTimingDTO sltdto = new StartLevelTimingDTO();
+            sltdto.startLevel = entry.getKey();
+            sltdto.durationNanos = entry.getValue();
+            dto.startLevels.add(sltdto);
+        }
+        return dto;
+    }
+
     @SuppressWarnings("unchecked")
     private static FrameworkDTO createFrameworkDTO(Felix framework)
     {
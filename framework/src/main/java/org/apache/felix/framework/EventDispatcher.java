@@ -32,7 +32,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.felix.framework.dto.ServiceListenerStatisticsDTO;
 import org.apache.felix.framework.util.*;
 import org.osgi.framework.AllServiceListener;
 import org.osgi.framework.Bundle;
@@ -64,6 +66,14 @@ public class EventDispatcher
         m_syncBndlListeners = Collections.EMPTY_MAP;
     private Map<BundleContext, List<ListenerInfo>>
         m_svcListeners = Collections.EMPTY_MAP;
+    private ServiceListenerIndex m_svcIndex = ServiceListenerIndex.EMPTY;
+
+    // Service listeners considered and skipped by the objectClass index,
+    // only counted if enabled since the counters are shared by all threads
+    // firing service events.
+    private final boolean m_svcListenerStatistics;
+    private final AtomicLong m_svcListenersConsidered = new AtomicLong();
+    private final AtomicLong m_svcListenersSkipped = new AtomicLong();
 
     // A single thread is used to deliver events for all dispatchers.
     private static Thread m_thread = null;
@@ -79,9 +89,16 @@ public class EventDispatcher
     private static final SecureAction m_secureAction = new SecureAction();
 
     public EventDispatcher(Logger logger, ServiceRegistry registry)
+    {
+        this(logger, registry, false);
+    }
+
+    public EventDispatcher(
+        Logger logger, ServiceRegistry registry, boolean svcListenerStatistics)
     {
         m_logger = logger;
         m_registry = registry;
+        m_svcListenerStatistics = svcListenerStatistics;
     }
 
     public void startDispatching()
@@ -259,7 +276,7 @@ public class EventDispatcher
             }
             else if (clazz == ServiceListener.class)
             {
-                m_svcListeners = listeners;
+                setServiceListeners(listeners, bc);
             }
         }
         return null;
@@ -357,7 +374,7 @@ public class EventDispatcher
             }
             else if (clazz == ServiceListener.class)
             {
-                m_svcListeners = listeners;
+                setServiceListeners(listeners, bc);
             }
         }
 
@@ -386,7 +403,7 @@ public class EventDispatcher
             m_syncBndlListeners = removeListenerInfos(m_syncBndlListeners, bc);
 
             // Remove all service listeners associated with the specified bundle.
-            m_svcListeners = removeListenerInfos(m_svcListeners, bc);
+            setServiceListeners(removeListenerInfos(m_svcListeners, bc), bc);
         }
     }
 
@@ -426,7 +443,8 @@ public class EventDispatcher
                             filter,
                             info.getSecurityContext(),
                             info.isRemoved());
-                        m_svcListeners = updateListenerInfo(m_svcListeners, i, newInfo);
+                        setServiceListeners(
+                            updateListenerInfo(m_svcListeners, i, newInfo), bc);
                         return oldFilter;
                     }
                 }
@@ -436,6 +454,36 @@ public class EventDispatcher
         return null;
     }
 
+    /**
+     * Replaces the service listener map and updates the objectClass index
+     * for the listeners of the specified bundle context, which must be the
+     * only context whose listeners changed. Must be called while holding
+     * the lock of this dispatcher.
+    **/
+    private void setServiceListeners(
+        Map<BundleContext, List<ListenerInfo>> listeners, BundleContext bc)
+    {
+        m_svcIndex = m_svcIndex.update(bc, m_svcListeners.get(bc), listeners.get(bc));
+        m_svcListeners = listeners;
+    }
+
+    /**
+     * Returns how many service listeners were not evaluated for service
+     * events, because the objectClass constraints of their filters could not
+     * match the service. Listeners are only counted if statistics were
+     * enabled when creating this dispatcher.
+     * @return the service listener statistics.
+    **/
+    public ServiceListenerStatisticsDTO getServiceListenerStatistics()
+    {
+        ServiceListenerStatisticsDTO dto = new ServiceListenerStatisticsDTO();
+        dto.enabled = m_svcListenerStatistics;
+        dto.considered = m_svcListenersConsidered.get();
+        dto.skipped = m_svcListenersSkipped.get();
+        dto.skipRatio = (dto.considered == 0) ? 0 : (double) dto.skipped / dto.considered;
+        return dto;
+    }
+
     /**
      * Returns all existing service listener information into a collection of
      * ListenerHook.ListenerInfo objects. This is used the first time a listener
@@ -533,9 +581,34 @@ public class EventDispatcher
     {
         // Take a snapshot of the listener array.
         Map<BundleContext, List<ListenerInfo>> listeners = null;
+        ServiceListenerIndex index = null;
         synchronized (this)
         {
             listeners = m_svcListeners;
+            index = m_svcIndex;
+        }
+
+        // Only pass the listeners whose filter may match the service's object
+        // classes on. Service registry hooks get to see all listeners, so the
+        // index is not used at all while any such hook is registered.
+        if (m_registry.getHookRegistry().getHooks(
+                org.osgi.framework.hooks.service.EventHook.class).isEmpty()
+            && m_registry.getHookRegistry().getHooks(
+                org.osgi.framework.hooks.service.EventListenerHook.class).isEmpty())
+        {
+            Map<BundleContext, List<ListenerInfo>> candidates =
+                index.getListeners(event.getServiceReference(), listeners);
+            if (m_svcListenerStatistics)
+            {
+                int count = 0;
+                for (List<ListenerInfo> infos : candidates.values())
+                {
+                    count += infos.size();
+                }
+                m_svcListenersConsidered.addAndGet(index.size());
+                m_svcListenersSkipped.addAndGet(index.size() - count);
+            }
+            listeners = candidates;
         }
 
         // Use service registry hooks to filter target listeners.
@@ -546,7 +619,6 @@ public class EventDispatcher
             this, Request.SERVICE_EVENT, listeners, event, oldProps);
     }
 
-// TODO: OSGi R4.3 - This is ugly and inefficient.
     private Map<BundleContext, List<ListenerInfo>> filterListenersUsingHooks(
         ServiceEvent event, Felix felix, Map<BundleContext, List<ListenerInfo>> listeners)
     {
@@ -577,36 +649,14 @@ public class EventDispatcher
             m_registry.getHookRegistry().getHooks(org.osgi.framework.hooks.service.EventListenerHook.class);
         if (!elhs.isEmpty())
         {
-            List<ListenerInfo> systemBundleListeners = null;
+            // The hooks get a shrinkable view of the listeners that only
+            // copies the lists of the bundle contexts they remove entries from.
+            CopyOnShrinkMap<BundleContext, ListenerInfo> shrinkableMap =
+                new CopyOnShrinkMap<BundleContext, ListenerInfo>(listeners);
 
-            // The mutable map is used to keep the lists that underpin the shrinkable collections.
-            Map<BundleContext, List<ListenerInfo>> mutableMap =
-                    new HashMap<BundleContext, List<ListenerInfo>>();
-            // Create map with shrinkable collections.
-            Map<BundleContext, Collection<ListenerHook.ListenerInfo>> shrinkableMap =
-                new HashMap<BundleContext, Collection<ListenerHook.ListenerInfo>>();
-            for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
-            {
-                BundleContext bc = entry.getKey();
-                ArrayList<ListenerInfo> mutableList = new ArrayList<ListenerInfo>(entry.getValue());
-                mutableMap.put(bc, mutableList);
-
-                // We want to pass the list as a generic collection to Shrinkable Collection.
-                // Need to convert to raw type before we can do this...
-                ArrayList ml = mutableList;
-
-                Collection<ListenerHook.ListenerInfo> shrinkableCollection =
-                        new ShrinkableCollection<ListenerHook.ListenerInfo>(ml);
-                shrinkableMap.put(bc, shrinkableCollection);
-
-                // Keep a copy of the System Bundle Listeners, as they might be removed by the hooks, but we
-                // actually need to keep them in the end.
-                if (bc == felix._getBundleContext())
-                    systemBundleListeners = new ArrayList<ListenerInfo>(entry.getValue());
-            }
-            shrinkableMap =
-                new ShrinkableMap<BundleContext, Collection<ListenerHook.ListenerInfo>>
-                    (shrinkableMap);
+            // The view is typed by our listener info, so convert to raw type
+            // before passing it on as a map of hook listener infos.
+            Map rawMap = shrinkableMap;
 
             for (ServiceReference<org.osgi.framework.hooks.service.EventListenerHook> sr : elhs)
             {
@@ -626,7 +676,7 @@ public class EventDispatcher
                         try
                         {
                             m_secureAction.invokeServiceEventListenerHook(
-                                elh, event, shrinkableMap);
+                                elh, event, rawMap);
                         }
                         catch (Throwable th)
                         {
@@ -641,28 +691,22 @@ public class EventDispatcher
                 }
             }
 
-// TODO: OSGi R4.3 - Should check and only do this if there was a change.
-
-            // the listeners map should only contain List values, and not Shrinkable
-            // Collections. Therefore we create a new map from the lists that are
-            // the delegates for the Shrinkable Collections. Any changes made by the
-            // hooks will have propagated to these maps.
-            Map<BundleContext, List<ListenerInfo>> newMap =
-                new HashMap<BundleContext, List<ListenerInfo>>();
-            for (Map.Entry<BundleContext, Collection<ListenerHook.ListenerInfo>> entry : shrinkableMap.entrySet())
+            if (shrinkableMap.isModified())
             {
-                if (!entry.getValue().isEmpty())
+                Map<BundleContext, List<ListenerInfo>> newMap = shrinkableMap.toMap();
+
+                // Put the system bundle listeners back, because they really need to be called
+                // regardless whether they were removed by the hooks or not.
+                BundleContext systemBundleContext = felix._getBundleContext();
+                List<ListenerInfo> systemBundleListeners = listeners.get(systemBundleContext);
+                if ((systemBundleListeners != null)
+                    && (newMap.get(systemBundleContext) != systemBundleListeners))
                 {
-                    newMap.put(entry.getKey(), mutableMap.get(entry.getKey()));
+                    newMap.put(systemBundleContext, systemBundleListeners);
                 }
-            }
-
-            // Put the system bundle listeners back, because they really need to be called
-            // regardless whether they were removed by the hooks or not.
-            if (systemBundleListeners != null)
-                newMap.put(felix._getBundleContext(), systemBundleListeners);
 
-            listeners = newMap;
+                listeners = newMap;
+            }
         }
 
         return listeners;
@@ -106,6 +106,15 @@ import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -180,6 +189,9 @@ public class Felix extends BundleImpl implements Framework
     // Keep track of bundles currently being processed by start level thread.
     private final SortedSet<StartLevelTuple> m_startLevelBundles =
         new TreeSet<StartLevelTuple>();
+    // Nanoseconds the last change to each start level took.
+    private final Map<Integer, Long> m_startLevelNanos =
+        new ConcurrentHashMap<Integer, Long>();
 
     // Local bundle cache.
     private BundleCache m_cache = null;
@@ -264,6 +276,23 @@ public class Felix extends BundleImpl implements Framework
      *       sets an upper limit on how many files the cache will open. The default
      *       value is zero, which means there is no limit.
      *   </li>
+     *   <li><tt>felix.cache.mapjars</tt> - If set to <tt>true</tt>, bundle JAR
+     *       files are memory mapped and indexed once instead of being kept open,
+     *       so their entries remain accessible without counting against the
+     *       file limit. The default value is <tt>false</tt>.
+     *   </li>
+     *   <li><tt>felix.cache.classpathindex</tt> - If set to <tt>true</tt>, an
+     *       index of which class path entries hold which packages is stored
+     *       with each bundle revision and reused across restarts, so class and
+     *       resource lookups only probe the entries that can contain them. The
+     *       default value is <tt>false</tt>.
+     *   </li>
+     *   <li><tt>felix.cache.snapshot</tt> - If set to <tt>true</tt>, the
+     *       parsed manifest headers, capabilities and requirements of each
+     *       bundle revision are stored with the revision, so restarts neither
+     *       read nor parse the manifests of unchanged bundles again. The
+     *       default value is <tt>false</tt>.
+     *   </li>
      *   <li><tt>felix.cache.locking</tt> - Enables or disables bundle cache locking,
      *       which is used to prevent concurrent access to the bundle cache. This is
      *       enabled by default, but on older/smaller JVMs file channel locking is
@@ -274,6 +303,12 @@ public class Felix extends BundleImpl implements Framework
      *       string provides control over the size of the internal buffer of the
      *       disk cache for performance reasons.
      *   </li>
+     *   <li><tt>felix.cache.reload.parallelism</tt> - The number of threads
+     *       used to read and parse the cached bundles concurrently when the
+     *       framework is initialized. The bundles are still installed in the
+     *       order of their bundle identifiers. The default value is 1, which
+     *       reloads bundles sequentially.
+     *   </li>
      *   <li><tt>org.osgi.framework.system.packages</tt> - Specifies a
      *       comma-delimited list of packages that should be exported via the
      *       System Bundle from the parent class loader. The framework will set
@@ -316,6 +351,23 @@ public class Felix extends BundleImpl implements Framework
      *   <li><tt>felix.startlevel.bundle</tt> - The default start level for
      *       newly installed bundles; the default value is 1.
      *   </li>
+     *   <li><tt>felix.startlevel.parallelism</tt> - The number of threads used
+     *       to start the bundles of the same start level concurrently when the
+     *       active start level is raised. Start levels are still processed one
+     *       after another. The default value is 1, which starts bundles
+     *       sequentially.
+     *   </li>
+     *   <li><tt>felix.resolver.timeout</tt> - The time budget in milliseconds
+     *       for a single resolve operation. A resolve that takes longer fails
+     *       with a resolution exception describing how far it got. The default
+     *       value is 0, which means no time budget.
+     *   </li>
+     *   <li><tt>felix.servicelistener.statistics</tt> - Flag to indicate
+     *       whether to count the service listeners skipped by the objectClass
+     *       index of service listeners. The counts are available by adapting
+     *       the system bundle to <tt>ServiceListenerStatisticsDTO</tt>. The
+     *       default value is "<tt>false</tt>".
+     *   </li>
      *   <li><tt>felix.service.urlhandlers</tt> - Flag to indicate whether
      *       to activate the URL Handlers service for the framework instance;
      *       the default value is "<tt>true</tt>". Activating the URL Handlers
@@ -454,7 +506,8 @@ public class Felix extends BundleImpl implements Framework
         }
 
         // Create event dispatcher.
-        m_dispatcher = new EventDispatcher(m_logger, m_registry);
+        m_dispatcher = new EventDispatcher(m_logger, m_registry,
+            "true".equalsIgnoreCase(getProperty(FelixConstants.SERVICE_LISTENER_STATISTICS)));
 
         // Create framework wiring object.
         m_fwkWiring = new FrameworkWiringImpl(this, m_registry);
@@ -467,6 +520,11 @@ public class Felix extends BundleImpl implements Framework
         return m_logger;
     }
 
+    EventDispatcher getEventDispatcher()
+    {
+        return m_dispatcher;
+    }
+
     Map<String, Object> getConfig()
     {
         return m_configMap;
@@ -798,6 +856,10 @@ public class Felix extends BundleImpl implements Framework
 
                 boolean javaVersionChanged = handleJavaVersionChange();
 
+                // Create the revisions of the cached bundles up front if this
+                // is to be done concurrently.
+                List<Future<BundleRevisionImpl>> revisions = createCachedRevisions(archives);
+
                 // Now load all cached bundles.
                 for (int i = 0; (archives != null) && (i < archives.length); i++)
                 {
@@ -821,7 +883,9 @@ public class Felix extends BundleImpl implements Framework
                         else
                         {
                             // Install the cached bundle.
-                            reloadBundle(archives[i], javaVersionChanged);
+                            reloadBundle(archives[i],
+                                (revisions == null) ? null : revisions.get(i),
+                                javaVersionChanged);
                         }
                     }
                     catch (Exception ex)
@@ -1456,126 +1520,93 @@ public class Felix extends BundleImpl implements Framework
             int high = (isLowering) ? m_activeStartLevel : m_targetStartLevel;
             m_activeStartLevel = (isLowering) ? high : low;
 
-            // Process bundles and stop or start them accordingly.
-            while (bundlesRemaining)
+            // Bundles within a start level may optionally be started
+            // concurrently; start levels are still processed in order.
+            ExecutorService executor = (isLowering) ? null : createStartLevelExecutor();
+            int timedLevel = m_activeStartLevel;
+            long levelStart = System.nanoTime();
+            try
             {
-                StartLevelTuple tuple;
-
-                // Remove our tuple to be processed while holding the queue lock
-                // and update the active start level accordingly, which allows
-                // us to determine in startBundle() if concurrent requests to
-                // start a bundle should be handled synchronously or just added
-                // to the queue and handled asynchronously.
-                synchronized (m_startLevelBundles)
+                // Process bundles and stop or start them accordingly.
+                while (bundlesRemaining)
                 {
-                    if (isLowering)
-                    {
-                        tuple = m_startLevelBundles.last();
-                    }
-                    else
-                    {
-                        tuple = m_startLevelBundles.first();
-                    }
+                    List<StartLevelTuple> tuples;
 
-                    if ((tuple.m_level >= low) && (tuple.m_level <= high))
+                    // Remove our tuple to be processed while holding the queue lock
+                    // and update the active start level accordingly, which allows
+                    // us to determine in startBundle() if concurrent requests to
+                    // start a bundle should be handled synchronously or just added
+                    // to the queue and handled asynchronously.
+                    synchronized (m_startLevelBundles)
                     {
-                        m_activeStartLevel = tuple.m_level;
-                    }
-                }
-
-                // Ignore the system bundle, since its start() and
-                // stop() methods get called explicitly in Felix.start()
-                // and Felix.stop(), respectively.
-                if (tuple.m_bundle.getBundleId() != 0)
-                {
-                    // Lock the current bundle.
-                    try
-                    {
-                        acquireBundleLock(tuple.m_bundle,
-                            Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
-                            | Bundle.STARTING | Bundle.STOPPING);
-                    }
-                    catch (IllegalStateException ex)
-                    {
-                        // Ignore if the bundle has been uninstalled.
-                        if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+                        StartLevelTuple tuple;
+                        if (isLowering)
                         {
-                            fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
-                            m_logger.log(tuple.m_bundle,
-                                Logger.LOG_ERROR,
-                                "Error locking " + tuple.m_bundle._getLocation(), ex);
+                            tuple = m_startLevelBundles.last();
                         }
                         else
                         {
-                            synchronized (m_startLevelBundles)
-                            {
-                                m_startLevelBundles.remove(tuple);
-                                bundlesRemaining = !m_startLevelBundles.isEmpty();
-                            }
+                            tuple = m_startLevelBundles.first();
                         }
-                        continue;
-                    }
 
-                    try
-                    {
-                        // Start the bundle if necessary.
-                        // Note that we only attempt to start the bundle if
-                        // its start level is equal to the active start level,
-                        // which means we assume lower bundles are in the state
-                        // they should be in (i.e., we won't attempt to restart
-                        // them if they previously failed to start).
-                        if (!isLowering
-                            && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
+                        if ((tuple.m_level >= low) && (tuple.m_level <= high))
                         {
-                            try
-                            {
-// TODO: LAZY - Not sure if this is the best way...
-                                int options = Bundle.START_TRANSIENT;
-                                options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
-                                    ? options | Bundle.START_ACTIVATION_POLICY
-                                    : options;
-                                startBundle(tuple.m_bundle, options);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error starting " + tuple.m_bundle._getLocation(), th);
-                            }
+                            m_activeStartLevel = tuple.m_level;
                         }
-                        // Stop the bundle if necessary.
-                        else if (isLowering
-                            && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
+
+                        // When starting bundles concurrently, take all queued
+                        // bundles of the active start level at once.
+                        if ((executor != null) && (tuple.m_level == m_activeStartLevel))
                         {
-                            try
+                            tuples = new ArrayList<StartLevelTuple>();
+                            for (StartLevelTuple t : m_startLevelBundles.tailSet(tuple))
                             {
-                                stopBundle(tuple.m_bundle, false);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error stopping " + tuple.m_bundle._getLocation(), th);
+                                if (t.m_level != tuple.m_level)
+                                {
+                                    break;
+                                }
+                                tuples.add(t);
                             }
                         }
+                        else
+                        {
+                            tuples = Collections.singletonList(tuple);
+                        }
                     }
-                    finally
+
+                    // Record how long the previous start level took.
+                    if (timedLevel != m_activeStartLevel)
                     {
-                        // Always release bundle lock.
-                        releaseBundleLock(tuple.m_bundle);
+                        long now = System.nanoTime();
+                        m_startLevelNanos.put(timedLevel, now - levelStart);
+                        timedLevel = m_activeStartLevel;
+                        levelStart = now;
                     }
-                }
 
-                synchronized (m_startLevelBundles)
+                    List<StartLevelTuple> processed;
+                    if (tuples.size() == 1)
+                    {
+                        processed = processStartLevelTuple(tuples.get(0), isLowering)
+                            ? tuples : Collections.<StartLevelTuple>emptyList();
+                    }
+                    else
+                    {
+                        processed = processStartLevelTuples(executor, tuples);
+                    }
+
+                    synchronized (m_startLevelBundles)
+                    {
+                        m_startLevelBundles.removeAll(processed);
+                        bundlesRemaining = !m_startLevelBundles.isEmpty();
+                    }
+                }
+            }
+            finally
+            {
+                m_startLevelNanos.put(timedLevel, System.nanoTime() - levelStart);
+                if (executor != null)
                 {
-                    m_startLevelBundles.remove(tuple);
-                    bundlesRemaining = !m_startLevelBundles.isEmpty();
+                    executor.shutdown();
                 }
             }
 
@@ -1606,6 +1637,216 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Creates the pool used to start the bundles of a start level
+     * concurrently or returns <tt>null</tt> if bundles are to be started
+     * one after another, which is the default.
+     * @return the executor or <tt>null</tt>.
+    **/
+    private ExecutorService createStartLevelExecutor()
+    {
+        int parallelism = 1;
+        String str = getProperty(FelixConstants.STARTLEVEL_PARALLELISM);
+        if (str != null)
+        {
+            try
+            {
+                parallelism = Integer.parseInt(str.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING, "Invalid value for "
+                    + FelixConstants.STARTLEVEL_PARALLELISM + ": " + str);
+            }
+        }
+        if (parallelism <= 1)
+        {
+            return null;
+        }
+        return Executors.newFixedThreadPool(parallelism, new ThreadFactory()
+        {
+            private final AtomicInteger m_counter = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+                // startBundle() treats the pool threads as part of the start
+                // level change.
+                Thread thread = FrameworkStartLevelImpl.createPoolThread(
+                    r, FrameworkStartLevelImpl.THREAD_NAME + "-" + m_counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts the bundles of a single start level concurrently and waits
+     * for all of them to finish.
+     * @param executor the pool used to start the bundles.
+     * @param tuples the bundles of the active start level.
+     * @return the tuples that have been processed.
+    **/
+    private List<StartLevelTuple> processStartLevelTuples(
+        ExecutorService executor, List<StartLevelTuple> tuples)
+    {
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(tuples.size());
+        for (final StartLevelTuple tuple : tuples)
+        {
+            futures.add(executor.submit(new Callable<Boolean>()
+            {
+                public Boolean call()
+                {
+                    return processStartLevelTuple(tuple, false);
+                }
+            }));
+        }
+
+        List<StartLevelTuple> processed = new ArrayList<StartLevelTuple>(tuples.size());
+        boolean interrupted = false;
+        for (int i = 0; i < tuples.size(); i++)
+        {
+            while (true)
+            {
+                try
+                {
+                    if (futures.get(i).get())
+                    {
+                        processed.add(tuples.get(i));
+                    }
+                    break;
+                }
+                catch (InterruptedException ex)
+                {
+                    // Keep waiting, the next start level must not be entered
+                    // before all bundles of this one have been started.
+                    interrupted = true;
+                }
+                catch (ExecutionException ex)
+                {
+                    m_logger.log(tuples.get(i).m_bundle, Logger.LOG_ERROR,
+                        "Error starting " + tuples.get(i).m_bundle._getLocation(),
+                        ex.getCause());
+                    processed.add(tuples.get(i));
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+        return processed;
+    }
+
+    /**
+     * Starts or stops the bundle of a tuple for the active start level.
+     * @param tuple the bundle to process.
+     * @param isLowering whether the start level is being lowered.
+     * @return <tt>false</tt> if the bundle could not be locked and must be
+     *         processed again, <tt>true</tt> otherwise.
+    **/
+    private boolean processStartLevelTuple(StartLevelTuple tuple, boolean isLowering)
+    {
+        // Ignore the system bundle, since its start() and
+        // stop() methods get called explicitly in Felix.start()
+        // and Felix.stop(), respectively.
+        if (tuple.m_bundle.getBundleId() == 0)
+        {
+            return true;
+        }
+
+        // Lock the current bundle.
+        try
+        {
+            acquireBundleLock(tuple.m_bundle,
+                Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
+                | Bundle.STARTING | Bundle.STOPPING);
+        }
+        catch (IllegalStateException ex)
+        {
+            // Ignore if the bundle has been uninstalled.
+            if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+            {
+                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
+                m_logger.log(tuple.m_bundle,
+                    Logger.LOG_ERROR,
+                    "Error locking " + tuple.m_bundle._getLocation(), ex);
+                return false;
+            }
+            return true;
+        }
+
+        try
+        {
+            // Start the bundle if necessary.
+            // Note that we only attempt to start the bundle if
+            // its start level is equal to the active start level,
+            // which means we assume lower bundles are in the state
+            // they should be in (i.e., we won't attempt to restart
+            // them if they previously failed to start).
+            if (!isLowering
+                && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
+                    && (tuple.m_level == m_activeStartLevel)))
+            {
+                long start = System.nanoTime();
+                try
+                {
+// TODO: LAZY - Not sure if this is the best way...
+                    int options = Bundle.START_TRANSIENT;
+                    options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
+                        ? options | Bundle.START_ACTIVATION_POLICY
+                        : options;
+                    startBundle(tuple.m_bundle, options);
+                }
+                catch (Throwable th)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error starting " + tuple.m_bundle._getLocation(), th);
+                }
+                m_logger.log(tuple.m_bundle, Logger.LOG_DEBUG,
+                    "Processed start of " + tuple.m_bundle + " at start level "
+                    + tuple.m_level + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+            }
+            // Stop the bundle if necessary.
+            else if (isLowering
+                && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getState() == Bundle.STARTING))
+                    && (tuple.m_level == m_activeStartLevel)))
+            {
+                try
+                {
+                    stopBundle(tuple.m_bundle, false);
+                }
+                catch (Throwable th)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error stopping " + tuple.m_bundle._getLocation(), th);
+                }
+            }
+        }
+        finally
+        {
+            // Always release bundle lock.
+            releaseBundleLock(tuple.m_bundle);
+        }
+        return true;
+    }
+
+    /**
+     * Returns how long the last change to each start level took.
+     * @return the nanoseconds per start level.
+    **/
+    Map<Integer, Long> getStartLevelNanos()
+    {
+        return new TreeMap<Integer, Long>(m_startLevelNanos);
+    }
+
     /**
      * Returns the start level into which newly installed bundles will
      * be placed by default; this method implements functionality for
@@ -2190,7 +2431,7 @@ public class Felix extends BundleImpl implements Framework
             // queued but processed synchronously.
             // Note: Don't queue starts from the start level thread, otherwise
             // we'd never get anything started.
-            if (!Thread.currentThread().getName().equals(FrameworkStartLevelImpl.THREAD_NAME))
+            if (!FrameworkStartLevelImpl.isStartLevelThread())
             {
                 synchronized (m_startLevelBundles)
                 {
@@ -2377,6 +2618,7 @@ public class Felix extends BundleImpl implements Framework
             }
             
             Throwable rethrow = null;
+            long start = System.nanoTime();
             try
             {
                 // Set the bundle's activator.
@@ -2386,6 +2628,7 @@ public class Felix extends BundleImpl implements Framework
             {
                 rethrow = th;
             }
+            bundle.setActivatorLoadNanos(System.nanoTime() - start);
 
             try
             {
@@ -2399,8 +2642,16 @@ public class Felix extends BundleImpl implements Framework
                 // Activate the bundle if it has an activator.
                 if (bundle.getActivator() != null)
                 {
-                    m_secureAction.startActivator(
-                        bundle.getActivator(), bundle._getBundleContext());
+                    start = System.nanoTime();
+                    try
+                    {
+                        m_secureAction.startActivator(
+                            bundle.getActivator(), bundle._getBundleContext());
+                    }
+                    finally
+                    {
+                        bundle.setActivatorStartNanos(System.nanoTime() - start);
+                    }
                 }
 
                 setBundleStateAndNotify(bundle, Bundle.ACTIVE);
@@ -2792,7 +3043,15 @@ public class Felix extends BundleImpl implements Framework
                 {
                     if (bundle.getActivator() != null)
                     {
-                        m_secureAction.stopActivator(bundle.getActivator(), bundle._getBundleContext());
+                        long start = System.nanoTime();
+                        try
+                        {
+                            m_secureAction.stopActivator(bundle.getActivator(), bundle._getBundleContext());
+                        }
+                        finally
+                        {
+                            bundle.setActivatorStopNanos(System.nanoTime() - start);
+                        }
                     }
                 }
                 catch (Throwable th)
@@ -3101,11 +3360,79 @@ public class Felix extends BundleImpl implements Framework
         return !(val instanceof String) ? m_secureAction.getSystemProperty(key, null) : (String) val;
     }
 
-    private Bundle reloadBundle(BundleArchive ba, boolean updateMulti)
-        throws BundleException
+    /**
+     * Creates the revisions of cached bundles concurrently if configured.
+     * The revisions are only added to the framework by
+     * {@link #reloadBundle(BundleArchive, Future, boolean)}, which is called
+     * in bundle order, so the result of reloading does not depend on the
+     * order in which revisions are created.
+     * @param archives the cached archives.
+     * @return the revisions per archive, or <tt>null</tt> if bundles are to
+     *         be reloaded one after another, which is the default.
+    **/
+    private List<Future<BundleRevisionImpl>> createCachedRevisions(BundleArchive[] archives)
     {
-        BundleImpl bundle = null;
+        int parallelism = 1;
+        String str = getProperty(FelixConstants.CACHE_RELOAD_PARALLELISM);
+        if (str != null)
+        {
+            try
+            {
+                parallelism = Integer.parseInt(str.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING, "Invalid value for "
+                    + FelixConstants.CACHE_RELOAD_PARALLELISM + ": " + str);
+            }
+        }
+        if ((parallelism <= 1) || (archives == null) || (archives.length < 2))
+        {
+            return null;
+        }
 
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(parallelism, archives.length), new ThreadFactory()
+            {
+                private final AtomicInteger m_counter = new AtomicInteger();
+
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "FelixReload-" + m_counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try
+        {
+            List<Future<BundleRevisionImpl>> revisions =
+                new ArrayList<Future<BundleRevisionImpl>>(archives.length);
+            for (final BundleArchive ba : archives)
+            {
+                revisions.add(executor.submit(new Callable<BundleRevisionImpl>()
+                {
+                    public BundleRevisionImpl call() throws Exception
+                    {
+                        if (ba.getPersistentState() == Bundle.UNINSTALLED)
+                        {
+                            return null;
+                        }
+                        purgeBundle(ba);
+                        return BundleImpl.createCachedRevision(Felix.this, ba);
+                    }
+                }));
+            }
+            return revisions;
+        }
+        finally
+        {
+            // Already submitted tasks still run to completion.
+            executor.shutdown();
+        }
+    }
+
+    private void purgeBundle(BundleArchive ba)
+    {
         // Try to purge old revisions before installing;
         // this is done just in case a "refresh" didn't
         // occur last session...this would only be due to
@@ -3123,6 +3450,27 @@ public class Felix extends BundleImpl implements Framework
                 Logger.LOG_ERROR,
                 "Could not purge bundle.", ex);
         }
+    }
+
+    /**
+     * Installs a cached bundle.
+     * @param ba the cached archive.
+     * @param revision the already created revision of the bundle, or
+     *        <tt>null</tt> to create it now.
+     * @param updateMulti whether to touch multi-release bundles.
+     * @return the bundle.
+     * @throws BundleException if the bundle cannot be installed.
+    **/
+    private Bundle reloadBundle(
+        BundleArchive ba, Future<BundleRevisionImpl> revision, boolean updateMulti)
+        throws BundleException
+    {
+        BundleImpl bundle = null;
+
+        if (revision == null)
+        {
+            purgeBundle(ba);
+        }
 
         try
         {
@@ -3136,7 +3484,24 @@ public class Felix extends BundleImpl implements Framework
             }
             try
             {
-                bundle = new BundleImpl(this, null, ba);
+                if (revision == null)
+                {
+                    bundle = new BundleImpl(this, null, ba);
+                }
+                else
+                {
+                    BundleRevisionImpl br;
+                    try
+                    {
+                        br = revision.get();
+                    }
+                    catch (ExecutionException ex)
+                    {
+                        throw ex.getCause();
+                    }
+                    bundle = (BundleImpl) br.getBundle();
+                    bundle.addCachedRevision(br);
+                }
 
                 if (updateMulti)
                 {
@@ -27,7 +27,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import org.apache.felix.framework.ServiceRegistrationImpl.ServiceReferenceImpl;
-import org.apache.felix.framework.capabilityset.CapabilitySet;
+import org.apache.felix.framework.capabilityset.CompiledFilter;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.util.StringMap;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
@@ -39,6 +39,8 @@ import org.osgi.framework.wiring.BundleRevision;
 public class FilterImpl implements Filter
 {
     private final SimpleFilter m_filter;
+    // The compiled form caches the filter values coerced to attribute types.
+    private final CompiledFilter m_compiled;
 
     public FilterImpl(String filterStr) throws InvalidSyntaxException
     {
@@ -50,33 +52,39 @@ public class FilterImpl implements Filter
         {
             throw new InvalidSyntaxException(th.getMessage(), filterStr);
         }
+        m_compiled = CompiledFilter.compile(m_filter);
+    }
+
+    SimpleFilter getSimpleFilter()
+    {
+        return m_filter;
     }
 
     public boolean match(ServiceReference sr)
     {
         if (sr instanceof ServiceReferenceImpl)
         {
-            return CapabilitySet.matches((ServiceReferenceImpl) sr, m_filter);
+            return m_compiled.matches((ServiceReferenceImpl) sr);
         }
         else
         {
-            return CapabilitySet.matches(new WrapperCapability(sr), m_filter);
+            return m_compiled.matches(new WrapperCapability(sr));
         }
     }
 
     public boolean match(Dictionary<String, ? > dctnr)
     {
-        return CapabilitySet.matches(new WrapperCapability(dctnr, false), m_filter);
+        return m_compiled.matches(new WrapperCapability(dctnr, false));
     }
 
     public boolean matchCase(Dictionary<String, ? > dctnr)
     {
-        return CapabilitySet.matches(new WrapperCapability(dctnr, true), m_filter);
+        return m_compiled.matches(new WrapperCapability(dctnr, true));
     }
 
     public boolean matches(Map<String, ?> map)
     {
-        return CapabilitySet.matches(new WrapperCapability(map), m_filter);
+        return m_compiled.matches(new WrapperCapability(map));
     }
 
     public boolean equals(Object o)
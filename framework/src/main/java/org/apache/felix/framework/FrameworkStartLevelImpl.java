@@ -33,6 +33,8 @@ import org.osgi.service.startlevel.StartLevel;
 class FrameworkStartLevelImpl implements FrameworkStartLevel, Runnable
 {
     static final String THREAD_NAME = "FelixStartLevel";
+    // Set on the pool threads that start the bundles of a start level.
+    private static final ThreadLocal<Boolean> m_poolThread = new ThreadLocal<Boolean>();
 
     private static final int BUNDLE_IDX = 0;
     private static final int STARTLEVEL_IDX = 1;
@@ -60,6 +62,33 @@ class FrameworkStartLevelImpl implements FrameworkStartLevel, Runnable
                 null);
     }
 
+    /**
+     * Returns whether the current thread is the start level thread or one
+     * of the pool threads starting bundles of a start level on its behalf.
+    **/
+    static boolean isStartLevelThread()
+    {
+        return Thread.currentThread().getName().equals(THREAD_NAME)
+            || (m_poolThread.get() != null);
+    }
+
+    /**
+     * Creates a pool thread starting bundles of a start level on behalf of
+     * the start level thread. Pool threads are marked explicitly rather than
+     * by their name, which any thread could take.
+    **/
+    static Thread createPoolThread(final Runnable r, String name)
+    {
+        return new Thread(new Runnable()
+        {
+            public void run()
+            {
+                m_poolThread.set(Boolean.TRUE);
+                r.run();
+            }
+        }, name);
+    }
+
     // Should only be called hold requestList lock.
     private void startThread()
     {
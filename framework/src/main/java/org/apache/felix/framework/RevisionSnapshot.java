@@ -0,0 +1,488 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.StringMap;
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.apache.felix.framework.wiring.BundleRequirementImpl;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+
+/**
+ * <p>
+ * This class holds the parsed manifest of a revision, i.e., its headers
+ * and the capabilities and requirements the manifest parser derived from
+ * them. It is persisted in the revision directory of the bundle cache, so
+ * a restarted framework neither has to read the manifest from the bundle
+ * JAR file again nor to parse it.
+ * </p>
+ * <p>
+ * A snapshot is only used for as long as its key matches. The key captures
+ * everything parsing depends on: the revision, the framework version, the
+ * Java version (for multi-release manifests), and the JAR file itself.
+ * Directory based contents can change behind the framework's back, so
+ * revisions using them are never snapshot, and neither are revisions with
+ * native code, since selecting native libraries depends on the platform.
+ * </p>
+**/
+final class RevisionSnapshot
+{
+    static final String SNAPSHOT_FILE = "revision.snapshot";
+
+    private static final int VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte VERSION_VALUE = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte LIST = 5;
+    private static final byte FILTER = 6;
+
+    private final Map<String, Object> m_headers;
+    private final String m_manifestVersion;
+    private final boolean m_isExtension;
+    private final String m_symbolicName;
+    private final Version m_version;
+    private final int m_activationPolicy;
+    private final List<String> m_activationIncludes;
+    private final List<String> m_activationExcludes;
+    private final List<Clause> m_caps;
+    private final List<Clause> m_reqs;
+
+    private RevisionSnapshot(DataInputStream in) throws IOException
+    {
+        int size = in.readInt();
+        m_headers = new StringMap();
+        for (int i = 0; i < size; i++)
+        {
+            String key = readString(in);
+            m_headers.put(key, readString(in));
+        }
+        m_manifestVersion = (String) readValue(in);
+        m_isExtension = in.readBoolean();
+        m_symbolicName = (String) readValue(in);
+        m_version = (Version) readValue(in);
+        m_activationPolicy = in.readInt();
+        m_activationIncludes = (List<String>) readValue(in);
+        m_activationExcludes = (List<String>) readValue(in);
+        m_caps = readClauses(in);
+        m_reqs = readClauses(in);
+    }
+
+    /**
+     * Creates the key of the snapshot of a revision.
+     * @return the key or <tt>null</tt> if the revision cannot be snapshot.
+    **/
+    static String createKey(Felix felix, String revisionId, Content content)
+    {
+        StringBuilder key = new StringBuilder(revisionId)
+            .append(';').append(felix._getProperty(FelixConstants.FELIX_VERSION_PROPERTY))
+            .append(';').append(felix._getProperty("java.specification.version"));
+        return ContentPathIndex.appendKey(key, content) ? key.toString() : null;
+    }
+
+    /**
+     * Loads a persisted snapshot.
+     * @return the snapshot or <tt>null</tt> if there is none or it has a
+     *         different key.
+    **/
+    static RevisionSnapshot load(File file, String key) throws IOException
+    {
+        if (!BundleRevisionImpl.getSecureAction().fileExists(file))
+        {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            BundleRevisionImpl.getSecureAction().getFileInputStream(file)));
+        try
+        {
+            if ((in.readInt() != VERSION) || !readString(in).equals(key))
+            {
+                return null;
+            }
+            return new RevisionSnapshot(in);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Persists the parsed manifest of the specified revision.
+     * @return <tt>false</tt> if the revision cannot be snapshot.
+    **/
+    static boolean store(File file, String key, BundleRevisionImpl revision)
+        throws IOException
+    {
+        if ((revision.getDeclaredNativeLibraries() != null)
+            || (revision.getHeaders().get(Constants.BUNDLE_NATIVECODE) != null)
+            || !isSupported(revision))
+        {
+            return false;
+        }
+
+        // Write to a temporary file first so a crash never leaves a
+        // truncated snapshot behind.
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            BundleRevisionImpl.getSecureAction().getFileOutputStream(tmp)));
+        try
+        {
+            out.writeInt(VERSION);
+            writeString(out, key);
+            Map<String, Object> headers = revision.getHeaders();
+            out.writeInt(headers.size());
+            for (Map.Entry<String, Object> entry : headers.entrySet())
+            {
+                writeString(out, entry.getKey());
+                writeString(out, (String) entry.getValue());
+            }
+            writeValue(out, revision.getManifestVersion());
+            out.writeBoolean(revision.isExtension());
+            writeValue(out, revision.getSymbolicName());
+            writeValue(out, revision.getVersion());
+            out.writeInt(revision.getDeclaredActivationPolicy());
+            writeValue(out, revision.getActivationIncludes());
+            writeValue(out, revision.getActivationExcludes());
+            List<BundleCapability> caps = revision.getDeclaredCapabilities(null);
+            out.writeInt(caps.size());
+            for (BundleCapability cap : caps)
+            {
+                writeClause(out, cap.getNamespace(), cap.getDirectives(), cap.getAttributes(), null);
+            }
+            List<BundleRequirement> reqs = revision.getDeclaredRequirements(null);
+            out.writeInt(reqs.size());
+            for (BundleRequirement req : reqs)
+            {
+                writeClause(out, req.getNamespace(), req.getDirectives(), req.getAttributes(),
+                    ((BundleRequirementImpl) req).getFilter());
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        BundleRevisionImpl.getSecureAction().deleteFile(file);
+        if (!BundleRevisionImpl.getSecureAction().renameFile(tmp, file))
+        {
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+        return true;
+    }
+
+    private static boolean isSupported(BundleRevisionImpl revision)
+    {
+        for (Object value : revision.getHeaders().values())
+        {
+            if (!(value instanceof String))
+            {
+                return false;
+            }
+        }
+        for (BundleCapability cap : revision.getDeclaredCapabilities(null))
+        {
+            if ((cap.getClass() != BundleCapabilityImpl.class)
+                || !isSupported(cap.getAttributes().values()))
+            {
+                return false;
+            }
+        }
+        for (BundleRequirement req : revision.getDeclaredRequirements(null))
+        {
+            if ((req.getClass() != BundleRequirementImpl.class)
+                || !isSupported(req.getAttributes().values())
+                || !isSupported(((BundleRequirementImpl) req).getFilter()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSupported(Iterable<?> values)
+    {
+        for (Object value : values)
+        {
+            if (!isSupported(value))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSupported(Object value)
+    {
+        if ((value == null) || (value instanceof String) || (value instanceof Version)
+            || (value instanceof Long) || (value instanceof Double))
+        {
+            return true;
+        }
+        else if (value instanceof List)
+        {
+            return isSupported((List<?>) value);
+        }
+        else if (value instanceof SimpleFilter)
+        {
+            return isSupported(((SimpleFilter) value).getValue());
+        }
+        return false;
+    }
+
+    Map<String, Object> getHeaders()
+    {
+        return m_headers;
+    }
+
+    String getManifestVersion()
+    {
+        return m_manifestVersion;
+    }
+
+    boolean isExtension()
+    {
+        return m_isExtension;
+    }
+
+    String getSymbolicName()
+    {
+        return m_symbolicName;
+    }
+
+    Version getVersion()
+    {
+        return m_version;
+    }
+
+    int getActivationPolicy()
+    {
+        return m_activationPolicy;
+    }
+
+    List<String> getActivationIncludes()
+    {
+        return m_activationIncludes;
+    }
+
+    List<String> getActivationExcludes()
+    {
+        return m_activationExcludes;
+    }
+
+    List<BundleCapability> getCapabilities(BundleRevision owner)
+    {
+        List<BundleCapability> caps = new ArrayList<BundleCapability>(m_caps.size());
+        for (Clause clause : m_caps)
+        {
+            caps.add(new BundleCapabilityImpl(
+                owner, clause.m_namespace, clause.m_dirs, clause.m_attrs));
+        }
+        return caps;
+    }
+
+    List<BundleRequirement> getRequirements(BundleRevision owner)
+    {
+        List<BundleRequirement> reqs = new ArrayList<BundleRequirement>(m_reqs.size());
+        for (Clause clause : m_reqs)
+        {
+            reqs.add(new BundleRequirementImpl(
+                owner, clause.m_namespace, clause.m_dirs, clause.m_attrs, clause.m_filter));
+        }
+        return reqs;
+    }
+
+    private static void writeClause(
+        DataOutputStream out, String namespace, Map<String, String> dirs,
+        Map<String, Object> attrs, SimpleFilter filter) throws IOException
+    {
+        writeString(out, namespace);
+        out.writeInt(dirs.size());
+        for (Map.Entry<String, String> entry : dirs.entrySet())
+        {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        out.writeInt(attrs.size());
+        for (Map.Entry<String, Object> entry : attrs.entrySet())
+        {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+        writeValue(out, filter);
+    }
+
+    private static List<Clause> readClauses(DataInputStream in) throws IOException
+    {
+        int size = in.readInt();
+        List<Clause> clauses = new ArrayList<Clause>(size);
+        for (int i = 0; i < size; i++)
+        {
+            String namespace = readString(in);
+            int count = in.readInt();
+            Map<String, String> dirs = new LinkedHashMap<String, String>();
+            for (int j = 0; j < count; j++)
+            {
+                String key = readString(in);
+                dirs.put(key, readString(in));
+            }
+            count = in.readInt();
+            Map<String, Object> attrs = new LinkedHashMap<String, Object>();
+            for (int j = 0; j < count; j++)
+            {
+                String key = readString(in);
+                attrs.put(key, readValue(in));
+            }
+            clauses.add(new Clause(namespace, dirs, attrs, (SimpleFilter) readValue(in)));
+        }
+        return clauses;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException
+    {
+        if (value == null)
+        {
+            out.writeByte(NULL);
+        }
+        else if (value instanceof String)
+        {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        }
+        else if (value instanceof Version)
+        {
+            out.writeByte(VERSION_VALUE);
+            writeString(out, value.toString());
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        }
+        else if (value instanceof Double)
+        {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        }
+        else if (value instanceof List)
+        {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object element : list)
+            {
+                writeValue(out, element);
+            }
+        }
+        else if (value instanceof SimpleFilter)
+        {
+            SimpleFilter filter = (SimpleFilter) value;
+            out.writeByte(FILTER);
+            out.writeInt(filter.getOperation());
+            writeValue(out, filter.getName());
+            writeValue(out, filter.getValue());
+        }
+        else
+        {
+            throw new IOException("Unsupported value type: " + value.getClass());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException
+    {
+        byte type = in.readByte();
+        switch (type)
+        {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case VERSION_VALUE:
+                return Version.parseVersion(readString(in));
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case LIST:
+                int size = in.readInt();
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++)
+                {
+                    list.add(readValue(in));
+                }
+                return list;
+            case FILTER:
+                int op = in.readInt();
+                String name = (String) readValue(in);
+                return new SimpleFilter(name, readValue(in), op);
+            default:
+                throw new IOException("Unknown value type: " + type);
+        }
+    }
+
+    // Header values may exceed the 64k limit of writeUTF().
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static final class Clause
+    {
+        final String m_namespace;
+        final Map<String, String> m_dirs;
+        final Map<String, Object> m_attrs;
+        final SimpleFilter m_filter;
+
+        Clause(String namespace, Map<String, String> dirs,
+            Map<String, Object> attrs, SimpleFilter filter)
+        {
+            m_namespace = namespace;
+            m_dirs = dirs;
+            m_attrs = attrs;
+            m_filter = filter;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.ListenerInfo;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.UnfilteredServiceListener;
+
+/**
+ * <p>
+ * An immutable index of service listeners by the <tt>objectClass</tt>
+ * values their filters require. A listener whose filter cannot match a
+ * service unless it has one of a set of object classes is only stored under
+ * those object classes; all other listeners match anything. The object
+ * classes of a registration never change, so a listener that is skipped for
+ * an event could not have matched the previous properties of a modified
+ * service either.
+ * </p>
+ * <p>
+ * Like the listener maps of the <tt>EventDispatcher</tt> the index is
+ * copied on write, so a snapshot can be used without holding a lock.
+ * </p>
+**/
+final class ServiceListenerIndex
+{
+    static final ServiceListenerIndex EMPTY = new ServiceListenerIndex(
+        Collections.<String, Map<BundleContext, List<ListenerInfo>>>emptyMap(),
+        Collections.<BundleContext, List<ListenerInfo>>emptyMap(), 0);
+
+    private final Map<String, Map<BundleContext, List<ListenerInfo>>> m_byClass;
+    private final Map<BundleContext, List<ListenerInfo>> m_any;
+    private final int m_size;
+
+    private ServiceListenerIndex(
+        Map<String, Map<BundleContext, List<ListenerInfo>>> byClass,
+        Map<BundleContext, List<ListenerInfo>> any, int size)
+    {
+        m_byClass = byClass;
+        m_any = any;
+        m_size = size;
+    }
+
+    /**
+     * Returns the number of indexed listeners.
+    **/
+    int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Returns a copy of this index in which the listeners of the specified
+     * bundle context are replaced.
+     * @param bc the bundle context whose listeners changed.
+     * @param oldInfos the listeners previously registered by the context.
+     * @param newInfos the listeners now registered by the context.
+     * @return the updated index.
+    **/
+    ServiceListenerIndex update(
+        BundleContext bc, List<ListenerInfo> oldInfos, List<ListenerInfo> newInfos)
+    {
+        Map<String, Map<BundleContext, List<ListenerInfo>>> byClass =
+            new HashMap<String, Map<BundleContext, List<ListenerInfo>>>(m_byClass);
+        Map<BundleContext, List<ListenerInfo>> any =
+            new HashMap<BundleContext, List<ListenerInfo>>(m_any);
+        int size = m_size;
+
+        // Remove the context from all buckets of its previous listeners.
+        if (oldInfos != null)
+        {
+            size -= oldInfos.size();
+            any.remove(bc);
+            for (ListenerInfo info : oldInfos)
+            {
+                Set<String> classes = getObjectClasses(info);
+                for (String clazz : (classes == null) ? Collections.<String>emptySet() : classes)
+                {
+                    Map<BundleContext, List<ListenerInfo>> bucket = byClass.get(clazz);
+                    if ((bucket != null) && bucket.containsKey(bc))
+                    {
+                        bucket = new HashMap<BundleContext, List<ListenerInfo>>(bucket);
+                        bucket.remove(bc);
+                        if (bucket.isEmpty())
+                        {
+                            byClass.remove(clazz);
+                        }
+                        else
+                        {
+                            byClass.put(clazz, bucket);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Add the current listeners back, keeping their registration order
+        // within each bucket.
+        if (newInfos != null)
+        {
+            size += newInfos.size();
+            Map<String, List<ListenerInfo>> added = new HashMap<String, List<ListenerInfo>>();
+            List<ListenerInfo> anyAdded = null;
+            for (ListenerInfo info : newInfos)
+            {
+                Set<String> classes = getObjectClasses(info);
+                if (classes == null)
+                {
+                    if (anyAdded == null)
+                    {
+                        anyAdded = new ArrayList<ListenerInfo>();
+                    }
+                    anyAdded.add(info);
+                }
+                else
+                {
+                    for (String clazz : classes)
+                    {
+                        List<ListenerInfo> infos = added.get(clazz);
+                        if (infos == null)
+                        {
+                            infos = new ArrayList<ListenerInfo>();
+                            added.put(clazz, infos);
+                        }
+                        infos.add(info);
+                    }
+                }
+            }
+            if (anyAdded != null)
+            {
+                any.put(bc, anyAdded);
+            }
+            for (Entry<String, List<ListenerInfo>> entry : added.entrySet())
+            {
+                Map<BundleContext, List<ListenerInfo>> bucket = byClass.get(entry.getKey());
+                bucket = (bucket == null)
+                    ? new HashMap<BundleContext, List<ListenerInfo>>()
+                    : new HashMap<BundleContext, List<ListenerInfo>>(bucket);
+                bucket.put(bc, entry.getValue());
+                byClass.put(entry.getKey(), bucket);
+            }
+        }
+
+        return new ServiceListenerIndex(byClass, any, size);
+    }
+
+    /**
+     * Returns the listeners that can possibly match the specified service.
+     * @param ref the service reference of the event.
+     * @param listeners the listener map this index was built from; it is used
+     *        to keep the registration order when a bundle context has
+     *        listeners in more than one bucket.
+     * @return the candidate listeners per bundle context.
+    **/
+    Map<BundleContext, List<ListenerInfo>> getListeners(
+        ServiceReference ref, Map<BundleContext, List<ListenerInfo>> listeners)
+    {
+        Object value = ref.getProperty(Constants.OBJECTCLASS);
+        String[] classes = (value instanceof String[]) ? (String[]) value : null;
+        if (classes == null)
+        {
+            return listeners;
+        }
+
+        List<Map<BundleContext, List<ListenerInfo>>> buckets =
+            new ArrayList<Map<BundleContext, List<ListenerInfo>>>(classes.length + 1);
+        if (!m_any.isEmpty())
+        {
+            buckets.add(m_any);
+        }
+        for (String clazz : classes)
+        {
+            Map<BundleContext, List<ListenerInfo>> bucket = m_byClass.get(clazz);
+            if (bucket != null)
+            {
+                buckets.add(bucket);
+            }
+        }
+
+        if (buckets.isEmpty())
+        {
+            return Collections.emptyMap();
+        }
+        else if (buckets.size() == 1)
+        {
+            return buckets.get(0);
+        }
+
+        Map<BundleContext, List<ListenerInfo>> result =
+            new HashMap<BundleContext, List<ListenerInfo>>();
+        Set<BundleContext> shared = null;
+        for (Map<BundleContext, List<ListenerInfo>> bucket : buckets)
+        {
+            for (Entry<BundleContext, List<ListenerInfo>> entry : bucket.entrySet())
+            {
+                if ((result.put(entry.getKey(), entry.getValue()) != null))
+                {
+                    if (shared == null)
+                    {
+                        shared = new HashSet<BundleContext>();
+                    }
+                    shared.add(entry.getKey());
+                }
+            }
+        }
+
+        // A bundle context with listeners in several buckets may have the
+        // same listener in more than one of them, so select its candidates
+        // from its full listener list instead.
+        for (BundleContext bc : (shared == null) ? Collections.<BundleContext>emptySet() : shared)
+        {
+            Set<ListenerInfo> candidates =
+                Collections.newSetFromMap(new IdentityHashMap<ListenerInfo, Boolean>());
+            for (Map<BundleContext, List<ListenerInfo>> bucket : buckets)
+            {
+                List<ListenerInfo> infos = bucket.get(bc);
+                if (infos != null)
+                {
+                    candidates.addAll(infos);
+                }
+            }
+            List<ListenerInfo> infos = new ArrayList<ListenerInfo>(candidates.size());
+            for (ListenerInfo info : listeners.get(bc))
+            {
+                if (candidates.contains(info))
+                {
+                    infos.add(info);
+                }
+            }
+            result.put(bc, infos);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the object classes a service must have one of in order to
+     * match the listener, or <tt>null</tt> if the listener may match any
+     * service.
+    **/
+    static Set<String> getObjectClasses(ListenerInfo info)
+    {
+        // Unfiltered listeners get all events regardless of their filter.
+        if ((info.getListener() instanceof UnfilteredServiceListener)
+            || !(info.getParsedFilter() instanceof FilterImpl))
+        {
+            return null;
+        }
+        return getObjectClasses(((FilterImpl) info.getParsedFilter()).getSimpleFilter());
+    }
+
+    private static Set<String> getObjectClasses(SimpleFilter sf)
+    {
+        switch (sf.getOperation())
+        {
+            case SimpleFilter.AND:
+            {
+                // Any conjunct restricts the object classes, pick the smallest.
+                Set<String> classes = null;
+                for (SimpleFilter sub : (List<SimpleFilter>) sf.getValue())
+                {
+                    Set<String> subClasses = getObjectClasses(sub);
+                    if ((subClasses != null)
+                        && ((classes == null) || (subClasses.size() < classes.size())))
+                    {
+                        classes = subClasses;
+                    }
+                }
+                return classes;
+            }
+            case SimpleFilter.OR:
+            {
+                // All disjuncts must restrict the object classes.
+                Set<String> classes = new HashSet<String>();
+                for (SimpleFilter sub : (List<SimpleFilter>) sf.getValue())
+                {
+                    Set<String> subClasses = getObjectClasses(sub);
+                    if (subClasses == null)
+                    {
+                        return null;
+                    }
+                    classes.addAll(subClasses);
+                }
+                return classes;
+            }
+            case SimpleFilter.EQ:
+            {
+                if (Constants.OBJECTCLASS.equalsIgnoreCase(sf.getName())
+                    && (sf.getValue() instanceof String))
+                {
+                    return Collections.singleton((String) sf.getValue());
+                }
+                return null;
+            }
+            default:
+                return null;
+        }
+    }
+}
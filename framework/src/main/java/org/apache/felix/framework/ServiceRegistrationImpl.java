@@ -31,6 +31,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.felix.framework.util.MapToDictionary;
+import org.apache.felix.framework.util.ImmutableStringMap;
 import org.apache.felix.framework.util.StringMap;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
@@ -61,7 +62,7 @@ class ServiceRegistrationImpl implements ServiceRegistration
     // Service factory interface.
     private volatile ServiceFactory m_factory;
     // Associated property dictionary.
-    private volatile Map<String, Object> m_propMap = new StringMap();
+    private volatile Map<String, Object> m_propMap;
     // Re-usable service reference.
     private final ServiceReferenceImpl m_ref;
     // Flag indicating that we are unregistering.
@@ -336,8 +337,9 @@ class ServiceRegistrationImpl implements ServiceRegistration
             props.put(Constants.SERVICE_SCOPE, Constants.SCOPE_SINGLETON);
         }
 
-        // Update the service property map.
-        m_propMap = props;
+        // Update the service property map, using a hash-based copy since
+        // the properties are looked up for every filter match.
+        m_propMap = new ImmutableStringMap<Object>(props, true);
     }
 
     private Object getFactoryUnchecked(Bundle bundle)
@@ -53,10 +53,12 @@ public class ServiceRegistry
     private final ConcurrentMap<Bundle, List<ServiceRegistration<?>>> m_regsMap = new ConcurrentHashMap<Bundle, List<ServiceRegistration<?>>>();
 
     // Capability set for all service registrations.
-    private final CapabilitySet m_regCapSet = new CapabilitySet(Collections.singletonList(Constants.OBJECTCLASS), false);
+    private final CapabilitySet m_regCapSet = new CapabilitySet(
+        Collections.singletonList(Constants.OBJECTCLASS),
+        Collections.singletonList(Constants.SERVICE_ID), false);
 
-    // Maps bundle to an array of usage counts.
-    private final ConcurrentMap<Bundle, UsageCount[]> m_inUseMap = new ConcurrentHashMap<Bundle, UsageCount[]>();
+    // Maps bundle to its usage counts per service.
+    private final ConcurrentMap<Bundle, UsageCounts> m_inUseMap = new ConcurrentHashMap<Bundle, UsageCounts>();
 
     private final ServiceRegistryCallbacks m_callbacks;
 
@@ -194,13 +196,11 @@ public class ServiceRegistry
         final Bundle[] clients = getUsingBundles(ref);
         for (int i = 0; (clients != null) && (i < clients.length); i++)
         {
-            final UsageCount[] usages = m_inUseMap.get(clients[i]);
+            final UsageCounts counts = m_inUseMap.get(clients[i]);
+            final UsageCount[] usages = (counts != null) ? counts.m_usages.get(ref) : null;
             for (int x = 0; (usages != null) && (x < usages.length); x++)
             {
-                if (usages[x].m_ref.equals(ref))
-                {
-                    ungetService(clients[i], ref, (usages[x].m_prototype ? usages[x].getService() : null));
-                }
+                ungetService(clients[i], ref, (usages[x].m_prototype ? usages[x].getService() : null));
             }
         }
     }
@@ -276,7 +276,7 @@ public class ServiceRegistry
 
     public ServiceReference<?>[] getServicesInUse(final Bundle bundle)
     {
-        final UsageCount[] usages = m_inUseMap.get(bundle);
+        final UsageCount[] usages = getUsageCounts(bundle);
         if (usages != null)
         {
             final ServiceReference<?>[] refs = new ServiceReference[usages.length];
@@ -560,7 +560,7 @@ public class ServiceRegistry
     **/
     public void ungetServices(final Bundle bundle)
     {
-        UsageCount[] usages = m_inUseMap.get(bundle);
+        UsageCount[] usages = getUsageCounts(bundle);
         if (usages == null)
         {
             return;
@@ -589,14 +589,14 @@ public class ServiceRegistry
     public Bundle[] getUsingBundles(ServiceReference<?> ref)
     {
         Bundle[] bundles = null;
-        for (Iterator<Map.Entry<Bundle, UsageCount[]>> iter = m_inUseMap.entrySet().iterator(); iter.hasNext(); )
+        for (Iterator<Map.Entry<Bundle, UsageCounts>> iter = m_inUseMap.entrySet().iterator(); iter.hasNext(); )
         {
-            Map.Entry<Bundle, UsageCount[]> entry = iter.next();
+            Map.Entry<Bundle, UsageCounts> entry = iter.next();
             Bundle bundle = entry.getKey();
-            UsageCount[] usages = entry.getValue();
-            for (int useIdx = 0; useIdx < usages.length; useIdx++)
+            UsageCount[] usages = entry.getValue().m_usages.get(ref);
+            for (int useIdx = 0; (usages != null) && (useIdx < usages.length); useIdx++)
             {
-                if (usages[useIdx].m_ref.equals(ref) && usages[useIdx].m_count.get() > 0)
+                if (usages[useIdx].m_count.get() > 0)
                 {
                     // Add the bundle to the array to be returned.
                     if (bundles == null)
@@ -631,6 +631,26 @@ public class ServiceRegistry
         return m_logger;
     }
 
+    /**
+     * Returns all usage counts of the specified bundle.
+     * @param bundle The bundle using services.
+     * @return The usage counts or {@code null} if the bundle does not use any service.
+     */
+    UsageCount[] getUsageCounts(Bundle bundle)
+    {
+        UsageCounts counts = m_inUseMap.get(bundle);
+        if (counts == null)
+        {
+            return null;
+        }
+        List<UsageCount> result = new ArrayList<UsageCount>();
+        for (UsageCount[] usages : counts.m_usages.values())
+        {
+            Collections.addAll(result, usages);
+        }
+        return result.isEmpty() ? null : result.toArray(new UsageCount[result.size()]);
+    }
+
     /**
      * Obtain a UsageCount object, by looking for an existing one or creating a new one (if possible).
      * This method tries to find a UsageCount object in the {@code m_inUseMap}. If one is found then
@@ -646,23 +666,20 @@ public class ServiceRegistry
      */
     UsageCount obtainUsageCount(Bundle bundle, ServiceReference<?> ref, Object svcObj, Boolean isPrototype)
     {
-        UsageCount usage = null;
-
-        // This method uses an optimistic concurrency mechanism with a conditional put/replace
-        // on the m_inUseMap. If this fails (because another thread made changes) this thread
-        // retries the operation. This is the purpose of the while loop.
-        boolean success = false;
-        while (!success)
+        // This method uses an optimistic concurrency mechanism with conditional puts/replaces
+        // of the usage counts of the service. If this fails (because another thread made
+        // changes) this thread retries the operation. This is the purpose of the while loop.
+        while (true)
         {
-            UsageCount[] usages = m_inUseMap.get(bundle);
+            UsageCounts counts = m_inUseMap.get(bundle);
+            UsageCount[] usages = (counts != null) ? counts.m_usages.get(ref) : null;
 
             // If we know it's a prototype, then we always need to create a new usage count
             if (!Boolean.TRUE.equals(isPrototype))
             {
                 for (int i = 0; (usages != null) && (i < usages.length); i++)
                 {
-                    if (usages[i].m_ref.equals(ref)
-                       && ((svcObj == null && !usages[i].m_prototype) || usages[i].getService() == svcObj))
+                    if ((svcObj == null && !usages[i].m_prototype) || usages[i].getService() == svcObj)
                     {
                         return usages[i];
                     }
@@ -677,22 +694,46 @@ public class ServiceRegistry
                 return null;
             }
 
+            if (counts == null)
+            {
+                counts = new UsageCounts();
+                if (m_inUseMap.putIfAbsent(bundle, counts) != null)
+                {
+                    continue;
+                }
+            }
+
             // Add a new Usage Count.
-            usage = new UsageCount(ref, isPrototype);
+            UsageCount usage = new UsageCount(ref, isPrototype);
+            boolean success;
             if (usages == null)
             {
-                UsageCount[] newUsages = new UsageCount[] { usage };
-                success = m_inUseMap.putIfAbsent(bundle, newUsages) == null;
+                success = counts.m_usages.putIfAbsent(ref, new UsageCount[] { usage }) == null;
             }
             else
             {
                 UsageCount[] newUsages = new UsageCount[usages.length + 1];
                 System.arraycopy(usages, 0, newUsages, 0, usages.length);
                 newUsages[usages.length] = usage;
-                success = m_inUseMap.replace(bundle, usages, newUsages);
+                success = counts.m_usages.replace(ref, usages, newUsages);
+            }
+
+            if (success)
+            {
+                // If the usage counts were retired concurrently, take the usage
+                // count back and wait for the retirement to complete. The usage
+                // counts are then either no longer in use or still valid.
+                if (counts.m_retired)
+                {
+                    removeUsageCount(counts, ref, usage);
+                    synchronized (counts)
+                    {
+                        continue;
+                    }
+                }
+                return usage;
             }
         }
-        return usage;
     }
 
     /**
@@ -709,48 +750,73 @@ public class ServiceRegistry
     **/
     void flushUsageCount(Bundle bundle, ServiceReference<?> ref, UsageCount uc)
     {
-        // This method uses an optimistic concurrency mechanism with conditional modifications
-        // on the m_inUseMap. If this fails (because another thread made changes) this thread
-        // retries the operation. This is the purpose of the while loop.
-        boolean success = false;
-        while (!success)
+        UsageCounts counts = m_inUseMap.get(bundle);
+        if (counts == null)
+        {
+            return; // no change in map
+        }
+
+        boolean empty;
+        if (uc == null)
+        {
+            // The service is gone, so are all its usage counts.
+            empty = (ref != null) && (counts.m_usages.remove(ref) != null);
+        }
+        else
+        {
+            empty = removeUsageCount(counts, uc.m_ref, uc);
+        }
+
+        // If this was the last usage count of the bundle, remove it from the
+        // map. Its usage counts are retired first, so a concurrent addition
+        // is either seen here or notices the retirement itself.
+        if (empty && counts.isEmpty())
         {
-            UsageCount[] usages = m_inUseMap.get(bundle);
-            final UsageCount[] orgUsages = usages;
-            for (int i = 0; (usages != null) && (i < usages.length); i++)
+            synchronized (counts)
             {
-                if ((uc == null && usages[i].m_ref.equals(ref)) || (uc == usages[i]))
+                counts.m_retired = true;
+                if (counts.isEmpty())
                 {
-                    // If this is the only usage, then point to empty list.
-                    if ((usages.length - 1) == 0)
-                    {
-                        usages = null;
-                    }
-                    // Otherwise, we need to do some array copying.
-                    else
-                    {
-                        UsageCount[] newUsages = new UsageCount[usages.length - 1];
-                        System.arraycopy(usages, 0, newUsages, 0, i);
-                        if (i < newUsages.length)
-                        {
-                            System.arraycopy(
-                                usages, i + 1, newUsages, i, newUsages.length - i);
-                        }
-                        usages = newUsages;
-                        i--;
-                    }
+                    m_inUseMap.remove(bundle, counts);
+                }
+                else
+                {
+                    counts.m_retired = false;
                 }
             }
+        }
+    }
 
-            if (usages == orgUsages)
-                return; // no change in map
+    /**
+     * Removes a usage count of a service.
+     * @return {@code true} if the service is no longer used afterwards.
+     */
+    private static boolean removeUsageCount(UsageCounts counts, ServiceReference<?> ref, UsageCount uc)
+    {
+        while (true)
+        {
+            UsageCount[] usages = counts.m_usages.get(ref);
+            int idx = -1;
+            for (int i = 0; (usages != null) && (idx < 0) && (i < usages.length); i++)
+            {
+                if (usages[i] == uc)
+                {
+                    idx = i;
+                }
+            }
+            if (idx < 0)
+            {
+                return false; // no change in map
+            }
 
-            if (orgUsages != null)
+            // If this is the only usage, then point to an empty array. The
+            // entry is kept, since services tend to be used again.
+            UsageCount[] newUsages = new UsageCount[usages.length - 1];
+            System.arraycopy(usages, 0, newUsages, 0, idx);
+            System.arraycopy(usages, idx + 1, newUsages, idx, newUsages.length - idx);
+            if (counts.m_usages.replace(ref, usages, newUsages))
             {
-                if (usages != null)
-                    success = m_inUseMap.replace(bundle, orgUsages, usages);
-                else
-                    success = m_inUseMap.remove(bundle, orgUsages);
+                return newUsages.length == 0;
             }
         }
     }
@@ -760,6 +826,29 @@ public class ServiceRegistry
         return this.hookRegistry;
     }
 
+    /**
+     * The usage counts of a bundle, by service. The usage counts of a
+     * service are replaced as a whole, by compare and set.
+     */
+    static class UsageCounts
+    {
+        final ConcurrentMap<ServiceReference<?>, UsageCount[]> m_usages =
+            new ConcurrentHashMap<ServiceReference<?>, UsageCount[]>();
+        volatile boolean m_retired;
+
+        boolean isEmpty()
+        {
+            for (UsageCount[] usages : m_usages.values())
+            {
+                if (usages.length > 0)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     static class UsageCount
     {
         final ServiceReference<?> m_ref;
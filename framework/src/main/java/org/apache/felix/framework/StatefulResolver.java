@@ -30,6 +30,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -91,6 +92,12 @@ class StatefulResolver
     private final Map<String, List<BundleRevision>> m_singletons;
     // Selected singleton bundle revisions.
     private final Set<BundleRevision> m_selectedSingletons;
+    // Packages that could not be dynamically imported, per importing wiring.
+    // This is replaced rather than cleared whenever revisions are added,
+    // removed or resolved, so a dynamic resolve racing with such a change
+    // only records its result in the discarded copy.
+    private volatile Map<BundleWiring, Set<String>> m_dynamicImportMisses =
+        createDynamicImportMisses();
 
     StatefulResolver(Felix felix, ServiceRegistry registry)
     {
@@ -98,7 +105,7 @@ class StatefulResolver
         m_registry = registry;
         m_logger = m_felix.getLogger();
         m_executor = getExecutor();
-        m_resolver = new ResolverImpl(m_logger, m_executor);
+        m_resolver = new ResolverImpl(m_logger, m_executor, 1, getTimeout());
 
         m_revisions = new HashSet<BundleRevision>();
         m_fragments = new HashSet<BundleRevision>();
@@ -108,15 +115,35 @@ class StatefulResolver
 
         List<String> indices = new ArrayList<String>();
         indices.add(BundleRevision.BUNDLE_NAMESPACE);
-        m_capSets.put(BundleRevision.BUNDLE_NAMESPACE, new CapabilitySet(indices, true));
+        m_capSets.put(BundleRevision.BUNDLE_NAMESPACE, new CapabilitySet(indices,
+            Collections.singletonList(Constants.BUNDLE_VERSION_ATTRIBUTE), true));
 
         indices = new ArrayList<String>();
         indices.add(BundleRevision.PACKAGE_NAMESPACE);
-        m_capSets.put(BundleRevision.PACKAGE_NAMESPACE, new CapabilitySet(indices, true));
+        m_capSets.put(BundleRevision.PACKAGE_NAMESPACE, new CapabilitySet(indices,
+            Collections.singletonList(Constants.VERSION_ATTRIBUTE), true));
 
         indices = new ArrayList<String>();
         indices.add(BundleRevision.HOST_NAMESPACE);
-        m_capSets.put(BundleRevision.HOST_NAMESPACE,  new CapabilitySet(indices, true));
+        m_capSets.put(BundleRevision.HOST_NAMESPACE,  new CapabilitySet(indices,
+            Collections.singletonList(Constants.BUNDLE_VERSION_ATTRIBUTE), true));
+    }
+
+    private long getTimeout()
+    {
+        String str = m_felix.getProperty(FelixConstants.RESOLVER_TIMEOUT);
+        if (str != null)
+        {
+            try
+            {
+                return Long.parseLong(str.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                // Ignore
+            }
+        }
+        return 0;
     }
 
     private Executor getExecutor()
@@ -181,6 +208,9 @@ class StatefulResolver
         // after it has been resolved.
         removeRevision(br);
 
+        // The new revision may provide previously missing packages.
+        invalidateDynamicImportMisses();
+
         m_revisions.add(br);
 
         // Add singletons to the singleton map.
@@ -209,6 +239,7 @@ class StatefulResolver
     {
         if (m_revisions.remove(br))
         {
+            invalidateDynamicImportMisses();
             m_fragments.remove(br);
             deindexCapabilities(br);
 
@@ -472,6 +503,7 @@ class StatefulResolver
             // Catch any resolve exception to rethrow later because
             // we may need to call end() on resolver hooks.
             ResolutionException rethrow = null;
+            long start = System.nanoTime();
             try
             {
                 // Resolve the revision.
@@ -500,6 +532,21 @@ class StatefulResolver
 
             // Otherwise, mark all revisions as resolved.
             markResolvedRevisions(wireMap);
+
+            // Record how long it took to resolve the newly resolved bundles.
+            if (wireMap != null)
+            {
+                long duration = System.nanoTime() - start;
+                for (Resource resource : wireMap.keySet())
+                {
+                    if ((resource instanceof BundleRevision)
+                        && (((BundleRevision) resource).getBundle() instanceof BundleImpl))
+                    {
+                        ((BundleImpl) ((BundleRevision) resource).getBundle())
+                            .setResolveNanos(duration);
+                    }
+                }
+            }
         }
         finally
         {
@@ -522,7 +569,11 @@ class StatefulResolver
         // dynamic import is allowed without holding any locks, but this is
         // okay since the resolver will double check later after we have
         // acquired the global lock below.
-        if ((revision.getWiring() != null) && isAllowedDynamicImport(revision, pkgName))
+        // Packages which previously could not be dynamically imported will
+        // not be found either until the set of revisions changes.
+        BundleWiring wiring = revision.getWiring();
+        if ((wiring != null) && !isDynamicImportMiss(wiring, pkgName)
+            && isAllowedDynamicImport(revision, pkgName))
         {
             // Acquire global lock.
             boolean locked = m_felix.acquireGlobalLock();
@@ -532,6 +583,8 @@ class StatefulResolver
                     "Unable to acquire global lock for resolve.", revision, null);
             }
 
+            Map<BundleWiring, Set<String>> dynamicImportMisses = m_dynamicImportMisses;
+
             // Make sure we are not already resolving, which can be
             // the case if a resolver hook does something bad.
             if (m_isResolving)
@@ -636,6 +689,14 @@ class StatefulResolver
                         throw rethrow;
                     }
 
+                    // Remember the miss, unless resolver hooks are involved
+                    // since they may decide differently next time.
+                    if (((wireMap == null) || !wireMap.containsKey(revision))
+                        && ((record == null) || record.m_resolveHookMap.isEmpty()))
+                    {
+                        addDynamicImportMiss(dynamicImportMisses, wiring, pkgName);
+                    }
+
                     if ((wireMap != null) && wireMap.containsKey(revision))
                     {
                         List<Wire> dynamicWires = wireMap.remove(revision);
@@ -694,6 +755,41 @@ class StatefulResolver
         return provider;
     }
 
+    private static Map<BundleWiring, Set<String>> createDynamicImportMisses()
+    {
+        return Collections.synchronizedMap(new WeakHashMap<BundleWiring, Set<String>>());
+    }
+
+    private void invalidateDynamicImportMisses()
+    {
+        m_dynamicImportMisses = createDynamicImportMisses();
+    }
+
+    private boolean isDynamicImportMiss(BundleWiring wiring, String pkgName)
+    {
+        Map<BundleWiring, Set<String>> misses = m_dynamicImportMisses;
+        synchronized (misses)
+        {
+            Set<String> pkgNames = misses.get(wiring);
+            return (pkgNames != null) && pkgNames.contains(pkgName);
+        }
+    }
+
+    private static void addDynamicImportMiss(
+        Map<BundleWiring, Set<String>> misses, BundleWiring wiring, String pkgName)
+    {
+        synchronized (misses)
+        {
+            Set<String> pkgNames = misses.get(wiring);
+            if (pkgNames == null)
+            {
+                pkgNames = new HashSet<String>();
+                misses.put(wiring, pkgNames);
+            }
+            pkgNames.add(pkgName);
+        }
+    }
+
     private BundleRequirementImpl findDynamicRequirement(List<BundleRequirement> dynamics, List<BundleCapability> candidates)
     {
         for (int dynIdx = 0; (candidates.size() > 0)  && (dynIdx < dynamics.size()); dynIdx++)
@@ -1009,6 +1105,9 @@ class StatefulResolver
     private void markResolvedRevisions(Map<Resource, List<Wire>> wireMap)
         throws ResolveException
     {
+        // Newly resolved revisions may provide previously missing packages.
+        invalidateDynamicImportMisses();
+
         boolean debugLog = m_felix.getLogger().getLogLevel() >= Logger.LOG_DEBUG;
 
         // DO THIS IN THREE PASSES:
@@ -50,6 +50,11 @@ import java.util.Map;
  *       sets an upper limit on how many files the cache will open. The default
  *       value is zero, which means there is no limit.
  *   </li>
+ *   <li><tt>felix.cache.mapjars</tt> - If set to <tt>true</tt>, bundle JAR
+ *       files are memory mapped and indexed once instead of being kept open,
+ *       so their entries remain accessible without counting against the
+ *       file limit. The default value is <tt>false</tt>.
+ *   </li>
  *   <li><tt>org.osgi.framework.storage</tt> - Sets the directory to use as
  *       the bundle cache; by default bundle cache directory is
  *       <tt>felix-cache</tt> in the current working directory. The value
@@ -87,6 +92,9 @@ public class BundleCache
     public static final String CACHE_ROOTDIR_PROP = "felix.cache.rootdir";
     public static final String CACHE_LOCKING_PROP = "felix.cache.locking";
     public static final String CACHE_FILELIMIT_PROP = "felix.cache.filelimit";
+    public static final String CACHE_MAPJARS_PROP = "felix.cache.mapjars";
+    public static final String CACHE_CLASSPATH_INDEX_PROP = "felix.cache.classpathindex";
+    public static final String CACHE_SNAPSHOT_PROP = "felix.cache.snapshot";
     private static final ThreadLocal m_defaultBuffer = new ThreadLocal();
     private static volatile int DEFAULT_BUFFER = 1024 * 64;
 
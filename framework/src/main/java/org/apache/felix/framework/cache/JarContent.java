@@ -20,10 +20,8 @@ package org.apache.felix.framework.cache;
 
 import org.apache.felix.framework.Logger;
 import org.apache.felix.framework.util.FelixConstants;
-import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.WeakZipFileFactory;
 import org.apache.felix.framework.util.WeakZipFileFactory.WeakZipFile;
-import org.osgi.framework.Constants;
 
 import java.io.File;
 import java.io.IOException;
@@ -31,16 +29,11 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Properties;
 import java.util.zip.ZipEntry;
 
 public class JarContent implements Content
 {
-    private static final transient String EMBEDDED_DIRECTORY = "-embedded";
-    private static final transient String LIBRARY_DIRECTORY = "-lib";
-
     private final Logger m_logger;
     private final Map m_configMap;
     private final WeakZipFileFactory m_zipFactory;
@@ -49,7 +42,7 @@ public class JarContent implements Content
     private final File m_file;
     private final WeakZipFile m_zipFile;
     private final boolean m_isZipFileOwner;
-    private Map m_nativeLibMap;
+    private final JarEntryExtractor m_extractor;
 
     public JarContent(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
         Object revisionLock, File rootDir, File file, WeakZipFile zipFile)
@@ -77,6 +70,8 @@ public class JarContent implements Content
             m_zipFile = zipFile;
         }
         m_isZipFileOwner = (zipFile == null);
+        m_extractor = new JarEntryExtractor(
+            m_logger, m_configMap, m_revisionLock, m_rootDir, m_file);
     }
 
     protected void finalize()
@@ -205,20 +200,11 @@ public class JarContent implements Content
                 m_rootDir, m_file, m_zipFile);
         }
 
-        // Remove any leading slash.
-        entryName = (entryName.startsWith("/")) ? entryName.substring(1) : entryName;
-
-        if (entryName.trim().startsWith(".." + File.separatorChar) ||
-            entryName.contains(File.separator + ".." + File.separatorChar) ||
-            entryName.trim().endsWith(File.separator + "..") ||
-            entryName.trim().equals(".."))
+        entryName = JarEntryExtractor.getEntryName(entryName);
+        if (entryName == null)
         {
             return null;
         }
-        // Any embedded JAR files will be extracted to the embedded directory.
-        // Since embedded JAR file names may clash when extracting from multiple
-        // embedded JAR files, the embedded directory is per embedded JAR file.
-        File embedDir = new File(m_rootDir, m_file.getName() + EMBEDDED_DIRECTORY);
 
         // Find the entry in the JAR file and create the
         // appropriate content type for it.
@@ -234,33 +220,9 @@ public class JarContent implements Content
         }
         else if ((ze != null) && ze.getName().endsWith(".jar"))
         {
-            File extractJar = new File(embedDir, entryName);
-
             try
             {
-                if (!BundleCache.getSecureAction().fileExists(extractJar))
-                {
-                    // Extracting the embedded JAR file impacts all other existing
-                    // contents for this revision, so we have to grab the revision
-                    // lock first before trying to extract the embedded JAR file
-                    // to avoid a race condition.
-                    synchronized (m_revisionLock)
-                    {
-                        if (!BundleCache.getSecureAction().fileExists(extractJar))
-                        {
-                            // Make sure that the embedded JAR's parent directory exists;
-                            // it may be in a sub-directory.
-                            File jarDir = extractJar.getParentFile();
-                            if (!BundleCache.getSecureAction().fileExists(jarDir) && !BundleCache.getSecureAction().mkdirs(jarDir))
-                            {
-                                throw new IOException("Unable to create embedded JAR directory.");
-                            }
-
-                            // Extract embedded JAR into its directory.
-                            BundleCache.copyStreamToFile(m_zipFile.getInputStream(ze), extractJar);
-                        }
-                    }
-                }
+                File extractJar = m_extractor.extractEmbeddedJar(this, entryName);
                 return new JarContent(
                     m_logger, m_configMap, m_zipFactory, m_revisionLock,
                     extractJar.getParentFile(), extractJar, null);
@@ -277,115 +239,23 @@ public class JarContent implements Content
         return null;
     }
 
-// TODO: SECURITY - This will need to consider security.
     public String getEntryAsNativeLibrary(String entryName)
     {
-        // Return result.
-        String result = null;
-
-        // Remove any leading slash.
-        entryName = (entryName.startsWith("/")) ? entryName.substring(1) : entryName;
-
-        if (entryName.trim().startsWith(".." + File.separatorChar) ||
-            entryName.contains(File.separator + ".." + File.separatorChar) ||
-            entryName.trim().endsWith(File.separator + "..") ||
-            entryName.trim().equals(".."))
+        entryName = JarEntryExtractor.getEntryName(entryName);
+        if (entryName == null)
         {
             return null;
         }
 
-        // Any embedded native libraries will be extracted to the lib directory.
-        // Since embedded library file names may clash when extracting from multiple
-        // embedded JAR files, the embedded lib directory is per embedded JAR file.
-        File libDir = new File(m_rootDir, m_file.getName() + LIBRARY_DIRECTORY);
-
         // The entry name must refer to a file type, since it is
         // a native library, not a directory.
         ZipEntry ze = m_zipFile.getEntry(entryName);
         if ((ze != null) && !ze.isDirectory())
         {
-            // Extracting the embedded native library file impacts all other
-            // existing contents for this revision, so we have to grab the
-            // revision lock first before trying to extract the embedded JAR
-            // file to avoid a race condition.
-            synchronized (m_revisionLock)
-            {
-                // Since native libraries cannot be shared, we must extract a
-                // separate copy per request, so use the request library counter
-                // as part of the extracted path.
-                if (m_nativeLibMap == null)
-                {
-                    m_nativeLibMap = new HashMap();
-                }
-                Integer libCount = (Integer) m_nativeLibMap.get(entryName);
-                // Either set or increment the library count.
-                libCount = (libCount == null) ? new Integer(0) : new Integer(libCount.intValue() + 1);
-                m_nativeLibMap.put(entryName, libCount);
-                File libFile = new File(
-                    libDir, libCount.toString() + File.separatorChar + entryName);
-
-                if (!BundleCache.getSecureAction().fileExists(libFile))
-                {
-                    if (!BundleCache.getSecureAction().fileExists(libFile.getParentFile())
-                        && !BundleCache.getSecureAction().mkdirs(libFile.getParentFile()))
-                    {
-                        m_logger.log(
-                            Logger.LOG_ERROR,
-                            "Unable to create library directory.");
-                    }
-                    else
-                    {
-                        try
-                        {
-                            // Create the file.
-                            BundleCache.copyStreamToFile(m_zipFile.getInputStream(ze), libFile);
-
-                            // Perform exec permission command on extracted library
-                            // if one is configured.
-                            String command = (String) m_configMap.get(
-                                Constants.FRAMEWORK_EXECPERMISSION);
-                            if (command != null)
-                            {
-                                Properties props = new Properties();
-                                props.setProperty("abspath", libFile.toString());
-                                command = Util.substVars(command, "command", null, props);
-                                Process p = BundleCache.getSecureAction().exec(command);
-                                // We have to make sure we read stdout and stderr because
-                                // otherwise we will block on certain unbuffered os's
-                                // (like eg. windows)
-                                Thread stdOut = new Thread(
-                                    new DevNullRunnable(p.getInputStream()));
-                                Thread stdErr = new Thread(
-                                    new DevNullRunnable(p.getErrorStream()));
-                                stdOut.setDaemon(true);
-                                stdErr.setDaemon(true);
-                                stdOut.start();
-                                stdErr.start();
-                                p.waitFor();
-                                stdOut.join();
-                                stdErr.join();
-                            }
-
-                            // Return the path to the extracted native library.
-                            result = BundleCache.getSecureAction().getAbsolutePath(libFile);
-                        }
-                        catch (Exception ex)
-                        {
-                            m_logger.log(
-                                Logger.LOG_ERROR,
-                                "Extracting native library.", ex);
-                        }
-                    }
-                }
-                else
-                {
-                    // Return the path to the extracted native library.
-                    result = BundleCache.getSecureAction().getAbsolutePath(libFile);
-                }
-            }
+            return m_extractor.extractNativeLibrary(this, entryName);
         }
 
-        return result;
+        return null;
     }
 
     public String toString()
@@ -397,33 +267,4 @@ public class JarContent implements Content
     {
         return m_file;
     }
-
-    private static class DevNullRunnable implements Runnable
-    {
-        private final InputStream m_in;
-
-        public DevNullRunnable(InputStream in)
-        {
-            m_in = in;
-        }
-
-        public void run()
-        {
-            try
-            {
-                try
-                {
-                    while (m_in.read() != -1){}
-                }
-                finally
-                {
-                    m_in.close();
-                }
-            }
-            catch (Exception ex)
-            {
-                // Not much we can do - maybe we should log it?
-            }
-        }
-    }
 }
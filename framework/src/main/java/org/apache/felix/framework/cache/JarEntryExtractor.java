@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.Util;
+import org.osgi.framework.Constants;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * <p>
+ * This class extracts embedded JAR files and native libraries from the
+ * entries of a bundle JAR file. It is shared by <tt>JarContent</tt> and
+ * <tt>MappedJarContent</tt>, which only differ in how they look up and read
+ * their entries.
+ * </p>
+**/
+class JarEntryExtractor
+{
+    private static final transient String EMBEDDED_DIRECTORY = "-embedded";
+    private static final transient String LIBRARY_DIRECTORY = "-lib";
+
+    private final Logger m_logger;
+    private final Map m_configMap;
+    private final Object m_revisionLock;
+    private final File m_rootDir;
+    private final File m_file;
+    private Map<String, Integer> m_nativeLibMap;
+
+    JarEntryExtractor(Logger logger, Map configMap, Object revisionLock,
+        File rootDir, File file)
+    {
+        m_logger = logger;
+        m_configMap = configMap;
+        m_revisionLock = revisionLock;
+        m_rootDir = rootDir;
+        m_file = file;
+    }
+
+    /**
+     * Returns the entry name without any leading slash, or <tt>null</tt> if
+     * the entry name refers to a location outside of the JAR file.
+    **/
+    static String getEntryName(String entryName)
+    {
+        // Remove any leading slash.
+        entryName = (entryName.startsWith("/")) ? entryName.substring(1) : entryName;
+
+        if (entryName.trim().startsWith(".." + File.separatorChar) ||
+            entryName.contains(File.separator + ".." + File.separatorChar) ||
+            entryName.trim().endsWith(File.separator + "..") ||
+            entryName.trim().equals(".."))
+        {
+            return null;
+        }
+        return entryName;
+    }
+
+    /**
+     * Extracts the embedded JAR file entry of the content, unless it has
+     * already been extracted, and returns the extracted file.
+    **/
+    File extractEmbeddedJar(Content content, String entryName) throws Exception
+    {
+        // Any embedded JAR files will be extracted to the embedded directory.
+        // Since embedded JAR file names may clash when extracting from multiple
+        // embedded JAR files, the embedded directory is per embedded JAR file.
+        File embedDir = new File(m_rootDir, m_file.getName() + EMBEDDED_DIRECTORY);
+        File extractJar = new File(embedDir, entryName);
+
+        if (!BundleCache.getSecureAction().fileExists(extractJar))
+        {
+            // Extracting the embedded JAR file impacts all other existing
+            // contents for this revision, so we have to grab the revision
+            // lock first before trying to extract the embedded JAR file
+            // to avoid a race condition.
+            synchronized (m_revisionLock)
+            {
+                if (!BundleCache.getSecureAction().fileExists(extractJar))
+                {
+                    // Make sure that the embedded JAR's parent directory exists;
+                    // it may be in a sub-directory.
+                    File jarDir = extractJar.getParentFile();
+                    if (!BundleCache.getSecureAction().fileExists(jarDir) && !BundleCache.getSecureAction().mkdirs(jarDir))
+                    {
+                        throw new IOException("Unable to create embedded JAR directory.");
+                    }
+
+                    // Extract embedded JAR into its directory.
+                    BundleCache.copyStreamToFile(getInputStream(content, entryName), extractJar);
+                }
+            }
+        }
+        return extractJar;
+    }
+
+// TODO: SECURITY - This will need to consider security.
+    /**
+     * Extracts a separate copy of the native library entry of the content
+     * and returns its absolute path, or <tt>null</tt> if it could not be
+     * extracted.
+    **/
+    String extractNativeLibrary(Content content, String entryName)
+    {
+        // Return result.
+        String result = null;
+
+        // Any embedded native libraries will be extracted to the lib directory.
+        // Since embedded library file names may clash when extracting from multiple
+        // embedded JAR files, the embedded lib directory is per embedded JAR file.
+        File libDir = new File(m_rootDir, m_file.getName() + LIBRARY_DIRECTORY);
+
+        // Extracting the embedded native library file impacts all other
+        // existing contents for this revision, so we have to grab the
+        // revision lock first before trying to extract the embedded JAR
+        // file to avoid a race condition.
+        synchronized (m_revisionLock)
+        {
+            // Since native libraries cannot be shared, we must extract a
+            // separate copy per request, so use the request library counter
+            // as part of the extracted path.
+            if (m_nativeLibMap == null)
+            {
+                m_nativeLibMap = new HashMap<String, Integer>();
+            }
+            Integer libCount = m_nativeLibMap.get(entryName);
+            // Either set or increment the library count.
+            libCount = (libCount == null) ? Integer.valueOf(0) : Integer.valueOf(libCount.intValue() + 1);
+            m_nativeLibMap.put(entryName, libCount);
+            File libFile = new File(
+                libDir, libCount.toString() + File.separatorChar + entryName);
+
+            if (!BundleCache.getSecureAction().fileExists(libFile))
+            {
+                if (!BundleCache.getSecureAction().fileExists(libFile.getParentFile())
+                    && !BundleCache.getSecureAction().mkdirs(libFile.getParentFile()))
+                {
+                    m_logger.log(
+                        Logger.LOG_ERROR,
+                        "Unable to create library directory.");
+                }
+                else
+                {
+                    try
+                    {
+                        // Create the file.
+                        BundleCache.copyStreamToFile(getInputStream(content, entryName), libFile);
+
+                        // Perform exec permission command on extracted library
+                        // if one is configured.
+                        String command = (String) m_configMap.get(
+                            Constants.FRAMEWORK_EXECPERMISSION);
+                        if (command != null)
+                        {
+                            Properties props = new Properties();
+                            props.setProperty("abspath", libFile.toString());
+                            command = Util.substVars(command, "command", null, props);
+                            Process p = BundleCache.getSecureAction().exec(command);
+                            // We have to make sure we read stdout and stderr because
+                            // otherwise we will block on certain unbuffered os's
+                            // (like eg. windows)
+                            Thread stdOut = new Thread(
+                                new DevNullRunnable(p.getInputStream()));
+                            Thread stdErr = new Thread(
+                                new DevNullRunnable(p.getErrorStream()));
+                            stdOut.setDaemon(true);
+                            stdErr.setDaemon(true);
+                            stdOut.start();
+                            stdErr.start();
+                            p.waitFor();
+                            stdOut.join();
+                            stdErr.join();
+                        }
+
+                        // Return the path to the extracted native library.
+                        result = BundleCache.getSecureAction().getAbsolutePath(libFile);
+                    }
+                    catch (Exception ex)
+                    {
+                        m_logger.log(
+                            Logger.LOG_ERROR,
+                            "Extracting native library.", ex);
+                    }
+                }
+            }
+            else
+            {
+                // Return the path to the extracted native library.
+                result = BundleCache.getSecureAction().getAbsolutePath(libFile);
+            }
+        }
+
+        return result;
+    }
+
+    private static InputStream getInputStream(Content content, String entryName)
+        throws IOException
+    {
+        InputStream is = content.getEntryAsStream(entryName);
+        if (is == null)
+        {
+            throw new IOException("Unable to read entry " + entryName + ".");
+        }
+        return is;
+    }
+
+    private static class DevNullRunnable implements Runnable
+    {
+        private final InputStream m_in;
+
+        public DevNullRunnable(InputStream in)
+        {
+            m_in = in;
+        }
+
+        public void run()
+        {
+            try
+            {
+                try
+                {
+                    while (m_in.read() != -1){}
+                }
+                finally
+                {
+                    m_in.close();
+                }
+            }
+            catch (Exception ex)
+            {
+                // Not much we can do - maybe we should log it?
+            }
+        }
+    }
+}
@@ -51,6 +51,7 @@ class JarRevision extends BundleArchiveRevision
     private final WeakZipFileFactory m_zipFactory;
     private final File m_bundleFile;
     private final WeakZipFile m_zipFile;
+    private final MappedJarIndex m_index;
 
     public JarRevision(
         Logger logger, Map configMap, WeakZipFileFactory zipFactory,
@@ -75,29 +76,56 @@ class JarRevision extends BundleArchiveRevision
         // Save and process the bundle JAR.
         initialize(byReference, is);
 
-        // Open shared copy of the JAR file.
-        WeakZipFile zipFile = null;
-        try
+        // Map the bundle JAR file if configured to do so; fall back to
+        // opening it if it cannot be mapped.
+        MappedJarIndex index = null;
+        Object mapJars = configMap.get(BundleCache.CACHE_MAPJARS_PROP);
+        if ((mapJars != null) && Boolean.valueOf(mapJars.toString()).booleanValue())
         {
-            // Open bundle JAR file.
-            zipFile = m_zipFactory.create(m_bundleFile);
-            // Error if no jar file.
-            if (zipFile == null)
+            try
             {
-                throw new IOException("No JAR file found.");
+                index = MappedJarIndex.open(m_bundleFile);
+            }
+            catch (IOException ex)
+            {
+                getLogger().log(
+                    Logger.LOG_DEBUG,
+                    "Unable to map bundle JAR file, opening it instead: " + ex.getMessage());
             }
-            m_zipFile = zipFile;
         }
-        catch (Exception ex)
+        m_index = index;
+
+        // Open shared copy of the JAR file.
+        WeakZipFile zipFile = null;
+        if (m_index == null)
         {
-            if (zipFile != null) zipFile.close();
-            throw ex;
+            try
+            {
+                // Open bundle JAR file.
+                zipFile = m_zipFactory.create(m_bundleFile);
+                // Error if no jar file.
+                if (zipFile == null)
+                {
+                    throw new IOException("No JAR file found.");
+                }
+            }
+            catch (Exception ex)
+            {
+                if (zipFile != null) zipFile.close();
+                throw ex;
+            }
         }
+        m_zipFile = zipFile;
     }
 
     public Map<String, Object> getManifestHeader() throws Exception
     {
         // Read and parse headers into a case insensitive map of manifest attributes and return it.
+        if (m_index != null)
+        {
+            int entry = m_index.find("META-INF/MANIFEST.MF");
+            return (entry >= 0) ? BundleCache.getMainAttributes(new StringMap(), m_index.getInputStream(entry), m_index.getSize(entry)) : null;
+        }
         ZipEntry manifestEntry = m_zipFile.getEntry("META-INF/MANIFEST.MF");
 
         Map<String, Object> manifest = manifestEntry != null ? BundleCache.getMainAttributes(new StringMap(), m_zipFile.getInputStream(manifestEntry), manifestEntry.getSize()) : null;
@@ -107,13 +135,25 @@ class JarRevision extends BundleArchiveRevision
 
     public Content getContent() throws Exception
     {
+        if (m_index != null)
+        {
+            return new MappedJarContent(getLogger(), getConfig(), m_zipFactory,
+                this, getRevisionRootDir(), m_bundleFile, m_index, false);
+        }
         return new JarContent(getLogger(), getConfig(), m_zipFactory,
             this, getRevisionRootDir(), m_bundleFile, m_zipFile);
     }
 
     protected void close() throws Exception
     {
-        m_zipFile.close();
+        if (m_index != null)
+        {
+            m_index.close();
+        }
+        else
+        {
+            m_zipFile.close();
+        }
     }
 
     //
@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.Map;
+
+/**
+ * <p>
+ * This class implements the content of a bundle JAR file on top of a
+ * <tt>MappedJarIndex</tt>, so entries are served from a memory mapping of
+ * the file instead of an open <tt>ZipFile</tt>. It is used instead of
+ * <tt>JarContent</tt> when the <tt>felix.cache.mapjars</tt> property is
+ * set to <tt>true</tt>.
+ * </p>
+**/
+public class MappedJarContent implements Content
+{
+    private final Logger m_logger;
+    private final Map m_configMap;
+    private final WeakZipFileFactory m_zipFactory;
+    private final Object m_revisionLock;
+    private final File m_rootDir;
+    private final File m_file;
+    private final MappedJarIndex m_index;
+    private final boolean m_isIndexOwner;
+    private final JarEntryExtractor m_extractor;
+
+    MappedJarContent(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, File file, MappedJarIndex index,
+        boolean isIndexOwner)
+    {
+        m_logger = logger;
+        m_configMap = configMap;
+        m_zipFactory = zipFactory;
+        m_revisionLock = revisionLock;
+        m_rootDir = rootDir;
+        m_file = file;
+        m_index = index;
+        m_isIndexOwner = isIndexOwner;
+        m_extractor = new JarEntryExtractor(
+            logger, configMap, revisionLock, rootDir, file);
+    }
+
+    public void close()
+    {
+        if (m_isIndexOwner)
+        {
+            m_index.close();
+        }
+    }
+
+    public boolean hasEntry(String name) throws IllegalStateException
+    {
+        return m_index.find(name) >= 0;
+    }
+
+    public Enumeration<String> getEntries()
+    {
+        Enumeration<String> e = m_index.names();
+
+        // Spec says to return null if there are no entries.
+        return (e.hasMoreElements()) ? e : null;
+    }
+
+    public byte[] getEntryAsBytes(String name) throws IllegalStateException
+    {
+        // Get the embedded resource.
+        try
+        {
+            int entry = m_index.find(name);
+            if (entry < 0)
+            {
+                return null;
+            }
+
+            return m_index.getBytes(entry);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "MappedJarContent: Unable to read bytes for file " + name + " in ZIP file " + m_file.getAbsolutePath(), ex);
+            return null;
+        }
+    }
+
+    public InputStream getEntryAsStream(String name)
+        throws IllegalStateException, IOException
+    {
+        try
+        {
+            int entry = m_index.find(name);
+            if (entry < 0)
+            {
+                return null;
+            }
+            return m_index.getInputStream(entry);
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+    public URL getEntryAsURL(String name)
+    {
+        if (hasEntry(name))
+        {
+            try
+            {
+                return new URL("jar:" + m_file.toURI().toURL().toExternalForm() + "!/" + name);
+            }
+            catch (MalformedURLException e)
+            {
+                return null;
+            }
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+    public Content getEntryAsContent(String entryName)
+    {
+        // If the entry name refers to the content itself, then
+        // just return it immediately.
+        if (entryName.equals(FelixConstants.CLASS_PATH_DOT))
+        {
+            return new MappedJarContent(m_logger, m_configMap, m_zipFactory, m_revisionLock,
+                m_rootDir, m_file, m_index, false);
+        }
+
+        entryName = JarEntryExtractor.getEntryName(entryName);
+        if (entryName == null)
+        {
+            return null;
+        }
+
+        // Determine if the entry is an emdedded JAR file or
+        // directory in the bundle JAR file. Ignore any entries
+        // that do not exist per the spec.
+        int entry = m_index.find(entryName);
+
+        if ((entry >= 0) && m_index.isDirectory(entry))
+        {
+            return new ContentDirectoryContent(this, entryName);
+        }
+        else if ((entry >= 0) && m_index.getName(entry).endsWith(".jar"))
+        {
+            try
+            {
+                File extractJar = m_extractor.extractEmbeddedJar(this, entryName);
+
+                MappedJarIndex index;
+                try
+                {
+                    index = MappedJarIndex.open(extractJar);
+                }
+                catch (IOException ex)
+                {
+                    // Not a JAR file we can map, so fall back to opening it.
+                    return new JarContent(
+                        m_logger, m_configMap, m_zipFactory, m_revisionLock,
+                        extractJar.getParentFile(), extractJar, null);
+                }
+                return new MappedJarContent(
+                    m_logger, m_configMap, m_zipFactory, m_revisionLock,
+                    extractJar.getParentFile(), extractJar, index, true);
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(
+                    Logger.LOG_ERROR,
+                    "Unable to extract embedded JAR file.", ex);
+            }
+        }
+
+        // The entry could not be found, so return null.
+        return null;
+    }
+
+    public String getEntryAsNativeLibrary(String entryName)
+    {
+        entryName = JarEntryExtractor.getEntryName(entryName);
+        if (entryName == null)
+        {
+            return null;
+        }
+
+        // The entry name must refer to a file type, since it is
+        // a native library, not a directory.
+        int entry = m_index.find(entryName);
+        if ((entry >= 0) && !m_index.isDirectory(entry))
+        {
+            return m_extractor.extractNativeLibrary(this, entryName);
+        }
+
+        return null;
+    }
+
+    public String toString()
+    {
+        return "MAPPED JAR " + m_file.getPath();
+    }
+
+    public File getFile()
+    {
+        return m_file;
+    }
+}
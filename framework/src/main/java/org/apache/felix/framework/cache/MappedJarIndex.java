@@ -0,0 +1,467 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * <p>
+ * This class provides read access to the entries of a JAR file through a
+ * memory mapping of the file. The central directory is parsed once into a
+ * compact hash index of entry names to local header offsets, sizes, and
+ * compression methods; afterwards no file handle is kept open, so unlike
+ * <tt>WeakZipFileFactory</tt> the index never has to be rebuilt because of
+ * the <tt>felix.cache.filelimit</tt> setting. The mapping itself is released
+ * when the index is closed and garbage collected.
+ * </p>
+ * <p>
+ * Only JAR files smaller than 2 GB without ZIP64 extensions are supported;
+ * <tt>open()</tt> throws an <tt>IOException</tt> for anything else so the
+ * caller can fall back to <tt>JarContent</tt>.
+ * </p>
+**/
+final class MappedJarIndex
+{
+    private static final int LOCSIG = 0x04034b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int LOCHDR = 30;
+    private static final int CENHDR = 46;
+    private static final int ENDHDR = 22;
+
+    private final File m_file;
+    private volatile ByteBuffer m_buffer;
+    private final String[] m_names;
+    private final int[] m_offsets;
+    private final int[] m_compressedSizes;
+    private final long[] m_sizes;
+    private final int[] m_methods;
+    private final int[] m_table;
+
+    private MappedJarIndex(File file, ByteBuffer buffer, int count)
+    {
+        m_file = file;
+        m_buffer = buffer;
+        m_names = new String[count];
+        m_offsets = new int[count];
+        m_compressedSizes = new int[count];
+        m_sizes = new long[count];
+        m_methods = new int[count];
+        int tableSize = 16;
+        while (tableSize < count * 2)
+        {
+            tableSize <<= 1;
+        }
+        m_table = new int[tableSize];
+    }
+
+    /**
+     * Maps the specified JAR file and indexes its central directory.
+     * @param file the JAR file to map.
+     * @return the index of the JAR file.
+     * @throws IOException if the file cannot be read or is not a
+     *         supported JAR file.
+    **/
+    public static MappedJarIndex open(File file) throws IOException
+    {
+        MappedByteBuffer buffer;
+        FileInputStream fis = BundleCache.getSecureAction().getFileInputStream(file);
+        try
+        {
+            FileChannel channel = fis.getChannel();
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE)
+            {
+                throw new IOException("JAR file too large to map: " + file);
+            }
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        finally
+        {
+            fis.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int end = findEndOfCentralDirectory(buffer);
+        if (end < 0)
+        {
+            throw new IOException("Not a JAR file: " + file);
+        }
+        int count = buffer.getShort(end + 10) & 0xffff;
+        long cenSize = buffer.getInt(end + 12) & 0xffffffffL;
+        long cenOffset = buffer.getInt(end + 16) & 0xffffffffL;
+        if ((count == 0xffff) || (cenSize == 0xffffffffL) || (cenOffset == 0xffffffffL))
+        {
+            throw new IOException("ZIP64 JAR files are not supported: " + file);
+        }
+        if (cenOffset + cenSize > end)
+        {
+            throw new IOException("Invalid central directory in JAR file: " + file);
+        }
+
+        MappedJarIndex index = new MappedJarIndex(file, buffer, count);
+        int pos = (int) cenOffset;
+        byte[] nameBytes = new byte[256];
+        for (int i = 0; i < count; i++)
+        {
+            if ((pos + CENHDR > end) || (buffer.getInt(pos) != CENSIG))
+            {
+                throw new IOException("Invalid central directory in JAR file: " + file);
+            }
+            int method = buffer.getShort(pos + 10) & 0xffff;
+            long compressedSize = buffer.getInt(pos + 20) & 0xffffffffL;
+            long size = buffer.getInt(pos + 24) & 0xffffffffL;
+            int nameLength = buffer.getShort(pos + 28) & 0xffff;
+            int extraLength = buffer.getShort(pos + 30) & 0xffff;
+            int commentLength = buffer.getShort(pos + 32) & 0xffff;
+            long offset = buffer.getInt(pos + 42) & 0xffffffffL;
+            if ((compressedSize == 0xffffffffL) || (size == 0xffffffffL) || (offset == 0xffffffffL))
+            {
+                throw new IOException("ZIP64 JAR files are not supported: " + file);
+            }
+            if ((method != ZipEntry.STORED) && (method != ZipEntry.DEFLATED))
+            {
+                throw new IOException("Unsupported compression method " + method + " in JAR file: " + file);
+            }
+            if (nameBytes.length < nameLength)
+            {
+                nameBytes = new byte[nameLength];
+            }
+            for (int j = 0; j < nameLength; j++)
+            {
+                nameBytes[j] = buffer.get(pos + CENHDR + j);
+            }
+            index.add(i, new String(nameBytes, 0, nameLength, "UTF-8"),
+                (int) offset, (int) compressedSize, size, method);
+            pos += CENHDR + nameLength + extraLength + commentLength;
+        }
+        return index;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buffer)
+    {
+        // The end record is followed by a comment of at most 64k.
+        int limit = Math.max(0, buffer.limit() - ENDHDR - 0xffff);
+        for (int pos = buffer.limit() - ENDHDR; pos >= limit; pos--)
+        {
+            if (buffer.getInt(pos) == ENDSIG)
+            {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private void add(int i, String name, int offset, int compressedSize, long size, int method)
+    {
+        m_names[i] = name;
+        m_offsets[i] = offset;
+        m_compressedSizes[i] = compressedSize;
+        m_sizes[i] = size;
+        m_methods[i] = method;
+        int mask = m_table.length - 1;
+        int slot = hash(name) & mask;
+        while (m_table[slot] != 0)
+        {
+            slot = (slot + 1) & mask;
+        }
+        // Slots hold the entry position plus one, so zero means empty.
+        m_table[slot] = i + 1;
+    }
+
+    private static int hash(String name)
+    {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Finds the entry with the specified name. Like <tt>ZipFile.getEntry()</tt>,
+     * a name without a trailing slash also finds a directory entry.
+     * @param name the name of the entry.
+     * @return the position of the entry or <tt>-1</tt> if there is none.
+    **/
+    public int find(String name)
+    {
+        int i = lookup(name);
+        if ((i < 0) && !name.endsWith("/"))
+        {
+            i = lookup(name + "/");
+        }
+        return i;
+    }
+
+    private int lookup(String name)
+    {
+        int mask = m_table.length - 1;
+        for (int slot = hash(name) & mask; m_table[slot] != 0; slot = (slot + 1) & mask)
+        {
+            int i = m_table[slot] - 1;
+            if (m_names[i].equals(name))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getName(int i)
+    {
+        return m_names[i];
+    }
+
+    public boolean isDirectory(int i)
+    {
+        return m_names[i].endsWith("/");
+    }
+
+    public long getSize(int i)
+    {
+        return m_sizes[i];
+    }
+
+    public Enumeration<String> names()
+    {
+        return new Enumeration<String>()
+        {
+            private int m_next = 0;
+
+            public boolean hasMoreElements()
+            {
+                return m_next < m_names.length;
+            }
+
+            public String nextElement()
+            {
+                if (m_next >= m_names.length)
+                {
+                    throw new NoSuchElementException();
+                }
+                return m_names[m_next++];
+            }
+        };
+    }
+
+    /**
+     * Returns the uncompressed bytes of the specified entry.
+     * @param i the position of the entry.
+     * @return the entry's bytes.
+     * @throws IOException if the index is closed or the entry is corrupt.
+    **/
+    public byte[] getBytes(int i) throws IOException
+    {
+        ByteBuffer data = getData(i);
+        if (m_sizes[i] > Integer.MAX_VALUE)
+        {
+            throw new IOException("Entry too large: " + m_names[i]);
+        }
+        byte[] bytes = new byte[(int) m_sizes[i]];
+        if (m_methods[i] == ZipEntry.STORED)
+        {
+            data.get(bytes);
+            return bytes;
+        }
+
+        // The inflater needs a trailing dummy byte when there is no wrapper.
+        byte[] input = new byte[data.remaining() + 1];
+        data.get(input, 0, input.length - 1);
+        Inflater inflater = new Inflater(true);
+        try
+        {
+            inflater.setInput(input);
+            int n = 0;
+            while ((n < bytes.length) && !inflater.finished())
+            {
+                int count = inflater.inflate(bytes, n, bytes.length - n);
+                if ((count == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                n += count;
+            }
+            if (n != bytes.length)
+            {
+                throw new IOException("Truncated entry: " + m_names[i]);
+            }
+            return bytes;
+        }
+        catch (DataFormatException ex)
+        {
+            throw new IOException("Corrupt entry " + m_names[i] + ": " + ex.getMessage());
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns an input stream for the uncompressed bytes of the specified entry.
+     * @param i the position of the entry.
+     * @return an input stream for the entry.
+     * @throws IOException if the index is closed or the entry is corrupt.
+    **/
+    public InputStream getInputStream(int i) throws IOException
+    {
+        ByteBuffer data = getData(i);
+        if (m_methods[i] == ZipEntry.STORED)
+        {
+            return new ByteBufferInputStream(data, false);
+        }
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(new ByteBufferInputStream(data, true), inflater,
+            (int) Math.min(Math.max(m_compressedSizes[i], 512), 64 * 1024))
+        {
+            private boolean m_closed = false;
+
+            public void close() throws IOException
+            {
+                if (!m_closed)
+                {
+                    m_closed = true;
+                    inflater.end();
+                    super.close();
+                }
+            }
+        };
+    }
+
+    private ByteBuffer getData(int i) throws IOException
+    {
+        ByteBuffer buffer = m_buffer;
+        if (buffer == null)
+        {
+            throw new IOException("JAR file is closed: " + m_file);
+        }
+        int pos = m_offsets[i];
+        if ((pos + LOCHDR > buffer.limit()) || (buffer.getInt(pos) != LOCSIG))
+        {
+            throw new IOException("Invalid local header for " + m_names[i] + " in JAR file: " + m_file);
+        }
+        int start = pos + LOCHDR
+            + (buffer.getShort(pos + 26) & 0xffff)
+            + (buffer.getShort(pos + 28) & 0xffff);
+        if (start + (long) m_compressedSizes[i] > buffer.limit())
+        {
+            throw new IOException("Truncated entry " + m_names[i] + " in JAR file: " + m_file);
+        }
+        ByteBuffer data = buffer.duplicate();
+        data.limit(start + m_compressedSizes[i]);
+        data.position(start);
+        return data.slice();
+    }
+
+    public File getFile()
+    {
+        return m_file;
+    }
+
+    /**
+     * Drops the mapping, which is unmapped once it is garbage collected.
+     * Streams that are already open remain readable.
+    **/
+    public void close()
+    {
+        m_buffer = null;
+    }
+
+    public String toString()
+    {
+        return m_file + " " + m_names.length + " entries";
+    }
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer m_data;
+        private boolean m_pad;
+
+        ByteBufferInputStream(ByteBuffer data, boolean pad)
+        {
+            m_data = data;
+            m_pad = pad;
+        }
+
+        public int read()
+        {
+            if (m_data.hasRemaining())
+            {
+                return m_data.get() & 0xff;
+            }
+            return readPad();
+        }
+
+        public int read(byte[] b, int off, int len)
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            int n = Math.min(len, m_data.remaining());
+            if (n == 0)
+            {
+                int pad = readPad();
+                if (pad < 0)
+                {
+                    return -1;
+                }
+                b[off] = (byte) pad;
+                return 1;
+            }
+            m_data.get(b, off, n);
+            return n;
+        }
+
+        // The inflater needs a trailing dummy byte when there is no wrapper.
+        private int readPad()
+        {
+            if (m_pad)
+            {
+                m_pad = false;
+                return 0;
+            }
+            return -1;
+        }
+
+        public long skip(long n)
+        {
+            int count = (int) Math.min(Math.max(n, 0), m_data.remaining());
+            m_data.position(m_data.position() + count);
+            return count;
+        }
+
+        public int available()
+        {
+            return m_data.remaining();
+        }
+    }
+}
@@ -25,10 +25,12 @@ import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentHashMap;
@@ -46,6 +48,7 @@ import org.osgi.resource.Capability;
 public class CapabilitySet
 {
     private final SortedMap<String, Map<Object, Set<BundleCapability>>> m_indices; // Should also be concurrent!
+    private final SortedMap<String, SortedIndex> m_sortedIndices;
     private final Set<Capability> m_capSet = Collections.newSetFromMap(new ConcurrentHashMap<Capability, Boolean>());
     private final static SecureAction m_secureAction = new SecureAction();
 
@@ -79,6 +82,22 @@ public class CapabilitySet
     }
 
     public CapabilitySet(final List<String> indexProps, final boolean caseSensitive)
+    {
+        this(indexProps, null, caseSensitive);
+    }
+
+    /**
+     * Creates a capability set.
+     *
+     * @param indexProps the attributes to keep a hash index for, used for
+     *        equality lookups.
+     * @param sortedIndexProps the attributes to keep a sorted index for, used
+     *        for equality and range lookups on version and numeric values.
+     * @param caseSensitive whether attribute names are case sensitive.
+    **/
+    public CapabilitySet(
+        final List<String> indexProps, final List<String> sortedIndexProps,
+        final boolean caseSensitive)
     {
         m_indices = (caseSensitive)
             ? new ConcurrentSkipListMap<String, Map<Object, Set<BundleCapability>>>()
@@ -89,6 +108,13 @@ public class CapabilitySet
             m_indices.put(
                 indexProps.get(i), new ConcurrentHashMap<Object, Set<BundleCapability>>());
         }
+        m_sortedIndices = (caseSensitive)
+            ? new ConcurrentSkipListMap<String, SortedIndex>()
+            : new ConcurrentSkipListMap<String, SortedIndex>(StringComparator.COMPARATOR);
+        for (int i = 0; (sortedIndexProps != null) && (i < sortedIndexProps.size()); i++)
+        {
+            m_sortedIndices.put(sortedIndexProps.get(i), new SortedIndex());
+        }
     }
 
     public void addCapability(final BundleCapability cap)
@@ -123,6 +149,15 @@ public class CapabilitySet
                 }
             }
         }
+
+        for (Entry<String, SortedIndex> entry : m_sortedIndices.entrySet())
+        {
+            Object value = cap.getAttributes().get(entry.getKey());
+            if (value != null)
+            {
+                entry.getValue().add(cap, value);
+            }
+        }
     }
 
     private void indexCapability(
@@ -165,6 +200,15 @@ public class CapabilitySet
                     }
                 }
             }
+
+            for (Entry<String, SortedIndex> entry : m_sortedIndices.entrySet())
+            {
+                Object value = cap.getAttributes().get(entry.getKey());
+                if (value != null)
+                {
+                    entry.getValue().remove(cap, value);
+                }
+            }
         }
     }
 
@@ -192,7 +236,7 @@ public class CapabilitySet
 
     private Set<Capability> match(Set<Capability> caps, final SimpleFilter sf)
     {
-        Set<Capability> matches = Collections.newSetFromMap(new ConcurrentHashMap<Capability, Boolean>());
+        Set<Capability> matches = new HashSet<Capability>();
 
         if (sf.getOperation() == SimpleFilter.MATCH_ALL)
         {
@@ -200,15 +244,45 @@ public class CapabilitySet
         }
         else if (sf.getOperation() == SimpleFilter.AND)
         {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For AND we calculate the intersection of each subfilter.
-            // We can short-circuit the AND operation if there are no
-            // remaining capabilities.
+            // Narrow the capabilities down using the most selective indexed
+            // subfilter and evaluate the whole filter against that subset only.
+            // If the narrowing subfilter came from an exact index lookup it
+            // does not have to be evaluated again. Exact lookups are tried
+            // first since range candidates are only worth collecting if
+            // there is no exact one.
             final List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+            Set<Capability> candidates = null;
+            int selected = -1;
+            for (int pass = 0; (pass < 2) && (candidates == null); pass++)
             {
-                matches = match(caps, sfs.get(i));
-                caps = matches;
+                for (int i = 0; i < sfs.size(); i++)
+                {
+                    if (isExactlyIndexed(sfs.get(i)) != (pass == 0))
+                    {
+                        continue;
+                    }
+                    Set<Capability> subCandidates = candidates(sfs.get(i));
+                    if ((subCandidates != null)
+                        && ((candidates == null) || (subCandidates.size() < candidates.size())))
+                    {
+                        candidates = subCandidates;
+                        selected = i;
+                        if (candidates.isEmpty())
+                        {
+                            return matches;
+                        }
+                    }
+                }
+            }
+            final int skip = ((selected >= 0) && isExactlyIndexed(sfs.get(selected)))
+                ? selected : -1;
+            for (Capability cap : (candidates != null) ? candidates : caps)
+            {
+                if (((candidates == null) || (caps == m_capSet) || caps.contains(cap))
+                    && matchesAll(cap, sfs, skip))
+                {
+                    matches.add(cap);
+                }
             }
         }
         else if (sf.getOperation() == SimpleFilter.OR)
@@ -221,50 +295,126 @@ public class CapabilitySet
                 matches.addAll(match(caps, sfs.get(i)));
             }
         }
-        else if (sf.getOperation() == SimpleFilter.NOT)
+        else if (isExactlyIndexed(sf))
         {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For OR we calculate the union of each subfilter.
-            matches.addAll(caps);
-            List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (int i = 0; i < sfs.size(); i++)
+            Set<BundleCapability> existingCaps = m_indices.get(sf.getName()).get(sf.getValue());
+            if (existingCaps != null)
             {
-                matches.removeAll(match(caps, sfs.get(i)));
+                matches.addAll(existingCaps);
+                if (caps != m_capSet)
+                {
+                    matches.retainAll(caps);
+                }
             }
         }
         else
         {
-            Map<Object, Set<BundleCapability>> index = m_indices.get(sf.getName());
-            if ((sf.getOperation() == SimpleFilter.EQ) && (index != null))
+            Set<Capability> candidates = candidates(sf);
+            for (Capability cap : (candidates != null) ? candidates : caps)
             {
-                Set<BundleCapability> existingCaps = index.get(sf.getValue());
-                if (existingCaps != null)
+                if (((candidates == null) || (caps == m_capSet) || caps.contains(cap))
+                    && matchesInternal(cap, sf))
                 {
-                    matches.addAll(existingCaps);
-                    if (caps != m_capSet)
-                    {
-                        matches.retainAll(caps);
-                    }
+                    matches.add(cap);
                 }
             }
-            else
+        }
+
+        return matches;
+    }
+
+    /**
+     * Returns whether the filter is an equality check that can be answered
+     * exactly by a hash index.
+    **/
+    private boolean isExactlyIndexed(SimpleFilter sf)
+    {
+        return (sf.getOperation() == SimpleFilter.EQ) && m_indices.containsKey(sf.getName());
+    }
+
+    /**
+     * Uses the indices to compute a superset of the capabilities matching
+     * the filter.
+     *
+     * @return the candidate capabilities or <tt>null</tt> if the indices
+     *         cannot narrow down the capabilities for this filter.
+    **/
+    private Set<Capability> candidates(SimpleFilter sf)
+    {
+        switch (sf.getOperation())
+        {
+            case SimpleFilter.AND:
             {
-                for (Iterator<Capability> it = caps.iterator(); it.hasNext(); )
+                // Any conjunct narrows down the candidates, pick the smallest,
+                // preferring exact lookups as above.
+                Set<Capability> candidates = null;
+                for (int pass = 0; (pass < 2) && (candidates == null); pass++)
                 {
-                    Capability cap = it.next();
-                    Object lhs = cap.getAttributes().get(sf.getName());
-                    if (lhs != null)
+                    for (SimpleFilter sub : (List<SimpleFilter>) sf.getValue())
                     {
-                        if (compare(lhs, sf.getValue(), sf.getOperation()))
+                        if (isExactlyIndexed(sub) != (pass == 0))
                         {
-                            matches.add(cap);
+                            continue;
                         }
+                        Set<Capability> subCandidates = candidates(sub);
+                        if ((subCandidates != null)
+                            && ((candidates == null) || (subCandidates.size() < candidates.size())))
+                        {
+                            candidates = subCandidates;
+                        }
+                    }
+                }
+                return candidates;
+            }
+            case SimpleFilter.OR:
+            {
+                // All disjuncts must be indexed to narrow down the candidates.
+                Set<Capability> candidates = new HashSet<Capability>();
+                for (SimpleFilter sub : (List<SimpleFilter>) sf.getValue())
+                {
+                    Set<Capability> subCandidates = candidates(sub);
+                    if (subCandidates == null)
+                    {
+                        return null;
                     }
+                    candidates.addAll(subCandidates);
                 }
+                return candidates;
             }
+            case SimpleFilter.EQ:
+            case SimpleFilter.LTE:
+            case SimpleFilter.GTE:
+            {
+                if (isExactlyIndexed(sf))
+                {
+                    Set<BundleCapability> existingCaps =
+                        m_indices.get(sf.getName()).get(sf.getValue());
+                    return (existingCaps != null)
+                        ? new HashSet<Capability>(existingCaps)
+                        : new HashSet<Capability>();
+                }
+                SortedIndex sortedIndex = m_sortedIndices.get(sf.getName());
+                if (sortedIndex != null)
+                {
+                    return sortedIndex.candidates((String) sf.getValue(), sf.getOperation());
+                }
+                return null;
+            }
+            default:
+                return null;
         }
+    }
 
-        return matches;
+    private static boolean matchesAll(Capability cap, List<SimpleFilter> sfs, int skip)
+    {
+        for (int i = 0; i < sfs.size(); i++)
+        {
+            if ((i != skip) && !matchesInternal(cap, sfs.get(i)))
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
     public static boolean matches(Capability cap, SimpleFilter sf)
@@ -340,7 +490,7 @@ public class CapabilitySet
         return caps;
     }
 
-    private static boolean matchMandatory(Capability cap, SimpleFilter sf)
+    static boolean matchMandatory(Capability cap, SimpleFilter sf)
     {
         Map<String, Object> attrs = cap.getAttributes();
         for (Entry<String, Object> entry : attrs.entrySet())
@@ -380,6 +530,21 @@ public class CapabilitySet
     private static final String VALUE_OF_METHOD_NAME = "valueOf";
 
     private static boolean compare(Object lhs, Object rhsUnknown, int op)
+    {
+        return compare(lhs, rhsUnknown, op, null);
+    }
+
+    /**
+     * Compares an attribute value with the value of a filter.
+     * @param lhs the attribute value.
+     * @param rhsUnknown the filter value.
+     * @param op the filter operation.
+     * @param comparison the compiled comparison caching the coerced filter
+     *        value, or <tt>null</tt> to coerce the filter value every time.
+     * @return whether the attribute value matches.
+    **/
+    static boolean compare(
+        Object lhs, Object rhsUnknown, int op, CompiledFilter.Comparison comparison)
     {
         if (lhs == null)
         {
@@ -400,7 +565,7 @@ public class CapabilitySet
             Object rhs = null;
             try
             {
-                rhs = coerceType(lhs, (String) rhsUnknown);
+                rhs = coerceType(lhs, (String) rhsUnknown, comparison);
             }
             catch (Exception ex)
             {
@@ -432,7 +597,7 @@ public class CapabilitySet
             {
                 try
                 {
-                    rhs = coerceType(lhs, (String) rhsUnknown);
+                    rhs = coerceType(lhs, (String) rhsUnknown, comparison);
                 }
                 catch (Exception ex)
                 {
@@ -484,7 +649,7 @@ public class CapabilitySet
             Object rhs;
             try
             {
-                rhs = coerceType(lhs, (String) rhsUnknown);
+                rhs = coerceType(lhs, (String) rhsUnknown, comparison);
             }
             catch (Exception ex)
             {
@@ -518,7 +683,7 @@ public class CapabilitySet
         {
             for (Iterator iter = ((Collection) lhs).iterator(); iter.hasNext(); )
             {
-                if (compare(iter.next(), rhsUnknown, op))
+                if (compare(iter.next(), rhsUnknown, op, comparison))
                 {
                     return true;
                 }
@@ -537,7 +702,7 @@ public class CapabilitySet
         // equality comparison.
         try
         {
-            return lhs.equals(coerceType(lhs, (String) rhsUnknown));
+            return lhs.equals(coerceType(lhs, (String) rhsUnknown, comparison));
         }
         catch (Exception ex)
         {
@@ -573,7 +738,15 @@ public class CapabilitySet
         return sb.toString();
     }
 
-    private static Object coerceType(Object lhs, String rhsString) throws Exception
+    private static Object coerceType(
+        Object lhs, String rhsString, CompiledFilter.Comparison comparison)
+        throws Exception
+    {
+        return (comparison == null)
+            ? coerceType(lhs, rhsString) : comparison.coerce(lhs, rhsString);
+    }
+
+    static Object coerceType(Object lhs, String rhsString) throws Exception
     {
         // If the LHS expects a string, then we can just return
         // the RHS since it is a string.
@@ -660,4 +833,196 @@ public class CapabilitySet
         }
         return list;
     }
+
+    /**
+     * An index keeping capabilities sorted by the value of an attribute so
+     * that equality and range comparisons only need to look at the matching
+     * part of the index. Values are kept in one sorted map per value type;
+     * capabilities with values of other types are kept aside and are always
+     * candidates.
+    **/
+    private static final class SortedIndex
+    {
+        private final ConcurrentMap<Class<?>, ConcurrentSkipListMap<Object, Set<BundleCapability>>> m_sorted =
+            new ConcurrentHashMap<Class<?>, ConcurrentSkipListMap<Object, Set<BundleCapability>>>();
+        private final Set<BundleCapability> m_unsorted =
+            Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
+
+        void add(BundleCapability cap, Object value)
+        {
+            if (value.getClass().isArray())
+            {
+                value = convertArrayToList(value);
+            }
+            if (value instanceof Collection)
+            {
+                for (Object o : (Collection) value)
+                {
+                    addValue(cap, o);
+                }
+            }
+            else
+            {
+                addValue(cap, value);
+            }
+        }
+
+        private void addValue(BundleCapability cap, Object value)
+        {
+            if (!isSortable(value))
+            {
+                m_unsorted.add(cap);
+                return;
+            }
+            ConcurrentSkipListMap<Object, Set<BundleCapability>> index = m_sorted.get(value.getClass());
+            if (index == null)
+            {
+                index = new ConcurrentSkipListMap<Object, Set<BundleCapability>>();
+                ConcurrentSkipListMap<Object, Set<BundleCapability>> prevval =
+                    m_sorted.putIfAbsent(value.getClass(), index);
+                if (prevval != null)
+                {
+                    index = prevval;
+                }
+            }
+            Set<BundleCapability> caps =
+                Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
+            Set<BundleCapability> prevval = index.putIfAbsent(value, caps);
+            if (prevval != null)
+            {
+                caps = prevval;
+            }
+            caps.add(cap);
+        }
+
+        void remove(BundleCapability cap, Object value)
+        {
+            if (value.getClass().isArray())
+            {
+                value = convertArrayToList(value);
+            }
+            if (value instanceof Collection)
+            {
+                for (Object o : (Collection) value)
+                {
+                    removeValue(cap, o);
+                }
+            }
+            else
+            {
+                removeValue(cap, value);
+            }
+        }
+
+        private void removeValue(BundleCapability cap, Object value)
+        {
+            if (!isSortable(value))
+            {
+                m_unsorted.remove(cap);
+                return;
+            }
+            Map<Object, Set<BundleCapability>> index = m_sorted.get(value.getClass());
+            if (index != null)
+            {
+                Set<BundleCapability> caps = index.get(value);
+                if (caps != null)
+                {
+                    caps.remove(cap);
+                    if (caps.isEmpty())
+                    {
+                        index.remove(value);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the capabilities that may match the comparison of the
+         * indexed attribute with the specified value.
+        **/
+        Set<Capability> candidates(String rhsString, int op)
+        {
+            Set<Capability> candidates = new HashSet<Capability>(m_unsorted);
+            for (ConcurrentSkipListMap<Object, Set<BundleCapability>> index : m_sorted.values())
+            {
+                Object rhs;
+                try
+                {
+                    rhs = coerceType(index.firstKey(), rhsString);
+                }
+                catch (NoSuchElementException ex)
+                {
+                    // The index is empty.
+                    continue;
+                }
+                catch (Exception ex)
+                {
+                    // No value of this type can match.
+                    continue;
+                }
+
+                if (rhs instanceof VersionRange)
+                {
+                    if (op == SimpleFilter.EQ)
+                    {
+                        addAll(candidates, subMap(index, (VersionRange) rhs));
+                    }
+                }
+                else if (op == SimpleFilter.EQ)
+                {
+                    Set<BundleCapability> caps = index.get(rhs);
+                    if (caps != null)
+                    {
+                        candidates.addAll(caps);
+                    }
+                }
+                else if (op == SimpleFilter.GTE)
+                {
+                    addAll(candidates, index.tailMap(rhs, true));
+                }
+                else if (op == SimpleFilter.LTE)
+                {
+                    addAll(candidates, index.headMap(rhs, true));
+                }
+            }
+            return candidates;
+        }
+
+        private static Map<Object, Set<BundleCapability>> subMap(
+            ConcurrentSkipListMap<Object, Set<BundleCapability>> index, VersionRange range)
+        {
+            boolean leftInclusive = range.getLeftType() == VersionRange.LEFT_CLOSED;
+            if (range.getRight() == null)
+            {
+                return index.tailMap(range.getLeft(), leftInclusive);
+            }
+            if (range.isEmpty())
+            {
+                return Collections.emptyMap();
+            }
+            return index.subMap(
+                range.getLeft(), leftInclusive,
+                range.getRight(), range.getRightType() == VersionRange.RIGHT_CLOSED);
+        }
+
+        private static void addAll(
+            Set<Capability> candidates, Map<Object, Set<BundleCapability>> range)
+        {
+            for (Set<BundleCapability> caps : range.values())
+            {
+                candidates.addAll(caps);
+            }
+        }
+
+        private static boolean isSortable(Object value)
+        {
+            return (value instanceof Version)
+                || (value instanceof Long)
+                || (value instanceof Integer)
+                || (value instanceof Short)
+                || (value instanceof Byte)
+                || (value instanceof Double)
+                || (value instanceof Float);
+        }
+    }
 }
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.resource.Capability;
+
+/**
+ * A {@link SimpleFilter} compiled into a tree of predicates. Each
+ * comparison caches its value coerced to the type of the attribute it was
+ * last compared with, so repeated matches against attributes of the same
+ * type do not parse numbers or versions or look up constructors again.
+ * Matching gives the same results as
+ * {@link CapabilitySet#matches(Capability, SimpleFilter)}.
+ */
+public class CompiledFilter
+{
+    private final SimpleFilter m_filter;
+    private final Node m_root;
+
+    private CompiledFilter(SimpleFilter filter)
+    {
+        m_filter = filter;
+        m_root = createNode(filter);
+    }
+
+    public static CompiledFilter compile(SimpleFilter filter)
+    {
+        return new CompiledFilter(filter);
+    }
+
+    public SimpleFilter getSimpleFilter()
+    {
+        return m_filter;
+    }
+
+    public boolean matches(Capability cap)
+    {
+        return m_root.matches(cap.getAttributes())
+            && CapabilitySet.matchMandatory(cap, m_filter);
+    }
+
+    private static Node createNode(SimpleFilter sf)
+    {
+        switch (sf.getOperation())
+        {
+            case SimpleFilter.MATCH_ALL:
+                return MATCH_ALL;
+            case SimpleFilter.AND:
+                return new And(createNodes((List<SimpleFilter>) sf.getValue()));
+            case SimpleFilter.OR:
+                return new Or(createNodes((List<SimpleFilter>) sf.getValue()));
+            case SimpleFilter.NOT:
+            {
+                // Like the interpreter, only the last operand counts.
+                List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+                return sfs.isEmpty() ? MATCH_ALL : new Not(createNode(sfs.get(sfs.size() - 1)));
+            }
+            case SimpleFilter.PRESENT:
+                return new Present(sf.getName());
+            default:
+                return new Comparison(sf.getName(), sf.getOperation(), sf.getValue());
+        }
+    }
+
+    private static Node[] createNodes(List<SimpleFilter> sfs)
+    {
+        Node[] nodes = new Node[sfs.size()];
+        for (int i = 0; i < nodes.length; i++)
+        {
+            nodes[i] = createNode(sfs.get(i));
+        }
+        return nodes;
+    }
+
+    private static abstract class Node
+    {
+        abstract boolean matches(Map<String, Object> attrs);
+    }
+
+    private static final Node MATCH_ALL = new Node()
+    {
+        @Override
+        boolean matches(Map<String, Object> attrs)
+        {
+            return true;
+        }
+    };
+
+    private static class And extends Node
+    {
+        private final Node[] m_nodes;
+
+        And(Node[] nodes)
+        {
+            m_nodes = nodes;
+        }
+
+        @Override
+        boolean matches(Map<String, Object> attrs)
+        {
+            for (Node node : m_nodes)
+            {
+                if (!node.matches(attrs))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Or extends Node
+    {
+        private final Node[] m_nodes;
+
+        Or(Node[] nodes)
+        {
+            m_nodes = nodes;
+        }
+
+        @Override
+        boolean matches(Map<String, Object> attrs)
+        {
+            for (Node node : m_nodes)
+            {
+                if (node.matches(attrs))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Not extends Node
+    {
+        private final Node m_node;
+
+        Not(Node node)
+        {
+            m_node = node;
+        }
+
+        @Override
+        boolean matches(Map<String, Object> attrs)
+        {
+            return !m_node.matches(attrs);
+        }
+    }
+
+    private static class Present extends Node
+    {
+        private final String m_name;
+
+        Present(String name)
+        {
+            m_name = name;
+        }
+
+        @Override
+        boolean matches(Map<String, Object> attrs)
+        {
+            return attrs.get(m_name) != null;
+        }
+    }
+
+    /**
+     * A comparison of an attribute with the filter value. The value coerced
+     * to the type of the last compared attribute is kept, including a failed
+     * coercion.
+     */
+    static class Comparison extends Node
+    {
+        private static final Exception COERCION_FAILED = new Exception("Coercion failed")
+        {
+            @Override
+            public synchronized Throwable fillInStackTrace()
+            {
+                return this;
+            }
+        };
+
+        private final String m_name;
+        private final int m_op;
+        private final Object m_value;
+        private volatile Coerced m_coerced;
+
+        Comparison(String name, int op, Object value)
+        {
+            m_name = name;
+            m_op = op;
+            m_value = value;
+        }
+
+        @Override
+        boolean matches(Map<String, Object> attrs)
+        {
+            Object lhs = attrs.get(m_name);
+            return (lhs != null) && CapabilitySet.compare(lhs, m_value, m_op, this);
+        }
+
+        Object coerce(Object lhs, String rhsString) throws Exception
+        {
+            Coerced coerced = m_coerced;
+            if ((coerced == null) || (coerced.m_type != lhs.getClass()))
+            {
+                Object value;
+                try
+                {
+                    value = CapabilitySet.coerceType(lhs, rhsString);
+                }
+                catch (Exception ex)
+                {
+                    value = COERCION_FAILED;
+                }
+                coerced = new Coerced(lhs.getClass(), value);
+                m_coerced = coerced;
+            }
+            if (coerced.m_value == COERCION_FAILED)
+            {
+                throw COERCION_FAILED;
+            }
+            return coerced.m_value;
+        }
+    }
+
+    private static class Coerced
+    {
+        private final Class<?> m_type;
+        private final Object m_value;
+
+        Coerced(Class<?> type, Object value)
+        {
+            m_type = type;
+            m_value = value;
+        }
+    }
+}
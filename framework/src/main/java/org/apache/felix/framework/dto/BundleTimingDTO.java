@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.dto;
+
+import org.osgi.dto.DTO;
+
+/**
+ * Durations of the last resolve and activator calls of a bundle. A bundle
+ * adapts to this type; durations that have not been measured are -1.
+ */
+public class BundleTimingDTO extends DTO
+{
+    /**
+     * The id of the bundle.
+     */
+    public long bundle;
+
+    /**
+     * Nanoseconds taken by the resolve operation that resolved the bundle.
+     */
+    public long resolveNanos;
+
+    /**
+     * Nanoseconds taken to load and instantiate the bundle activator.
+     */
+    public long activatorLoadNanos;
+
+    /**
+     * Nanoseconds taken by <tt>BundleActivator.start</tt>.
+     */
+    public long activatorStartNanos;
+
+    /**
+     * Nanoseconds taken by <tt>BundleActivator.stop</tt>.
+     */
+    public long activatorStopNanos;
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.dto;
+
+import org.osgi.dto.DTO;
+
+/**
+ * Statistics of the objectClass index that narrows down the service
+ * listeners called for a service event. The system bundle adapts to this
+ * type. The listeners are only counted if the
+ * <tt>felix.servicelistener.statistics</tt> framework property is
+ * <tt>true</tt>, otherwise all counts are 0.
+ */
+public class ServiceListenerStatisticsDTO extends DTO
+{
+    /**
+     * Whether the listeners are counted.
+     */
+    public boolean enabled;
+
+    /**
+     * The number of service listeners that were considered for service
+     * events dispatched through the index, summed over all events.
+     */
+    public long considered;
+
+    /**
+     * The number of considered service listeners that were not evaluated,
+     * because the objectClass constraints of their filters could not match
+     * the service.
+     */
+    public long skipped;
+
+    /**
+     * The fraction of the considered service listeners that were skipped,
+     * or 0 if no listener has been considered.
+     */
+    public double skipRatio;
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Apache Felix Framework Data Transfer Object Package Version 1.0.
+ * <p>
+ * Timing information recorded by the framework, which bundles obtain by
+ * adapting a bundle or the system bundle to one of the types of this
+ * package. The package is exported by the system bundle.
+ * <p>
+ * Example import for consumers using the API in this package:
+ * <p>
+ * {@code  Import-Package: org.apache.felix.framework.dto; version="[1.0,2.0)"}
+ */
+
+@Version("1.0")
+package org.apache.felix.framework.dto;
+
+import org.osgi.annotation.versioning.Version;
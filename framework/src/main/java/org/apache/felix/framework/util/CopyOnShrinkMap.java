@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A shrinkable view of a map of lists that never modifies the underlying
+ * map. Clients may only remove keys or elements of the value collections.
+ * A value list is only copied once an element is removed from it, so
+ * passing the view to clients that do not remove anything is free.
+**/
+public class CopyOnShrinkMap<K, V> extends AbstractMap<K, Collection<V>>
+{
+    private final Map<K, List<V>> m_delegate;
+    private Set<K> m_removed;
+    private Map<K, List<V>> m_copies;
+    private Set<Entry<K, Collection<V>>> m_entrySet;
+
+    public CopyOnShrinkMap(Map<K, List<V>> delegate)
+    {
+        m_delegate = delegate;
+    }
+
+    /**
+     * Returns whether any key or element has been removed from this view.
+    **/
+    public boolean isModified()
+    {
+        return (m_removed != null) || (m_copies != null);
+    }
+
+    /**
+     * Returns the remaining lists. This is the underlying map itself if
+     * nothing has been removed; keys whose lists were emptied are dropped.
+    **/
+    public Map<K, List<V>> toMap()
+    {
+        if (!isModified())
+        {
+            return m_delegate;
+        }
+        Map<K, List<V>> result = new HashMap<K, List<V>>();
+        for (Entry<K, List<V>> entry : m_delegate.entrySet())
+        {
+            if ((m_removed == null) || !m_removed.contains(entry.getKey()))
+            {
+                List<V> list = getList(entry.getKey(), entry.getValue());
+                if (!list.isEmpty())
+                {
+                    result.put(entry.getKey(), list);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int size()
+    {
+        return (m_removed == null) ? m_delegate.size() : m_delegate.size() - m_removed.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return m_delegate.containsKey(key)
+            && ((m_removed == null) || !m_removed.contains(key));
+    }
+
+    @Override
+    public Collection<V> get(Object key)
+    {
+        return containsKey(key) ? new Values((K) key) : null;
+    }
+
+    @Override
+    public Collection<V> remove(Object key)
+    {
+        if (!containsKey(key))
+        {
+            return null;
+        }
+        Collection<V> values = new ArrayList<V>(new Values((K) key));
+        removeKey((K) key);
+        return values;
+    }
+
+    @Override
+    public Set<Entry<K, Collection<V>>> entrySet()
+    {
+        if (m_entrySet == null)
+        {
+            m_entrySet = new EntrySet();
+        }
+        return m_entrySet;
+    }
+
+    private void removeKey(K key)
+    {
+        if (m_removed == null)
+        {
+            m_removed = new HashSet<K>();
+        }
+        m_removed.add(key);
+    }
+
+    private List<V> getList(K key, List<V> list)
+    {
+        if (m_copies != null)
+        {
+            List<V> copy = m_copies.get(key);
+            if (copy != null)
+            {
+                return copy;
+            }
+        }
+        return list;
+    }
+
+    private List<V> getList(K key)
+    {
+        return getList(key, m_delegate.get(key));
+    }
+
+    private List<V> copyList(K key)
+    {
+        if (m_copies == null)
+        {
+            m_copies = new HashMap<K, List<V>>();
+        }
+        List<V> copy = m_copies.get(key);
+        if (copy == null)
+        {
+            copy = new ArrayList<V>(m_delegate.get(key));
+            m_copies.put(key, copy);
+        }
+        return copy;
+    }
+
+    private class EntrySet extends AbstractSet<Entry<K, Collection<V>>>
+    {
+        @Override
+        public int size()
+        {
+            return CopyOnShrinkMap.this.size();
+        }
+
+        @Override
+        public Iterator<Entry<K, Collection<V>>> iterator()
+        {
+            final Iterator<K> it = m_delegate.keySet().iterator();
+            return new Iterator<Entry<K, Collection<V>>>()
+            {
+                private K m_next = advance();
+                private K m_current;
+
+                private K advance()
+                {
+                    while (it.hasNext())
+                    {
+                        K key = it.next();
+                        if ((m_removed == null) || !m_removed.contains(key))
+                        {
+                            return key;
+                        }
+                    }
+                    return null;
+                }
+
+                public boolean hasNext()
+                {
+                    return m_next != null;
+                }
+
+                public Entry<K, Collection<V>> next()
+                {
+                    if (m_next == null)
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    m_current = m_next;
+                    m_next = advance();
+                    return new SimpleImmutableEntry<K, Collection<V>>(
+                        m_current, new Values(m_current));
+                }
+
+                public void remove()
+                {
+                    if (m_current == null)
+                    {
+                        throw new IllegalStateException();
+                    }
+                    removeKey(m_current);
+                    m_current = null;
+                }
+            };
+        }
+    }
+
+    /**
+     * The shrinkable values of a key; the list is copied on first removal.
+    **/
+    private class Values extends AbstractCollection<V>
+    {
+        private final K m_key;
+        private List<V> m_list;
+
+        Values(K key)
+        {
+            m_key = key;
+        }
+
+        private List<V> list()
+        {
+            // The list may have been copied through another view of the key.
+            if (m_list == null)
+            {
+                m_list = getList(m_key);
+            }
+            else if (m_copies != null)
+            {
+                m_list = getList(m_key, m_list);
+            }
+            return m_list;
+        }
+
+        @Override
+        public int size()
+        {
+            return list().size();
+        }
+
+        @Override
+        public Iterator<V> iterator()
+        {
+            return new Iterator<V>()
+            {
+                private int m_idx = 0;
+                private boolean m_canRemove = false;
+
+                public boolean hasNext()
+                {
+                    return m_idx < list().size();
+                }
+
+                public V next()
+                {
+                    List<V> list = list();
+                    if (m_idx >= list.size())
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    m_canRemove = true;
+                    return list.get(m_idx++);
+                }
+
+                public void remove()
+                {
+                    if (!m_canRemove)
+                    {
+                        throw new IllegalStateException();
+                    }
+                    m_list = copyList(m_key);
+                    m_list.remove(--m_idx);
+                    m_canRemove = false;
+                }
+            };
+        }
+    }
+}
@@ -55,6 +55,10 @@ public interface FelixConstants extends org.osgi.framework.Constants
     String NATIVE_PROC_NAME_ALIAS_PREFIX = "felix.native.processor.alias";
     String USE_CACHEDURLS_PROPS = "felix.bundlecodesource.usecachedurls";
     String RESOLVER_PARALLELISM = "felix.resolver.parallelism";
+    String RESOLVER_TIMEOUT = "felix.resolver.timeout";
+    String STARTLEVEL_PARALLELISM = "felix.startlevel.parallelism";
+    String CACHE_RELOAD_PARALLELISM = "felix.cache.reload.parallelism";
+    String SERVICE_LISTENER_STATISTICS = "felix.servicelistener.statistics";
     String USE_PROPERTY_SUBSTITUTION_IN_SYSTEMPACKAGES = "felix.systempackages.substitution";
 
     // Missing OSGi constant for resolution directive.
@@ -73,4 +77,5 @@ public interface FelixConstants extends org.osgi.framework.Constants
     String FELIX_EXTENSIONS_DISABLE = "felix.extensions.disable";
     String FRAMEWORK_UUID_SECURE = "felix.uuid.secure";
     String CALCULATE_SYSTEMPACKAGES_USES = "felix.systempackages.calculate.uses";
+
 }
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map for string-based keys backed by arrays and an open
+ * addressing hash table. The hashes of the keys are computed once, so a
+ * lookup costs one hash of the requested key and usually a single key
+ * comparison. The map can be case-insensitive, in which case keys are
+ * compared like the {@link StringComparator} used by {@link StringMap}
+ * does; keys given in the case they were stored with are then found by
+ * their cached string hash before the case-folded hash is computed.
+ * Entries are iterated in the order of the source map.
+ **/
+public class ImmutableStringMap<V> extends AbstractMap<String, V>
+{
+    private final boolean m_ignoreCase;
+    private final String[] m_keys;
+    private final Object[] m_values;
+    private final int[] m_hashes;
+    // Indices into the key array plus one, zero marks a free slot.
+    private final int[] m_table;
+    // Table by the case-sensitive hash of the keys if case is ignored.
+    private final int[] m_exactTable;
+    private Set<Entry<String, V>> m_entrySet;
+
+    /**
+     * Creates a map holding the entries of the specified map. If keys are
+     * compared ignoring case, the source map must not hold keys that only
+     * differ in case; a {@link StringMap} never does.
+     * @param map the entries of the map.
+     * @param ignoreCase whether keys are compared ignoring case.
+     * @throws IllegalArgumentException if two keys are equal.
+     **/
+    public ImmutableStringMap(Map<String, ? extends V> map, boolean ignoreCase)
+    {
+        m_ignoreCase = ignoreCase;
+        int size = map.size();
+        m_keys = new String[size];
+        m_values = new Object[size];
+        m_hashes = new int[size];
+
+        int capacity = 2;
+        while (capacity < size * 2)
+        {
+            capacity <<= 1;
+        }
+        m_table = new int[capacity];
+        m_exactTable = (ignoreCase) ? new int[capacity] : null;
+
+        int idx = 0;
+        for (Map.Entry<String, ? extends V> entry : map.entrySet())
+        {
+            String key = entry.getKey();
+            int hash = hash(key);
+            if (find(key, hash) >= 0)
+            {
+                throw new IllegalArgumentException("Duplicate key: " + key);
+            }
+            m_keys[idx] = key;
+            m_values[idx] = entry.getValue();
+            m_hashes[idx] = hash;
+            idx++;
+            insert(m_table, hash, idx);
+            if (m_exactTable != null)
+            {
+                insert(m_exactTable, spread(key.hashCode()), idx);
+            }
+        }
+    }
+
+    private static void insert(int[] table, int hash, int idx)
+    {
+        int slot = hash & (table.length - 1);
+        while (table[slot] != 0)
+        {
+            slot = (slot + 1) & (table.length - 1);
+        }
+        table[slot] = idx;
+    }
+
+    @Override
+    public int size()
+    {
+        return m_keys.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return (key instanceof String) && (find((String) key) >= 0);
+    }
+
+    @Override
+    public V get(Object key)
+    {
+        if (key instanceof String)
+        {
+            int idx = find((String) key);
+            if (idx >= 0)
+            {
+                return (V) m_values[idx];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet()
+    {
+        if (m_entrySet == null)
+        {
+            m_entrySet = new AbstractSet<Entry<String, V>>()
+            {
+                @Override
+                public int size()
+                {
+                    return m_keys.length;
+                }
+
+                @Override
+                public Iterator<Entry<String, V>> iterator()
+                {
+                    return new Iterator<Entry<String, V>>()
+                    {
+                        private int m_idx = 0;
+
+                        public boolean hasNext()
+                        {
+                            return m_idx < m_keys.length;
+                        }
+
+                        public Entry<String, V> next()
+                        {
+                            if (m_idx >= m_keys.length)
+                            {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, V> entry = new SimpleImmutableEntry<String, V>(
+                                m_keys[m_idx], (V) m_values[m_idx]);
+                            m_idx++;
+                            return entry;
+                        }
+
+                        public void remove()
+                        {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+        return m_entrySet;
+    }
+
+    private int find(String key)
+    {
+        if (m_exactTable != null)
+        {
+            int mask = m_exactTable.length - 1;
+            for (int slot = spread(key.hashCode()) & mask; m_exactTable[slot] != 0;
+                slot = (slot + 1) & mask)
+            {
+                int idx = m_exactTable[slot] - 1;
+                if (m_keys[idx].equals(key))
+                {
+                    return idx;
+                }
+            }
+        }
+        return find(key, hash(key));
+    }
+
+    private int find(String key, int hash)
+    {
+        int mask = m_table.length - 1;
+        for (int slot = hash & mask; m_table[slot] != 0; slot = (slot + 1) & mask)
+        {
+            int idx = m_table[slot] - 1;
+            if ((m_hashes[idx] == hash) && equals(m_keys[idx], key))
+            {
+                return idx;
+            }
+        }
+        return -1;
+    }
+
+    private boolean equals(String s1, String s2)
+    {
+        return (s1 == s2) || (m_ignoreCase ? s1.equalsIgnoreCase(s2) : s1.equals(s2));
+    }
+
+    private int hash(String key)
+    {
+        int h;
+        if (m_ignoreCase)
+        {
+            // Hash the case-folded characters so that keys which are equal
+            // ignoring case have equal hashes.
+            h = 0;
+            for (int i = 0; i < key.length(); i++)
+            {
+                char c = key.charAt(i);
+                if (c < 128)
+                {
+                    c = ((c >= 'A') && (c <= 'Z')) ? (char) (c + 'a' - 'A') : c;
+                }
+                else
+                {
+                    c = Character.toLowerCase(Character.toUpperCase(c));
+                }
+                h = 31 * h + c;
+            }
+        }
+        else
+        {
+            h = key.hashCode();
+        }
+        return spread(h);
+    }
+
+    private static int spread(int h)
+    {
+        // Spread the high bits since the tables are indexed by the low bits.
+        return h ^ (h >>> 16);
+    }
+}
@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.ImmutableStringMap;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.manifestparser.ManifestParser;
 import org.osgi.framework.Constants;
@@ -51,7 +52,8 @@ public class BundleCapabilityImpl implements BundleCapability
         m_namespace = namespace;
         m_revision = revision;
         m_dirs = Util.newImmutableMap(dirs);
-        m_attrs = Util.newImmutableMap(attrs);
+        m_attrs = ((attrs == null) || attrs.isEmpty())
+            ? Util.newImmutableMap(attrs) : new ImmutableStringMap<Object>(attrs, false);
 
         // Find all export directives: uses, mandatory, include, and exclude.
 
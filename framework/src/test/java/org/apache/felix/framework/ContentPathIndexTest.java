@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import junit.framework.TestCase;
+import org.apache.felix.framework.cache.BundleCache;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+public class ContentPathIndexTest extends TestCase
+{
+    private File m_cacheDir;
+    private Map<String, String> m_params;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_cacheDir = File.createTempFile("felix-cache", ".dir");
+        m_cacheDir.delete();
+        m_cacheDir.mkdirs();
+        m_params = new HashMap<String, String>();
+        m_params.put(Constants.FRAMEWORK_STORAGE, m_cacheDir.getPath());
+        m_params.put(BundleCache.CACHE_CLASSPATH_INDEX_PROP, "true");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        deleteDir(m_cacheDir);
+    }
+
+    public void testIndexedLookups() throws Exception
+    {
+        String mf = "Bundle-SymbolicName: index.test\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Bundle-ClassPath: .,lib.jar\n";
+        File bundleFile = createBundle(mf, m_cacheDir);
+
+        Framework f = new Felix(m_params);
+        try
+        {
+            f.init();
+            f.start();
+            Bundle b = f.getBundleContext().installBundle(bundleFile.toURI().toURL().toExternalForm());
+            assertLookups(b);
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(1000);
+        }
+
+        File index = findIndex(m_cacheDir);
+        assertNotNull("Class path index was not stored", index);
+        long stored = index.lastModified();
+
+        // A restart has to reuse the stored index and still find everything.
+        f = new Felix(m_params);
+        try
+        {
+            f.init();
+            f.start();
+            Bundle b = f.getBundleContext().getBundle(bundleFile.toURI().toURL().toExternalForm());
+            assertNotNull(b);
+            assertLookups(b);
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(1000);
+        }
+        assertEquals(stored, index.lastModified());
+    }
+
+    public void testStaleIndexIsIgnored() throws Exception
+    {
+        String mf = "Bundle-SymbolicName: index.test\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Bundle-ClassPath: .,lib.jar\n";
+        File bundleFile = createBundle(mf, m_cacheDir);
+
+        Framework f = new Felix(m_params);
+        try
+        {
+            f.init();
+            f.start();
+            Bundle b = f.getBundleContext().installBundle(bundleFile.toURI().toURL().toExternalForm());
+            assertNotNull(b.getResource("res/a.txt"));
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(1000);
+        }
+
+        // An index written for another content path must not be used.
+        File index = findIndex(m_cacheDir);
+        assertNotNull(index);
+        ContentPathIndex.build("other", Collections.<org.apache.felix.framework.cache.Content>emptyList()).store(index);
+
+        f = new Felix(m_params);
+        try
+        {
+            f.init();
+            f.start();
+            Bundle b = f.getBundleContext().getBundle(bundleFile.toURI().toURL().toExternalForm());
+            assertLookups(b);
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(1000);
+        }
+    }
+
+    private static void assertLookups(Bundle b) throws Exception
+    {
+        assertEquals(Test.class.getName(), b.loadClass(Test.class.getName()).getName());
+        assertNotNull(b.getResource("res/a.txt"));
+        assertNotNull(b.getResource("/res/a.txt"));
+        assertNotNull(b.getResource("lib/b.txt"));
+        assertNull(b.getResource("res/b.txt"));
+        assertNull(b.getResource("missing/a.txt"));
+        try
+        {
+            b.loadClass("missing.Test");
+            fail("Class should not be found");
+        }
+        catch (ClassNotFoundException ex)
+        {
+            // Expected.
+        }
+    }
+
+    private static File findIndex(File dir)
+    {
+        File[] files = dir.listFiles();
+        for (int i = 0; (files != null) && (i < files.length); i++)
+        {
+            if (files[i].isDirectory())
+            {
+                File index = findIndex(files[i]);
+                if (index != null)
+                {
+                    return index;
+                }
+            }
+            else if (files[i].getName().equals(ContentPathIndex.INDEX_FILE))
+            {
+                return files[i];
+            }
+        }
+        return null;
+    }
+
+    private static File createBundle(String manifest, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        os.putNextEntry(new ZipEntry("res/a.txt"));
+        os.write("a".getBytes("utf-8"));
+
+        // The class and one resource are only in the embedded JAR file.
+        ByteArrayOutputStream lib = new ByteArrayOutputStream();
+        JarOutputStream libOs = new JarOutputStream(lib);
+        String path = Test.class.getName().replace('.', '/') + ".class";
+        libOs.putNextEntry(new ZipEntry(path));
+        InputStream is = Test.class.getClassLoader().getResourceAsStream(path);
+        byte[] b = new byte[is.available()];
+        is.read(b);
+        is.close();
+        libOs.write(b);
+        libOs.putNextEntry(new ZipEntry("lib/b.txt"));
+        libOs.write("b".getBytes("utf-8"));
+        libOs.close();
+
+        os.putNextEntry(new ZipEntry("lib.jar"));
+        os.write(lib.toByteArray());
+        os.close();
+
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+
+    public static class Test {}
+}
@@ -19,6 +19,7 @@
 package org.apache.felix.framework;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -32,12 +33,16 @@ import java.util.Map;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 
+import org.apache.felix.framework.dto.BundleTimingDTO;
+import org.apache.felix.framework.dto.FrameworkTimingDTO;
+import org.apache.felix.framework.dto.ServiceListenerStatisticsDTO;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.dto.FrameworkDTO;
 import org.osgi.framework.dto.ServiceReferenceDTO;
 import org.osgi.framework.launch.Framework;
 import org.osgi.framework.namespace.BundleNamespace;
@@ -276,6 +281,75 @@ public class DTOFactoryTest
         assertEquals(bundle.getBundleId(), dto.bundle);
     }
 
+    @Test
+    public void testTimingDTOs() throws Exception
+    {
+        String mf = "Bundle-SymbolicName: tb3\n"
+                + "Bundle-Version: 1.0.0\n"
+                + "Bundle-ManifestVersion: 2\n"
+                + "Import-Package: org.osgi.framework\n";
+        File bf = createBundle(mf);
+        Bundle bundle = framework.getBundleContext().installBundle(bf.toURI().toURL().toExternalForm());
+
+        BundleTimingDTO dto = bundle.adapt(BundleTimingDTO.class);
+        assertEquals(bundle.getBundleId(), dto.bundle);
+        assertEquals(-1, dto.resolveNanos);
+        assertEquals(-1, dto.activatorLoadNanos);
+
+        bundle.start();
+        dto = bundle.adapt(BundleTimingDTO.class);
+        assertTrue(dto.resolveNanos >= 0);
+        assertTrue(dto.activatorLoadNanos >= 0);
+        // The bundle has no activator to call.
+        assertEquals(-1, dto.activatorStartNanos);
+        assertEquals(-1, dto.activatorStopNanos);
+
+        FrameworkTimingDTO fdto = framework.adapt(FrameworkTimingDTO.class);
+        boolean found = false;
+        for (BundleTimingDTO btdto : fdto.bundles)
+        {
+            if (btdto.bundle == bundle.getBundleId())
+            {
+                found = true;
+                assertEquals(dto.resolveNanos, btdto.resolveNanos);
+            }
+        }
+        assertTrue(found);
+        assertEquals(1, fdto.startLevels.size());
+        assertEquals(1, fdto.startLevels.get(0).startLevel);
+        assertTrue(fdto.startLevels.get(0).durationNanos >= 0);
+    }
+
+    @Test
+    public void testTimingDTOsThroughImportedPackage() throws Exception
+    {
+        String mf = "Bundle-SymbolicName: tb4\n"
+                + "Bundle-Version: 1.0.0\n"
+                + "Bundle-ManifestVersion: 2\n"
+                + "Import-Package: org.apache.felix.framework.dto;version=\"[1.0,2)\"\n";
+        File bf = createBundle(mf);
+        Bundle bundle = framework.getBundleContext().installBundle(bf.toURI().toURL().toExternalForm());
+
+        // The system bundle exports the package, so the import resolves.
+        Class<?> bundleTimingType = bundle.loadClass(BundleTimingDTO.class.getName());
+        assertEquals(Bundle.RESOLVED, bundle.getState());
+        Object dto = bundle.adapt(bundleTimingType);
+        assertTrue(bundleTimingType.isInstance(dto));
+        assertEquals(bundle.getBundleId(), ((BundleTimingDTO) dto).bundle);
+
+        Class<?> frameworkTimingType = bundle.loadClass(FrameworkTimingDTO.class.getName());
+        assertTrue(frameworkTimingType.isInstance(framework.adapt(frameworkTimingType)));
+    }
+
+    @Test
+    public void testServiceListenerStatisticsDTO() throws Exception
+    {
+        ServiceListenerStatisticsDTO dto = framework.adapt(ServiceListenerStatisticsDTO.class);
+        assertFalse(dto.enabled);
+        assertEquals(0, dto.considered);
+        assertNull(framework.adapt(FrameworkDTO.class).properties.get("felix.servicelistener.skipratio"));
+    }
+
     private File createBundle(String manifest) throws IOException
     {
         File f = File.createTempFile("felix-bundle" + counter++, ".jar", testDir);
@@ -22,6 +22,7 @@ import java.util.*;
 
 import junit.framework.TestCase;
 
+import org.apache.felix.framework.dto.ServiceListenerStatisticsDTO;
 import org.easymock.EasyMock;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -30,6 +31,8 @@ import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.hooks.service.EventHook;
+import org.osgi.framework.hooks.service.EventListenerHook;
+import org.osgi.framework.hooks.service.ListenerHook;
 
 public class EventDispatcherTest extends TestCase
 {
@@ -137,6 +140,216 @@ public class EventDispatcherTest extends TestCase
         assertTrue(calledHooks.contains(eh2));
     }
 
+    public void testFireServiceEventUsesObjectClassIndex() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+        final Bundle b2 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry, true);
+
+        final List fired = Collections.synchronizedList(new ArrayList());
+        ServiceListener[] sls = new ServiceListener[6];
+        for (int i = 0; i < sls.length; i++)
+        {
+            sls[i] = new ServiceListener()
+            {
+                public void serviceChanged(ServiceEvent event)
+                {
+                    fired.add(this);
+                }
+            };
+        }
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sls[0],
+            new FilterImpl("(objectClass=java.lang.String)"));
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sls[1],
+            new FilterImpl("(objectClass=java.lang.Integer)"));
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sls[2], null);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sls[3],
+            new FilterImpl("(|(objectClass=java.lang.Long)(objectClass=java.lang.Runnable))"));
+        ed.addListener(b2.getBundleContext(), ServiceListener.class, sls[4],
+            new FilterImpl("(&(objectClass=java.lang.Integer)(foo=bar))"));
+        ed.addListener(b2.getBundleContext(), ServiceListener.class, sls[5],
+            new FilterImpl("(!(objectClass=java.lang.Integer))"));
+
+        ServiceReference sr = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.expect(sr.getProperty(Constants.OBJECTCLASS)).andReturn(new String[]
+            {
+                "java.lang.String", "java.lang.Runnable"
+            }).anyTimes();
+        EasyMock.expect(sr.getPropertyKeys()).andReturn(new String[]
+            {
+                Constants.OBJECTCLASS
+            }).anyTimes();
+        EasyMock.expect(sr.isAssignableTo((Bundle) EasyMock.anyObject(),
+            (String) EasyMock.anyObject())).andReturn(Boolean.TRUE).anyTimes();
+        EasyMock.replay(new Object[]
+            {
+                sr
+            });
+
+        Felix framework = new Felix(new HashMap());
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, framework);
+
+        // Listeners of a bundle are still called in registration order.
+        assertEquals(4, fired.size());
+        assertTrue(fired.remove(sls[5]));
+        assertEquals(Arrays.asList(sls[0], sls[2], sls[3]), fired);
+        ServiceListenerStatisticsDTO statistics = ed.getServiceListenerStatistics();
+        assertTrue(statistics.enabled);
+        assertEquals(6, statistics.considered);
+        assertEquals(2, statistics.skipped);
+        assertEquals(2.0 / 6.0, statistics.skipRatio, 0.0001);
+
+        // Updated and removed listeners are reindexed.
+        fired.clear();
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sls[1],
+            new FilterImpl("(objectClass=java.lang.Runnable)"));
+        ed.removeListener(b1.getBundleContext(), ServiceListener.class, sls[0]);
+        ed.removeListeners(b2.getBundleContext());
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, framework);
+        assertEquals(Arrays.asList(sls[1], sls[2], sls[3]), fired);
+    }
+
+    public void testFireServiceEventWithEventListenerHook() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+        final Bundle b2 = getMockBundle();
+        final Bundle b3 = getMockBundle();
+
+        final List fired = Collections.synchronizedList(new ArrayList());
+        final ServiceListener[] sls = new ServiceListener[3];
+        for (int i = 0; i < sls.length; i++)
+        {
+            sls[i] = new ServiceListener()
+            {
+                public void serviceChanged(ServiceEvent event)
+                {
+                    fired.add(this);
+                }
+            };
+        }
+
+        // Removes the second listener of b1 and all listeners of b2.
+        final EventListenerHook elh = new EventListenerHook()
+        {
+            public void event(ServiceEvent event, Map listeners)
+            {
+                Collection infos = (Collection) listeners.get(b1.getBundleContext());
+                for (Iterator it = infos.iterator(); it.hasNext();)
+                {
+                    if (((ListenerHook.ListenerInfo) it.next()).getFilter() != null)
+                    {
+                        it.remove();
+                    }
+                }
+                listeners.remove(b2.getBundleContext());
+            }
+        };
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        registry.registerService(b3, new String [] {EventListenerHook.class.getName()}, elh, new Hashtable());
+        EventDispatcher ed = new EventDispatcher(logger, registry);
+
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sls[0], null);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sls[1],
+            new FilterImpl("(objectClass=java.lang.String)"));
+        ed.addListener(b2.getBundleContext(), ServiceListener.class, sls[2], null);
+
+        ServiceReference sr = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.expect(sr.getProperty(Constants.OBJECTCLASS)).andReturn(new String[]
+            {
+                "java.lang.String"
+            }).anyTimes();
+        EasyMock.expect(sr.getPropertyKeys()).andReturn(new String[]
+            {
+                Constants.OBJECTCLASS
+            }).anyTimes();
+        EasyMock.expect(sr.isAssignableTo((Bundle) EasyMock.anyObject(),
+            (String) EasyMock.anyObject())).andReturn(Boolean.TRUE).anyTimes();
+        EasyMock.replay(new Object[]
+            {
+                sr
+            });
+
+        Felix framework = new Felix(new HashMap());
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, framework);
+        assertEquals(Arrays.asList(sls[0]), fired);
+
+        // The hook only shrinks its view, the registered listeners remain.
+        assertEquals(3, ed.getAllServiceListeners().size());
+    }
+
+    public void testFireServiceEventBypassesObjectClassIndexWithHooks() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+        final Bundle b2 = getMockBundle();
+
+        final List fired = Collections.synchronizedList(new ArrayList());
+        ServiceListener[] sls = new ServiceListener[2];
+        for (int i = 0; i < sls.length; i++)
+        {
+            sls[i] = new ServiceListener()
+            {
+                public void serviceChanged(ServiceEvent event)
+                {
+                    fired.add(this);
+                }
+            };
+        }
+
+        // Records the listeners the hook gets to see.
+        final List seen = new ArrayList();
+        final EventListenerHook elh = new EventListenerHook()
+        {
+            public void event(ServiceEvent event, Map listeners)
+            {
+                for (Iterator it = listeners.values().iterator(); it.hasNext();)
+                {
+                    seen.addAll((Collection) it.next());
+                }
+            }
+        };
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        registry.registerService(b2, new String [] {EventListenerHook.class.getName()}, elh, new Hashtable());
+        EventDispatcher ed = new EventDispatcher(logger, registry, true);
+
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sls[0],
+            new FilterImpl("(objectClass=java.lang.String)"));
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sls[1],
+            new FilterImpl("(objectClass=java.lang.Integer)"));
+
+        ServiceReference sr = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.expect(sr.getProperty(Constants.OBJECTCLASS)).andReturn(new String[]
+            {
+                "java.lang.String"
+            }).anyTimes();
+        EasyMock.expect(sr.getPropertyKeys()).andReturn(new String[]
+            {
+                Constants.OBJECTCLASS
+            }).anyTimes();
+        EasyMock.expect(sr.isAssignableTo((Bundle) EasyMock.anyObject(),
+            (String) EasyMock.anyObject())).andReturn(Boolean.TRUE).anyTimes();
+        EasyMock.replay(new Object[]
+            {
+                sr
+            });
+
+        Felix framework = new Felix(new HashMap());
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, framework);
+
+        // While a hook is registered the index is not used: the hook sees
+        // the listener the index would have skipped, and only the filters
+        // keep it from being called.
+        assertEquals(2, seen.size());
+        assertEquals(Arrays.asList(sls[0]), fired);
+        assertEquals(0, ed.getServiceListenerStatistics().considered);
+    }
+
     private Bundle getMockBundle()
     {
         BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.framework.util.CopyOnShrinkMap;
+import org.apache.felix.framework.util.ListenerInfo;
+import org.apache.felix.framework.util.ShrinkableCollection;
+import org.apache.felix.framework.util.ShrinkableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.hooks.service.ListenerHook;
+
+/**
+ * Compares the shrinkable listener view passed to service event listener
+ * hooks against the full copy previously made for every service event,
+ * with 1k listeners spread over 100 bundle contexts and 1 to 3 hooks. All
+ * but the last hook only look at the listeners; the last one removes the
+ * listeners of one bundle context, as region style hooks do.
+ * <p>
+ * Run with the GC profiler to see the allocation per event:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.apache.felix.framework.EventListenerHookBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventListenerHookBenchmark
+{
+    private static final int CONTEXTS = 100;
+    private static final int LISTENERS_PER_CONTEXT = 10;
+
+    @Param({"1", "2", "3"})
+    public int hooks;
+
+    private Map<BundleContext, List<ListenerInfo>> m_listeners;
+    private BundleContext m_removed;
+
+    @Setup
+    public void setup()
+    {
+        m_listeners = new HashMap<BundleContext, List<ListenerInfo>>();
+        for (int i = 0; i < CONTEXTS; i++)
+        {
+            BundleContext bc = createContext();
+            List<ListenerInfo> infos = new ArrayList<ListenerInfo>();
+            for (int j = 0; j < LISTENERS_PER_CONTEXT; j++)
+            {
+                infos.add(new ListenerInfo(null, bc, ServiceListener.class,
+                    new NoopListener(), null, null, false));
+            }
+            m_listeners.put(bc, infos);
+            m_removed = bc;
+        }
+    }
+
+    @Benchmark
+    public Map<BundleContext, List<ListenerInfo>> copyOnShrink()
+    {
+        CopyOnShrinkMap<BundleContext, ListenerInfo> view =
+            new CopyOnShrinkMap<BundleContext, ListenerInfo>(m_listeners);
+        Map rawMap = view;
+        invokeHooks(rawMap);
+        return view.toMap();
+    }
+
+    @Benchmark
+    public Map<BundleContext, List<ListenerInfo>> copyAll()
+    {
+        // The approach previously taken by EventDispatcher.
+        Map<BundleContext, List<ListenerInfo>> mutableMap =
+            new HashMap<BundleContext, List<ListenerInfo>>();
+        Map<BundleContext, Collection<ListenerHook.ListenerInfo>> shrinkableMap =
+            new HashMap<BundleContext, Collection<ListenerHook.ListenerInfo>>();
+        for (Map.Entry<BundleContext, List<ListenerInfo>> entry : m_listeners.entrySet())
+        {
+            ArrayList<ListenerInfo> mutableList = new ArrayList<ListenerInfo>(entry.getValue());
+            mutableMap.put(entry.getKey(), mutableList);
+            ArrayList ml = mutableList;
+            shrinkableMap.put(entry.getKey(),
+                new ShrinkableCollection<ListenerHook.ListenerInfo>(ml));
+        }
+        shrinkableMap = new ShrinkableMap<BundleContext, Collection<ListenerHook.ListenerInfo>>(
+            shrinkableMap);
+        invokeHooks(shrinkableMap);
+        Map<BundleContext, List<ListenerInfo>> newMap =
+            new HashMap<BundleContext, List<ListenerInfo>>();
+        for (Map.Entry<BundleContext, Collection<ListenerHook.ListenerInfo>> entry : shrinkableMap.entrySet())
+        {
+            if (!entry.getValue().isEmpty())
+            {
+                newMap.put(entry.getKey(), mutableMap.get(entry.getKey()));
+            }
+        }
+        return newMap;
+    }
+
+    private void invokeHooks(Map<BundleContext, Collection<ListenerHook.ListenerInfo>> listeners)
+    {
+        for (int i = 0; i < hooks - 1; i++)
+        {
+            int count = 0;
+            for (Collection<ListenerHook.ListenerInfo> infos : listeners.values())
+            {
+                for (ListenerHook.ListenerInfo info : infos)
+                {
+                    if (info.isRemoved())
+                    {
+                        count++;
+                    }
+                }
+            }
+            if (count != 0)
+            {
+                throw new IllegalStateException();
+            }
+        }
+        for (Iterator<BundleContext> it = listeners.keySet().iterator(); it.hasNext();)
+        {
+            if (it.next() == m_removed)
+            {
+                it.remove();
+            }
+        }
+    }
+
+    private static BundleContext createContext()
+    {
+        return (BundleContext) Proxy.newProxyInstance(
+            BundleContext.class.getClassLoader(), new Class[] { BundleContext.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("hashCode"))
+                    {
+                        return System.identityHashCode(proxy);
+                    }
+                    else if (method.getName().equals("equals"))
+                    {
+                        return proxy == args[0];
+                    }
+                    return null;
+                }
+            });
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+            .include(EventListenerHookBenchmark.class.getSimpleName())
+            .addProfiler("gc")
+            .build()).run();
+    }
+
+    private static final class NoopListener implements ServiceListener
+    {
+        public void serviceChanged(org.osgi.framework.ServiceEvent event)
+        {
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Constants;
+
+/**
+ * Measures {@link FilterImpl} matching against the properties of a typical
+ * declarative services component, passed as a case insensitive dictionary
+ * and as a map, for an object class filter, a compound filter with a
+ * numeric comparison and a substring filter.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.apache.felix.framework.FilterImplBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterImplBenchmark
+{
+    @Param({
+        "(objectClass=org.bench.Service)",
+        "(&(objectClass=org.bench.Service)(service.ranking>=5)(!(component.name=other)))",
+        "(component.name=org.bench.*Impl)"
+    })
+    public String filter;
+
+    private FilterImpl m_filter;
+    private Dictionary<String, Object> m_dictionary;
+    private Map<String, Object> m_map;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        m_filter = new FilterImpl(filter);
+
+        m_map = new HashMap<String, Object>();
+        m_map.put(Constants.OBJECTCLASS, new String[] { "org.bench.Service", "org.bench.Other" });
+        m_map.put(Constants.SERVICE_ID, Long.valueOf(42));
+        m_map.put(Constants.SERVICE_BUNDLEID, Long.valueOf(7));
+        m_map.put(Constants.SERVICE_SCOPE, Constants.SCOPE_SINGLETON);
+        m_map.put(Constants.SERVICE_RANKING, Integer.valueOf(10));
+        m_map.put(Constants.SERVICE_PID, "org.bench.ServiceImpl");
+        m_map.put("component.name", "org.bench.ServiceImpl");
+        m_map.put("component.id", Long.valueOf(3));
+        m_dictionary = new Hashtable<String, Object>(m_map);
+    }
+
+    @Benchmark
+    public boolean matchDictionary()
+    {
+        return m_filter.match(m_dictionary);
+    }
+
+    @Benchmark
+    public boolean matchesMap()
+    {
+        return m_filter.matches(m_map);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+            .include(FilterImplBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
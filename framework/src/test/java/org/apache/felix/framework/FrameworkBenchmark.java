@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.launch.Framework;
+
+/**
+ * Measures the hot paths of a running framework: looking up service
+ * references by class and filter, firing service modified events to the
+ * registered service listeners and loading classes of a bundle through
+ * its package imports and through boot delegation. The framework holds N
+ * services spread over ten object classes and a hundred listeners with
+ * object class filters.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.apache.felix.framework.FrameworkBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrameworkBenchmark
+{
+    private static final int CLASSES = 10;
+    private static final int LISTENERS = 100;
+
+    @Param({"100", "1000"})
+    public int services;
+
+    private File m_cacheDir;
+    private Framework m_framework;
+    private BundleContext m_context;
+    private ServiceRegistration<?> m_registration;
+    private Hashtable<String, Object> m_props;
+    private Bundle m_importer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        m_cacheDir = File.createTempFile("felix-cache", ".dir");
+        m_cacheDir.delete();
+        m_cacheDir.mkdirs();
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_STORAGE, m_cacheDir.getPath());
+        m_framework = new Felix(params);
+        m_framework.start();
+        m_context = m_framework.getBundleContext();
+
+        for (int i = 0; i < services; i++)
+        {
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            props.put(Constants.SERVICE_RANKING, Integer.valueOf(i % 10));
+            props.put("component.name", "org.bench.ServiceImpl" + i);
+            m_registration = m_context.registerService(
+                "org.bench.Service" + (i % CLASSES), new NoopFactory(), props);
+        }
+        m_props = new Hashtable<String, Object>();
+        m_props.put(Constants.SERVICE_RANKING, Integer.valueOf(5));
+
+        for (int i = 0; i < LISTENERS; i++)
+        {
+            m_context.addServiceListener(new ServiceListener()
+            {
+                public void serviceChanged(ServiceEvent event)
+                {
+                }
+            }, "(" + Constants.OBJECTCLASS + "=org.bench.Service" + (i % CLASSES) + ")");
+        }
+
+        Bundle exporter = m_context.installBundle(createBundle(
+            "bench.exporter", "Export-Package: org.apache.felix.framework\n", true).toURI().toString());
+        m_importer = m_context.installBundle(createBundle(
+            "bench.importer", "Import-Package: org.apache.felix.framework\n", false).toURI().toString());
+        exporter.start();
+        m_importer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        m_framework.stop();
+        m_framework.waitForStop(0);
+        deleteDir(m_cacheDir);
+    }
+
+    @Benchmark
+    public ServiceReference<?>[] getServiceReferences() throws Exception
+    {
+        return m_context.getServiceReferences(
+            "org.bench.Service3", "(" + Constants.SERVICE_RANKING + ">=5)");
+    }
+
+    @Benchmark
+    public void fireServiceEvent()
+    {
+        m_registration.setProperties(m_props);
+    }
+
+    @Benchmark
+    public Class<?> loadImportedClass() throws Exception
+    {
+        return m_importer.loadClass(Exported.class.getName());
+    }
+
+    @Benchmark
+    public Class<?> loadBootDelegatedClass() throws Exception
+    {
+        return m_importer.loadClass("java.util.ArrayList");
+    }
+
+    private File createBundle(String bsn, String headers, boolean withClass) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", m_cacheDir);
+
+        String manifest = "Bundle-SymbolicName: " + bsn + "\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + headers;
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        if (withClass)
+        {
+            String path = Exported.class.getName().replace('.', '/') + ".class";
+            os.putNextEntry(new ZipEntry(path));
+
+            InputStream is = Exported.class.getClassLoader().getResourceAsStream(path);
+            byte[] b = new byte[is.available()];
+            is.read(b);
+            is.close();
+            os.write(b);
+        }
+
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root)
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+            .include(FrameworkBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+
+    public static class Exported
+    {
+    }
+
+    // Factories are not checked against the object class they are registered for.
+    private static final class NoopFactory implements ServiceFactory<Object>
+    {
+        public Object getService(Bundle bundle, ServiceRegistration<Object> registration)
+        {
+            return null;
+        }
+
+        public void ungetService(Bundle bundle, ServiceRegistration<Object> registration,
+            Object service)
+        {
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.felix.framework.cache.BundleCache;
+import org.apache.felix.framework.util.FelixConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+
+/**
+ * Measures initializing a framework whose cache holds N synthetic bundles,
+ * reloading the cached bundles sequentially and concurrently, and with and
+ * without revision snapshots. Every bundle exports a package and imports
+ * the packages of a few other bundles.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.apache.felix.framework.FrameworkStartupBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrameworkStartupBenchmark
+{
+    private static final int IMPORTS = 5;
+
+    @Param({"100", "500"})
+    public int bundles;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Param({"false", "true"})
+    public boolean snapshot;
+
+    private File m_cacheDir;
+    private Map<String, String> m_params;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        m_cacheDir = File.createTempFile("felix-cache", ".dir");
+        m_cacheDir.delete();
+        m_cacheDir.mkdirs();
+
+        m_params = new HashMap<String, String>();
+        m_params.put(Constants.FRAMEWORK_STORAGE, m_cacheDir.getPath());
+        m_params.put(BundleCache.CACHE_SNAPSHOT_PROP, Boolean.toString(snapshot));
+
+        Framework f = new Felix(m_params);
+        f.init();
+        for (int i = 0; i < bundles; i++)
+        {
+            f.getBundleContext().installBundle(
+                createBundle(i, m_cacheDir).toURI().toString());
+        }
+        f.stop();
+        f.waitForStop(0);
+
+        m_params.put(FelixConstants.CACHE_RELOAD_PARALLELISM, Integer.toString(parallelism));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        deleteDir(m_cacheDir);
+    }
+
+    @Benchmark
+    public Framework init() throws Exception
+    {
+        Framework f = new Felix(m_params);
+        f.init();
+        f.stop();
+        f.waitForStop(0);
+        return f;
+    }
+
+    private File createBundle(int i, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        StringBuilder imports = new StringBuilder("org.osgi.framework");
+        for (int j = 1; j <= IMPORTS; j++)
+        {
+            imports.append(", bench.pkg").append((i + j) % bundles)
+                .append(";version=\"[1,2)\"");
+        }
+        String manifest = "Bundle-SymbolicName: bench.bundle." + i + "\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: bench.pkg" + i + ";version=1.0;uses:=org.osgi.framework\n"
+            + "Import-Package: " + imports + "\n";
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root)
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+            .include(FrameworkStartupBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class ParallelCacheReloadTest extends TestCase
+{
+    private static final int BUNDLES = 20;
+
+    public void testParallelReload() throws Exception
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+
+        try
+        {
+            Framework f = new Felix(params);
+            f.init();
+            Map<Long, String> expected = new HashMap<Long, String>();
+            for (int i = 0; i < BUNDLES; i++)
+            {
+                Bundle b = f.getBundleContext().installBundle(
+                    createBundle(i, cacheDir).toURI().toString());
+                expected.put(b.getBundleId(), b.getSymbolicName());
+            }
+            // Leave a hole in the bundle identifiers.
+            Bundle uninstalled = f.getBundleContext().getBundle(BUNDLES / 2);
+            expected.remove(uninstalled.getBundleId());
+            uninstalled.uninstall();
+            f.stop();
+            f.waitForStop(10000);
+
+            params.put(FelixConstants.CACHE_RELOAD_PARALLELISM, "4");
+            f = new Felix(params);
+            f.init();
+            try
+            {
+                Bundle[] bundles = f.getBundleContext().getBundles();
+                assertEquals(BUNDLES, bundles.length);
+                for (int i = 1; i < bundles.length; i++)
+                {
+                    assertTrue(bundles[i - 1].getBundleId() < bundles[i].getBundleId());
+                    assertEquals(expected.get(bundles[i].getBundleId()),
+                        bundles[i].getSymbolicName());
+                    assertEquals(Bundle.INSTALLED, bundles[i].getState());
+                }
+
+                assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            }
+            finally
+            {
+                f.stop();
+                f.waitForStop(10000);
+            }
+        }
+        finally
+        {
+            deleteDir(cacheDir);
+        }
+    }
+
+    private static File createBundle(int i, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        // Every bundle imports the package of the bundle installed before.
+        String manifest = "Bundle-SymbolicName: reload.bundle." + i + "\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: reload.bundle." + i + "\n"
+            + "Import-Package: org.osgi.framework"
+            + ((i > 0) ? ", reload.bundle." + (i - 1) + ";resolution:=optional" : "")
+            + "\n";
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.startlevel.FrameworkStartLevel;
+
+public class ParallelStartLevelTest extends TestCase
+{
+    public static final int DELAY = 500;
+    private static final int BUNDLES = 4;
+
+    public void testParallelStartWithinStartLevel() throws Exception
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.STARTLEVEL_PARALLELISM, Integer.toString(BUNDLES));
+
+        Framework f = new Felix(params);
+        f.init();
+        f.start();
+
+        try
+        {
+            // Several slow bundles on start level 2 and one on start level 3.
+            List<Bundle> bundles = new ArrayList<Bundle>();
+            for (int i = 0; i <= BUNDLES; i++)
+            {
+                Bundle b = f.getBundleContext().installBundle(
+                    createBundle("slow.bundle." + i, cacheDir).toURI().toString());
+                b.adapt(BundleStartLevel.class).setStartLevel((i < BUNDLES) ? 2 : 3);
+                b.start();
+                bundles.add(b);
+            }
+
+            final Map<Bundle, Long> starting = new ConcurrentHashMap<Bundle, Long>();
+            final Map<Bundle, Long> started = new ConcurrentHashMap<Bundle, Long>();
+            f.getBundleContext().addBundleListener(new SynchronousBundleListener()
+            {
+                public void bundleChanged(BundleEvent event)
+                {
+                    if (event.getType() == BundleEvent.STARTING)
+                    {
+                        starting.put(event.getBundle(), System.nanoTime());
+                    }
+                    else if (event.getType() == BundleEvent.STARTED)
+                    {
+                        started.put(event.getBundle(), System.nanoTime());
+                    }
+                }
+            });
+
+            final CountDownLatch latch = new CountDownLatch(1);
+            long t0 = System.nanoTime();
+            f.adapt(FrameworkStartLevel.class).setStartLevel(3, new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    latch.countDown();
+                }
+            });
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+
+            for (Bundle b : bundles)
+            {
+                assertEquals(Bundle.ACTIVE, b.getState());
+            }
+
+            // The bundles of start level 2 ran concurrently, so both start
+            // levels took far less than starting every bundle in turn.
+            assertTrue("Took " + elapsed + " ms", elapsed < (BUNDLES + 1) * DELAY);
+
+            // Start level 3 was only entered once start level 2 was done.
+            for (Bundle b : bundles.subList(0, BUNDLES))
+            {
+                assertTrue(started.get(b) <= starting.get(bundles.get(BUNDLES)));
+            }
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(10000);
+            deleteDir(cacheDir);
+        }
+    }
+
+    public void testOnlyMarkedPoolThreadsAreStartLevelThreads() throws Exception
+    {
+        final boolean[] result = new boolean[3];
+        Thread[] threads = {
+            new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    result[0] = FrameworkStartLevelImpl.isStartLevelThread();
+                }
+            }, FrameworkStartLevelImpl.THREAD_NAME),
+            // A bundle thread merely named like a pool thread.
+            new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    result[1] = FrameworkStartLevelImpl.isStartLevelThread();
+                }
+            }, FrameworkStartLevelImpl.THREAD_NAME + "-1"),
+            FrameworkStartLevelImpl.createPoolThread(new Runnable()
+            {
+                public void run()
+                {
+                    result[2] = FrameworkStartLevelImpl.isStartLevelThread();
+                }
+            }, "pool")
+        };
+        for (Thread thread : threads)
+        {
+            thread.start();
+            thread.join();
+        }
+        assertTrue(result[0]);
+        assertFalse(result[1]);
+        assertTrue(result[2]);
+        assertFalse(FrameworkStartLevelImpl.isStartLevelThread());
+    }
+
+    private static File createBundle(String bsn, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        String manifest = "Bundle-SymbolicName: " + bsn + "\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.osgi.framework\n";
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        mf.getMainAttributes().putValue(Constants.BUNDLE_ACTIVATOR, SlowActivator.class.getName());
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        String path = SlowActivator.class.getName().replace('.', '/') + ".class";
+        os.putNextEntry(new ZipEntry(path));
+
+        InputStream is = SlowActivator.class.getClassLoader().getResourceAsStream(path);
+        byte[] b = new byte[is.available()];
+        is.read(b);
+        is.close();
+        os.write(b);
+
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+
+    public static class SlowActivator implements BundleActivator
+    {
+        public void start(BundleContext context) throws Exception
+        {
+            Thread.sleep(DELAY);
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+    }
+}
@@ -275,6 +275,54 @@ public class ResolveTest extends TestCase
         assertEquals(requiredWires.get(1).getProvider().getBundle(), ho);
     }
 
+    public void testResolveDynamicAfterMissAndInstall() throws Exception
+    {
+        String dynm = "Bundle-SymbolicName: cap.dyn\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "DynamicImport-Package: org.foo.*\n";
+        File dynFile = createBundle(dynm);
+
+        String expm = "Bundle-SymbolicName: cap.exp\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo.bar\n";
+        File expFile = createBundle(expm);
+
+        Bundle dyn = felix.getBundleContext().installBundle(dynFile.toURI().toASCIIString());
+        felix.adapt(FrameworkWiring.class).resolveBundles(Collections.singletonList(dyn));
+        assertEquals(Bundle.RESOLVED, dyn.getState());
+
+        for (int i = 0; i < 2; i++)
+        {
+            try
+            {
+                dyn.loadClass("org.foo.bar.Bar");
+                fail();
+            }
+            catch (ClassNotFoundException ex)
+            {
+                // Expected
+            }
+            assertTrue(dyn.adapt(BundleWiring.class).getRequiredWires(BundleRevision.PACKAGE_NAMESPACE).isEmpty());
+        }
+
+        // Installing an exporter must make the package dynamically importable.
+        Bundle exp = felix.getBundleContext().installBundle(expFile.toURI().toASCIIString());
+        try
+        {
+            dyn.loadClass("org.foo.bar.Bar");
+            fail();
+        }
+        catch (ClassNotFoundException ex)
+        {
+            // Expected
+        }
+        List<BundleWire> requiredWires = dyn.adapt(BundleWiring.class).getRequiredWires(BundleRevision.PACKAGE_NAMESPACE);
+        assertEquals(1, requiredWires.size());
+        assertEquals(exp, requiredWires.get(0).getProvider().getBundle());
+    }
+
     private File createBundle(String manifest) throws IOException
     {
         File f = File.createTempFile("felix-bundle", ".jar", tempDir);
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import junit.framework.TestCase;
+import org.apache.felix.framework.cache.BundleCache;
+import org.apache.felix.framework.wiring.BundleRequirementImpl;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+public class RevisionSnapshotTest extends TestCase
+{
+    private static final String MANIFEST = "Bundle-SymbolicName: snapshot.test;singleton:=true\n"
+        + "Bundle-Version: 1.2.3.qualifier\n"
+        + "Bundle-ManifestVersion: 2\n"
+        + "Bundle-ActivationPolicy: lazy;include:=\"a.b\"\n"
+        + "Export-Package: a.b;version=1.1;uses:=\"c.d\";mandatory:=x;x=y,a.c\n"
+        + "Import-Package: c.d;version=\"[1,2)\";resolution:=optional,e.f\n"
+        + "DynamicImport-Package: g.*\n"
+        + "Require-Bundle: other;bundle-version=\"[1,2)\"\n"
+        + "Provide-Capability: test.cap;test.cap=a;count:Long=3;ratio:Double=0.5;"
+        + "versions:List<Version>=\"1.0,2.0\";names:List<String>=\"x,y\"\n"
+        + "Require-Capability: test.cap;filter:=\"(&(test.cap=a)(!(count<=2))(names=x*))\"\n";
+
+    private File m_cacheDir;
+    private Map<String, String> m_params;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_cacheDir = File.createTempFile("felix-cache", ".dir");
+        m_cacheDir.delete();
+        m_cacheDir.mkdirs();
+        m_params = new HashMap<String, String>();
+        m_params.put(Constants.FRAMEWORK_STORAGE, m_cacheDir.getPath());
+        m_params.put(BundleCache.CACHE_SNAPSHOT_PROP, "true");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        deleteDir(m_cacheDir);
+    }
+
+    public void testSnapshotIsReused() throws Exception
+    {
+        File bundleFile = createBundle(MANIFEST, m_cacheDir);
+        String location = bundleFile.toURI().toURL().toExternalForm();
+
+        List<String> parsed;
+        Framework f = new Felix(m_params);
+        try
+        {
+            f.init();
+            parsed = describe(f.getBundleContext().installBundle(location));
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(1000);
+        }
+
+        File snapshot = findSnapshot(m_cacheDir);
+        assertNotNull("Revision snapshot was not stored", snapshot);
+        long stored = snapshot.lastModified();
+
+        // A restart has to create the same revision from the snapshot.
+        f = new Felix(m_params);
+        try
+        {
+            f.init();
+            Bundle b = f.getBundleContext().getBundle(location);
+            assertEquals(parsed, describe(b));
+            assertEquals(BundleRevisionImpl.LAZY_ACTIVATION,
+                ((BundleRevisionImpl) b.adapt(BundleRevision.class)).getDeclaredActivationPolicy());
+            assertTrue(((BundleRevisionImpl) b.adapt(BundleRevision.class)).isActivationTrigger("a.b"));
+            assertFalse(((BundleRevisionImpl) b.adapt(BundleRevision.class)).isActivationTrigger("a.c"));
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(1000);
+        }
+        assertEquals(stored, snapshot.lastModified());
+    }
+
+    public void testStaleSnapshotIsIgnored() throws Exception
+    {
+        File bundleFile = createBundle(MANIFEST, m_cacheDir);
+        String location = bundleFile.toURI().toURL().toExternalForm();
+
+        List<String> parsed;
+        Framework f = new Felix(m_params);
+        try
+        {
+            f.init();
+            parsed = describe(f.getBundleContext().installBundle(location));
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(1000);
+        }
+
+        // A snapshot written for another key must not be used.
+        File snapshot = findSnapshot(m_cacheDir);
+        assertNotNull(snapshot);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(snapshot));
+        out.writeInt(1);
+        out.writeInt(5);
+        out.write("other".getBytes("UTF-8"));
+        out.close();
+
+        f = new Felix(m_params);
+        try
+        {
+            f.init();
+            assertEquals(parsed, describe(f.getBundleContext().getBundle(location)));
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(1000);
+        }
+        assertTrue(snapshot.length() > 20);
+    }
+
+    private static List<String> describe(Bundle b)
+    {
+        BundleRevisionImpl revision = (BundleRevisionImpl) b.adapt(BundleRevision.class);
+        List<String> result = new ArrayList<String>();
+        result.add(new TreeMap<String, Object>(revision.getHeaders()).toString());
+        result.add(revision.getSymbolicName() + ";" + revision.getVersion()
+            + ";" + revision.getManifestVersion() + ";" + revision.isExtension()
+            + ";" + revision.getTypes());
+        for (BundleCapability cap : revision.getDeclaredCapabilities(null))
+        {
+            assertSame(revision, cap.getRevision());
+            result.add(cap.getNamespace() + new TreeMap<String, String>(cap.getDirectives())
+                + describe(cap.getAttributes()));
+        }
+        for (BundleRequirement req : revision.getDeclaredRequirements(null))
+        {
+            assertSame(revision, req.getRevision());
+            result.add(req.getNamespace() + new TreeMap<String, String>(req.getDirectives())
+                + describe(req.getAttributes()) + ((BundleRequirementImpl) req).getFilter());
+        }
+        return result;
+    }
+
+    private static String describe(Map<String, Object> attrs)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(attrs).entrySet())
+        {
+            sb.append(entry.getKey()).append('=').append(entry.getValue())
+                .append(':').append(entry.getValue().getClass().getSimpleName()).append(';');
+        }
+        return sb.toString();
+    }
+
+    private static File findSnapshot(File dir)
+    {
+        File[] files = dir.listFiles();
+        for (int i = 0; (files != null) && (i < files.length); i++)
+        {
+            if (files[i].isDirectory())
+            {
+                File snapshot = findSnapshot(files[i]);
+                if (snapshot != null)
+                {
+                    return snapshot;
+                }
+            }
+            else if (files[i].getName().equals(RevisionSnapshot.SNAPSHOT_FILE))
+            {
+                return files[i];
+            }
+        }
+        return null;
+    }
+
+    private static File createBundle(String manifest, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.PrototypeServiceFactory;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Measures the throughput of getting and ungetting a service per request,
+ * as whiteboard implementations do, from several threads on behalf of the
+ * same bundle. The bundle also uses a number of other services, as a
+ * whiteboard bundle tracking many services does.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.apache.felix.framework.ServiceRegistryBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ServiceRegistryBenchmark
+{
+    private static final int OTHER_SERVICES = 50;
+
+    @Param({"singleton", "prototype"})
+    public String scope;
+
+    private ServiceRegistry m_registry;
+    private Bundle m_bundle;
+    private ServiceReference<Object> m_ref;
+    private boolean m_isServiceObjects;
+
+    @Setup
+    public void setup()
+    {
+        m_registry = new ServiceRegistry(null, null);
+        Bundle regBundle = Mockito.mock(Bundle.class);
+        m_bundle = createBundle();
+
+        for (int i = 0; i < OTHER_SERVICES; i++)
+        {
+            ServiceRegistration<?> reg = m_registry.registerService(
+                regBundle, new String[] {Runnable.class.getName()}, new Object(), null);
+            m_registry.getService(m_bundle, reg.getReference(), false);
+        }
+
+        Object svc = new Object();
+        m_isServiceObjects = scope.equals("prototype");
+        if (m_isServiceObjects)
+        {
+            svc = new PrototypeServiceFactory<Object>()
+            {
+                public Object getService(Bundle bundle, ServiceRegistration<Object> registration)
+                {
+                    return new Object();
+                }
+
+                public void ungetService(Bundle bundle, ServiceRegistration<Object> registration,
+                    Object service)
+                {
+                }
+            };
+        }
+        m_ref = (ServiceReference<Object>) m_registry.registerService(
+            regBundle, new String[] {Object.class.getName()}, svc, null).getReference();
+    }
+
+    @Benchmark
+    public boolean getUngetService()
+    {
+        Object svc = m_registry.getService(m_bundle, m_ref, m_isServiceObjects);
+        return m_registry.ungetService(m_bundle, m_ref, m_isServiceObjects ? svc : null);
+    }
+
+    private static Bundle createBundle()
+    {
+        return (Bundle) Proxy.newProxyInstance(
+            Bundle.class.getClassLoader(), new Class[] { Bundle.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("hashCode"))
+                    {
+                        return System.identityHashCode(proxy);
+                    }
+                    else if (method.getName().equals("equals"))
+                    {
+                        return proxy == args[0];
+                    }
+                    else if (method.getReturnType() == long.class)
+                    {
+                        return 0L;
+                    }
+                    else if (method.getReturnType() == int.class)
+                    {
+                        return 0;
+                    }
+                    return null;
+                }
+            });
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+            .include(ServiceRegistryBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
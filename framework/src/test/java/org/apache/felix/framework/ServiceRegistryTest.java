@@ -37,6 +37,7 @@ import junit.framework.TestCase;
 import org.apache.felix.framework.ServiceRegistrationImpl.ServiceReferenceImpl;
 import org.apache.felix.framework.ServiceRegistry.ServiceHolder;
 import org.apache.felix.framework.ServiceRegistry.UsageCount;
+import org.apache.felix.framework.ServiceRegistry.UsageCounts;
 import org.easymock.MockControl;
 import org.mockito.AdditionalAnswers;
 import org.mockito.InOrder;
@@ -449,9 +450,9 @@ public class ServiceRegistryTest extends TestCase
 
         assertSame(svc, sr.getService(b, ref, true));
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
-        UsageCount[] uca = inUseMap.get(b);
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
+        UsageCount[] uca = getUsageCounts(inUseMap, b);
         assertEquals(1, uca.length);
         assertEquals(1, uca[0].m_serviceObjectsCount.get());
 
@@ -516,13 +517,13 @@ public class ServiceRegistryTest extends TestCase
         ServiceReferenceImpl ref = Mockito.mock(ServiceReferenceImpl.class);
         Mockito.when(ref.getRegistration()).thenReturn(reg);
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         UsageCount uc = new UsageCount(ref, false);
         uc.m_svcHolderRef.set(new ServiceHolder());
 
-        inUseMap.put(b, new UsageCount[] {uc});
+        putUsageCounts(inUseMap, b, uc);
 
         assertFalse(sr.ungetService(b, ref, null));
         assertNull(uc.m_svcHolderRef.get());
@@ -539,8 +540,8 @@ public class ServiceRegistryTest extends TestCase
         ServiceReferenceImpl ref = Mockito.mock(ServiceReferenceImpl.class);
         Mockito.when(ref.getRegistration()).thenReturn(reg);
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         UsageCount uc = new UsageCount(ref, false);
         ServiceHolder sh = new ServiceHolder();
@@ -551,7 +552,7 @@ public class ServiceRegistryTest extends TestCase
 
         Mockito.verify(reg, Mockito.never()).
             ungetService(Mockito.isA(Bundle.class), Mockito.any());
-        inUseMap.put(b, new UsageCount[] {uc});
+        putUsageCounts(inUseMap, b, uc);
 
         assertTrue(sr.ungetService(b, ref, null));
         assertNull(uc.m_svcHolderRef.get());
@@ -572,14 +573,14 @@ public class ServiceRegistryTest extends TestCase
         ServiceReferenceImpl ref = Mockito.mock(ServiceReferenceImpl.class);
         Mockito.when(ref.getRegistration()).thenReturn(reg);
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         UsageCount uc = new UsageCount(ref, false);
         uc.m_svcHolderRef.set(new ServiceHolder());
         uc.m_count.set(2);
 
-        inUseMap.put(b, new UsageCount[] {uc});
+        putUsageCounts(inUseMap, b, uc);
 
         assertTrue(sr.ungetService(b, ref, null));
         assertNotNull(uc.m_svcHolderRef.get());
@@ -601,14 +602,14 @@ public class ServiceRegistryTest extends TestCase
         ServiceReferenceImpl ref = Mockito.mock(ServiceReferenceImpl.class);
         Mockito.when(ref.getRegistration()).thenReturn(reg);
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         UsageCount uc = new UsageCount(ref, false);
         uc.m_svcHolderRef.set(new ServiceHolder());
         uc.m_count.set(2);
 
-        inUseMap.put(b, new UsageCount[] {uc});
+        putUsageCounts(inUseMap, b, uc);
 
         assertTrue(sr.ungetService(b, ref, null));
         assertNull(uc.m_svcHolderRef.get());
@@ -630,8 +631,8 @@ public class ServiceRegistryTest extends TestCase
         ServiceReferenceImpl ref = Mockito.mock(ServiceReferenceImpl.class);
         Mockito.when(ref.getRegistration()).thenReturn(reg);
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         String svc = "myService";
         UsageCount uc = new UsageCount(ref, false);
@@ -641,7 +642,7 @@ public class ServiceRegistryTest extends TestCase
         uc.m_svcHolderRef.set(sh);
         uc.m_count.set(1);
 
-        inUseMap.put(b, new UsageCount[] {uc});
+        putUsageCounts(inUseMap, b, uc);
 
         try
         {
@@ -703,7 +704,7 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         assertEquals("Precondition", 0, inUseMap.size());
 
@@ -711,8 +712,8 @@ public class ServiceRegistryTest extends TestCase
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
         UsageCount uc = sr.obtainUsageCount(b, ref, null, false);
         assertEquals(1, inUseMap.size());
-        assertEquals(1, inUseMap.get(b).length);
-        assertSame(uc, inUseMap.get(b)[0]);
+        assertEquals(1, getUsageCounts(inUseMap, b).length);
+        assertSame(uc, getUsageCounts(inUseMap, b)[0]);
         assertSame(ref, uc.m_ref);
         assertFalse(uc.m_prototype);
 
@@ -730,19 +731,19 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
         UsageCount uc = sr.obtainUsageCount(b, ref, null, true);
         assertEquals(1, inUseMap.size());
-        assertEquals(1, inUseMap.values().iterator().next().length);
+        assertEquals(1, getUsageCounts(inUseMap, b).length);
 
         ServiceReference<?> ref2 = Mockito.mock(ServiceReference.class);
         UsageCount uc2 = sr.obtainUsageCount(b, ref2, null, true);
         assertEquals(1, inUseMap.size());
-        assertEquals(2, inUseMap.values().iterator().next().length);
-        List<UsageCount> ucl = Arrays.asList(inUseMap.get(b));
+        assertEquals(2, getUsageCounts(inUseMap, b).length);
+        List<UsageCount> ucl = Arrays.asList(getUsageCounts(inUseMap, b));
         assertTrue(ucl.contains(uc));
         assertTrue(ucl.contains(uc2));
     }
@@ -752,7 +753,7 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
@@ -762,7 +763,7 @@ public class ServiceRegistryTest extends TestCase
         String svc = "foobar";
         sh.m_service = svc;
         uc.m_svcHolderRef.set(sh);
-        inUseMap.put(b, new UsageCount[] {uc});
+        putUsageCounts(inUseMap, b, uc);
 
         assertNull(sr.obtainUsageCount(b, Mockito.mock(ServiceReference.class), null, null));
 
@@ -775,13 +776,13 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
 
         UsageCount uc = new UsageCount(ref, false);
-        inUseMap.put(b, new UsageCount[] {uc});
+        putUsageCounts(inUseMap, b, uc);
 
         assertNull(sr.obtainUsageCount(b, Mockito.mock(ServiceReference.class), null, null));
 
@@ -796,24 +797,23 @@ public class ServiceRegistryTest extends TestCase
 
         final Bundle b = Mockito.mock(Bundle.class);
 
-        final ConcurrentMap<Bundle, UsageCount[]> orgInUseMap =
-            (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> orgInUseMap =
+            (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap =
+        ConcurrentMap<Bundle, UsageCounts> inUseMap =
             Mockito.mock(ConcurrentMap.class, AdditionalAnswers.delegatesTo(orgInUseMap));
-        Mockito.doAnswer(new Answer<UsageCount[]>()
+        Mockito.doAnswer(new Answer<UsageCounts>()
             {
                 @Override
-                public UsageCount[] answer(InvocationOnMock invocation) throws Throwable
+                public UsageCounts answer(InvocationOnMock invocation) throws Throwable
                 {
                     // This mimicks another thread putting another UsageCount in concurrently
                     // The putIfAbsent() will fail and it has to retry
                     UsageCount uc = new UsageCount(Mockito.mock(ServiceReference.class), false);
-                    UsageCount[] uca = new UsageCount[] {uc};
-                    orgInUseMap.put(b, uca);
-                    return uca;
+                    putUsageCounts(orgInUseMap, b, uc);
+                    return orgInUseMap.get(b);
                 }
-            }).when(inUseMap).putIfAbsent(Mockito.any(Bundle.class), Mockito.any(UsageCount[].class));
+            }).when(inUseMap).putIfAbsent(Mockito.any(Bundle.class), Mockito.any(UsageCounts.class));
         setPrivateField(sr, "m_inUseMap", inUseMap);
 
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
@@ -821,10 +821,10 @@ public class ServiceRegistryTest extends TestCase
         assertEquals(0, orgInUseMap.size());
         UsageCount uc = sr.obtainUsageCount(b, ref, null, false);
         assertEquals(1, orgInUseMap.size());
-        assertEquals(2, orgInUseMap.get(b).length);
+        assertEquals(2, getUsageCounts(orgInUseMap, b).length);
         assertSame(ref, uc.m_ref);
         assertFalse(uc.m_prototype);
-        List<UsageCount> l = new ArrayList<UsageCount>(Arrays.asList(orgInUseMap.get(b)));
+        List<UsageCount> l = new ArrayList<UsageCount>(Arrays.asList(getUsageCounts(orgInUseMap, b)));
         l.remove(uc);
         assertEquals("There should be one UsageCount left", 1, l.size());
         assertNotSame(ref, l.get(0).m_ref);
@@ -837,34 +837,27 @@ public class ServiceRegistryTest extends TestCase
 
         final Bundle b = Mockito.mock(Bundle.class);
 
-        final ConcurrentMap<Bundle, UsageCount[]> orgInUseMap =
-            (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
-        orgInUseMap.put(b, new UsageCount[] {new UsageCount(Mockito.mock(ServiceReference.class), false)});
+        // This mimicks another thread flushing the last usage count of the bundle
+        // concurrently, after this thread looked up the bundle's usage counts.
+        final ConcurrentMap<Bundle, UsageCounts> orgInUseMap =
+            (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
+        final UsageCounts retired = new UsageCounts();
+        retired.m_retired = true;
 
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap =
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
             Mockito.mock(ConcurrentMap.class, AdditionalAnswers.delegatesTo(orgInUseMap));
-        Mockito.doAnswer(new Answer<Boolean>()
-            {
-                @Override
-                public Boolean answer(InvocationOnMock invocation) throws Throwable
-                {
-                    orgInUseMap.remove(b);
-                    return false;
-                }
-            }).when(inUseMap).replace(Mockito.any(Bundle.class),
-                    Mockito.any(UsageCount[].class), Mockito.any(UsageCount[].class));
+        Mockito.doReturn(retired).doAnswer(AdditionalAnswers.delegatesTo(orgInUseMap))
+            .when(inUseMap).get(b);
         setPrivateField(sr, "m_inUseMap", inUseMap);
 
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
 
-        assertEquals("Precondition", 1, inUseMap.size());
-        assertEquals("Precondition", 1, inUseMap.values().iterator().next().length);
-        assertNotSame("Precondition", ref, inUseMap.get(b)[0].m_ref);
-        sr.obtainUsageCount(b, ref, null, false);
+        UsageCount uc = sr.obtainUsageCount(b, ref, null, false);
         assertEquals(1, inUseMap.size());
-        assertEquals(1, inUseMap.values().iterator().next().length);
-        assertSame("The old usage count should have been removed by the mock and this one should have been added",
-                ref, inUseMap.get(b)[0].m_ref);
+        assertNotSame("The retired usage counts must not be used", retired, inUseMap.get(b));
+        assertTrue(retired.isEmpty());
+        assertEquals(1, getUsageCounts(inUseMap, b).length);
+        assertSame(uc, getUsageCounts(inUseMap, b)[0]);
     }
 
     public void testFlushUsageCount() throws Exception
@@ -872,7 +865,7 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
 
@@ -881,15 +874,15 @@ public class ServiceRegistryTest extends TestCase
         ServiceReference<?> ref2 = Mockito.mock(ServiceReference.class);
         UsageCount uc2 = new UsageCount(ref2, true);
 
-        inUseMap.put(b, new UsageCount[] {uc, uc2});
+        putUsageCounts(inUseMap, b, uc, uc2);
 
         assertEquals("Precondition", 1, inUseMap.size());
-        assertEquals("Precondition", 2, inUseMap.values().iterator().next().length);
+        assertEquals("Precondition", 2, getUsageCounts(inUseMap, b).length);
 
         sr.flushUsageCount(b, ref, uc);
         assertEquals(1, inUseMap.size());
-        assertEquals(1, inUseMap.values().iterator().next().length);
-        assertSame(uc2, inUseMap.values().iterator().next()[0]);
+        assertEquals(1, getUsageCounts(inUseMap, b).length);
+        assertSame(uc2, getUsageCounts(inUseMap, b)[0]);
 
         sr.flushUsageCount(b, ref2, uc2);
         assertEquals(0, inUseMap.size());
@@ -900,7 +893,7 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
         Bundle b2 = Mockito.mock(Bundle.class);
@@ -912,8 +905,8 @@ public class ServiceRegistryTest extends TestCase
         ServiceReference<?> ref3 = Mockito.mock(ServiceReference.class);
         UsageCount uc3 = new UsageCount(ref3, true);
 
-        inUseMap.put(b, new UsageCount[] {uc2, uc});
-        inUseMap.put(b2, new UsageCount[] {uc3});
+        putUsageCounts(inUseMap, b, uc2, uc);
+        putUsageCounts(inUseMap, b2, uc3);
 
         assertEquals("Precondition", 2, inUseMap.size());
 
@@ -929,21 +922,21 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
 
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
         UsageCount uc = new UsageCount(ref, false);
 
-        inUseMap.put(b, new UsageCount[] {uc});
+        putUsageCounts(inUseMap, b, uc);
         assertEquals("Precondition", 1, inUseMap.size());
-        assertEquals("Precondition", 1, inUseMap.values().iterator().next().length);
+        assertEquals("Precondition", 1, getUsageCounts(inUseMap, b).length);
 
         UsageCount uc2 = new UsageCount(Mockito.mock(ServiceReference.class), false);
         sr.flushUsageCount(b, ref, uc2);
         assertEquals("Should be no changes", 1, inUseMap.size());
-        assertEquals("Should be no changes", 1, inUseMap.values().iterator().next().length);
+        assertEquals("Should be no changes", 1, getUsageCounts(inUseMap, b).length);
     }
 
     public void testFlushUsageCountNull() throws Exception
@@ -951,7 +944,7 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
         Bundle b2 = Mockito.mock(Bundle.class);
@@ -963,8 +956,8 @@ public class ServiceRegistryTest extends TestCase
         ServiceReference<?> ref3 = Mockito.mock(ServiceReference.class);
         UsageCount uc3 = new UsageCount(ref3, true);
 
-        inUseMap.put(b, new UsageCount[] {uc2, uc});
-        inUseMap.put(b2, new UsageCount[] {uc3});
+        putUsageCounts(inUseMap, b, uc2, uc);
+        putUsageCounts(inUseMap, b2, uc3);
 
         assertEquals("Precondition", 2, inUseMap.size());
 
@@ -977,7 +970,7 @@ public class ServiceRegistryTest extends TestCase
     }
 
     @SuppressWarnings("unchecked")
-    public void testFlushUsageCountRetry() throws Exception
+    public void testFlushUsageCountRetire() throws Exception
     {
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
@@ -987,64 +980,73 @@ public class ServiceRegistryTest extends TestCase
         final ServiceReference<?> ref2 = Mockito.mock(ServiceReference.class);
         final UsageCount uc2 = new UsageCount(ref2, false);
 
-        final ConcurrentMap<Bundle, UsageCount[]> orgInUseMap =
-            (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
-
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-            Mockito.mock(ConcurrentMap.class, AdditionalAnswers.delegatesTo(orgInUseMap));
-        Mockito.doAnswer(new Answer<Boolean>()
-            {
-                @Override
-                public Boolean answer(InvocationOnMock invocation) throws Throwable
-                {
-                    inUseMap.put(b, new UsageCount[] {uc});
-                    return false;
-                }
-            }).when(inUseMap).replace(Mockito.isA(Bundle.class),
-                    Mockito.isA(UsageCount[].class), Mockito.isA(UsageCount[].class));
-        setPrivateField(sr, "m_inUseMap", inUseMap);
-
-        inUseMap.put(b, new UsageCount[] {uc, uc2});
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+            (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
+        putUsageCounts(inUseMap, b, uc, uc2);
+        UsageCounts counts = inUseMap.get(b);
 
         sr.flushUsageCount(b, null, uc);
+        assertFalse(counts.m_retired);
+        assertSame(counts, inUseMap.get(b));
 
-        assertNull("A 'concurrent' process has removed uc2 as well, "
-                + "so the entry for 'b' should have been removed",
-                inUseMap.get(b));
+        sr.flushUsageCount(b, null, uc2);
+        assertTrue("The usage counts of 'b' should have been retired", counts.m_retired);
+        assertNull(inUseMap.get(b));
     }
 
-    public void testFlushUsageCountRetry2() throws Exception
+    @SuppressWarnings("unchecked")
+    public void testConcurrentPrototypeUsageCounts() throws Exception
     {
-        ServiceRegistry sr = new ServiceRegistry(null, null);
+        final ServiceRegistry sr = new ServiceRegistry(null, null);
 
         final Bundle b = Mockito.mock(Bundle.class);
         final ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
-        final UsageCount uc = new UsageCount(ref, false);
-        final ServiceReference<?> ref2 = Mockito.mock(ServiceReference.class);
-        final UsageCount uc2 = new UsageCount(ref2, false);
 
-        final ConcurrentMap<Bundle, UsageCount[]> orgInUseMap =
-            (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+            (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-            Mockito.mock(ConcurrentMap.class, AdditionalAnswers.delegatesTo(orgInUseMap));
-        Mockito.doAnswer(new Answer<Boolean>()
+        // Threads keep adding and flushing usage counts of the same bundle,
+        // which retires and recreates its usage counts over and over again.
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger lost = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread()
             {
                 @Override
-                public Boolean answer(InvocationOnMock invocation) throws Throwable
+                public void run()
                 {
-                    inUseMap.put(b, new UsageCount[] {uc, uc2});
-                    return false;
+                    try
+                    {
+                        latch.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    for (int j = 0; j < 10000; j++)
+                    {
+                        UsageCount uc = sr.obtainUsageCount(b, ref, null, true);
+                        UsageCount[] usages = getUsageCounts(inUseMap, b);
+                        if ((usages == null) || !Arrays.asList(usages).contains(uc))
+                        {
+                            lost.incrementAndGet();
+                        }
+                        sr.flushUsageCount(b, ref, uc);
+                    }
                 }
-            }).when(inUseMap).remove(Mockito.isA(Bundle.class), Mockito.isA(UsageCount[].class));
-        setPrivateField(sr, "m_inUseMap", inUseMap);
-
-        inUseMap.put(b, new UsageCount[] {uc});
-
-        sr.flushUsageCount(b, null, uc);
+            };
+            threads[i].start();
+        }
+        latch.countDown();
+        for (Thread t : threads)
+        {
+            t.join();
+        }
 
-        assertEquals(1, inUseMap.get(b).length);
-        assertSame(uc2, inUseMap.get(b)[0]);
+        assertEquals("No usage count may get lost", 0, lost.get());
+        assertEquals(0, inUseMap.size());
     }
 
     public void testGetUngetServiceFactory() throws Exception
@@ -1172,8 +1174,8 @@ public class ServiceRegistryTest extends TestCase
         assertEquals("hi", sr.getService(clientBundle, reg.getReference(), false));
         sr.ungetService(clientBundle, reg.getReference(), null);
 
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         sr.unregisterService(regBundle, reg);
         assertEquals(0, inUseMap.size());
@@ -1284,6 +1286,42 @@ public class ServiceRegistryTest extends TestCase
         return ref;
     }
 
+    private static void putUsageCounts(ConcurrentMap<Bundle, UsageCounts> inUseMap,
+            Bundle b, UsageCount... usages)
+    {
+        UsageCounts counts = new UsageCounts();
+        for (UsageCount uc : usages)
+        {
+            UsageCount[] ucs = counts.m_usages.get(uc.m_ref);
+            if (ucs == null)
+            {
+                ucs = new UsageCount[] {uc};
+            }
+            else
+            {
+                ucs = Arrays.copyOf(ucs, ucs.length + 1);
+                ucs[ucs.length - 1] = uc;
+            }
+            counts.m_usages.put(uc.m_ref, ucs);
+        }
+        inUseMap.put(b, counts);
+    }
+
+    private static UsageCount[] getUsageCounts(ConcurrentMap<Bundle, UsageCounts> inUseMap, Bundle b)
+    {
+        UsageCounts counts = inUseMap.get(b);
+        if (counts == null)
+        {
+            return null;
+        }
+        List<UsageCount> result = new ArrayList<UsageCount>();
+        for (UsageCount[] ucs : counts.m_usages.values())
+        {
+            result.addAll(Arrays.asList(ucs));
+        }
+        return result.toArray(new UsageCount[result.size()]);
+    }
+
     private Object getPrivateField(Object obj, String fieldName) throws NoSuchFieldException,
             IllegalAccessException
     {
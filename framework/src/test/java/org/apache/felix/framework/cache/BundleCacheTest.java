@@ -43,6 +43,7 @@ public class BundleCacheTest extends TestCase
     private File tempDir;
     private File cacheDir;
     private File filesDir;
+    private Map<String, String> params;
     private BundleCache cache;
     private File archiveFile;
     private File jarFile;
@@ -61,16 +62,12 @@ public class BundleCacheTest extends TestCase
         filesDir = new File(tempDir, "files");
         String cacheDirPath = cacheDir.getPath();
 
-        Map<String, String> params = new HashMap<String, String>();
+        params = new HashMap<String, String>();
         params.put("felix.cache.profiledir", cacheDirPath);
         params.put("felix.cache.dir", cacheDirPath);
         params.put(Constants.FRAMEWORK_STORAGE, cacheDirPath);
 
-        cache = new BundleCache(new Logger(){
-            @Override
-            protected void doLog(int level, String msg, Throwable throwable) {
-            }
-        }, params);
+        cache = createCache();
 
         archiveFile = new File(filesDir, "bundle1");
 
@@ -170,6 +167,42 @@ public class BundleCacheTest extends TestCase
         testBundle("bla", jarFile);
     }
 
+    public void testMappedJarReference() throws Exception
+    {
+        useMappedJars();
+        testBundle("reference:" + jarFile.toURI().toURL().toString(), null);
+    }
+
+    public void testMappedJar() throws Exception
+    {
+        useMappedJars();
+        testBundle(jarFile.toURI().toURL().toString(), null);
+        assertTrue(cache.create(2, 1, jarFile.toURI().toURL().toString(), null)
+            .getCurrentRevision().getContent() instanceof MappedJarContent);
+    }
+
+    public void testMappedInputStream() throws Exception
+    {
+        useMappedJars();
+        testBundle("bla", jarFile);
+    }
+
+    private void useMappedJars() throws Exception
+    {
+        cache.release();
+        params.put(BundleCache.CACHE_MAPJARS_PROP, "true");
+        cache = createCache();
+    }
+
+    private BundleCache createCache() throws Exception
+    {
+        return new BundleCache(new Logger(){
+            @Override
+            protected void doLog(int level, String msg, Throwable throwable) {
+            }
+        }, params);
+    }
+
     private void testBundle(String location, File file) throws Exception
     {
         BundleArchive archive = cache.create(1, 1, location, file != null ? new FileInputStream(file) : null);
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.resource.Capability;
+
+/**
+ * Measures {@link CapabilitySet#match} on a package capability set indexed
+ * the way the resolver indexes it, for the filters an import produces with
+ * and without a version range, for a substring filter that cannot use the
+ * index and for a filter matching nothing. Each package is exported in
+ * three versions.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.apache.felix.framework.capabilityset.CapabilitySetBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CapabilitySetBenchmark
+{
+    private static final String[] VERSIONS = { "1.0.0", "1.5.0", "2.0.0" };
+
+    @Param({"100", "1000", "10000"})
+    public int packages;
+
+    private CapabilitySet m_capSet;
+    private SimpleFilter m_package;
+    private SimpleFilter m_versionRange;
+    private SimpleFilter m_substring;
+    private SimpleFilter m_missing;
+
+    @Setup
+    public void setup()
+    {
+        m_capSet = new CapabilitySet(
+            Collections.singletonList(BundleRevision.PACKAGE_NAMESPACE),
+            Collections.singletonList(Constants.VERSION_ATTRIBUTE), true);
+        for (int i = 0; i < packages; i++)
+        {
+            for (String version : VERSIONS)
+            {
+                Map<String, Object> attrs = new HashMap<String, Object>();
+                attrs.put(BundleRevision.PACKAGE_NAMESPACE, "org.bench.pkg" + i);
+                attrs.put(Constants.VERSION_ATTRIBUTE, Version.parseVersion(version));
+                m_capSet.addCapability(new BundleCapabilityImpl(
+                    null, BundleRevision.PACKAGE_NAMESPACE,
+                    Collections.<String, String>emptyMap(), attrs));
+            }
+        }
+
+        String pkg = "org.bench.pkg" + (packages / 2);
+        m_package = SimpleFilter.parse("(osgi.wiring.package=" + pkg + ")");
+        m_versionRange = SimpleFilter.parse("(&(osgi.wiring.package=" + pkg
+            + ")(version>=1.1.0)(!(version>=2.0.0)))");
+        m_substring = SimpleFilter.parse("(osgi.wiring.package=org.bench.pkg1*1)");
+        m_missing = SimpleFilter.parse("(osgi.wiring.package=org.bench.missing)");
+    }
+
+    @Benchmark
+    public Set<Capability> matchPackage()
+    {
+        return m_capSet.match(m_package, false);
+    }
+
+    @Benchmark
+    public Set<Capability> matchVersionRange()
+    {
+        return m_capSet.match(m_versionRange, false);
+    }
+
+    @Benchmark
+    public Set<Capability> matchSubstring()
+    {
+        return m_capSet.match(m_substring, false);
+    }
+
+    @Benchmark
+    public Set<Capability> matchMissing()
+    {
+        return m_capSet.match(m_missing, false);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+            .include(CapabilitySetBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.resource.Capability;
+
+public class CapabilitySetTest extends TestCase
+{
+    private static final String[] FILTERS = {
+        "(osgi.wiring.package=org.foo)",
+        "(osgi.wiring.package=org.*)",
+        "(&(osgi.wiring.package=org.foo)(version>=1.1.0))",
+        "(&(osgi.wiring.package=org.foo)(version>=1.1.0)(!(version>=2.0.0)))",
+        "(&(version>=1.0.0)(version<=1.5.0))",
+        "(version=1.2.0)",
+        "(version=[1.0.0,2.0.0\\))",
+        "(version=\\(1.0.0,1.2.0])",
+        "(version=[1.5.0,1.5.0\\))",
+        "(version=[3.0.0,4.0.0\\))",
+        "(version>=1.5)",
+        "(version<=1.5)",
+        "(version>=abc)",
+        "(version~=1.2.0)",
+        "(|(osgi.wiring.package=org.foo)(osgi.wiring.package=org.bar))",
+        "(|(osgi.wiring.package=org.foo)(size>=3))",
+        "(&(|(osgi.wiring.package=org.foo)(osgi.wiring.package=org.bar))(version<=1.2.0))",
+        "(&(size>=2)(size<=4))",
+        "(size=3)",
+        "(&(osgi.wiring.package=org.bar)(size>=3))",
+        "(!(osgi.wiring.package=org.foo))",
+        "(&(!(osgi.wiring.package=org.foo))(version>=1.0.0))",
+        "(osgi.wiring.package=*)",
+        "(&(osgi.wiring.package=org.nothing)(version>=0.0.0))"
+    };
+
+    private List<BundleCapabilityImpl> m_caps;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        m_caps = new ArrayList<BundleCapabilityImpl>();
+        String[] packages = { "org.foo", "org.bar", "com.baz" };
+        String[] versions = { "0.9.0", "1.0.0", "1.1.0", "1.2.0", "1.5.0", "2.0.0" };
+        int size = 0;
+        for (String pkg : packages)
+        {
+            for (String version : versions)
+            {
+                Map<String, Object> attrs = new HashMap<String, Object>();
+                attrs.put(BundleRevision.PACKAGE_NAMESPACE, pkg);
+                attrs.put("version", Version.parseVersion(version));
+                attrs.put("size", Long.valueOf(size++ % 6));
+                m_caps.add(new BundleCapabilityImpl(
+                    null, BundleRevision.PACKAGE_NAMESPACE,
+                    Collections.<String, String>emptyMap(), attrs));
+            }
+        }
+
+        // capabilities with values that cannot be sorted or are multi-valued
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(BundleRevision.PACKAGE_NAMESPACE, "org.foo");
+        attrs.put("version", "1.2.0");
+        attrs.put("size", Arrays.asList(Long.valueOf(1), Long.valueOf(7)));
+        m_caps.add(new BundleCapabilityImpl(
+            null, BundleRevision.PACKAGE_NAMESPACE,
+            Collections.<String, String>emptyMap(), attrs));
+
+        attrs = new HashMap<String, Object>();
+        attrs.put(BundleRevision.PACKAGE_NAMESPACE, "org.bar");
+        attrs.put("size", new long[] { 3, 9 });
+        m_caps.add(new BundleCapabilityImpl(
+            null, BundleRevision.PACKAGE_NAMESPACE,
+            Collections.<String, String>emptyMap(), attrs));
+    }
+
+    public void testIndexedMatchingEqualsLinearMatching()
+    {
+        CapabilitySet indexed = new CapabilitySet(
+            Collections.singletonList(BundleRevision.PACKAGE_NAMESPACE),
+            Arrays.asList("version", "size"), true);
+        CapabilitySet plain = new CapabilitySet(null, true);
+        for (BundleCapabilityImpl cap : m_caps)
+        {
+            indexed.addCapability(cap);
+            plain.addCapability(cap);
+        }
+
+        for (String filter : FILTERS)
+        {
+            SimpleFilter sf = SimpleFilter.parse(filter);
+            assertEquals(filter, expected(sf), plain.match(sf, false));
+            assertEquals(filter, expected(sf), indexed.match(sf, false));
+        }
+    }
+
+    public void testExactTermCombinedWithRangeTerm()
+    {
+        CapabilitySet indexed = new CapabilitySet(
+            Collections.singletonList(BundleRevision.PACKAGE_NAMESPACE),
+            Arrays.asList("version", "size"), true);
+        for (BundleCapabilityImpl cap : m_caps)
+        {
+            indexed.addCapability(cap);
+        }
+
+        // The exact lookup narrows the match down whether the range term
+        // selects more or fewer capabilities, and ranges are still applied.
+        String[] filters = {
+            "(&(osgi.wiring.package=org.foo)(version>=2.0.0))",
+            "(&(version>=2.0.0)(osgi.wiring.package=org.foo))",
+            "(&(osgi.wiring.package=org.foo)(version<=1.2.0))",
+            "(&(osgi.wiring.package=org.foo)(version>=1.0.0)(version<=1.2.0))",
+            "(&(osgi.wiring.package=org.bar)(size>=3)(size<=3))",
+            "(&(osgi.wiring.package=org.nothing)(version<=9.0.0))",
+            "(&(osgi.wiring.package=org.foo)(version>=9.0.0))",
+            "(&(&(osgi.wiring.package=org.foo)(version>=1.5.0))(size<=5))"
+        };
+        for (String filter : filters)
+        {
+            SimpleFilter sf = SimpleFilter.parse(filter);
+            assertEquals(filter, expected(sf), indexed.match(sf, false));
+        }
+        assertEquals(1, indexed.match(SimpleFilter.parse(filters[0]), false).size());
+        assertEquals(5, indexed.match(SimpleFilter.parse(filters[2]), false).size());
+    }
+
+    public void testRemovedCapabilitiesAreNotMatched()
+    {
+        CapabilitySet indexed = new CapabilitySet(
+            Collections.singletonList(BundleRevision.PACKAGE_NAMESPACE),
+            Arrays.asList("version", "size"), true);
+        for (BundleCapabilityImpl cap : m_caps)
+        {
+            indexed.addCapability(cap);
+        }
+        for (int i = 0; i < m_caps.size(); i += 2)
+        {
+            indexed.removeCapability(m_caps.get(i));
+        }
+        List<BundleCapabilityImpl> remaining = new ArrayList<BundleCapabilityImpl>();
+        for (int i = 1; i < m_caps.size(); i += 2)
+        {
+            remaining.add(m_caps.get(i));
+        }
+        m_caps = remaining;
+
+        for (String filter : FILTERS)
+        {
+            SimpleFilter sf = SimpleFilter.parse(filter);
+            assertEquals(filter, expected(sf), indexed.match(sf, false));
+        }
+    }
+
+    private Set<Capability> expected(SimpleFilter sf)
+    {
+        Set<Capability> expected = new HashSet<Capability>();
+        for (BundleCapabilityImpl cap : m_caps)
+        {
+            if (CapabilitySet.matches(cap, sf))
+            {
+                expected.add(cap);
+            }
+        }
+        return expected;
+    }
+}
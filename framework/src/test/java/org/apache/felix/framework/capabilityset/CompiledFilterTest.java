@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.osgi.framework.Version;
+
+public class CompiledFilterTest extends TestCase
+{
+    private static final String[] FILTERS = {
+        "(value=1)",
+        "(value>=1.5)",
+        "(value<=2)",
+        "(value~=ABC)",
+        "(value=a*c)",
+        "(value=*)",
+        "(value=[1.0.0,2.0.0\\))",
+        "(value=true)",
+        "(value=x)",
+        "(!(value=1))",
+        "(&(value>=1)(value<=3))",
+        "(|(value=abc)(value=2))",
+        "(&(value=*)(!(missing=*)))",
+        "(missing=1)"
+    };
+
+    public void testCompiledMatchingEqualsInterpretedMatching()
+    {
+        // The same attribute with values of different types, so the cached
+        // coerced filter values have to follow the attribute type.
+        Object[] values = {
+            Long.valueOf(1), "abc", Integer.valueOf(2), Version.parseVersion("1.5.0"),
+            Double.valueOf(1.5), Boolean.TRUE, Character.valueOf('x'), "a b c",
+            Arrays.asList(Long.valueOf(3), "abc"), new int[] { 1, 2 },
+            new Counted("1"), Long.valueOf(7)
+        };
+        List<BundleCapabilityImpl> caps = new ArrayList<BundleCapabilityImpl>();
+        for (Object value : values)
+        {
+            Map<String, Object> attrs = new HashMap<String, Object>();
+            attrs.put("value", value);
+            caps.add(new BundleCapabilityImpl(
+                null, "test", Collections.<String, String>emptyMap(), attrs));
+        }
+
+        for (String filter : FILTERS)
+        {
+            SimpleFilter sf = SimpleFilter.parse(filter);
+            CompiledFilter cf = CompiledFilter.compile(sf);
+            // Twice to match against cached values as well.
+            for (int i = 0; i < 2; i++)
+            {
+                for (BundleCapabilityImpl cap : caps)
+                {
+                    assertEquals(filter + " " + cap.getAttributes(),
+                        CapabilitySet.matches(cap, sf), cf.matches(cap));
+                }
+            }
+        }
+    }
+
+    public void testCoercedValueIsCached()
+    {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put("value", new Counted("1"));
+        BundleCapabilityImpl cap = new BundleCapabilityImpl(
+            null, "test", Collections.<String, String>emptyMap(), attrs);
+
+        CompiledFilter cf = CompiledFilter.compile(SimpleFilter.parse("(value=1)"));
+        Counted.s_count = 0;
+        for (int i = 0; i < 10; i++)
+        {
+            assertTrue(cf.matches(cap));
+        }
+        assertEquals(1, Counted.s_count);
+    }
+
+    public static class Counted
+    {
+        static int s_count;
+        private final String m_value;
+
+        public Counted(String value)
+        {
+            m_value = value;
+        }
+
+        public static Counted valueOf(String value)
+        {
+            s_count++;
+            return new Counted(value);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return (o instanceof Counted) && ((Counted) o).m_value.equals(m_value);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return m_value.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return m_value;
+        }
+    }
+}
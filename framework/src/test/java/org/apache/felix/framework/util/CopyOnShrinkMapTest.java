@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class CopyOnShrinkMapTest extends TestCase
+{
+    private Map<String, List<String>> m_map;
+
+    @Override
+    protected void setUp()
+    {
+        m_map = new HashMap<String, List<String>>();
+        m_map.put("a", Arrays.asList("a1", "a2", "a3"));
+        m_map.put("b", Arrays.asList("b1"));
+        m_map.put("c", Arrays.asList("c1", "c2"));
+    }
+
+    public void testUnmodified()
+    {
+        CopyOnShrinkMap<String, String> view = new CopyOnShrinkMap<String, String>(m_map);
+        int count = 0;
+        for (Map.Entry<String, Collection<String>> entry : view.entrySet())
+        {
+            assertEquals(m_map.get(entry.getKey()), new ArrayList<String>(entry.getValue()));
+            count++;
+        }
+        assertEquals(3, count);
+        assertEquals(3, view.size());
+        assertFalse(view.isModified());
+        assertSame(m_map, view.toMap());
+    }
+
+    public void testRemoveKeys()
+    {
+        CopyOnShrinkMap<String, String> view = new CopyOnShrinkMap<String, String>(m_map);
+        assertNotNull(view.remove("a"));
+        assertNull(view.remove("a"));
+        for (Iterator<String> it = view.keySet().iterator(); it.hasNext();)
+        {
+            if (it.next().equals("b"))
+            {
+                it.remove();
+            }
+        }
+        assertEquals(1, view.size());
+        assertFalse(view.containsKey("a"));
+        assertNull(view.get("b"));
+        assertTrue(view.isModified());
+
+        Map<String, List<String>> result = view.toMap();
+        assertEquals(1, result.size());
+        assertSame(m_map.get("c"), result.get("c"));
+        assertEquals(3, m_map.size());
+    }
+
+    public void testRemoveValues()
+    {
+        CopyOnShrinkMap<String, String> view = new CopyOnShrinkMap<String, String>(m_map);
+        Collection<String> a = view.get("a");
+        assertTrue(a.remove("a2"));
+        assertFalse(a.remove("a2"));
+        assertEquals(Arrays.asList("a1", "a3"), new ArrayList<String>(a));
+        assertEquals(Arrays.asList("a1", "a3"), new ArrayList<String>(view.get("a")));
+        view.get("b").clear();
+        try
+        {
+            view.get("c").add("c3");
+            fail("Values must not grow");
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // Expected.
+        }
+
+        Map<String, List<String>> result = view.toMap();
+        assertEquals(Arrays.asList("a1", "a3"), result.get("a"));
+        assertFalse(result.containsKey("b"));
+        assertSame(m_map.get("c"), result.get("c"));
+        assertEquals(Arrays.asList("a1", "a2", "a3"), m_map.get("a"));
+        assertEquals(Arrays.asList("b1"), m_map.get("b"));
+    }
+}
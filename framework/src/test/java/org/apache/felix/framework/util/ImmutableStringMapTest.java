@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class ImmutableStringMapTest extends TestCase
+{
+    public void testCaseInsensitive()
+    {
+        StringMap source = new StringMap();
+        source.put("objectClass", "a");
+        source.put("service.id", 1L);
+        source.put("Stra\u00dfe", "b");
+        source.put("\u00c9t\u00e9", "c");
+        source.put("OBJECTCLASS", "d");
+
+        Map<String, Object> map = new ImmutableStringMap<Object>(source, true);
+        assertEquals(4, map.size());
+        assertEquals("d", map.get("objectclass"));
+        assertEquals("d", map.get("ObjectClass"));
+        assertEquals(1L, map.get("SERVICE.ID"));
+        assertEquals("b", map.get("STRA\u00dfE"));
+        assertEquals("c", map.get("\u00e9T\u00c9"));
+        assertTrue(map.containsKey("Service.Id"));
+        assertFalse(map.containsKey("service"));
+        assertNull(map.get("service"));
+        assertNull(map.get(Integer.valueOf(1)));
+
+        // Same entries and order as the source map.
+        assertEquals(source, map);
+        assertEquals(new ArrayList<String>(source.keySet()), new ArrayList<String>(map.keySet()));
+    }
+
+    public void testCaseSensitive()
+    {
+        Map<String, Object> source = new LinkedHashMap<String, Object>();
+        source.put("version", "1.0");
+        source.put("Version", "2.0");
+        source.put("osgi.wiring.package", "org.foo");
+
+        Map<String, Object> map = new ImmutableStringMap<Object>(source, false);
+        assertEquals(3, map.size());
+        assertEquals("1.0", map.get("version"));
+        assertEquals("2.0", map.get("Version"));
+        assertNull(map.get("VERSION"));
+        assertEquals(source, map);
+        assertEquals(Arrays.asList("version", "Version", "osgi.wiring.package"),
+            new ArrayList<String>(map.keySet()));
+    }
+
+    public void testDuplicateKeys()
+    {
+        Map<String, Object> source = new HashMap<String, Object>();
+        source.put("key", "a");
+        source.put("KEY", "b");
+        try
+        {
+            new ImmutableStringMap<Object>(source, true);
+            fail("Keys only differing in case must be rejected");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // Expected.
+        }
+    }
+
+    public void testImmutable()
+    {
+        Map<String, Object> map = new ImmutableStringMap<Object>(new StringMap(), true);
+        assertTrue(map.isEmpty());
+        assertNull(map.get("key"));
+        try
+        {
+            map.put("key", "value");
+            fail("The map must be immutable");
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // Expected.
+        }
+    }
+
+    public void testManyKeys()
+    {
+        StringMap source = new StringMap();
+        for (int i = 0; i < 1000; i++)
+        {
+            source.put("Key" + i, i);
+        }
+        Map<String, Object> map = new ImmutableStringMap<Object>(source, true);
+        for (int i = 0; i < 1000; i++)
+        {
+            assertEquals(i, map.get("kEY" + i));
+        }
+        assertEquals(source.hashCode(), map.hashCode());
+    }
+}
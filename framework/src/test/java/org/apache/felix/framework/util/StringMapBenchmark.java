@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Constants;
+
+/**
+ * Compares property lookups in the tree-based {@link StringMap} with the
+ * hash-based {@link ImmutableStringMap} for a typical set of service
+ * properties. Each operation looks up the keys a filter would use, in the
+ * case they were registered with, in a different case and a missing key.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.apache.felix.framework.util.StringMapBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StringMapBenchmark
+{
+    private static final String[] KEYS = {
+        Constants.OBJECTCLASS, Constants.SERVICE_ID, Constants.SERVICE_BUNDLEID,
+        Constants.SERVICE_SCOPE, Constants.SERVICE_RANKING, Constants.SERVICE_PID,
+        "component.name", "component.id", "osgi.command.scope", "osgi.command.function"
+    };
+
+    private String[] m_lookups;
+    private Map<String, Object> m_treeMap;
+    private Map<String, Object> m_hashMap;
+
+    @Setup
+    public void setup()
+    {
+        StringMap props = new StringMap();
+        for (int i = 0; i < KEYS.length; i++)
+        {
+            props.put(KEYS[i], Integer.valueOf(i));
+        }
+        m_treeMap = props;
+        m_hashMap = new ImmutableStringMap<Object>(props, true);
+
+        m_lookups = new String[] {
+            Constants.OBJECTCLASS, Constants.SERVICE_PID, "component.name",
+            "OBJECTCLASS", "Service.Pid", "missing.property"
+        };
+    }
+
+    @Benchmark
+    public void stringMap(Blackhole bh)
+    {
+        for (String key : m_lookups)
+        {
+            bh.consume(m_treeMap.get(key));
+        }
+    }
+
+    @Benchmark
+    public void immutableStringMap(Blackhole bh)
+    {
+        for (String key : m_lookups)
+        {
+            bh.consume(m_hashMap.get(key));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+            .include(StringMapBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -51,6 +51,7 @@ public class Closure implements Function, Evaluate
 
     public static final String LOCATION = ".location";
     public static final String PIPE_EXCEPTION = "pipe-exception";
+    public static final String PIPE_BUFFER_SIZE = ".PipeBufferSize";
     private static final String DEFAULT_LOCK = ".defaultLock";
 
     private static final ThreadLocal<String> location = new ThreadLocal<>();
@@ -259,23 +260,21 @@ public class Closure implements Function, Evaluate
                         ntoclose = toclose;
                         endOfPipe = true;
                     } else if (Token.eq("|", op)) {
-                        PipedInputStream pis = new PipedInputStream();
-                        PipedOutputStream pos = new PipedOutputStream(pis);
+                        PipeChannel pipe = new PipeChannel(pipeBufferSize());
                         nstreams = streams.clone();
-                        nstreams[1] = Channels.newChannel(pos);
+                        nstreams[1] = pipe.sink();
                         ntoclose = toclose.clone();
                         ntoclose[1] = true;
-                        streams[0] = Channels.newChannel(pis);
+                        streams[0] = pipe.source();
                         toclose[0] = true;
                         endOfPipe = false;
                     } else if (Token.eq("|&", op)) {
-                        PipedInputStream pis = new PipedInputStream();
-                        PipedOutputStream pos = new PipedOutputStream(pis);
+                        PipeChannel pipe = new PipeChannel(pipeBufferSize());
                         nstreams = streams.clone();
-                        nstreams[1] = nstreams[2] = Channels.newChannel(pos);
+                        nstreams[1] = nstreams[2] = pipe.sink();
                         ntoclose = toclose.clone();
                         ntoclose[1] = ntoclose[2] = true;
-                        streams[0] = Channels.newChannel(pis);
+                        streams[0] = pipe.source();
                         toclose[0] = true;
                         endOfPipe = false;
                     } else {
@@ -309,6 +308,27 @@ public class Closure implements Function, Evaluate
         return last == null ? null : last.result;
     }
 
+    private int pipeBufferSize()
+    {
+        Object size = session.get(PIPE_BUFFER_SIZE);
+        if (size != null)
+        {
+            try
+            {
+                int n = Integer.parseInt(String.valueOf(size));
+                if (n > 0)
+                {
+                    return n;
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                // use the default size
+            }
+        }
+        return PipeChannel.DEFAULT_BUFFER_SIZE;
+    }
+
     private static class WritableByteChannelImpl extends AbstractInterruptibleChannel
             implements WritableByteChannel {
         private final WritableByteChannel out;
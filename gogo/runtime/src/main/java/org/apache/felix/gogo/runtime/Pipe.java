@@ -60,6 +60,8 @@ public class Pipe implements Callable<Result>, Process
 {
     private static final ThreadLocal<Pipe> CURRENT = new ThreadLocal<>();
 
+    public static final String PIPE_OBJECTS = ".PipeObjects";
+
     public static class Result implements org.apache.felix.service.command.Result {
         public final Object result;
         public final Exception exception;
@@ -124,6 +126,8 @@ public class Pipe implements Callable<Result>, Process
     InputStream in;
     PrintStream out;
     PrintStream err;
+    PipeChannel.Source pipeIn;
+    PipeChannel.Sink pipeOut;
 
     public Pipe(Closure closure, JobImpl job, Statement statement, Channel[] streams, boolean[] toclose, boolean endOfPipe)
     {
@@ -220,6 +224,16 @@ public class Pipe implements Callable<Result>, Process
         this.error = error;
     }
 
+    /**
+     * Read the next object passed by the previous stage of the pipeline.
+     * Stages pass their result as an object instead of printing it when
+     * the {@value #PIPE_OBJECTS} session variable is true.
+     * @return the object, or null if there is none
+     */
+    public Object readObject() throws IOException {
+        return pipeIn != null ? pipeIn.readObject() : null;
+    }
+
     @Override
     public Result call() {
         Thread thread = Thread.currentThread();
@@ -378,6 +392,14 @@ public class Pipe implements Callable<Result>, Process
                 }
             }
 
+            // Remember the pipe channels to the other stages, unless redirected
+            if (streams[0] instanceof PipeChannel.Source) {
+                pipeIn = (PipeChannel.Source) streams[0];
+            }
+            if (streams[1] instanceof PipeChannel.Sink) {
+                pipeOut = (PipeChannel.Sink) streams[1];
+            }
+
             for (int i = 0; i < streams.length; i++) {
                 streams[i] = wrap(streams[i]);
             }
@@ -421,9 +443,16 @@ public class Pipe implements Callable<Result>, Process
                     return new Result(error);
                 }
                 // We don't print the result if we're at the end of the pipe
-                if (result != null && !endOfPipe && !Boolean.FALSE.equals(closure.session().get(".FormatPipe")))
+                if (result != null && !endOfPipe)
                 {
-                    out.println(closure.session().format(result, Converter.INSPECT));
+                    if (pipeOut != null && Boolean.TRUE.equals(closure.session().get(PIPE_OBJECTS)))
+                    {
+                        pipeOut.writeObject(result);
+                    }
+                    else if (!Boolean.FALSE.equals(closure.session().get(".FormatPipe")))
+                    {
+                        out.println(closure.session().format(result, Converter.INSPECT));
+                    }
                 }
                 return new Result(result);
 
@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.runtime;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory pipe connecting the output of a pipeline stage to the input
+ * of the next stage.
+ * <p>
+ * Bytes written to the {@link #sink()} are kept in a bounded ring buffer
+ * until read from the {@link #source()}. A writer blocks while the buffer
+ * is full and a reader while it is empty, and each side is woken up as soon
+ * as the other one made progress or closed its end. Once the sink is closed,
+ * the source returns the remaining bytes and then the end of stream; once
+ * the source is closed, writing to the sink fails.
+ * <p>
+ * Besides bytes, a stage may pass objects to the next one through
+ * {@link Sink#writeObject(Object)} and {@link Source#readObject()}. Objects
+ * are queued separately from the bytes.
+ */
+public class PipeChannel
+{
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition objectAvailable = lock.newCondition();
+    private final byte[] buffer;
+    private final Deque<Object> objects = new ArrayDeque<>();
+    private final Source source = new Source();
+    private final Sink sink = new Sink();
+    private int readPos;
+    private int count;
+    private boolean sourceClosed;
+    private boolean sinkClosed;
+
+    public PipeChannel()
+    {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public PipeChannel(int bufferSize)
+    {
+        if (bufferSize <= 0)
+        {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        buffer = new byte[bufferSize];
+    }
+
+    public Source source()
+    {
+        return source;
+    }
+
+    public Sink sink()
+    {
+        return sink;
+    }
+
+    private static void await(Condition condition) throws InterruptedIOException
+    {
+        try
+        {
+            condition.await();
+        }
+        catch (InterruptedException e)
+        {
+            // keep the interrupt visible to callers catching the IOException
+            Thread.currentThread().interrupt();
+            throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+        }
+    }
+
+    /**
+     * The reading end of the pipe.
+     */
+    public class Source implements ReadableByteChannel
+    {
+        @Override
+        public int read(ByteBuffer dst) throws IOException
+        {
+            lock.lock();
+            try
+            {
+                while (count == 0 && !sinkClosed && !sourceClosed)
+                {
+                    await(notEmpty);
+                }
+                if (sourceClosed)
+                {
+                    throw new ClosedChannelException();
+                }
+                if (count == 0)
+                {
+                    return -1;
+                }
+                int n = Math.min(dst.remaining(), count);
+                int first = Math.min(n, buffer.length - readPos);
+                dst.put(buffer, readPos, first);
+                dst.put(buffer, 0, n - first);
+                readPos = (readPos + n) % buffer.length;
+                count -= n;
+                if (n > 0)
+                {
+                    notFull.signal();
+                }
+                return n;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns the next object written to the sink, waiting for one if
+         * needed, or <code>null</code> once the sink has been closed and
+         * all objects have been read.
+         */
+        public Object readObject() throws IOException
+        {
+            lock.lock();
+            try
+            {
+                while (objects.isEmpty() && !sinkClosed && !sourceClosed)
+                {
+                    await(objectAvailable);
+                }
+                if (sourceClosed)
+                {
+                    throw new ClosedChannelException();
+                }
+                return objects.poll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            lock.lock();
+            try
+            {
+                return !sourceClosed;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            lock.lock();
+            try
+            {
+                sourceClosed = true;
+                count = 0;
+                objects.clear();
+                notFull.signalAll();
+                notEmpty.signalAll();
+                objectAvailable.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The writing end of the pipe.
+     */
+    public class Sink implements WritableByteChannel
+    {
+        @Override
+        public int write(ByteBuffer src) throws IOException
+        {
+            int written = 0;
+            lock.lock();
+            try
+            {
+                while (src.hasRemaining())
+                {
+                    while (count == buffer.length && !sourceClosed && !sinkClosed)
+                    {
+                        await(notFull);
+                    }
+                    ensureOpen();
+                    int n = Math.min(src.remaining(), buffer.length - count);
+                    int writePos = (readPos + count) % buffer.length;
+                    int first = Math.min(n, buffer.length - writePos);
+                    src.get(buffer, writePos, first);
+                    src.get(buffer, 0, n - first);
+                    count += n;
+                    written += n;
+                    notEmpty.signal();
+                }
+                return written;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Passes the given object, which must not be <code>null</code>,
+         * to the source of the pipe.
+         */
+        public void writeObject(Object object) throws IOException
+        {
+            lock.lock();
+            try
+            {
+                ensureOpen();
+                objects.add(object);
+                objectAvailable.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        private void ensureOpen() throws IOException
+        {
+            if (sinkClosed)
+            {
+                throw new ClosedChannelException();
+            }
+            if (sourceClosed)
+            {
+                throw new IOException("Pipe closed");
+            }
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            lock.lock();
+            try
+            {
+                return !sinkClosed;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            lock.lock();
+            try
+            {
+                sinkClosed = true;
+                notFull.signalAll();
+                notEmpty.signalAll();
+                objectAvailable.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+}
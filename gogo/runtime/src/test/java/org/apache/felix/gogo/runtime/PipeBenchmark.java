@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.runtime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.gogo.runtime.threadio.ThreadIOImpl;
+import org.apache.felix.service.command.Process;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures piping 100 MB through the three stages of the pipeline
+ * <tt>produce | relay | consume</tt>, each stage reading and writing
+ * its standard streams in 8 KB chunks.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.apache.felix.gogo.runtime.PipeBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipeBenchmark
+{
+    private static final long SIZE = 100L * 1024 * 1024;
+    private static final int CHUNK = 8 * 1024;
+
+    private ThreadIOImpl threadIO;
+    private CommandSessionImpl session;
+
+    @Setup
+    public void setup()
+    {
+        threadIO = new ThreadIOImpl();
+        threadIO.start();
+        CommandProcessorImpl processor = new CommandProcessorImpl(threadIO);
+        processor.addCommand("bench", this, "produce");
+        processor.addCommand("bench", this, "relay");
+        processor.addCommand("bench", this, "consume");
+        session = processor.createSession(new ByteArrayInputStream(new byte[0]),
+            new PrintStream(new ByteArrayOutputStream()), new PrintStream(new ByteArrayOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        session.close();
+        threadIO.stop();
+    }
+
+    @Benchmark
+    public Object pipeline() throws Exception
+    {
+        Object result = session.execute("produce | relay | consume");
+        if (((Number) result).longValue() != SIZE)
+        {
+            throw new IllegalStateException("Unexpected size " + result);
+        }
+        return result;
+    }
+
+    public void produce() throws IOException
+    {
+        OutputStream out = Process.Utils.current().out();
+        byte[] buf = new byte[CHUNK];
+        for (int i = 0; i < buf.length; i++)
+        {
+            buf[i] = (byte) ('a' + (i % 26));
+        }
+        for (long n = 0; n < SIZE; n += buf.length)
+        {
+            out.write(buf);
+        }
+    }
+
+    public void relay() throws IOException
+    {
+        InputStream in = Process.Utils.current().in();
+        OutputStream out = Process.Utils.current().out();
+        byte[] buf = new byte[CHUNK];
+        for (int n = in.read(buf); n >= 0; n = in.read(buf))
+        {
+            out.write(buf, 0, n);
+        }
+    }
+
+    public long consume() throws IOException
+    {
+        InputStream in = Process.Utils.current().in();
+        byte[] buf = new byte[CHUNK];
+        long count = 0;
+        for (int n = in.read(buf); n >= 0; n = in.read(buf))
+        {
+            count += n;
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+            .include(PipeBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
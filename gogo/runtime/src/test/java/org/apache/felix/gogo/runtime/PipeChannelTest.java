@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.runtime;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipeChannelTest extends AbstractParserTest
+{
+    @Test
+    public void testTransfer() throws Exception
+    {
+        final PipeChannel pipe = new PipeChannel(16);
+        final byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) i;
+        }
+        Thread writer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    for (int i = 0; i < data.length; i += 100)
+                    {
+                        pipe.sink().write(ByteBuffer.wrap(data, i, 100));
+                    }
+                    pipe.sink().close();
+                }
+                catch (IOException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        writer.start();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ByteBuffer bb = ByteBuffer.allocate(7);
+        while (pipe.source().read(bb) >= 0)
+        {
+            bb.flip();
+            baos.write(bb.array(), 0, bb.limit());
+            bb.clear();
+        }
+        writer.join();
+        assertArrayEquals(data, baos.toByteArray());
+        assertEquals(-1, pipe.source().read(bb));
+    }
+
+    @Test
+    public void testWriteAfterSourceClosed() throws Exception
+    {
+        final PipeChannel pipe = new PipeChannel(16);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread writer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    pipe.sink().write(ByteBuffer.allocate(1000));
+                }
+                catch (Exception e)
+                {
+                    failure.set(e);
+                }
+            }
+        };
+        writer.start();
+        pipe.source().read(ByteBuffer.allocate(4));
+        pipe.source().close();
+        writer.join(10000);
+        assertEquals("Pipe closed", failure.get().getMessage());
+    }
+
+    @Test
+    public void testSinkClosedWhileWriterBlocked() throws Exception
+    {
+        final PipeChannel pipe = new PipeChannel(16);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread writer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    pipe.sink().write(ByteBuffer.allocate(1000));
+                }
+                catch (Exception e)
+                {
+                    failure.set(e);
+                }
+            }
+        };
+        writer.start();
+        while (writer.getState() != Thread.State.WAITING)
+        {
+            writer.join(10);
+        }
+        pipe.sink().close();
+        writer.join(10000);
+        assertFalse(writer.isAlive());
+        assertTrue(failure.get() instanceof ClosedChannelException);
+    }
+
+    @Test
+    public void testInterruptedRead() throws Exception
+    {
+        PipeChannel pipe = new PipeChannel();
+        Thread.currentThread().interrupt();
+        try
+        {
+            pipe.source().read(ByteBuffer.allocate(4));
+            fail("Expected InterruptedIOException");
+        }
+        catch (InterruptedIOException e)
+        {
+            // expected
+        }
+        // the interrupt must stay visible; clear it for the other tests
+        assertTrue(Thread.interrupted());
+    }
+
+    @Test
+    public void testObjects() throws Exception
+    {
+        PipeChannel pipe = new PipeChannel();
+        pipe.sink().writeObject("a");
+        pipe.sink().writeObject(1);
+        pipe.sink().close();
+        assertEquals("a", pipe.source().readObject());
+        assertEquals(1, pipe.source().readObject());
+        assertNull(pipe.source().readObject());
+    }
+
+    @Test
+    public void testPipelineObjects() throws Exception
+    {
+        Context c = new Context();
+        c.addCommand("produce", this);
+        c.addCommand("consume", this);
+        c.addCommand("capture", this);
+        assertEquals("ab", c.execute("produce | capture"));
+        c.set(Pipe.PIPE_OBJECTS, true);
+        assertEquals(Arrays.asList("a", "b"), c.execute("produce | consume"));
+    }
+
+    @Test
+    public void testPipelineBufferSize() throws Exception
+    {
+        Context c = new Context();
+        c.addCommand("echo", this);
+        c.addCommand("capture", this);
+        c.set(Closure.PIPE_BUFFER_SIZE, 1);
+        assertEquals("hello world", c.execute("echo hello world | capture"));
+    }
+
+    public List<String> produce()
+    {
+        return Arrays.asList("a", "b");
+    }
+
+    public Object consume() throws IOException
+    {
+        return Pipe.getCurrentPipe().readObject();
+    }
+
+    public String echo(Object[] args)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Object arg : args)
+        {
+            if (sb.length() > 0)
+            {
+                sb.append(' ');
+            }
+            sb.append(arg);
+        }
+        return sb.toString();
+    }
+
+    public String capture() throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        BufferedReader rdr = new BufferedReader(new InputStreamReader(System.in));
+        for (String s = rdr.readLine(); s != null; s = rdr.readLine())
+        {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
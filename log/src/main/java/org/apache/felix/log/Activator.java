@@ -52,7 +52,37 @@ import org.osgi.service.log.admin.LoggerContext;
  *   <dt>org.apache.felix.log.storeDebug</dt>
  *   <dd>Determines whether or not debug messages will be stored as part of
  *       the historic log information. The default value is false.</dd>
+ *
+ *   <dt>org.apache.felix.log.captureLocation</dt>
+ *   <dd>Determines for which entries the location of the caller is captured.
+ *       A log level name captures the location for entries of that level and
+ *       all more severe levels; <code>true</code> captures it for all entries
+ *       and <code>false</code> for none. The default value is true.</dd>
+ *
+ *   <dt>org.apache.felix.log.listenerQueueSize</dt>
+ *   <dd>Determines the maximum number of entries waiting to be delivered to
+ *       log listeners. A value of -1 means the queue is unbounded. The default
+ *       value is -1.</dd>
+ *
+ *   <dt>org.apache.felix.log.listenerOverflowPolicy</dt>
+ *   <dd>Determines what happens when the listener queue is full: one of
+ *       <code>dropOldest</code>, <code>dropDebugFirst</code> or
+ *       <code>block</code>. The default value is dropOldest.</dd>
+ *
+ *   <dt>org.apache.felix.log.listenerBatchSize</dt>
+ *   <dd>Determines the maximum number of entries delivered to log listeners
+ *       in one batch. A value of -1 delivers all pending entries. The default
+ *       value is -1.</dd>
+ *
+ *   <dt>org.apache.felix.log.listenerBatchTime</dt>
+ *   <dd>Determines how many milliseconds the listener thread waits for a
+ *       batch to fill up before delivering it. The default value is 0.</dd>
  * </dl>
+ * <p>
+ * The number of entries delivered to and dropped before reaching log
+ * listeners are published as the <code>org.apache.felix.log.deliveredEntries</code>
+ * and <code>org.apache.felix.log.droppedEntries</code> properties of the
+ * log reader service.
  */
 public final class Activator implements BundleActivator
 {
@@ -64,6 +94,27 @@ public final class Activator implements BundleActivator
     private static final String STORE_DEBUG_PROPERTY = "org.apache.felix.log.storeDebug";
     /** The default value for the store debug property. */
     private static final boolean DEFAULT_STORE_DEBUG = false;
+    /** The name of the property that defines for which levels the caller location is captured. */
+    private static final String CAPTURE_LOCATION_PROPERTY = "org.apache.felix.log.captureLocation";
+    /** The default value for the capture location property. */
+    private static final LogLevel DEFAULT_CAPTURE_LOCATION = LogLevel.TRACE;
+    /** The name of the property that defines the maximum size of the listener queue. */
+    private static final String LISTENER_QUEUE_SIZE_PROPERTY = "org.apache.felix.log.listenerQueueSize";
+    /** The default value for the listener queue size property. */
+    private static final int DEFAULT_LISTENER_QUEUE_SIZE = -1;
+    /** The name of the property that defines the listener queue overflow policy. */
+    private static final String LISTENER_OVERFLOW_POLICY_PROPERTY = "org.apache.felix.log.listenerOverflowPolicy";
+    /** The default value for the listener overflow policy property. */
+    private static final LogListenerThread.OverflowPolicy DEFAULT_LISTENER_OVERFLOW_POLICY =
+        LogListenerThread.OverflowPolicy.DROP_OLDEST;
+    /** The name of the property that defines the listener batch size. */
+    private static final String LISTENER_BATCH_SIZE_PROPERTY = "org.apache.felix.log.listenerBatchSize";
+    /** The default value for the listener batch size property. */
+    private static final int DEFAULT_LISTENER_BATCH_SIZE = -1;
+    /** The name of the property that defines the listener batch time. */
+    private static final String LISTENER_BATCH_TIME_PROPERTY = "org.apache.felix.log.listenerBatchTime";
+    /** The default value for the listener batch time property. */
+    private static final int DEFAULT_LISTENER_BATCH_TIME = 0;
     /** The log. */
     private Log m_log;
     /** The LoggerAdmin. */
@@ -71,6 +122,55 @@ public final class Activator implements BundleActivator
     /** The Configuration listener. */
     private ConfigurationListenerImpl m_configurationListener;
 
+    /**
+     * Returns the integer value of a property.
+     * @param context the bundle context (used to look up a property)
+     * @param name the name of the property
+     * @param defaultValue the value returned if the property is missing or invalid
+     * @return the value of the property
+     */
+    private static int getIntProperty(final BundleContext context, final String name, final int defaultValue)
+    {
+        int value = defaultValue;
+
+        String propValue = context.getProperty(name);
+        if (propValue != null)
+        {
+            try
+            {
+                value = Integer.parseInt(propValue.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                // the property value is invalid - ignore
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns the policy applied when the listener queue is full.
+     * @param context the bundle context (used to look up a property)
+     * @return the listener overflow policy
+     */
+    private static LogListenerThread.OverflowPolicy getListenerOverflowPolicy(final BundleContext context)
+    {
+        LogListenerThread.OverflowPolicy policy = DEFAULT_LISTENER_OVERFLOW_POLICY;
+
+        String policyPropValue = context.getProperty(LISTENER_OVERFLOW_POLICY_PROPERTY);
+        if (policyPropValue != null)
+        {
+            LogListenerThread.OverflowPolicy value = LogListenerThread.OverflowPolicy.fromString(policyPropValue.trim());
+            if (value != null)
+            {
+                policy = value;
+            }
+        }
+
+        return policy;
+    }
+
     /**
      * Returns the maximum size for the log.
      * @param context the bundle context (used to look up a property)
@@ -114,6 +214,39 @@ public final class Activator implements BundleActivator
         return storeDebug;
     }
 
+    /**
+     * Returns the least severe level for which the caller location is captured.
+     * @param context the bundle context (used to look up a property)
+     * @return the level, or <code>null</code> if the location is never captured
+     */
+    private static LogLevel getLocationLevel(final BundleContext context)
+    {
+        LogLevel locationLevel = DEFAULT_CAPTURE_LOCATION;
+
+        String locationPropValue = context.getProperty(CAPTURE_LOCATION_PROPERTY);
+        if (locationPropValue != null)
+        {
+            locationPropValue = locationPropValue.trim();
+            if ("false".equalsIgnoreCase(locationPropValue))
+            {
+                locationLevel = null;
+            }
+            else
+            {
+                for (LogLevel level : LogLevel.values())
+                {
+                    if (level.name().equalsIgnoreCase(locationPropValue))
+                    {
+                        locationLevel = level;
+                        break;
+                    }
+                }
+            }
+        }
+
+        return locationLevel;
+    }
+
     /**
      * Return the default log level.
      * @param context
@@ -133,7 +266,11 @@ public final class Activator implements BundleActivator
     public void start(final BundleContext context) throws Exception
     {
         // create the log instance
-        m_log = new Log(getMaxSize(context), getStoreDebug(context));
+        m_log = new Log(getMaxSize(context), getStoreDebug(context), getLocationLevel(context),
+            getIntProperty(context, LISTENER_QUEUE_SIZE_PROPERTY, DEFAULT_LISTENER_QUEUE_SIZE),
+            getListenerOverflowPolicy(context),
+            getIntProperty(context, LISTENER_BATCH_SIZE_PROPERTY, DEFAULT_LISTENER_BATCH_SIZE),
+            getIntProperty(context, LISTENER_BATCH_TIME_PROPERTY, DEFAULT_LISTENER_BATCH_TIME));
         // create the LoggerAdmin instance
         m_loggerAdmin = new LoggerAdminImpl(getDefaultLogLevel(context), m_log);
 
@@ -147,8 +284,8 @@ public final class Activator implements BundleActivator
             new String[] {LogService.class.getName(), LoggerFactory.class.getName()},
             new LogServiceFactory(m_loggerAdmin), null);
 
-        context.registerService(LogReaderService.class.getName(),
-            new LogReaderServiceFactory(m_log), null);
+        m_log.setReaderRegistration(context.registerService(LogReaderService.class.getName(),
+            new LogReaderServiceFactory(m_log), m_log.getStatistics()));
 
         Dictionary<String, Object> properties = new Hashtable<>();
         properties.put(
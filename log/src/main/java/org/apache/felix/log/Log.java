@@ -18,7 +18,14 @@
  */
 package org.apache.felix.log;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleEvent;
@@ -28,6 +35,7 @@ import org.osgi.framework.FrameworkListener;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogLevel;
 import org.osgi.service.log.LogListener;
@@ -41,34 +49,78 @@ import org.osgi.service.log.LogListener;
  */
 final class Log implements BundleListener, FrameworkListener, ServiceListener
 {
-    /** The first log entry. */
-    private LogNode m_head;
-    /** The last log entry. */
-    private LogNode m_tail;
-    /** The log size. */
-    private int m_size;
+    /** The service property holding the number of entries delivered to listeners. */
+    static final String DELIVERED_ENTRIES_PROPERTY = "org.apache.felix.log.deliveredEntries";
+    /** The service property holding the number of entries dropped from the listener queue. */
+    static final String DROPPED_ENTRIES_PROPERTY = "org.apache.felix.log.droppedEntries";
+    /** The minimum interval in milliseconds between publishing the delivery statistics. */
+    static final long STATISTICS_INTERVAL = 1000;
+
+    /** The historic log entries if the log has a maximum size. */
+    private final LogRingBuffer m_history;
+    /** The historic log entries if the log has no maximum size. */
+    private final Deque<LogEntry> m_unboundedHistory;
     /** The log listener thread. */
-    private LogListenerThread listenerThread;
+    private volatile LogListenerThread listenerThread;
     /** The maximum size for the log. */
     private final int m_maxSize;
     /** Whether or not to store debug messages. */
     private final boolean m_storeDebug;
+    /** The least severe level for which the caller location is captured, or null for none. */
+    private final LogLevel m_locationLevel;
+    /** The maximum number of entries waiting for delivery to listeners, or -1 if unbounded. */
+    private final int m_listenerQueueSize;
+    /** The policy applied when the listener queue is full. */
+    private final LogListenerThread.OverflowPolicy m_listenerOverflowPolicy;
+    /** The maximum number of entries delivered to listeners in one batch, or -1 for all. */
+    private final int m_listenerBatchSize;
+    /** The time in milliseconds to wait for a listener batch to fill up. */
+    private final long m_listenerBatchTime;
+    /** The number of entries delivered to listeners. */
+    private final AtomicLong m_deliveredEntries = new AtomicLong();
+    /** The number of entries dropped because the listener queue was full. */
+    private final AtomicLong m_droppedEntries = new AtomicLong();
+    /** The registration of the log reader service carrying the delivery statistics. */
+    private volatile ServiceRegistration<?> m_readerRegistration;
+    /** The time the delivery statistics were last published. */
+    private final AtomicLong m_statisticsPublished = new AtomicLong();
+    /** The number of delivered entries last published. */
+    private volatile long m_publishedDelivered;
+    /** The number of dropped entries last published. */
+    private volatile long m_publishedDropped;
 
     /**
      * Create a new instance.
      * @param maxSize the maximum size for the log
      * @param storeDebug whether or not to store debug messages
+     * @param locationLevel the least severe level for which the caller location
+     *        is captured, or <code>null</code> to never capture it
+     * @param listenerQueueSize the maximum number of entries waiting for delivery
+     *        to listeners, or -1 if unbounded
+     * @param listenerOverflowPolicy the policy applied when the listener queue is full
+     * @param listenerBatchSize the maximum number of entries delivered to listeners
+     *        in one batch, or -1 for all pending entries
+     * @param listenerBatchTime the time in milliseconds to wait for a batch to fill up
      */
-    Log(final int maxSize, final boolean storeDebug)
+    Log(final int maxSize, final boolean storeDebug, final LogLevel locationLevel,
+        final int listenerQueueSize, final LogListenerThread.OverflowPolicy listenerOverflowPolicy,
+        final int listenerBatchSize, final long listenerBatchTime)
     {
         this.m_maxSize = maxSize;
         this.m_storeDebug = storeDebug;
+        this.m_locationLevel = locationLevel;
+        this.m_listenerQueueSize = listenerQueueSize;
+        this.m_listenerOverflowPolicy = listenerOverflowPolicy;
+        this.m_listenerBatchSize = listenerBatchSize;
+        this.m_listenerBatchTime = listenerBatchTime;
+        this.m_history = (maxSize > 0) ? new LogRingBuffer(maxSize) : null;
+        this.m_unboundedHistory = (maxSize < 0) ? new ConcurrentLinkedDeque<LogEntry>() : null;
     }
 
     /**
      * Close the log.
      */
-    void close()
+    synchronized void close()
     {
         if (listenerThread != null)
         {
@@ -76,9 +128,16 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
             listenerThread = null;
         }
 
-        m_head = null;
-        m_tail = null;
-        m_size = 0;
+        m_readerRegistration = null;
+
+        if (m_history != null)
+        {
+            m_history.clear();
+        }
+        if (m_unboundedHistory != null)
+        {
+            m_unboundedHistory.clear();
+        }
     }
 
     void log(
@@ -89,60 +148,61 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
         final String message,
         final Throwable exception) {
 
-        addEntry(new LogEntryImpl(name, bundle, sr, level, message, exception, getStackTraceElement()));
+        addEntry(new LogEntryImpl(name, bundle, sr, level, message, exception, getLocation(level)));
+    }
+
+    /**
+     * Returns the location of the caller if it is to be captured for entries
+     * of the specified level.  Walking the stack is expensive, so it is only
+     * done for the levels configured via the
+     * <code>org.apache.felix.log.captureLocation</code> property.
+     * @param level the level of the entry being logged
+     * @return the caller location or <code>null</code>
+     */
+    StackTraceElement getLocation(final LogLevel level)
+    {
+        if ((m_locationLevel == null) || !m_locationLevel.implies(level))
+        {
+            return null;
+        }
+        return getStackTraceElement();
     }
 
     /**
-     * Adds the entry to the log.
+     * Adds the entry to the log.  This method does not block; the historic log
+     * is kept in a lock-free structure.
      * @param entry the entry to add to the log
      */
-    synchronized void addEntry(final LogEntry entry)
+    void addEntry(final LogEntry entry)
     {
         if (m_maxSize != 0)
         {
             // add the entry to the historic log
             if (m_storeDebug || entry.getLogLevel() != LogLevel.DEBUG)
             {
-                // create a new node for the entry
-                LogNode node = new LogNode(entry);
-
-                // add to the front of the linked list
-                node.setNextNode(m_head);
-                if (m_head != null)
+                if (m_history != null)
                 {
-                    m_head.setPreviousNode(node);
+                    m_history.add(entry);
                 }
-
-                // and store the node
-                m_head = node;
-
-                // bump the size of the list
-                ++m_size;
-
-                // if no tail node - add the node to the tail
-                if (m_tail == null)
+                else
                 {
-                    m_tail = node;
-                }
-            }
-
-            // ensure the historic log doesn't grow beyond a certain size
-            if (m_maxSize != -1)
-            {
-                if (m_size > m_maxSize)
-                {
-                    LogNode last = m_tail.getPreviousNode();
-                    last.setNextNode(null);
-                    m_tail = last;
-                    --m_size;
+                    m_unboundedHistory.addFirst(entry);
                 }
             }
         }
 
         // notify any listeners
+        LogListenerThread listenerThread = this.listenerThread;
         if (listenerThread != null)
         {
             listenerThread.addEntry(entry);
+
+            // entries are dropped while the queue is locked, so the
+            // statistics are published here rather than on the drop path
+            if (m_droppedEntries.get() != m_publishedDropped)
+            {
+                publishStatistics();
+            }
         }
     }
 
@@ -156,7 +216,8 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
         {
             // create a new listener thread if necessary:
             // the listener thread only runs if there are any registered listeners
-            listenerThread = new LogListenerThread();
+            listenerThread = new LogListenerThread(this, m_listenerQueueSize,
+                m_listenerOverflowPolicy, m_listenerBatchSize, m_listenerBatchTime);
             listenerThread.start();
         }
         listenerThread.addListener(listener);
@@ -185,9 +246,105 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
      * Returns an enumeration of all the entries in the log most recent first.
      * @return an enumeration of all the entries in the log most recent first
      */
-    synchronized Enumeration<LogEntry> getEntries()
+    Enumeration<LogEntry> getEntries()
+    {
+        if (m_history != null)
+        {
+            return m_history.getEntries();
+        }
+        if (m_unboundedHistory != null)
+        {
+            return Collections.enumeration(new ArrayList<>(m_unboundedHistory));
+        }
+        return Collections.emptyEnumeration();
+    }
+
+    /**
+     * Sets the registration of the log reader service on which the delivery
+     * statistics are published as service properties.
+     * @param registration the log reader service registration
+     */
+    void setReaderRegistration(final ServiceRegistration<?> registration)
+    {
+        m_readerRegistration = registration;
+    }
+
+    /**
+     * Returns the current delivery statistics as service properties.
+     * @return the delivery statistics
+     */
+    Dictionary<String, Object> getStatistics()
+    {
+        Dictionary<String, Object> statistics = new Hashtable<>();
+        statistics.put(DELIVERED_ENTRIES_PROPERTY, m_deliveredEntries.get());
+        statistics.put(DROPPED_ENTRIES_PROPERTY, m_droppedEntries.get());
+        return statistics;
+    }
+
+    /**
+     * Called by the listener thread after it delivered entries to the listeners.
+     * @param count the number of entries delivered
+     */
+    void entriesDelivered(final int count)
     {
-        return new LogNodeEnumeration(m_head, m_tail);
+        m_deliveredEntries.addAndGet(count);
+        publishStatistics();
+    }
+
+    /**
+     * Called when entries could not be queued for delivery to the listeners.
+     * This happens while the listener queue is locked, so the statistics are
+     * not published from here.
+     * @param count the number of entries dropped
+     */
+    void entriesDropped(final int count)
+    {
+        m_droppedEntries.addAndGet(count);
+    }
+
+    /**
+     * Publishes the delivery statistics on the log reader service registration
+     * if they changed.  They are published at most once per interval to keep
+     * the number of service events down; the listener thread calls this method
+     * periodically while idle so that the last changes are not lost.
+     */
+    void publishStatistics()
+    {
+        ServiceRegistration<?> registration = m_readerRegistration;
+        if (registration == null)
+        {
+            return;
+        }
+
+        long delivered = m_deliveredEntries.get();
+        long dropped = m_droppedEntries.get();
+        if ((delivered == m_publishedDelivered) && (dropped == m_publishedDropped))
+        {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long published = m_statisticsPublished.get();
+        if ((now - published < STATISTICS_INTERVAL) ||
+            !m_statisticsPublished.compareAndSet(published, now))
+        {
+            return;
+        }
+
+        m_publishedDelivered = delivered;
+        m_publishedDropped = dropped;
+        Dictionary<String, Object> statistics = new Hashtable<>();
+        statistics.put(DELIVERED_ENTRIES_PROPERTY, delivered);
+        statistics.put(DROPPED_ENTRIES_PROPERTY, dropped);
+        try
+        {
+            registration.setProperties(statistics);
+        }
+        catch (IllegalStateException e)
+        {
+            // the service has been unregistered
+            m_readerRegistration = null;
+        }
     }
 
     /** The messages returned for the framework events. */
@@ -302,6 +459,14 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
     public void serviceChanged(final ServiceEvent event)
     {
         int eventType = event.getType();
+
+        // don't log the modifications caused by publishing the statistics
+        ServiceRegistration<?> registration = m_readerRegistration;
+        if ((eventType == ServiceEvent.MODIFIED) && (registration != null) &&
+            event.getServiceReference().equals(registration.getReference()))
+        {
+            return;
+        }
         String message = null;
 
         for (int i = 0; message == null && i < SERVICE_EVENT_MESSAGES.length; ++i)
@@ -114,20 +114,7 @@ final class LogEntryImpl implements LogEntry
         this.m_name = name;
         this.m_bundle = bundle;
         this.m_exception = LogException.getException(exception);
-        LogLevel level = LogLevel.TRACE;
-        switch (legacyLevel) {
-            case LogService.LOG_ERROR:
-                level = LogLevel.ERROR;
-                break;
-            case LogService.LOG_WARNING:
-                level = LogLevel.WARN;
-                break;
-            case LogService.LOG_INFO:
-                level = LogLevel.INFO;
-                break;
-            case LogService.LOG_DEBUG:
-                level = LogLevel.DEBUG;
-        }
+        LogLevel level = toLogLevel(legacyLevel);
         this.m_level = level;
         this.m_legacyLevel = ((level == LogLevel.TRACE) ? legacyLevel : level.ordinal());
         this.m_message = message;
@@ -138,6 +125,29 @@ final class LogEntryImpl implements LogEntry
         this.m_stackTraceElement = stackTraceElement;
     }
 
+    /**
+     * Maps a legacy {@link LogService} level to a {@link LogLevel}.  Unknown
+     * levels are mapped to {@link LogLevel#TRACE}.
+     * @param legacyLevel the legacy level
+     * @return the corresponding log level
+     */
+    @SuppressWarnings("deprecation")
+    static LogLevel toLogLevel(final int legacyLevel)
+    {
+        switch (legacyLevel) {
+            case LogService.LOG_ERROR:
+                return LogLevel.ERROR;
+            case LogService.LOG_WARNING:
+                return LogLevel.WARN;
+            case LogService.LOG_INFO:
+                return LogLevel.INFO;
+            case LogService.LOG_DEBUG:
+                return LogLevel.DEBUG;
+            default:
+                return LogLevel.TRACE;
+        }
+    }
+
     /**
      * Returns the bundle that created this LogEntry object.
      * @return the bundle that created this LogEntry object;<code>null</code> if no
@@ -18,11 +18,14 @@
  */
 package org.apache.felix.log;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 
 import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogLevel;
 import org.osgi.service.log.LogListener;
 
 /**
@@ -30,16 +33,71 @@ import org.osgi.service.log.LogListener;
  * any {@link LogListener} subscribers.  A subscriber can be added using the
  * {@link org.osgi.service.log.LogReaderService#addLogListener(LogListener)}
  * method.
+ * <p>
+ * Pending entries are kept in a queue which may be bounded; the
+ * {@link OverflowPolicy} determines what happens when a slow listener lets
+ * the queue fill up.  Entries are delivered in batches of at most the
+ * configured batch size, optionally waiting for the configured batch time
+ * for a batch to fill up.
  */
 final class LogListenerThread extends Thread
 {
-    // The list of entries waiting to be delivered to the log listeners.
-    private final List<LogEntry> m_entriesToDeliver = new ArrayList<>();
+    /**
+     * What to do with a new entry when the queue of entries to deliver is full.
+     */
+    enum OverflowPolicy
+    {
+        /** Drop the oldest pending entry. */
+        DROP_OLDEST,
+        /** Drop the oldest pending debug or trace entry, or the oldest entry if there is none. */
+        DROP_DEBUG_FIRST,
+        /** Block the logging thread until there is room in the queue. */
+        BLOCK;
+
+        /**
+         * Returns the policy with the specified name, ignoring case and dashes.
+         * @param name the name of the policy
+         * @return the policy or <code>null</code> if there is no such policy
+         */
+        static OverflowPolicy fromString(final String name)
+        {
+            for (OverflowPolicy policy : values())
+            {
+                if (policy.name().replace("_", "").equalsIgnoreCase(name.replace("-", "").replace("_", "")))
+                {
+                    return policy;
+                }
+            }
+            return null;
+        }
+    }
+
+    // The log, used to account for delivered and dropped entries.
+    private final Log m_log;
+    // The queue of entries waiting to be delivered to the log listeners.
+    private final Deque<LogEntry> m_entriesToDeliver = new ArrayDeque<>();
     // The list of listeners.
     private final List<LogListener> m_listeners = new ArrayList<>();
+    // The maximum number of entries waiting to be delivered, or -1 if unbounded.
+    private final int m_queueSize;
+    // The policy applied when the queue is full.
+    private final OverflowPolicy m_overflowPolicy;
+    // The maximum number of entries delivered in one batch, or -1 for all pending entries.
+    private final int m_batchSize;
+    // The time in milliseconds to wait for a batch to fill up.
+    private final long m_batchTime;
+    // Whether the thread has been asked to stop.
+    private boolean m_shutdown;
 
-    LogListenerThread() {
+    LogListenerThread(final Log log, final int queueSize,
+        final OverflowPolicy overflowPolicy, final int batchSize, final long batchTime)
+    {
         super("FelixLogListener");
+        m_log = log;
+        m_queueSize = queueSize;
+        m_overflowPolicy = overflowPolicy;
+        m_batchSize = batchSize;
+        m_batchTime = batchTime;
     }
 
     /**
@@ -50,11 +108,85 @@ final class LogListenerThread extends Thread
     {
         synchronized (m_entriesToDeliver)
         {
+            if ((m_queueSize >= 0) && (m_entriesToDeliver.size() >= m_queueSize))
+            {
+                if (!makeRoom(entry))
+                {
+                    m_log.entriesDropped(1);
+                    return;
+                }
+            }
             m_entriesToDeliver.add(entry);
             m_entriesToDeliver.notifyAll();
         }
     }
 
+    /**
+     * Applies the overflow policy to make room for the specified entry.  Must
+     * be called while holding the lock on the queue.
+     * @param entry the entry which is about to be added
+     * @return <code>true</code> if the entry should be added to the queue,
+     *         <code>false</code> if it should be dropped
+     */
+    private boolean makeRoom(final LogEntry entry)
+    {
+        if (m_queueSize == 0)
+        {
+            return false;
+        }
+
+        OverflowPolicy policy = m_overflowPolicy;
+
+        // a listener logging from the delivery thread must never block itself
+        if ((policy == OverflowPolicy.BLOCK) && (Thread.currentThread() == this))
+        {
+            policy = OverflowPolicy.DROP_OLDEST;
+        }
+
+        switch (policy)
+        {
+            case BLOCK:
+                while (!m_shutdown && (m_entriesToDeliver.size() >= m_queueSize))
+                {
+                    try
+                    {
+                        m_entriesToDeliver.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                return !m_shutdown;
+            case DROP_DEBUG_FIRST:
+                if (isDebug(entry))
+                {
+                    return false;
+                }
+                for (Iterator<LogEntry> it = m_entriesToDeliver.iterator(); it.hasNext();)
+                {
+                    if (isDebug(it.next()))
+                    {
+                        it.remove();
+                        m_log.entriesDropped(1);
+                        return true;
+                    }
+                }
+                // fall through - there are no debug entries to drop
+            default:
+                m_entriesToDeliver.poll();
+                m_log.entriesDropped(1);
+                return true;
+        }
+    }
+
+    private static boolean isDebug(final LogEntry entry)
+    {
+        LogLevel level = entry.getLogLevel();
+        return (level == LogLevel.DEBUG) || (level == LogLevel.TRACE);
+    }
+
     /**
      * Add a listener to the list of listeners that are subscribed.
      * @param listener the listener to add to the list of subscribed listeners
@@ -98,6 +230,8 @@ final class LogListenerThread extends Thread
     {
         synchronized (m_entriesToDeliver)
         {
+            m_shutdown = true;
+            m_entriesToDeliver.notifyAll();
             interrupt();
         }
     }
@@ -111,27 +245,15 @@ final class LogListenerThread extends Thread
         while (!isInterrupted())
         {
             List<LogEntry> entriesToDeliver = new ArrayList<>();
-            synchronized (m_entriesToDeliver)
+            try
             {
-                if (m_entriesToDeliver.isEmpty())
-                {
-                    try
-                    {
-                        m_entriesToDeliver.wait();
-                    }
-                    catch (InterruptedException e)
-                    {
-                        // the interrupt-flag is cleared; so, let's play nice and
-                        // interrupt this thread again to stop it...
-                        interrupt();
-                    }
-                }
-                else
-                {
-                    // Copy all current entries and deliver them in a single go...
-                    entriesToDeliver.addAll(m_entriesToDeliver);
-                    m_entriesToDeliver.clear();
-                }
+                takeBatch(entriesToDeliver);
+            }
+            catch (InterruptedException e)
+            {
+                // the interrupt-flag is cleared; so, let's play nice and
+                // interrupt this thread again to stop it...
+                interrupt();
             }
 
             if (!entriesToDeliver.isEmpty())
@@ -165,7 +287,59 @@ final class LogListenerThread extends Thread
                         }
                     }
                 }
+
+                m_log.entriesDelivered(entriesToDeliver.size());
             }
+            else
+            {
+                // publish any statistics held back while the log was busy
+                m_log.publishStatistics();
+            }
+        }
+    }
+
+    /**
+     * Waits for entries to become available and moves the next batch of them
+     * into the specified list.  Returns without any entries if none became
+     * available within the statistics interval.
+     * @param batch the list to move the entries to
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private void takeBatch(final List<LogEntry> batch) throws InterruptedException
+    {
+        synchronized (m_entriesToDeliver)
+        {
+            if (m_entriesToDeliver.isEmpty())
+            {
+                m_entriesToDeliver.wait(Log.STATISTICS_INTERVAL);
+                if (m_entriesToDeliver.isEmpty())
+                {
+                    return;
+                }
+            }
+
+            // give the batch some time to fill up
+            if (m_batchTime > 0)
+            {
+                long deadline = System.currentTimeMillis() + m_batchTime;
+                long remaining = m_batchTime;
+                while ((remaining > 0) && !m_shutdown &&
+                    ((m_batchSize < 0) || (m_entriesToDeliver.size() < m_batchSize)))
+                {
+                    m_entriesToDeliver.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+
+            int count = ((m_batchSize > 0) && (m_batchSize < m_entriesToDeliver.size()))
+                ? m_batchSize : m_entriesToDeliver.size();
+            for (int i = 0; i < count; ++i)
+            {
+                batch.add(m_entriesToDeliver.poll());
+            }
+
+            // wake up any loggers blocked on a full queue
+            m_entriesToDeliver.notifyAll();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.osgi.service.log.LogEntry;
+
+/**
+ * A bounded, multi-producer ring buffer holding the historic log entries.
+ * <p>
+ * Producers claim a sequence number and publish their entry into the slot
+ * that sequence maps to, so adding an entry never takes a lock.  Readers take
+ * a snapshot by walking back from the most recently claimed sequence and only
+ * return slots that carry the sequence they expect; entries that are claimed
+ * but not yet published, or that have already been overwritten, are skipped.
+ */
+final class LogRingBuffer
+{
+    /** The entry slots. */
+    private final AtomicReferenceArray<Slot> m_slots;
+    /** The next sequence to claim. */
+    private final AtomicLong m_sequence = new AtomicLong();
+    /** The capacity of the buffer. */
+    private final int m_capacity;
+
+    /**
+     * Create a new instance.
+     * @param capacity the maximum number of entries kept in the buffer
+     */
+    LogRingBuffer(final int capacity)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        m_capacity = capacity;
+        m_slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Adds the entry to the buffer, overwriting the oldest entry if the
+     * buffer is full.
+     * @param entry the entry to add
+     */
+    void add(final LogEntry entry)
+    {
+        long sequence = m_sequence.getAndIncrement();
+        int index = (int) (sequence % m_capacity);
+        Slot slot = new Slot(sequence, entry);
+
+        // never let a slow producer overwrite a newer entry in the same slot
+        Slot current = m_slots.get(index);
+        while ((current == null) || (current.m_sequence < sequence))
+        {
+            if (m_slots.compareAndSet(index, current, slot))
+            {
+                return;
+            }
+            current = m_slots.get(index);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the entries in the buffer, most recent first.
+     * @return an enumeration of the entries in the buffer
+     */
+    Enumeration<LogEntry> getEntries()
+    {
+        long next = m_sequence.get();
+        long first = Math.max(0, next - m_capacity);
+
+        List<LogEntry> entries = new ArrayList<>((int) (next - first));
+        for (long sequence = next - 1; sequence >= first; --sequence)
+        {
+            Slot slot = m_slots.get((int) (sequence % m_capacity));
+            if ((slot != null) && (slot.m_sequence == sequence))
+            {
+                entries.add(slot.m_entry);
+            }
+        }
+
+        return Collections.enumeration(entries);
+    }
+
+    /**
+     * Remove all entries from the buffer.
+     */
+    void clear()
+    {
+        for (int i = 0; i < m_capacity; ++i)
+        {
+            m_slots.set(i, null);
+        }
+    }
+
+    /**
+     * An entry together with the sequence it was published under.
+     */
+    private static final class Slot
+    {
+        /** The sequence of the entry. */
+        final long m_sequence;
+        /** The log entry. */
+        final LogEntry m_entry;
+
+        Slot(final long sequence, final LogEntry entry)
+        {
+            m_sequence = sequence;
+            m_entry = entry;
+        }
+    }
+}
@@ -23,9 +23,11 @@ import java.util.Dictionary;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.osgi.framework.Bundle;
 import org.osgi.service.log.FormatterLogger;
+import org.osgi.service.log.LogLevel;
 import org.osgi.service.log.Logger;
 import org.osgi.service.log.admin.LoggerAdmin;
 import org.osgi.service.log.admin.LoggerContext;
@@ -36,6 +38,8 @@ public class LoggerAdminImpl implements LoggerAdmin {
     private final LoggerContext m_rootContext;
     private final ConcurrentMap<String, LoggerContext> m_contexts = new ConcurrentHashMap<>();
     private final ConcurrentMap<LoggerKey, Logger> _loggers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<LoggerKey, EffectiveLogLevel> m_effectiveLevels = new ConcurrentHashMap<>();
+    private final AtomicInteger m_generation = new AtomicInteger();
 
     public LoggerAdminImpl(final String defaultLogLevelString, final Log log) {
         m_rootContext = new RootLoggerContextImpl(defaultLogLevelString, this);
@@ -57,6 +61,16 @@ public class LoggerAdminImpl implements LoggerAdmin {
         LoggerContextImpl contextImpl = (LoggerContextImpl)loggerContext;
 
         contextImpl.updateLoggerContext(properties);
+
+        updateGeneration();
+    }
+
+    /**
+     * Invalidates every cached {@link EffectiveLogLevel}. Called whenever the
+     * log levels of any logger context change.
+     */
+    void updateGeneration() {
+        m_generation.incrementAndGet();
     }
 
     protected LoggerContext getOrCreateLoggerContext(String name) {
@@ -104,6 +118,29 @@ public class LoggerAdminImpl implements LoggerAdmin {
         return logger;
     }
 
+    /**
+     * Returns the cached effective log level holder for the given bundle and
+     * logger name. Loggers keep a reference to the holder so that checking the
+     * level does not require any lookups or allocations.
+     */
+    EffectiveLogLevel getEffectiveLogLevel(Bundle bundle, String name) {
+        LoggerKey key = new LoggerKey(bundle, name, null);
+
+        EffectiveLogLevel effectiveLogLevel = m_effectiveLevels.get(key);
+
+        if (effectiveLogLevel == null) {
+            effectiveLogLevel = new EffectiveLogLevel(bundle, name);
+
+            EffectiveLogLevel previous = m_effectiveLevels.putIfAbsent(key, effectiveLogLevel);
+
+            if (previous != null) {
+                effectiveLogLevel = previous;
+            }
+        }
+
+        return effectiveLogLevel;
+    }
+
     LoggerContext getLoggerContext(Bundle bundle, String name) {
         String loggerContextName = String.format(
             "%s|%s|%s", bundle.getSymbolicName(), bundle.getVersion(), bundle.getLocation());
@@ -171,7 +208,7 @@ public class LoggerAdminImpl implements LoggerAdmin {
         @Override
         public String toString() {
             if (m_string == null) {
-                m_string = getClass().getSimpleName() + "[" + m_bundle + "#" + m_name + "!" + m_loggerType.getSimpleName() + "]";
+                m_string = getClass().getSimpleName() + "[" + m_bundle + "#" + m_name + "!" + ((m_loggerType == null) ? null : m_loggerType.getSimpleName()) + "]";
             }
             return m_string;
         }
@@ -183,4 +220,54 @@ public class LoggerAdminImpl implements LoggerAdmin {
 
     }
 
+    /**
+     * The resolved effective log level of a (bundle, logger name) pair. The
+     * level is recomputed only when the configuration generation or the
+     * bundle's last modified time has changed since it was last resolved.
+     */
+    final class EffectiveLogLevel {
+
+        EffectiveLogLevel(Bundle bundle, String name) {
+            this.m_bundle = bundle;
+            this.m_name = name;
+        }
+
+        LogLevel get() {
+            Resolved resolved = m_resolved;
+            int generation = m_generation.get();
+            long lastModified = m_bundle.getLastModified();
+
+            if ((resolved == null) || (resolved.m_generation != generation) ||
+                (resolved.m_lastModified != lastModified)) {
+
+                resolved = new Resolved(
+                    generation, lastModified,
+                    getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name));
+
+                m_resolved = resolved;
+            }
+
+            return resolved.m_level;
+        }
+
+        private final Bundle m_bundle;
+        private final String m_name;
+        private volatile Resolved m_resolved;
+
+    }
+
+    static final class Resolved {
+
+        Resolved(int generation, long lastModified, LogLevel level) {
+            this.m_generation = generation;
+            this.m_lastModified = lastModified;
+            this.m_level = level;
+        }
+
+        final int m_generation;
+        final long m_lastModified;
+        final LogLevel m_level;
+
+    }
+
 }
@@ -38,12 +38,14 @@ public class LoggerImpl implements Logger {
     protected final Bundle m_bundle;
     protected final Log m_log;
     protected final LoggerAdminImpl m_loggerAdmin;
+    protected final LoggerAdminImpl.EffectiveLogLevel m_effectiveLogLevel;
 
     public LoggerImpl(final String name, final Bundle bundle, final Log log, final LoggerAdminImpl loggerAdmin) {
         m_name = name;
         m_bundle = bundle;
         m_log = log;
         m_loggerAdmin = loggerAdmin;
+        m_effectiveLogLevel = loggerAdmin.getEffectiveLogLevel(bundle, name);
     }
 
     @Override
@@ -53,7 +55,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isTraceEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.TRACE);
+        return m_effectiveLogLevel.get().implies(LogLevel.TRACE);
     }
 
     void trace(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -93,7 +95,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isDebugEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.DEBUG);
+        return m_effectiveLogLevel.get().implies(LogLevel.DEBUG);
     }
 
     void debug(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -133,7 +135,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isInfoEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.INFO);
+        return m_effectiveLogLevel.get().implies(LogLevel.INFO);
     }
 
     void info(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -173,7 +175,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isWarnEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.WARN);
+        return m_effectiveLogLevel.get().implies(LogLevel.WARN);
     }
 
     void warn(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -213,7 +215,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isErrorEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.ERROR);
+        return m_effectiveLogLevel.get().implies(LogLevel.ERROR);
     }
 
     void error(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -284,7 +286,8 @@ public class LoggerImpl implements Logger {
         final ServiceReference<?> sr,
         final Throwable exception) {
 
-        m_log.addEntry(new LogEntryImpl(m_name, m_bundle, sr, level, message, exception, Log.getStackTraceElement()));
+        m_log.addEntry(new LogEntryImpl(m_name, m_bundle, sr, level, message, exception,
+            m_log.getLocation(LogEntryImpl.toLogLevel(level))));
     }
 
     LogParameters getLogParameters(Object arg) {
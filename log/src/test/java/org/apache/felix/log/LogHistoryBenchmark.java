@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogLevel;
+
+/**
+ * Compares the throughput of adding entries to the lock-free ring buffer
+ * history against the synchronized linked-list history it replaced, with
+ * 1, 4 and 16 concurrent loggers.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.apache.felix.log.LogHistoryBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LogHistoryBenchmark
+{
+    @Param({"ringBuffer", "linkedList"})
+    public String history;
+
+    @Param({"100"})
+    public int maxSize;
+
+    private LogEntry m_entry;
+    private Log m_log;
+    private LinkedListLog m_linkedListLog;
+
+    @Setup
+    public void setup()
+    {
+        m_entry = new LogEntryImpl(
+            "benchmark", null, null, LogLevel.INFO, "benchmark message", null, null);
+        m_log = new Log(maxSize, false, LogLevel.TRACE,
+            -1, LogListenerThread.OverflowPolicy.DROP_OLDEST, -1, 0);
+        m_linkedListLog = new LinkedListLog(maxSize);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void addEntry1()
+    {
+        addEntry();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addEntry4()
+    {
+        addEntry();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void addEntry16()
+    {
+        addEntry();
+    }
+
+    private void addEntry()
+    {
+        if ("ringBuffer".equals(history))
+        {
+            m_log.addEntry(m_entry);
+        }
+        else
+        {
+            m_linkedListLog.addEntry(m_entry);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+            .include(LogHistoryBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+
+    /**
+     * The synchronized, doubly-linked list history previously used by
+     * {@link Log}, kept here as the baseline.
+     */
+    static final class LinkedListLog
+    {
+        private final int m_maxSize;
+        private Node m_head;
+        private Node m_tail;
+        private int m_size;
+
+        LinkedListLog(final int maxSize)
+        {
+            m_maxSize = maxSize;
+        }
+
+        synchronized void addEntry(final LogEntry entry)
+        {
+            Node node = new Node(entry);
+            node.m_next = m_head;
+            if (m_head != null)
+            {
+                m_head.m_previous = node;
+            }
+            m_head = node;
+            ++m_size;
+            if (m_tail == null)
+            {
+                m_tail = node;
+            }
+
+            if (m_size > m_maxSize)
+            {
+                Node last = m_tail.m_previous;
+                last.m_next = null;
+                m_tail = last;
+                --m_size;
+            }
+        }
+
+        private static final class Node
+        {
+            private final LogEntry m_entry;
+            private Node m_previous;
+            private Node m_next;
+
+            Node(final LogEntry entry)
+            {
+                m_entry = entry;
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogLevel;
+import org.osgi.service.log.LogListener;
+
+public class LogListenerThreadTest
+{
+    private Log m_log;
+
+    @After
+    public void tearDown()
+    {
+        if (m_log != null)
+        {
+            m_log.close();
+        }
+    }
+
+    @Test
+    public void testDropOldest() throws Exception
+    {
+        StallingListener listener = stall(2, LogListenerThread.OverflowPolicy.DROP_OLDEST);
+
+        log(LogLevel.INFO, "info1");
+        LogEntry info2 = log(LogLevel.INFO, "info2");
+        // the full queue drops the oldest pending entry
+        LogEntry info3 = log(LogLevel.INFO, "info3");
+        listener.release();
+
+        assertEquals(Arrays.asList(listener.m_first, info2, info3), listener.await(3));
+        assertEquals(1L, m_log.getStatistics().get(Log.DROPPED_ENTRIES_PROPERTY));
+    }
+
+    @Test
+    public void testDropDebugFirst() throws Exception
+    {
+        StallingListener listener = stall(2, LogListenerThread.OverflowPolicy.DROP_DEBUG_FIRST);
+
+        LogEntry info1 = log(LogLevel.INFO, "info1");
+        log(LogLevel.DEBUG, "debug2");
+        // the queued debug entry makes room for the info entry
+        LogEntry info3 = log(LogLevel.INFO, "info3");
+        // the queue only holds info entries, so the new debug entry is dropped
+        log(LogLevel.TRACE, "trace4");
+        listener.release();
+
+        assertEquals(Arrays.asList(listener.m_first, info1, info3), listener.await(3));
+        assertEquals(2L, m_log.getStatistics().get(Log.DROPPED_ENTRIES_PROPERTY));
+    }
+
+    @Test
+    public void testBlock() throws Exception
+    {
+        StallingListener listener = stall(1, LogListenerThread.OverflowPolicy.BLOCK);
+
+        LogEntry info1 = log(LogLevel.INFO, "info1");
+        final LogEntry info2 = entry(LogLevel.INFO, "info2");
+        Thread logger = new Thread()
+        {
+            public void run()
+            {
+                m_log.addEntry(info2);
+            }
+        };
+        logger.start();
+
+        // the logger waits for room in the queue
+        logger.join(200);
+        assertTrue(logger.isAlive());
+
+        listener.release();
+        logger.join(5000);
+        assertTrue(!logger.isAlive());
+
+        assertEquals(Arrays.asList(listener.m_first, info1, info2), listener.await(3));
+        assertEquals(0L, m_log.getStatistics().get(Log.DROPPED_ENTRIES_PROPERTY));
+    }
+
+    @Test
+    public void testStatisticsPublishedForDroppedEntries() throws Exception
+    {
+        StallingListener listener = stall(1, LogListenerThread.OverflowPolicy.DROP_OLDEST);
+        RecordingRegistration registration = new RecordingRegistration();
+        m_log.setReaderRegistration(registration);
+
+        log(LogLevel.INFO, "info1");
+        log(LogLevel.INFO, "info2");
+
+        // the drop is published right away although no entry was delivered
+        Dictionary<String, ?> statistics = registration.m_properties.poll(5, TimeUnit.SECONDS);
+        assertNotNull(statistics);
+        assertEquals(0L, statistics.get(Log.DELIVERED_ENTRIES_PROPERTY));
+        assertEquals(1L, statistics.get(Log.DROPPED_ENTRIES_PROPERTY));
+
+        // the next drop falls within the interval and is held back...
+        log(LogLevel.INFO, "info3");
+        assertEquals(0, registration.m_properties.size());
+
+        // ...until the listener thread catches up
+        listener.release();
+        listener.await(2);
+        long deadline = System.currentTimeMillis() + 5000;
+        do
+        {
+            statistics = registration.m_properties.poll(
+                deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            assertNotNull(statistics);
+        }
+        while (!Long.valueOf(2).equals(statistics.get(Log.DELIVERED_ENTRIES_PROPERTY)));
+        assertEquals(2L, statistics.get(Log.DROPPED_ENTRIES_PROPERTY));
+    }
+
+    /**
+     * Creates a log whose single listener is stuck delivering a first entry.
+     */
+    private StallingListener stall(final int queueSize, final LogListenerThread.OverflowPolicy policy)
+        throws InterruptedException
+    {
+        m_log = new Log(0, false, null, queueSize, policy, -1, 0);
+        StallingListener listener = new StallingListener();
+        m_log.addListener(listener);
+        listener.m_first = log(LogLevel.INFO, "first");
+        assertTrue(listener.m_stalled.await(5, TimeUnit.SECONDS));
+        return listener;
+    }
+
+    private LogEntry log(final LogLevel level, final String message)
+    {
+        LogEntry entry = entry(level, message);
+        m_log.addEntry(entry);
+        return entry;
+    }
+
+    private static LogEntry entry(final LogLevel level, final String message)
+    {
+        return new LogEntryImpl("test", null, null, level, message, null, null);
+    }
+
+    private static final class StallingListener implements LogListener
+    {
+        private final CountDownLatch m_stalled = new CountDownLatch(1);
+        private final CountDownLatch m_released = new CountDownLatch(1);
+        private final List<LogEntry> m_entries = new ArrayList<>();
+        private volatile LogEntry m_first;
+
+        @Override
+        public void logged(final LogEntry entry)
+        {
+            synchronized (m_entries)
+            {
+                m_entries.add(entry);
+                m_entries.notifyAll();
+            }
+            m_stalled.countDown();
+            try
+            {
+                m_released.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void release()
+        {
+            m_released.countDown();
+        }
+
+        List<LogEntry> await(final int count) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + 5000;
+            synchronized (m_entries)
+            {
+                long remaining = 5000;
+                while ((m_entries.size() < count) && (remaining > 0))
+                {
+                    m_entries.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                return new ArrayList<>(m_entries);
+            }
+        }
+    }
+
+    private static final class RecordingRegistration implements ServiceRegistration<Object>
+    {
+        private final BlockingQueue<Dictionary<String, ?>> m_properties = new LinkedBlockingQueue<>();
+
+        @Override
+        public ServiceReference<Object> getReference()
+        {
+            return null;
+        }
+
+        @Override
+        public void setProperties(final Dictionary<String, ?> properties)
+        {
+            m_properties.add(properties);
+        }
+
+        @Override
+        public void unregister()
+        {
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogLevel;
+
+public class LogRingBufferTest
+{
+    private static final int THREADS = 8;
+    private static final int ENTRIES_PER_THREAD = 2000;
+
+    @Test
+    public void testPartiallyFilled()
+    {
+        LogRingBuffer buffer = new LogRingBuffer(5);
+        LogEntry e0 = entry("0");
+        LogEntry e1 = entry("1");
+        buffer.add(e0);
+        buffer.add(e1);
+
+        assertEquals(Arrays.asList(e1, e0), Collections.list(buffer.getEntries()));
+    }
+
+    @Test
+    public void testWrapAround()
+    {
+        LogRingBuffer buffer = new LogRingBuffer(3);
+        List<LogEntry> added = new ArrayList<>();
+        for (int i = 0; i < 7; ++i)
+        {
+            LogEntry entry = entry(Integer.toString(i));
+            added.add(entry);
+            buffer.add(entry);
+        }
+
+        // only the newest entries are kept, most recent first
+        assertEquals(Arrays.asList(added.get(6), added.get(5), added.get(4)),
+            Collections.list(buffer.getEntries()));
+    }
+
+    @Test
+    public void testClear()
+    {
+        LogRingBuffer buffer = new LogRingBuffer(3);
+        for (int i = 0; i < 5; ++i)
+        {
+            buffer.add(entry(Integer.toString(i)));
+        }
+
+        buffer.clear();
+        assertTrue(Collections.list(buffer.getEntries()).isEmpty());
+
+        LogEntry entry = entry("after");
+        buffer.add(entry);
+        assertEquals(Arrays.asList(entry), Collections.list(buffer.getEntries()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity()
+    {
+        new LogRingBuffer(0);
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception
+    {
+        List<LogEntry> snapshot = addConcurrently(new LogRingBuffer(THREADS * ENTRIES_PER_THREAD));
+
+        // nothing is lost while the buffer does not wrap
+        assertEquals(THREADS * ENTRIES_PER_THREAD, snapshot.size());
+        assertSnapshot(snapshot);
+    }
+
+    @Test
+    public void testConcurrentAddWrapping() throws Exception
+    {
+        List<LogEntry> snapshot = addConcurrently(new LogRingBuffer(100));
+
+        // once all producers are done every slot holds one of the newest entries
+        assertEquals(100, snapshot.size());
+        assertSnapshot(snapshot);
+    }
+
+    /**
+     * Adds entries to the buffer from several threads while another thread
+     * keeps taking snapshots, and returns the final snapshot.
+     */
+    private static List<LogEntry> addConcurrently(final LogRingBuffer buffer) throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (int t = 0; t < THREADS; ++t)
+        {
+            final int thread = t;
+            new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int i = 0; i < ENTRIES_PER_THREAD; ++i)
+                        {
+                            buffer.add(entry(thread + ":" + i));
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        Thread reader = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    while (done.getCount() > 0)
+                    {
+                        assertSnapshot(Collections.list(buffer.getEntries()));
+                    }
+                }
+                catch (Throwable t)
+                {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        };
+        reader.start();
+
+        start.countDown();
+        done.await();
+        reader.join();
+        assertNull(failure.get());
+
+        return Collections.list(buffer.getEntries());
+    }
+
+    /**
+     * Asserts that the snapshot holds no entry twice and that the entries of
+     * every producer appear most recent first.
+     */
+    private static void assertSnapshot(final List<LogEntry> snapshot)
+    {
+        Set<LogEntry> seen = Collections.newSetFromMap(new IdentityHashMap<LogEntry, Boolean>());
+        Map<String, Integer> previous = new HashMap<>();
+        for (LogEntry entry : snapshot)
+        {
+            assertTrue("duplicate entry " + entry.getMessage(), seen.add(entry));
+
+            String[] parts = entry.getMessage().split(":");
+            int index = Integer.parseInt(parts[1]);
+            Integer last = previous.put(parts[0], index);
+            assertTrue("out of order entry " + entry.getMessage(), (last == null) || (index < last));
+        }
+    }
+
+    private static LogEntry entry(final String message)
+    {
+        return new LogEntryImpl("test", null, null, LogLevel.INFO, message, null, null);
+    }
+}
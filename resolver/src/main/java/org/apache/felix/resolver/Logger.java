@@ -131,4 +131,17 @@ public class Logger
     {
         // do nothing by default
     }
+
+    /**
+     * Called once a resolve operation is done, whether it succeeded or
+     * not, with statistics about the work it did. Logs the report at debug
+     * level by default.
+     */
+    public void logResolutionReport(ResolutionReport report)
+    {
+        if (isDebugEnabled())
+        {
+            debug("Resolved " + report);
+        }
+    }
 }
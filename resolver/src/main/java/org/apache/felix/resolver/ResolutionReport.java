@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics about the work done by a single resolve operation, passed to
+ * {@link Logger#logResolutionReport(ResolutionReport)} once the operation
+ * is done, whether it succeeded or not. Times are summed over all
+ * candidate permutations checked, so they may exceed the elapsed time
+ * when permutations are checked concurrently.
+ */
+public class ResolutionReport
+{
+    private final long m_start = System.nanoTime();
+    private volatile long m_elapsed = -1;
+    private volatile int m_resources;
+    private volatile int m_candidates;
+    private final AtomicLong m_permutations = new AtomicLong();
+    private final AtomicLong m_permutationNanos = new AtomicLong();
+    private final AtomicLong m_usesMerges = new AtomicLong();
+    private final AtomicLong m_packageSpaceNanos = new AtomicLong();
+    private final AtomicLong m_consistencyNanos = new AtomicLong();
+    private volatile boolean m_timedOut;
+
+    void setCandidates(int resources, int candidates)
+    {
+        m_resources = resources;
+        m_candidates = candidates;
+    }
+
+    void permutationChecked(long nanos)
+    {
+        m_permutations.incrementAndGet();
+        m_permutationNanos.addAndGet(nanos);
+    }
+
+    void usesMerged()
+    {
+        m_usesMerges.incrementAndGet();
+    }
+
+    void packageSpacesCalculated(long nanos)
+    {
+        m_packageSpaceNanos.addAndGet(nanos);
+    }
+
+    void consistencyChecked(long nanos)
+    {
+        m_consistencyNanos.addAndGet(nanos);
+    }
+
+    void timedOut()
+    {
+        m_timedOut = true;
+    }
+
+    void finish()
+    {
+        m_elapsed = System.nanoTime() - m_start;
+    }
+
+    /**
+     * Returns the number of resources candidates were populated for.
+     */
+    public int getResourceCount()
+    {
+        return m_resources;
+    }
+
+    /**
+     * Returns the number of candidate capabilities over all requirements
+     * of the initial candidate permutation.
+     */
+    public int getCandidateCount()
+    {
+        return m_candidates;
+    }
+
+    /**
+     * Returns the number of candidate permutations checked, including the
+     * initial one.
+     */
+    public long getPermutationCount()
+    {
+        return m_permutations.get();
+    }
+
+    /**
+     * Returns the number of times the uses constraints of a capability
+     * were merged into a package space.
+     */
+    public long getUsesMergeCount()
+    {
+        return m_usesMerges.get();
+    }
+
+    public long getPermutationTime(TimeUnit unit)
+    {
+        return unit.convert(m_permutationNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getPackageSpaceTime(TimeUnit unit)
+    {
+        return unit.convert(m_packageSpaceNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getConsistencyCheckTime(TimeUnit unit)
+    {
+        return unit.convert(m_consistencyNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the time the resolve operation took so far.
+     */
+    public long getElapsedTime(TimeUnit unit)
+    {
+        long elapsed = m_elapsed;
+        return unit.convert(
+            (elapsed >= 0) ? elapsed : System.nanoTime() - m_start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns whether the resolve operation was aborted because it did
+     * not complete within its time budget.
+     */
+    public boolean isTimedOut()
+    {
+        return m_timedOut;
+    }
+
+    @Override
+    public String toString()
+    {
+        long permutations = getPermutationCount();
+        return m_resources + " resource(s) with " + m_candidates + " candidate(s) in "
+            + getElapsedTime(TimeUnit.MILLISECONDS) + " ms"
+            + (m_timedOut ? " (timed out)" : "") + ": "
+            + permutations + " permutation(s) checked"
+            + ((permutations > 0)
+                ? " (" + (getPermutationTime(TimeUnit.MICROSECONDS) / permutations) + " us each)"
+                : "")
+            + ", " + getUsesMergeCount() + " uses merge(s), "
+            + getPackageSpaceTime(TimeUnit.MILLISECONDS) + " ms calculating package spaces, "
+            + getConsistencyCheckTime(TimeUnit.MILLISECONDS) + " ms checking package space consistency";
+    }
+}
@@ -22,6 +22,7 @@ import java.security.*;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.felix.resolver.reason.ReasonException;
@@ -45,6 +46,17 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    // Number of candidate permutations checked concurrently
+    private final int m_permutationParallelism;
+
+    // Time budget of a resolve operation in milliseconds, 0 if unbounded
+    private final long m_timeout;
+
+    // Package spaces of resolved resources, reused across resolve operations
+    // for as long as the wiring they were computed from is current.
+    private final ConcurrentMap<Resource, CachedPackages> m_packagesCache =
+        new ConcurrentHashMap<Resource, CachedPackages>();
+
     enum PermutationType {
         USES,
         IMPORT,
@@ -87,14 +99,20 @@ public class ResolverImpl implements Resolver
         private final Set<Object> m_processedDeltas = new HashSet<Object>();
         private final Executor m_executor;
         private final Set<Requirement> m_mutated = new HashSet<Requirement>();
-        private final Set<Requirement> m_sub_mutated = new HashSet<Requirement>();
-        private final ConcurrentMap<String, List<String>> m_usesCache = new ConcurrentHashMap<String, List<String>>();
+        private final Set<Requirement> m_sub_mutated;
+        private final ConcurrentMap<String, List<String>> m_usesCache;
         private ResolutionError m_currentError;
         volatile private CancellationException m_isCancelled = null;
+        // The session a speculative session evaluates a permutation for
+        private final ResolveSession m_parent;
+        private final ResolutionReport m_report;
+        // System.nanoTime() by which the resolve must be done, 0 if unbounded
+        private final long m_deadline;
+        private final long m_timeout;
 
-        static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
+        static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, long timeout)
         {
-            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates);
+            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates, timeout);
             // call onCancel first
             session.getContext().onCancel(session);
             // now gather the mandatory and optional resources
@@ -102,10 +120,17 @@ public class ResolverImpl implements Resolver
             return session;
         }
 
-        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
+        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, long timeout)
         {
             m_resolveContext = resolveContext;
             m_executor = executor;
+            m_parent = null;
+            m_report = new ResolutionReport();
+            m_timeout = timeout;
+            m_deadline = (timeout > 0)
+                ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+            m_sub_mutated = new HashSet<Requirement>();
+            m_usesCache = new ConcurrentHashMap<String, List<String>>();
             m_dynamicHost = dynamicHost;
             m_dynamicReq = dynamicReq;
             m_dynamicCandidates = dynamicCandidates;
@@ -119,6 +144,56 @@ public class ResolverImpl implements Resolver
             }
         }
 
+        private ResolveSession(ResolveSession parent)
+        {
+            // A speculative session checks a single permutation on its own
+            // thread; it only collects the permutations to try next, which
+            // its parent merges once it knows whether they are needed.
+            m_resolveContext = parent.m_resolveContext;
+            m_executor = new DumbExecutor();
+            m_parent = parent;
+            m_report = parent.m_report;
+            m_timeout = parent.m_timeout;
+            m_deadline = parent.m_deadline;
+            m_sub_mutated = new HashSet<Requirement>(parent.m_sub_mutated);
+            m_usesCache = parent.m_usesCache;
+            m_dynamicHost = parent.m_dynamicHost;
+            m_dynamicReq = parent.m_dynamicReq;
+            m_dynamicCandidates = parent.m_dynamicCandidates;
+            m_mandatoryResources = parent.m_mandatoryResources;
+            m_optionalResources = parent.m_optionalResources;
+            m_validRelatedResources = parent.m_validRelatedResources;
+            m_relatedResources = parent.m_relatedResources;
+        }
+
+        ResolveSession createSpeculativeSession()
+        {
+            return new ResolveSession(this);
+        }
+
+        /**
+         * Adds the permutations a failed speculative session came up with
+         * in front of the pending permutations, as if its permutation had
+         * been checked by this session.
+         */
+        void mergePermutations(ResolveSession speculative)
+        {
+            m_usesPermutations.addAll(0, speculative.m_usesPermutations);
+            m_importPermutations.addAll(0, speculative.m_importPermutations);
+            m_substPermutations.addAll(0, speculative.m_substPermutations);
+            m_sub_mutated.addAll(speculative.m_sub_mutated);
+        }
+
+        void setMultipleCardCandidates(Candidates candidates)
+        {
+            m_multipleCardCandidates = candidates;
+        }
+
+        ResolutionReport getReport()
+        {
+            return m_report;
+        }
+
         private void initMandatoryAndOptionalResources() {
             if (!isDynamic()) {
                 m_mandatoryResources.addAll(getContext().getMandatoryResources());
@@ -225,6 +300,16 @@ public class ResolverImpl implements Resolver
             return next;
         }
 
+        List<Candidates> getNextPermutations(int max) {
+            List<Candidates> next = new ArrayList<Candidates>(max);
+            Candidates permutation;
+            while ((next.size() < max) && ((permutation = getNextPermutation()) != null))
+            {
+                next.add(permutation);
+            }
+            return next;
+        }
+
         void clearPermutations() {
             m_usesPermutations.clear();
             m_importPermutations.clear();
@@ -338,11 +423,23 @@ public class ResolverImpl implements Resolver
         }
 
         boolean isCancelled() {
+            if (m_parent != null) {
+                return (m_isCancelled != null) || m_parent.isCancelled();
+            }
+            if ((m_isCancelled == null) && (m_deadline != 0) && (System.nanoTime() - m_deadline > 0)) {
+                m_report.timedOut();
+                m_isCancelled = new CancellationException(
+                    "Resolver operation did not complete within " + m_timeout + " ms.");
+            }
             return m_isCancelled != null;
         }
 
         void checkForCancel() throws ResolutionException {
             if (isCancelled()) {
+                if (m_report.isTimedOut()) {
+                    throw new ResolutionException(m_isCancelled.getMessage()
+                        + " Resolved " + m_report, m_isCancelled, null);
+                }
                 throw new ResolutionException("Resolver operation has been cancelled.", m_isCancelled, null);
             }
         }
@@ -354,17 +451,61 @@ public class ResolverImpl implements Resolver
     }
 
     public ResolverImpl(Logger logger, int parallelism)
+    {
+        this(logger, parallelism, 1);
+    }
+
+    public ResolverImpl(Logger logger, Executor executor)
+    {
+        this(logger, executor, 1);
+    }
+
+    /**
+     * Creates a resolver which checks up to <tt>permutationParallelism</tt>
+     * candidate permutations concurrently once the initial candidates turn
+     * out to be inconsistent.
+     *
+     * @see #ResolverImpl(Logger, Executor, int)
+     */
+    public ResolverImpl(Logger logger, int parallelism, int permutationParallelism)
     {
         this.m_logger = logger;
         this.m_parallelism = parallelism;
         this.m_executor = null;
+        this.m_permutationParallelism = Math.max(1, permutationParallelism);
+        this.m_timeout = 0;
     }
 
-    public ResolverImpl(Logger logger, Executor executor)
+    /**
+     * Creates a resolver which checks up to <tt>permutationParallelism</tt>
+     * candidate permutations concurrently on the given executor once the
+     * initial candidates turn out to be inconsistent. Of the permutations
+     * checked together, the first consistent one in the order they would
+     * have been checked one at a time is used, so the result does not
+     * depend on thread timing. It may differ from the result of checking
+     * one permutation at a time, since later permutations are checked
+     * before the permutations derived from earlier ones.
+     */
+    public ResolverImpl(Logger logger, Executor executor, int permutationParallelism)
+    {
+        this(logger, executor, permutationParallelism, 0);
+    }
+
+    /**
+     * Creates a resolver as {@link #ResolverImpl(Logger, Executor, int)}
+     * does, which aborts resolve operations taking longer than
+     * <tt>timeout</tt> milliseconds with a {@link ResolutionException}
+     * describing the work done so far. A timeout of 0 never aborts. The
+     * budget is checked between candidate permutations and between the
+     * consistency checks of resources.
+     */
+    public ResolverImpl(Logger logger, Executor executor, int permutationParallelism, long timeout)
     {
         this.m_logger = logger;
         this.m_parallelism = -1;
         this.m_executor = executor;
+        this.m_permutationParallelism = Math.max(1, permutationParallelism);
+        this.m_timeout = Math.max(0, timeout);
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
@@ -416,11 +557,24 @@ public class ResolverImpl implements Resolver
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc, Executor executor) throws ResolutionException
     {
-        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null);
+        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null, m_timeout);
         return doResolve(session);
     }
 
     private Map<Resource, List<Wire>> doResolve(ResolveSession session) throws ResolutionException {
+        try
+        {
+            return doResolveWithReport(session);
+        }
+        finally
+        {
+            session.getReport().finish();
+            m_logger.logResolutionReport(session.getReport());
+        }
+    }
+
+    private Map<Resource, List<Wire>> doResolveWithReport(ResolveSession session) throws ResolutionException {
+        pruneCachedPackages(session);
         Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>();
         boolean retry;
         do
@@ -551,25 +705,34 @@ public class ResolverImpl implements Resolver
         else
         {
             // Record the initial candidate permutation.
+            session.getReport().setCandidates(
+                initialCandidates.getNbResources(), initialCandidates.getNbCandidates());
             session.addPermutation(PermutationType.USES, initialCandidates);
         }
     }
 
     private Candidates findValidCandidates(ResolveSession session, Map<Resource, ResolutionError> faultyResources) {
         Candidates allCandidates = null;
-        boolean foundFaultyResources = false;
         do
         {
-            allCandidates = session.getNextPermutation();
-            if (allCandidates == null)
+            List<Candidates> permutations = session.getNextPermutations(m_permutationParallelism);
+            if (permutations.isEmpty())
             {
+                allCandidates = null;
                 break;
             }
+            if (permutations.size() > 1)
+            {
+                allCandidates = checkConsistencyConcurrently(session, permutations, faultyResources);
+                continue;
+            }
+            allCandidates = permutations.get(0);
 
 //allCandidates.dump();
 
             Map<Resource, ResolutionError> currentFaultyResources = new HashMap<Resource, ResolutionError>();
 
+            long t0 = System.nanoTime();
             session.setCurrentError(
                     checkConsistency(
                             session,
@@ -577,25 +740,111 @@ public class ResolverImpl implements Resolver
                             currentFaultyResources
                     )
             );
+            session.getReport().permutationChecked(System.nanoTime() - t0);
+
+            addFaultyResources(faultyResources, currentFaultyResources);
+        }
+        while (!session.isCancelled() && session.getCurrentError() != null);
+
+        return allCandidates;
+    }
 
-            if (!currentFaultyResources.isEmpty())
+    private static void addFaultyResources(
+        Map<Resource, ResolutionError> faultyResources,
+        Map<Resource, ResolutionError> currentFaultyResources)
+    {
+        // save the optimal faultyResources which has less
+        if (!currentFaultyResources.isEmpty()
+            && (faultyResources.isEmpty() || (faultyResources.size() > currentFaultyResources.size())))
+        {
+            faultyResources.clear();
+            faultyResources.putAll(currentFaultyResources);
+        }
+    }
+
+    /**
+     * Checks the given permutations concurrently, each in a speculative
+     * session of its own. The first consistent permutation in list order
+     * wins and the check of any later permutation still running is
+     * cancelled. If none is consistent, the results are applied in list
+     * order as if the permutations had been checked one at a time.
+     *
+     * @return the first consistent permutation or the last permutation
+     *         checked if none is consistent.
+     */
+    private Candidates checkConsistencyConcurrently(
+        final ResolveSession session,
+        final List<Candidates> permutations,
+        Map<Resource, ResolutionError> faultyResources)
+    {
+        final int size = permutations.size();
+        final ResolveSession[] sessions = new ResolveSession[size];
+        final ResolutionError[] errors = new ResolutionError[size];
+        final List<Map<Resource, ResolutionError>> allFaultyResources =
+            new ArrayList<Map<Resource, ResolutionError>>(size);
+        final long[] nanos = new long[size];
+        final AtomicInteger winner = new AtomicInteger(size);
+        for (int i = 0; i < size; i++)
+        {
+            sessions[i] = session.createSpeculativeSession();
+            allFaultyResources.add(new HashMap<Resource, ResolutionError>());
+        }
+
+        EnhancedExecutor executor = new EnhancedExecutor(session.getExecutor());
+        for (int i = 0; i < size; i++)
+        {
+            final int index = i;
+            executor.execute(new Runnable()
             {
-                if (!foundFaultyResources)
-                {
-                    foundFaultyResources = true;
-                    faultyResources.putAll(currentFaultyResources);
-                }
-                else if (faultyResources.size() > currentFaultyResources.size())
+                public void run()
                 {
-                    // save the optimal faultyResources which has less
-                    faultyResources.clear();
-                    faultyResources.putAll(currentFaultyResources);
+                    if (index > winner.get())
+                    {
+                        return;
+                    }
+                    long t0 = System.nanoTime();
+                    errors[index] = checkConsistency(
+                        sessions[index], permutations.get(index), allFaultyResources.get(index));
+                    nanos[index] = System.nanoTime() - t0;
+                    if ((errors[index] == null) && !sessions[index].isCancelled())
+                    {
+                        // No later permutation can win anymore.
+                        int current;
+                        while ((current = winner.get()) > index
+                            && !winner.compareAndSet(current, index))
+                        {
+                        }
+                        for (int j = index + 1; j < size; j++)
+                        {
+                            sessions[j].run();
+                        }
+                    }
                 }
-            }
+            });
         }
-        while (!session.isCancelled() && session.getCurrentError() != null);
+        executor.await();
 
-        return allCandidates;
+        int last = Math.min(winner.get(), size - 1);
+        for (int i = 0; i <= last; i++)
+        {
+            session.getReport().permutationChecked(nanos[i]);
+            addFaultyResources(faultyResources, allFaultyResources.get(i));
+        }
+        if (winner.get() < size)
+        {
+            session.setCurrentError(null);
+            session.setMultipleCardCandidates(sessions[last].getMultipleCardCandidates());
+        }
+        else
+        {
+            session.setCurrentError(errors[last]);
+            // Merge in reverse so the permutations of earlier ones come first.
+            for (int i = last; i >= 0; i--)
+            {
+                session.mergePermutations(sessions[i]);
+            }
+        }
+        return permutations.get(last);
     }
 
     private ResolutionError checkConsistency(
@@ -603,15 +852,18 @@ public class ResolverImpl implements Resolver
         Candidates allCandidates,
         Map<Resource, ResolutionError> currentFaultyResources)
     {
-        ResolutionError rethrow = allCandidates.checkSubstitutes();
+        ResolutionError rethrow = allCandidates.checkSubstitutes(session);
         if (rethrow != null)
         {
             return rethrow;
         }
         Map<Resource, Resource> allhosts = allCandidates.getRootHosts();
         // Calculate package spaces
+        long t0 = System.nanoTime();
         Map<Resource, Packages> resourcePkgMap =
-            calculatePackageSpaces(session, allCandidates, allhosts.values());
+            calculatePackageSpaces(session, allCandidates, allhosts.values(), m_packagesCache);
+        long t1 = System.nanoTime();
+        session.getReport().packageSpacesCalculated(t1 - t0);
         ResolutionError error = null;
         // Check package consistency
         Map<Resource, Object> resultCache =
@@ -622,6 +874,7 @@ public class ResolverImpl implements Resolver
                     session, entry.getValue(),
                     allCandidates, session.isDynamic(), resourcePkgMap, resultCache);
             if (session.isCancelled()) {
+                session.getReport().consistencyChecked(System.nanoTime() - t1);
                 return null;
             }
             if (rethrow != null)
@@ -642,6 +895,7 @@ public class ResolverImpl implements Resolver
                 error = rethrow;
             }
         }
+        session.getReport().consistencyChecked(System.nanoTime() - t1);
         return error;
     }
 
@@ -667,7 +921,10 @@ public class ResolverImpl implements Resolver
                         "Matching candidate does not provide a package name.");
                 }
             }
-            ResolveSession session = ResolveSession.createSession(context,  new DumbExecutor(), host, dynamicRequirement, matches);
+            // Use the configured executor if there is one; creating a thread
+            // pool per dynamic import would cost more than it saves.
+            Executor executor = (m_executor != null) ? m_executor : new DumbExecutor();
+            ResolveSession session = ResolveSession.createSession(context, executor, host, dynamicRequirement, matches, m_timeout);
             return doResolve(session);
         }
 
@@ -1036,6 +1293,7 @@ public class ResolverImpl implements Resolver
         {
             return;
         }
+        session.getReport().usesMerged();
 
         for (Capability candSourceCap : getPackageSources(mergeCap, resourcePkgMap))
         {
@@ -1125,12 +1383,15 @@ public class ResolverImpl implements Resolver
     private static Map<Resource, Packages> calculatePackageSpaces(
             final ResolveSession session,
             final Candidates allCandidates,
-            Collection<Resource> hosts)
+            Collection<Resource> hosts,
+            final Map<Resource, CachedPackages> packagesCache)
     {
         final EnhancedExecutor executor = new EnhancedExecutor(session.getExecutor());
 
-        // Parallel compute wire candidates
+        // Parallel compute wire candidates, reusing the package spaces
+        // of resolved resources computed by previous resolve operations
         final Map<Resource, List<WireCandidate>> allWireCandidates = new ConcurrentHashMap<Resource, List<WireCandidate>>();
+        final Map<Resource, Packages> cachedPackages = new ConcurrentHashMap<Resource, Packages>();
         {
             final ConcurrentMap<Resource, Runnable> tasks = new ConcurrentHashMap<Resource, Runnable>(allCandidates.getNbResources());
             class Computer implements Runnable
@@ -1142,7 +1403,17 @@ public class ResolverImpl implements Resolver
                 }
                 public void run()
                 {
-                    List<WireCandidate> wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    List<WireCandidate> wireCandidates;
+                    CachedPackages cached = getCachedPackages(session, packagesCache, resource);
+                    if (cached != null)
+                    {
+                        wireCandidates = cached.m_wireCandidates;
+                        cachedPackages.put(resource, cached.m_packages);
+                    }
+                    else
+                    {
+                        wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    }
                     allWireCandidates.put(resource, wireCandidates);
                     for (WireCandidate w : wireCandidates)
                     {
@@ -1166,9 +1437,17 @@ public class ResolverImpl implements Resolver
         }
 
         // Parallel get all exported packages
+        // Cached package spaces are complete and shared with other resolve
+        // operations, so they are never computed into again below
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
         for (final Resource resource : allWireCandidates.keySet())
         {
+            Packages cached = cachedPackages.get(resource);
+            if (cached != null)
+            {
+                allPackages.put(resource, cached);
+                continue;
+            }
             final Packages packages = new Packages(resource);
             allPackages.put(resource, packages);
             executor.execute(new Runnable()
@@ -1185,6 +1464,10 @@ public class ResolverImpl implements Resolver
         // Parallel compute package lists
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (cachedPackages.containsKey(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1203,7 +1486,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (!packages.m_requiredPkgs.isEmpty())
+            if (!packages.m_requiredPkgs.isEmpty() && !cachedPackages.containsKey(resource))
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
             }
@@ -1214,7 +1497,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (packages.m_sources.isEmpty())
+            if (packages.m_sources.isEmpty() && !cachedPackages.containsKey(resource))
             {
                 executor.execute(new Runnable()
                 {
@@ -1228,8 +1511,14 @@ public class ResolverImpl implements Resolver
         executor.await();
 
         // Parallel compute uses
+        // Uses constraints are only merged for resources that are resolving or
+        // dynamically importing, neither of which is ever taken from the cache
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (cachedPackages.containsKey(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1240,9 +1529,68 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        // Remember the package spaces of resolved resources for later use
+        for (Map.Entry<Resource, List<WireCandidate>> entry : allWireCandidates.entrySet())
+        {
+            Resource resource = entry.getKey();
+            if (!cachedPackages.containsKey(resource)
+                && !resource.equals(session.getDynamicHost()))
+            {
+                Wiring wiring = session.getContext().getWirings().get(resource);
+                if (wiring != null)
+                {
+                    packagesCache.put(resource,
+                        new CachedPackages(wiring, entry.getValue(), allPackages.get(resource)));
+                }
+            }
+        }
+
         return allPackages;
     }
 
+    private static CachedPackages getCachedPackages(
+        ResolveSession session, Map<Resource, CachedPackages> packagesCache, Resource resource)
+    {
+        // The dynamic host's package space includes the package being
+        // dynamically imported, so it must always be computed.
+        if (resource.equals(session.getDynamicHost()))
+        {
+            return null;
+        }
+        CachedPackages cached = packagesCache.get(resource);
+        if (cached == null)
+        {
+            return null;
+        }
+        // A refresh replaces the wiring, while a dynamic import adds a wire
+        // to the existing one; either way the cached package space is stale.
+        Wiring wiring = session.getContext().getWirings().get(resource);
+        if ((wiring != cached.m_wiring)
+            || (wiring.getRequiredResourceWires(null).size() != cached.m_wireCandidates.size()))
+        {
+            packagesCache.remove(resource);
+            return null;
+        }
+        return cached;
+    }
+
+    private void pruneCachedPackages(ResolveSession session)
+    {
+        if (m_packagesCache.isEmpty())
+        {
+            return;
+        }
+        Map<Resource, Wiring> wirings = session.getContext().getWirings();
+        for (Iterator<Map.Entry<Resource, CachedPackages>> it = m_packagesCache.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<Resource, CachedPackages> entry = it.next();
+            if (wirings.get(entry.getKey()) != entry.getValue().m_wiring)
+            {
+                it.remove();
+            }
+        }
+    }
+
     private static List<String> parseUses(String s) {
         int nb = 1;
         int l = s.length();
@@ -2147,6 +2495,25 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    /**
+     * The package space of a resolved resource together with the wire
+     * candidates it was computed from. It only depends on the wiring, so
+     * it can be shared by all resolve operations that see the same wiring.
+     */
+    private static class CachedPackages
+    {
+        public final Wiring m_wiring;
+        public final List<WireCandidate> m_wireCandidates;
+        public final Packages m_packages;
+
+        public CachedPackages(Wiring wiring, List<WireCandidate> wireCandidates, Packages packages)
+        {
+            m_wiring = wiring;
+            m_wireCandidates = wireCandidates;
+            m_packages = packages;
+        }
+    }
+
     private static class Blame
     {
         public final Capability m_cap;
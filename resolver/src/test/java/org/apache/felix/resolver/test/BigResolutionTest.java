@@ -38,6 +38,7 @@ import org.apache.felix.resolver.test.util.GenericCapability;
 import org.apache.felix.resolver.test.util.GenericRequirement;
 import org.apache.felix.resolver.test.util.IterativeResolver;
 import org.apache.felix.resolver.test.util.JsonReader;
+import org.apache.felix.resolver.test.util.ResolveContextImpl;
 import org.apache.felix.resolver.test.util.ResourceImpl;
 import org.apache.felix.resolver.test.util.SimpleFilter;
 import org.apache.felix.utils.version.VersionRange;
@@ -45,6 +46,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Version;
+import org.osgi.framework.namespace.PackageNamespace;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
 import org.osgi.resource.Resource;
@@ -118,6 +120,97 @@ public class BigResolutionTest {
         checkResolutions(wiring1, wiring2);
     }
 
+    @Test
+    @Ignore
+    public void testIncrementalResolutionSpeed() throws Exception {
+        // Install a synthetic repository one bundle at a time, resolving each
+        // new bundle against the wirings of all previously resolved ones.
+        int nbBundles = 500;
+        List<ResourceImpl> bundles = new ArrayList<ResourceImpl>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Capability> exports = new ArrayList<Capability>();
+        for (int i = 0; i < nbBundles; i++) {
+            ResourceImpl res = new ResourceImpl("bundle" + i);
+            StringBuilder uses = new StringBuilder();
+            for (int j = i - 1; j > 0 && j > i - 5; j--) {
+                Capability cap = exports.get(j / 2);
+                String pkg = (String) cap.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE);
+                GenericRequirement req = new GenericRequirement(res, PackageNamespace.PACKAGE_NAMESPACE);
+                req.addDirective(PackageNamespace.REQUIREMENT_FILTER_DIRECTIVE, "(" + PackageNamespace.PACKAGE_NAMESPACE + "=" + pkg + ")");
+                res.addRequirement(req);
+                candMap.put(req, Collections.singletonList(cap));
+                uses.append(uses.length() > 0 ? "," : "").append(pkg);
+            }
+            GenericCapability cap = new GenericCapability(res, PackageNamespace.PACKAGE_NAMESPACE);
+            cap.addAttribute(PackageNamespace.PACKAGE_NAMESPACE, "pkg" + i);
+            if (uses.length() > 0) {
+                cap.addDirective(PackageNamespace.CAPABILITY_USES_DIRECTIVE, uses.toString());
+            }
+            res.addCapability(cap);
+            exports.add(cap);
+            bundles.add(res);
+        }
+
+        for (int run = 0; run < 3; run++) {
+            System.out.println("Fresh resolver:       " + String.format("%7.2f", installIncrementally(bundles, candMap, false)) + " ms");
+            System.out.println("Incremental resolver: " + String.format("%7.2f", installIncrementally(bundles, candMap, true)) + " ms");
+        }
+    }
+
+    private double installIncrementally(List<ResourceImpl> bundles, Map<Requirement, List<Capability>> candMap, boolean reuseResolver) throws Exception {
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_INFO), 1);
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Resource, List<Wire>> providedWires = new HashMap<Resource, List<Wire>>();
+        long t0 = System.nanoTime();
+        for (ResourceImpl bundle : bundles) {
+            if (!reuseResolver) {
+                resolver = new ResolverImpl(new Logger(Logger.LOG_INFO), 1);
+            }
+            Map<Resource, List<Wire>> wireMap = resolver.resolve(new ResolveContextImpl(
+                    wirings, candMap, Collections.<Resource>singletonList(bundle), Collections.<Resource>emptyList()));
+            for (Map.Entry<Resource, List<Wire>> entry : wireMap.entrySet()) {
+                providedWires.put(entry.getKey(), new ArrayList<Wire>());
+                for (Wire wire : entry.getValue()) {
+                    providedWires.get(wire.getProvider()).add(wire);
+                }
+                wirings.put(entry.getKey(), new SyntheticWiring(entry.getKey(), entry.getValue(), providedWires));
+            }
+        }
+        return (System.nanoTime() - t0) * 1E-6;
+    }
+
+    private static class SyntheticWiring implements Wiring {
+        private final Resource resource;
+        private final List<Wire> requiredWires;
+        private final Map<Resource, List<Wire>> providedWires;
+
+        SyntheticWiring(Resource resource, List<Wire> requiredWires, Map<Resource, List<Wire>> providedWires) {
+            this.resource = resource;
+            this.requiredWires = requiredWires;
+            this.providedWires = providedWires;
+        }
+
+        public List<Capability> getResourceCapabilities(String namespace) {
+            return resource.getCapabilities(namespace);
+        }
+
+        public List<Requirement> getResourceRequirements(String namespace) {
+            return resource.getRequirements(namespace);
+        }
+
+        public List<Wire> getProvidedResourceWires(String namespace) {
+            return providedWires.get(resource);
+        }
+
+        public List<Wire> getRequiredResourceWires(String namespace) {
+            return requiredWires;
+        }
+
+        public Resource getResource() {
+            return resource;
+        }
+    }
+
     private ResolveContext buildResolutionContext() throws IOException, BundleException {
         Object resolution;
 
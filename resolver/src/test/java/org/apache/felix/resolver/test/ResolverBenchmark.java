@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.ResolverImpl;
+import org.apache.felix.resolver.test.util.PackageCapability;
+import org.apache.felix.resolver.test.util.PackageRequirement;
+import org.apache.felix.resolver.test.util.ResolveContextImpl;
+import org.apache.felix.resolver.test.util.ResourceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.resource.Wiring;
+
+/**
+ * Measures resolving a generated repository of N resources from scratch.
+ * The resources are split into ten layers. The first layer holds API
+ * bundles exporting a package and importing nothing; every other resource
+ * exports a package which uses the two API packages it imports, and
+ * imports a few more packages from lower layers, so the resolver has to
+ * compute and check the package spaces of all resources.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.apache.felix.resolver.test.ResolverBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResolverBenchmark
+{
+    private static final int LAYERS = 10;
+    private static final int IMPORTS = 5;
+    private static final int API_IMPORTS = 2;
+
+    @Param({"100", "1000", "5000"})
+    public int resources;
+
+    private ResolveContextImpl m_context;
+
+    @Setup
+    public void setup()
+    {
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<ResourceImpl> repository = new ArrayList<ResourceImpl>();
+        List<PackageCapability> exports = new ArrayList<PackageCapability>();
+        for (int i = 0; i < resources; i++)
+        {
+            ResourceImpl res = new ResourceImpl("bench.bundle" + i, "osgi.bundle", Version.emptyVersion);
+            PackageCapability cap = new PackageCapability(res, "bench.pkg" + i);
+            cap.addAttribute(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE, new Version(1, 0, 0));
+            res.addCapability(cap);
+            repository.add(res);
+            exports.add(cap);
+        }
+
+        // The first layer holds the API bundles, every other resource
+        // imports two API packages and a few packages of lower layers.
+        int layerSize = resources / LAYERS;
+        Random random = new Random(42);
+        for (int i = layerSize; i < resources; i++)
+        {
+            ResourceImpl res = repository.get(i);
+            int below = (i / layerSize) * layerSize;
+            StringBuilder uses = new StringBuilder();
+            Set<Integer> imported = new HashSet<Integer>();
+            for (int j = 0; j < IMPORTS; j++)
+            {
+                int k = (j < API_IMPORTS)
+                    ? random.nextInt(layerSize)
+                    : layerSize + random.nextInt(Math.max(1, below - layerSize));
+                if ((k >= below) || !imported.add(k))
+                {
+                    continue;
+                }
+                String pkg = "bench.pkg" + k;
+                PackageRequirement req = new PackageRequirement(res, pkg);
+                res.addRequirement(req);
+                candMap.put(req, Collections.<Capability>singletonList(exports.get(k)));
+                if (j < API_IMPORTS)
+                {
+                    uses.append((uses.length() > 0) ? "," : "").append(pkg);
+                }
+            }
+            exports.get(i).addDirective(PackageNamespace.CAPABILITY_USES_DIRECTIVE, uses.toString());
+        }
+
+        m_context = new ResolveContextImpl(
+            Collections.<Resource, Wiring>emptyMap(), candMap,
+            new ArrayList<Resource>(repository), Collections.<Resource>emptyList());
+    }
+
+    @Benchmark
+    public Map<Resource, List<Wire>> resolve() throws Exception
+    {
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_ERROR), 1);
+        return resolver.resolve(m_context);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+            .include(ResolverBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.felix.resolver.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -32,8 +33,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.ResolutionReport;
 import org.apache.felix.resolver.ResolverImpl;
 import org.apache.felix.resolver.test.util.BundleCapability;
 import org.apache.felix.resolver.test.util.BundleRequirement;
@@ -1209,6 +1215,227 @@ public class ResolverTest
         return null;
     }
 
+    @Test
+    public void testIncrementalResolution() throws Exception
+    {
+        Resolver resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG));
+
+        ResourceImpl a1 = new ResourceImpl("A1");
+        Capability a1_pkgCap = addCap(a1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a");
+        ResourceImpl a2 = new ResourceImpl("A2");
+        Capability a2_pkgCap = addCap(a2, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a");
+        ResourceImpl b = new ResourceImpl("B");
+        Capability b_pkgCap = addCap(b, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.b", "org.foo.a");
+        Requirement b_pkgReq = addReq(b, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a");
+
+        Map<Resource, List<Wire>> wires = new HashMap<Resource, List<Wire>>();
+        wires.put(a1, new ArrayList<Wire>());
+        wires.put(a2, new ArrayList<Wire>());
+        wires.put(b, new ArrayList<Wire>());
+        wires.get(b).add(new SimpleWire(b_pkgReq, a1_pkgCap));
+
+        Map<Resource, List<Wire>> invertedWires = new HashMap<Resource, List<Wire>>();
+        invertedWires.put(a1, new ArrayList<Wire>());
+        invertedWires.put(a2, new ArrayList<Wire>());
+        invertedWires.put(b, new ArrayList<Wire>());
+        invertedWires.get(a1).add(new SimpleWire(b_pkgReq, a1_pkgCap));
+
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        wirings.put(a1, new SimpleWiring(a1, Collections.singletonList(a1_pkgCap), wires, invertedWires));
+        wirings.put(a2, new SimpleWiring(a2, Collections.singletonList(a2_pkgCap), wires, invertedWires));
+        wirings.put(b, new SimpleWiring(b, Collections.singletonList(b_pkgCap), wires, invertedWires));
+
+        ResourceImpl c = new ResourceImpl("C");
+        Requirement c_pkgReq1 = addReq(c, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.b");
+        Requirement c_pkgReq2 = addReq(c, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a");
+        ResourceImpl d = new ResourceImpl("D");
+        Requirement d_pkgReq = addReq(d, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.b");
+
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        candMap.put(c_pkgReq1, Collections.singletonList(b_pkgCap));
+        candMap.put(c_pkgReq2, Arrays.asList(a2_pkgCap, a1_pkgCap));
+        candMap.put(d_pkgReq, Collections.singletonList(b_pkgCap));
+
+        // Resolving D computes the package space of the resolved B
+        Map<Resource, List<Wire>> wireMap = resolver.resolve(new ResolveContextImpl(
+            wirings, candMap, Collections.<Resource> singletonList(d), Collections.<Resource> emptyList()));
+        assertEquals(1, wireMap.size());
+
+        // The reused package space of B must still impose its uses constraint on C
+        wireMap = resolver.resolve(new ResolveContextImpl(
+            wirings, candMap, Collections.<Resource> singletonList(c), Collections.<Resource> emptyList()));
+        assertEquals(a1, findProvider(wireMap.get(c), c_pkgReq2));
+
+        // Refreshing B against A2 replaces its wiring and invalidates the package space
+        wires.get(b).clear();
+        wires.get(b).add(new SimpleWire(b_pkgReq, a2_pkgCap));
+        invertedWires.get(a1).clear();
+        invertedWires.get(a2).add(new SimpleWire(b_pkgReq, a2_pkgCap));
+        wirings.put(b, new SimpleWiring(b, Collections.singletonList(b_pkgCap), wires, invertedWires));
+
+        wireMap = resolver.resolve(new ResolveContextImpl(
+            wirings, candMap, Collections.<Resource> singletonList(c), Collections.<Resource> emptyList()));
+        assertEquals(a2, findProvider(wireMap.get(c), c_pkgReq2));
+    }
+
+    @Test
+    public void testConcurrentPermutations() throws Exception
+    {
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        Map<Requirement, Resource> expected = new HashMap<Requirement, Resource>();
+        List<Resource> mandatory = populateUsesConflicts(candMap, expected);
+        ResolveContextImpl rci = new ResolveContextImpl(new HashMap<Resource, Wiring>(),
+            candMap, mandatory, Collections.<Resource> emptyList());
+
+        Map<Resource, List<Wire>> serial =
+            new ResolverImpl(new Logger(Logger.LOG_ERROR), 1).resolve(rci);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            for (int run = 0; run < 10; run++)
+            {
+                Map<Resource, List<Wire>> wireMap =
+                    new ResolverImpl(new Logger(Logger.LOG_ERROR), executor, 4).resolve(rci);
+                assertEquals(serial.keySet(), wireMap.keySet());
+                for (Map.Entry<Requirement, Resource> entry : expected.entrySet())
+                {
+                    Resource c = entry.getKey().getResource();
+                    assertEquals(entry.getValue(), findProvider(serial.get(c), entry.getKey()));
+                    assertEquals(entry.getValue(), findProvider(wireMap.get(c), entry.getKey()));
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResolutionReport() throws Exception
+    {
+        final List<ResolutionReport> reports = new ArrayList<ResolutionReport>();
+        Logger logger = new Logger(Logger.LOG_ERROR)
+        {
+            @Override
+            public void logResolutionReport(ResolutionReport report)
+            {
+                reports.add(report);
+            }
+        };
+
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Resource> mandatory = populateUsesConflicts(candMap, new HashMap<Requirement, Resource>());
+        new ResolverImpl(logger, 1).resolve(new ResolveContextImpl(new HashMap<Resource, Wiring>(),
+            candMap, mandatory, Collections.<Resource> emptyList()));
+
+        assertEquals(1, reports.size());
+        ResolutionReport report = reports.get(0);
+        assertEquals(mandatory.size(), report.getResourceCount());
+        assertEquals(20, report.getCandidateCount());
+        assertTrue(report.getPermutationCount() > 1);
+        assertTrue(report.getUsesMergeCount() > 0);
+        assertFalse(report.isTimedOut());
+        assertTrue(report.getElapsedTime(TimeUnit.NANOSECONDS)
+            >= report.getPackageSpaceTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testResolutionTimeout() throws Exception
+    {
+        final List<ResolutionReport> reports = new ArrayList<ResolutionReport>();
+        Logger logger = new Logger(Logger.LOG_ERROR)
+        {
+            @Override
+            public void logResolutionReport(ResolutionReport report)
+            {
+                reports.add(report);
+            }
+        };
+
+        // Looking up providers is slow enough to exceed the budget before
+        // the consistency of any resource is checked.
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Resource> mandatory = populateUsesConflicts(candMap, new HashMap<Requirement, Resource>());
+        ResolveContextImpl rci = new ResolveContextImpl(new HashMap<Resource, Wiring>(),
+            candMap, mandatory, Collections.<Resource> emptyList())
+        {
+            @Override
+            public List<Capability> findProviders(Requirement r)
+            {
+                try
+                {
+                    Thread.sleep(5);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return super.findProviders(r);
+            }
+        };
+
+        try
+        {
+            new ResolverImpl(logger, new Executor()
+            {
+                public void execute(Runnable command)
+                {
+                    command.run();
+                }
+            }, 1, 10).resolve(rci);
+            fail("The resolve should have timed out");
+        }
+        catch (ResolutionException ex)
+        {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("did not complete within 10 ms"));
+        }
+        assertEquals(1, reports.size());
+        assertTrue(reports.get(0).isTimedOut());
+    }
+
+    // Every consumer prefers a newer API than the implementation it
+    // imports uses, so each needs several permutations to resolve.
+    private static List<Resource> populateUsesConflicts(
+        Map<Requirement, List<Capability>> candMap, Map<Requirement, Resource> expected)
+    {
+        List<Resource> mandatory = new ArrayList<Resource>();
+        for (int i = 0; i < 4; i++)
+        {
+            ResourceImpl api1 = new ResourceImpl("api" + i + ".1");
+            Capability api1_pkgCap = addCap(api1, PackageNamespace.PACKAGE_NAMESPACE, "api" + i);
+            ResourceImpl api2 = new ResourceImpl("api" + i + ".2");
+            Capability api2_pkgCap = addCap(api2, PackageNamespace.PACKAGE_NAMESPACE, "api" + i);
+            ResourceImpl api3 = new ResourceImpl("api" + i + ".3");
+            Capability api3_pkgCap = addCap(api3, PackageNamespace.PACKAGE_NAMESPACE, "api" + i);
+            ResourceImpl impl = new ResourceImpl("impl" + i);
+            Capability impl_pkgCap = addCap(impl, PackageNamespace.PACKAGE_NAMESPACE, "impl" + i, "api" + i);
+            Requirement impl_pkgReq = addReq(impl, PackageNamespace.PACKAGE_NAMESPACE, "api" + i);
+            ResourceImpl c = new ResourceImpl("C" + i);
+            Requirement c_pkgReq1 = addReq(c, PackageNamespace.PACKAGE_NAMESPACE, "api" + i);
+            Requirement c_pkgReq2 = addReq(c, PackageNamespace.PACKAGE_NAMESPACE, "impl" + i);
+
+            candMap.put(impl_pkgReq, Collections.singletonList(api1_pkgCap));
+            candMap.put(c_pkgReq1, Arrays.asList(api3_pkgCap, api2_pkgCap, api1_pkgCap));
+            candMap.put(c_pkgReq2, Collections.singletonList(impl_pkgCap));
+            expected.put(c_pkgReq1, api1);
+            mandatory.addAll(Arrays.<Resource> asList(api1, api2, api3, impl, c));
+        }
+        return mandatory;
+    }
+
+    private static Resource findProvider(List<Wire> wires, Requirement requirement)
+    {
+        for (Wire wire : wires)
+        {
+            if (wire.getRequirement().equals(requirement))
+            {
+                return wire.getProvider();
+            }
+        }
+        return null;
+    }
+
     private static List<Resource> populateScenario1(Map<Resource, Wiring> wirings, Map<Requirement, List<Capability>> candMap)
     {
         ResourceImpl exporter = new ResourceImpl("A");